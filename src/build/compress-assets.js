@@ -0,0 +1,112 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+'use strict';
+
+// Writes gzip and brotli variants alongside each compressible web-client asset, so that the web
+// server can send them as they are rather than compressing on every request.
+// Usage: node compress-assets.js <assets directory>
+
+const fs = require('fs');
+const path = require('path');
+const zlib = require('zlib');
+
+const COMPRESSIBLE = /\.(html|js|css|json|map|svg|txt|xml|ico|ttf|eot)$/;
+// smaller files are not worth the extra request headers and lookups
+const MIN_SIZE = 1024;
+
+function walk(dir, files) {
+  for (const entry of fs.readdirSync(dir, { withFileTypes: true })) {
+    const file = path.join(dir, entry.name);
+    if (entry.isDirectory()) {
+      walk(file, files);
+    } else if (COMPRESSIBLE.test(entry.name)) {
+      files.push(file);
+    }
+  }
+  return files;
+}
+
+function writeIfSmaller(file, original, compressed) {
+  if (compressed.length < original.length) {
+    fs.writeFileSync(file, compressed);
+    return compressed.length;
+  }
+  return original.length;
+}
+
+const root = process.argv[2];
+if (!root || !fs.existsSync(root)) {
+  console.log(`No web-client assets found at ${root}, nothing to compress`);
+  process.exit(0);
+}
+
+let count = 0;
+let originalBytes = 0;
+let gzipBytes = 0;
+let brotliBytes = 0;
+for (const file of walk(root, [])) {
+  const original = fs.readFileSync(file);
+  if (original.length < MIN_SIZE) {
+    continue;
+  }
+  count++;
+  originalBytes += original.length;
+  gzipBytes += writeIfSmaller(
+    `${file}.gz`,
+    original,
+    zlib.gzipSync(original, { level: zlib.constants.Z_BEST_COMPRESSION })
+  );
+  brotliBytes += writeIfSmaller(
+    `${file}.br`,
+    original,
+    zlib.brotliCompressSync(original, {
+      params: {
+        [zlib.constants.BROTLI_PARAM_QUALITY]: zlib.constants.BROTLI_MAX_QUALITY,
+        [zlib.constants.BROTLI_PARAM_SIZE_HINT]: original.length,
+      },
+    })
+  );
+}
+console.log(
+  `Compressed ${count} web-client assets: ${originalBytes} bytes, ` +
+    `${gzipBytes} gzip, ${brotliBytes} brotli`
+);
@@ -48,6 +48,8 @@ import javax.inject.Singleton;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.redhat.rhjmc.containerjfr.archive.ArchiveRetentionService;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveWatcher;
 import com.redhat.rhjmc.containerjfr.core.ContainerJfrCore;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
@@ -111,6 +113,8 @@ class ContainerJfr {
         client.httpServer().start();
         client.webServer().start();
         client.messagingServer().start();
+        client.archiveRetentionService().start();
+        client.archiveWatcher().start();
 
         client.commandExecutor().run(clientArgs);
     }
@@ -126,6 +130,10 @@ class ContainerJfr {
 
         MessagingServer messagingServer();
 
+        ArchiveRetentionService archiveRetentionService();
+
+        ArchiveWatcher archiveWatcher();
+
         @Component.Builder
         interface Builder {
             @BindsInstance
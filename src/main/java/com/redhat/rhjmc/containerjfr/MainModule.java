@@ -51,9 +51,12 @@ import javax.management.remote.JMXServiceURL;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import com.redhat.rhjmc.containerjfr.archive.ArchiveModule;
 import com.redhat.rhjmc.containerjfr.commands.CommandsModule;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+import com.redhat.rhjmc.containerjfr.jobs.JobsModule;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsModule;
 import com.redhat.rhjmc.containerjfr.net.web.WebModule;
 import com.redhat.rhjmc.containerjfr.platform.PlatformModule;
 import com.redhat.rhjmc.containerjfr.sys.SystemModule;
@@ -73,6 +76,9 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
             CommandsModule.class,
             TuiModule.class,
             TemplatesModule.class,
+            ArchiveModule.class,
+            JobsModule.class,
+            MetricsModule.class,
         })
 public abstract class MainModule {
     public static final String RECORDINGS_PATH = "RECORDINGS_PATH";
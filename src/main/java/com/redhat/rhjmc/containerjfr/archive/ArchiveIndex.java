@@ -0,0 +1,500 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+
+/**
+ * In-memory index of archived recording metadata, persisted as a JSON file within the archive
+ * storage. The persisted copy is only a cache: on load it is reconciled against the storage
+ * contents, and any file whose size or modification time differs from its indexed entry is re-read.
+ *
+ * <p>Entries are additionally kept in sorted maps by name, archival time and size (and by time per
+ * target), so that {@link #query(ArchiveQuery)} can walk entries in the requested order starting
+ * from a cursor position rather than filtering and sorting the whole archive for each request.
+ */
+public class ArchiveIndex {
+
+    static final String INDEX_FILE_NAME = ".container-jfr-archive-index.json";
+    static final long PERSIST_DELAY_MS = 1_000;
+
+    private static final Type ENTRIES_TYPE =
+            new TypeToken<List<ArchivedRecordingInfo>>() {}.getType();
+
+    private final ArchiveStorage storage;
+    private final Gson gson;
+    private final ScheduledExecutorService persistExecutor;
+    private final Logger logger;
+    private final Map<String, ArchivedRecordingInfo> entries = new ConcurrentHashMap<>();
+    private final NavigableMap<IndexKey, ArchivedRecordingInfo> byName =
+            new ConcurrentSkipListMap<>();
+    private final NavigableMap<IndexKey, ArchivedRecordingInfo> byTime =
+            new ConcurrentSkipListMap<>();
+    private final NavigableMap<IndexKey, ArchivedRecordingInfo> bySize =
+            new ConcurrentSkipListMap<>();
+    private final Map<String, NavigableMap<IndexKey, ArchivedRecordingInfo>> byTargetTime =
+            new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final Map<String, Long> targetBytes = new ConcurrentHashMap<>();
+    private final AtomicBoolean persistScheduled = new AtomicBoolean(false);
+
+    ArchiveIndex(
+            ArchiveStorage storage,
+            Gson gson,
+            ScheduledExecutorService persistExecutor,
+            Logger logger) {
+        this.storage = storage;
+        this.gson = gson;
+        this.persistExecutor = persistExecutor;
+        this.logger = logger;
+    }
+
+    public synchronized void load() throws IOException {
+        clear();
+        if (!storage.isAvailable()) {
+            return;
+        }
+        try (Reader reader =
+                new InputStreamReader(storage.read(INDEX_FILE_NAME), StandardCharsets.UTF_8)) {
+            List<ArchivedRecordingInfo> persisted = gson.fromJson(reader, ENTRIES_TYPE);
+            if (persisted != null) {
+                persisted.forEach(this::put);
+            }
+        } catch (NoSuchFileException e) {
+            // not persisted yet
+        } catch (IOException | JsonParseException e) {
+            logger.warn("Archive index could not be read and will be rebuilt");
+            logger.warn(e);
+            clear();
+        }
+        reconcile();
+        logger.info(String.format("Archive index loaded with %d entries", entries.size()));
+    }
+
+    /**
+     * Bring the index in line with the current contents of the archive storage.
+     *
+     * @return names of previously indexed recordings which have since changed or been removed
+     */
+    public synchronized Set<String> reconcile() throws IOException {
+        if (!storage.isAvailable()) {
+            return Set.of();
+        }
+        Set<String> present = new HashSet<>();
+        Set<String> stale = new HashSet<>();
+        boolean changed = false;
+        for (StoredRecording recording : storage.list()) {
+            String name = recording.getName();
+            present.add(name);
+            ArchivedRecordingInfo existing = entries.get(name);
+            if (existing != null
+                    && existing.getSize() == recording.getSize()
+                    && existing.getLastModified() == recording.getLastModified()) {
+                continue;
+            }
+            if (existing != null) {
+                stale.add(name);
+            }
+            put(describe(storage, recording));
+            changed = true;
+        }
+        for (String name : new ArrayList<>(entries.keySet())) {
+            if (!present.contains(name)) {
+                removeEntry(name);
+                stale.add(name);
+                changed = true;
+            }
+        }
+        if (changed) {
+            schedulePersist();
+        }
+        return stale;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /** @return the total size in bytes of all indexed recordings */
+    public long getTotalSize() {
+        return totalBytes.get();
+    }
+
+    /** @return the total size in bytes of indexed recordings of the given target */
+    public long getTotalSize(String targetName) {
+        return targetBytes.getOrDefault(targetName, 0L);
+    }
+
+    /** @return all entries, ordered by name */
+    public List<ArchivedRecordingInfo> list() {
+        return new ArrayList<>(byName.values());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the query's limit is not positive, or its cursor is
+     *     malformed or was issued for a different sort order
+     */
+    public ArchivePage query(ArchiveQuery query) {
+        if (query.getLimit() != null && query.getLimit() < 1) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        NavigableMap<IndexKey, ArchivedRecordingInfo> view;
+        switch (query.getSort()) {
+            case TIME:
+                view =
+                        query.getTargetName() == null
+                                ? byTime
+                                : byTargetTime.getOrDefault(
+                                        query.getTargetName(), new ConcurrentSkipListMap<>());
+                if (query.getFrom() != null) {
+                    view = view.tailMap(IndexKey.lowest(query.getFrom()), true);
+                }
+                if (query.getTo() != null && query.getTo() < Long.MAX_VALUE) {
+                    view = view.headMap(IndexKey.lowest(query.getTo() + 1), false);
+                }
+                break;
+            case SIZE:
+                view = bySize;
+                if (query.getMinSize() != null) {
+                    view = view.tailMap(IndexKey.lowest(query.getMinSize()), true);
+                }
+                break;
+            case NAME:
+            default:
+                view = byName;
+                break;
+        }
+        if (query.isDescending()) {
+            view = view.descendingMap();
+        }
+        if (query.getCursor() != null) {
+            view = view.tailMap(IndexKey.decodeCursor(query.getSort(), query.getCursor()), false);
+        }
+
+        int limit = query.getLimit() == null ? Integer.MAX_VALUE : query.getLimit();
+        List<ArchivedRecordingInfo> results = new ArrayList<>();
+        String nextCursor = null;
+        for (Map.Entry<IndexKey, ArchivedRecordingInfo> entry : view.entrySet()) {
+            if (!matches(query, entry.getValue())) {
+                continue;
+            }
+            if (results.size() == limit) {
+                nextCursor =
+                        keyFor(query.getSort(), results.get(results.size() - 1))
+                                .encodeCursor(query.getSort());
+                break;
+            }
+            results.add(entry.getValue());
+        }
+        return new ArchivePage(results, nextCursor);
+    }
+
+    public Optional<ArchivedRecordingInfo> get(String name) {
+        return Optional.ofNullable(entries.get(name));
+    }
+
+    /**
+     * As {@link #get(String)}, but also indexes the named recording if it is in the archive storage
+     * without having been indexed yet.
+     *
+     * @throws NoSuchFileException if the recording is not in the archive
+     */
+    public ArchivedRecordingInfo find(String name) throws IOException {
+        Optional<ArchivedRecordingInfo> info = get(name);
+        if (info.isPresent()) {
+            return info.get();
+        }
+        try {
+            return index(name);
+        } catch (IllegalArgumentException e) {
+            throw new NoSuchFileException(name);
+        }
+    }
+
+    /**
+     * (Re-)read metadata for the named recording in the archive storage and update the index.
+     *
+     * @throws NoSuchFileException if the recording is not in the archive
+     */
+    public ArchivedRecordingInfo index(String name) throws IOException {
+        StoredRecording recording =
+                storage.stat(name).orElseThrow(() -> new NoSuchFileException(name));
+        ArchivedRecordingInfo info = describe(storage, recording);
+        put(info);
+        schedulePersist();
+        return info;
+    }
+
+    public Optional<ArchivedRecordingInfo> remove(String name) {
+        Optional<ArchivedRecordingInfo> removed = removeEntry(name);
+        if (removed.isPresent()) {
+            schedulePersist();
+        }
+        return removed;
+    }
+
+    private synchronized void put(ArchivedRecordingInfo info) {
+        removeEntry(info.getName());
+        entries.put(info.getName(), info);
+        byName.put(keyFor(ArchiveQuery.Sort.NAME, info), info);
+        byTime.put(keyFor(ArchiveQuery.Sort.TIME, info), info);
+        bySize.put(keyFor(ArchiveQuery.Sort.SIZE, info), info);
+        totalBytes.addAndGet(info.getSize());
+        if (info.getTargetName() != null) {
+            targetBytes.merge(info.getTargetName(), info.getSize(), Long::sum);
+            byTargetTime
+                    .computeIfAbsent(info.getTargetName(), k -> new ConcurrentSkipListMap<>())
+                    .put(keyFor(ArchiveQuery.Sort.TIME, info), info);
+        }
+    }
+
+    private synchronized Optional<ArchivedRecordingInfo> removeEntry(String name) {
+        ArchivedRecordingInfo info = entries.remove(name);
+        if (info == null) {
+            return Optional.empty();
+        }
+        byName.remove(keyFor(ArchiveQuery.Sort.NAME, info));
+        byTime.remove(keyFor(ArchiveQuery.Sort.TIME, info));
+        bySize.remove(keyFor(ArchiveQuery.Sort.SIZE, info));
+        totalBytes.addAndGet(-info.getSize());
+        if (info.getTargetName() != null) {
+            targetBytes.computeIfPresent(
+                    info.getTargetName(),
+                    (k, v) -> v - info.getSize() > 0 ? v - info.getSize() : null);
+            NavigableMap<IndexKey, ArchivedRecordingInfo> target =
+                    byTargetTime.get(info.getTargetName());
+            if (target != null) {
+                target.remove(keyFor(ArchiveQuery.Sort.TIME, info));
+                if (target.isEmpty()) {
+                    byTargetTime.remove(info.getTargetName());
+                }
+            }
+        }
+        return Optional.of(info);
+    }
+
+    private synchronized void clear() {
+        entries.clear();
+        byName.clear();
+        byTime.clear();
+        bySize.clear();
+        byTargetTime.clear();
+        totalBytes.set(0);
+        targetBytes.clear();
+    }
+
+    private static boolean matches(ArchiveQuery query, ArchivedRecordingInfo info) {
+        if (query.getTargetName() != null && !query.getTargetName().equals(info.getTargetName())) {
+            return false;
+        }
+        if (query.getRecordingName() != null
+                && !query.getRecordingName().equals(info.getRecordingName())) {
+            return false;
+        }
+        long time = timeOf(info);
+        if (query.getFrom() != null && time < query.getFrom()) {
+            return false;
+        }
+        if (query.getTo() != null && time > query.getTo()) {
+            return false;
+        }
+        if (query.getMinSize() != null && info.getSize() < query.getMinSize()) {
+            return false;
+        }
+        return true;
+    }
+
+    /** Archival time from the file name, or the file modification time if not available. */
+    static long timeOf(ArchivedRecordingInfo info) {
+        return info.getArchivedTime() != null ? info.getArchivedTime() : info.getLastModified();
+    }
+
+    private static IndexKey keyFor(ArchiveQuery.Sort sort, ArchivedRecordingInfo info) {
+        switch (sort) {
+            case TIME:
+                return new IndexKey(timeOf(info), info.getName());
+            case SIZE:
+                return new IndexKey(info.getSize(), info.getName());
+            case NAME:
+            default:
+                return new IndexKey(0, info.getName());
+        }
+    }
+
+    static ArchivedRecordingInfo describe(ArchiveStorage storage, StoredRecording recording)
+            throws IOException {
+        List<JfrChunkHeader> chunks =
+                storage.readChunkHeaders(recording.getName(), recording.getSize());
+        Long startTime = null;
+        Long endTime = null;
+        if (!chunks.isEmpty()) {
+            startTime =
+                    TimeUnit.NANOSECONDS.toMillis(
+                            chunks.stream()
+                                    .mapToLong(JfrChunkHeader::getStartNanos)
+                                    .min()
+                                    .getAsLong());
+            endTime =
+                    TimeUnit.NANOSECONDS.toMillis(
+                            chunks.stream()
+                                    .mapToLong(JfrChunkHeader::getEndNanos)
+                                    .max()
+                                    .getAsLong());
+        }
+        return new ArchivedRecordingInfo(
+                recording.getName(),
+                recording.getSize(),
+                recording.getLastModified(),
+                chunks.size(),
+                startTime,
+                endTime);
+    }
+
+    private void schedulePersist() {
+        if (persistScheduled.compareAndSet(false, true)) {
+            persistExecutor.schedule(this::persist, PERSIST_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void persist() {
+        persistScheduled.set(false);
+        if (!storage.isAvailable()) {
+            return;
+        }
+        try {
+            storage.write(
+                    INDEX_FILE_NAME,
+                    new ByteArrayInputStream(
+                            gson.toJson(list(), ENTRIES_TYPE).getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            logger.warn("Archive index could not be persisted");
+            logger.warn(e);
+        }
+    }
+
+    static final class IndexKey implements Comparable<IndexKey> {
+        private final long value;
+        private final String name;
+
+        IndexKey(long value, String name) {
+            this.value = value;
+            this.name = name;
+        }
+
+        /** @return a key ordered before every real key with the given value */
+        static IndexKey lowest(long value) {
+            return new IndexKey(value, "");
+        }
+
+        String encodeCursor(ArchiveQuery.Sort sort) {
+            String raw = String.format("%s:%d:%s", sort.name(), value, name);
+            return Base64.getUrlEncoder()
+                    .withoutPadding()
+                    .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static IndexKey decodeCursor(ArchiveQuery.Sort sort, String cursor) {
+            String raw;
+            try {
+                raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Malformed cursor", e);
+            }
+            String[] parts = raw.split(":", 3);
+            if (parts.length != 3 || !sort.name().equals(parts[0])) {
+                throw new IllegalArgumentException("Cursor does not match query sort order");
+            }
+            try {
+                return new IndexKey(Long.parseLong(parts[1]), parts[2]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed cursor", e);
+            }
+        }
+
+        @Override
+        public int compareTo(IndexKey other) {
+            int c = Long.compare(value, other.value);
+            return c != 0 ? c : name.compareTo(other.name);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof IndexKey)) {
+                return false;
+            }
+            IndexKey other = (IndexKey) o;
+            return value == other.value && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(value, name);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+
+/**
+ * Maps archived recording names to file locations. Recording names stay flat and unique across the
+ * whole archive regardless of layout; only their location on disk changes.
+ */
+public class ArchiveLayout {
+
+    static final String LAYOUT_ENV = "CONTAINER_JFR_ARCHIVE_LAYOUT";
+    static final int HASH_BUCKETS = 256;
+
+    public enum Strategy {
+        /** all recordings directly within the archive directory */
+        FLAT,
+        /** one subdirectory per target */
+        TARGET,
+        /** a fixed number of subdirectories, chosen by hashing the recording name */
+        HASHED,
+        ;
+    }
+
+    private final Path root;
+    private final Strategy strategy;
+    private final FileSystem fs;
+    private final Logger logger;
+
+    ArchiveLayout(Path root, Strategy strategy, FileSystem fs, Logger logger) {
+        this.root = root;
+        this.strategy = strategy;
+        this.fs = fs;
+        this.logger = logger;
+    }
+
+    static Strategy strategyFromEnvironment(Environment env, Logger logger) {
+        String value = env.getEnv(LAYOUT_ENV, Strategy.FLAT.name()).trim();
+        try {
+            return Strategy.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn(String.format("Unknown %s \"%s\", using FLAT", LAYOUT_ENV, value));
+            return Strategy.FLAT;
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /** @throws IllegalArgumentException if the name is not a plain file name */
+    public Path resolve(String name) {
+        Path dir = directoryFor(name);
+        Path path = dir.resolve(name).normalize();
+        if (name.isEmpty() || !dir.equals(path.getParent())) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid recording name \"%s\"", name));
+        }
+        return path;
+    }
+
+    /** As {@link #resolve(String)}, creating the containing directory if necessary. */
+    public Path resolveForWrite(String name) throws IOException {
+        Path path = resolve(name);
+        if (!path.getParent().equals(root)) {
+            Files.createDirectories(path.getParent());
+        }
+        return path;
+    }
+
+    /**
+     * @return locations of all recordings in the archive directory or one level of subdirectories
+     *     below it, keyed and ordered by name. If the same name exists in more than one place, the
+     *     location matching this layout is preferred.
+     */
+    public Map<String, Path> listRecordings() throws IOException {
+        Map<String, Path> recordings = new TreeMap<>();
+        if (!fs.isDirectory(root)) {
+            return recordings;
+        }
+        for (String child : fs.listDirectoryChildren(root)) {
+            if (!isArchivedFileName(child)) {
+                continue;
+            }
+            Path path = root.resolve(child);
+            if (fs.isRegularFile(path)) {
+                add(recordings, child, path);
+            } else if (fs.isDirectory(path)) {
+                for (String name : fs.listDirectoryChildren(path)) {
+                    Path nested = path.resolve(name);
+                    if (isArchivedFileName(name) && fs.isRegularFile(nested)) {
+                        add(recordings, name, nested);
+                    }
+                }
+            }
+        }
+        return recordings;
+    }
+
+    /**
+     * Move any recordings that are not where this layout expects them, for example after the layout
+     * has been changed.
+     *
+     * @return the number of recordings moved
+     */
+    public int migrate() throws IOException {
+        int moved = 0;
+        Set<Path> vacated = new HashSet<>();
+        for (Map.Entry<String, Path> entry : listRecordings().entrySet()) {
+            Path current = entry.getValue();
+            Path expected = resolveForWrite(entry.getKey());
+            if (current.equals(expected)) {
+                continue;
+            }
+            if (fs.exists(expected)) {
+                logger.warn(
+                        String.format(
+                                "Cannot move %s to %s, destination exists", current, expected));
+                continue;
+            }
+            try {
+                Files.move(current, expected, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(current, expected);
+            }
+            vacated.add(current.getParent());
+            moved++;
+        }
+        vacated.remove(root);
+        for (Path dir : vacated) {
+            try {
+                fs.deleteIfExists(dir);
+            } catch (DirectoryNotEmptyException e) {
+                // still in use by this layout, or holds something other than recordings
+            }
+        }
+        if (moved > 0) {
+            logger.info(
+                    String.format("Moved %d archived recordings to %s layout", moved, strategy));
+        }
+        return moved;
+    }
+
+    private void add(Map<String, Path> recordings, String name, Path path) {
+        Path existing = recordings.get(name);
+        if (existing == null || !existing.equals(resolve(name))) {
+            recordings.put(name, path);
+        }
+    }
+
+    private Path directoryFor(String name) {
+        switch (strategy) {
+            case TARGET:
+                String basename =
+                        name.endsWith(".jfr") ? name.substring(0, name.length() - 4) : name;
+                Matcher m = ArchivedRecordingInfo.RECORDING_FILENAME_PATTERN.matcher(basename);
+                if (m.matches() && !m.group(1).isEmpty()) {
+                    return root.resolve(m.group(1));
+                }
+                return root;
+            case HASHED:
+                return root.resolve(
+                        String.format("%02x", Math.floorMod(name.hashCode(), HASH_BUCKETS)));
+            case FLAT:
+            default:
+                return root;
+        }
+    }
+
+    static boolean isArchivedFileName(String name) {
+        return !name.startsWith(".");
+    }
+}
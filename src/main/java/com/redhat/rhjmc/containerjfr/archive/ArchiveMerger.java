@@ -0,0 +1,236 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Combines archived recordings of a single target into one recording. JFR files are sequences of
+ * self-contained chunks, so this only needs to concatenate the complete chunks of each source in
+ * time order. Data is copied between channels with {@link FileChannel#transferTo}, without parsing
+ * events or buffering recording data on the heap, where the archive storage is local; otherwise it
+ * is streamed from storage. The result can be written to a file or streamed directly to a client.
+ */
+public class ArchiveMerger {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ArchiveStorage storage;
+    private final ArchiveIndex archiveIndex;
+
+    ArchiveMerger(ArchiveStorage storage, ArchiveIndex archiveIndex) {
+        this.storage = storage;
+        this.archiveIndex = archiveIndex;
+    }
+
+    /**
+     * Look up the named archived recordings and order them for merging.
+     *
+     * @throws NoSuchFileException if any named recording is not in the archive
+     * @throws IllegalArgumentException if the recordings cannot be merged, ex. because they belong
+     *     to different targets or contain no complete chunks
+     */
+    public List<ArchivedRecordingInfo> plan(List<String> names) throws IOException {
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("No recordings to merge");
+        }
+        Set<String> seen = new HashSet<>();
+        List<ArchivedRecordingInfo> sources = new ArrayList<>();
+        for (String name : names) {
+            if (!seen.add(name)) {
+                throw new IllegalArgumentException(
+                        String.format("Recording \"%s\" is listed more than once", name));
+            }
+            ArchivedRecordingInfo info = archiveIndex.find(name);
+            if (info.getChunkCount() < 1) {
+                throw new IllegalArgumentException(
+                        String.format("Recording \"%s\" contains no complete chunks", name));
+            }
+            sources.add(info);
+        }
+        String targetName = sources.get(0).getTargetName();
+        for (ArchivedRecordingInfo info : sources) {
+            if (targetName == null || !targetName.equals(info.getTargetName())) {
+                throw new IllegalArgumentException("Recordings must all belong to the same target");
+            }
+        }
+        sources.sort(
+                Comparator.comparingLong(ArchiveMerger::startOf)
+                        .thenComparing(ArchivedRecordingInfo::getName));
+        return sources;
+    }
+
+    private static long startOf(ArchivedRecordingInfo info) {
+        return info.getStartTime() != null ? info.getStartTime() : ArchiveIndex.timeOf(info);
+    }
+
+    /**
+     * Writes the complete chunks of each source, in order, to the destination file, replacing any
+     * existing content. A trailing partial chunk in any source is left out.
+     *
+     * @return the number of bytes written
+     */
+    public long merge(List<ArchivedRecordingInfo> sources, Path destination) throws IOException {
+        try (FileChannel out =
+                FileChannel.open(
+                        destination,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            return merge(sources, out);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(destination);
+            throw e;
+        }
+    }
+
+    /**
+     * As {@link #merge(List, Path)}, writing to a channel such as a response so that the merged
+     * recording is never stored as a whole.
+     *
+     * @return the number of bytes written
+     */
+    public long merge(List<ArchivedRecordingInfo> sources, WritableByteChannel out)
+            throws IOException {
+        long written = 0;
+        for (ArchivedRecordingInfo source : sources) {
+            Optional<Path> local = storage.localPath(source.getName());
+            if (local.isPresent()) {
+                written += copyLocal(source.getName(), local.get(), out);
+            } else {
+                written += copyStored(source, out);
+            }
+        }
+        return written;
+    }
+
+    private static long copyLocal(String name, Path file, WritableByteChannel out)
+            throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = completeLength(JfrChunkHeader.readAll(in));
+            long position = 0;
+            while (position < length) {
+                long n = in.transferTo(position, length - position, out);
+                if (n <= 0) {
+                    throw truncated(name);
+                }
+                position += n;
+            }
+            return length;
+        }
+    }
+
+    private long copyStored(ArchivedRecordingInfo source, WritableByteChannel out)
+            throws IOException {
+        long length = completeLength(storage.readChunkHeaders(source.getName(), source.getSize()));
+        if (length == 0) {
+            return 0;
+        }
+        try (ReadableByteChannel in =
+                Channels.newChannel(storage.read(source.getName(), 0, length))) {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            long position = 0;
+            while (position < length) {
+                buf.clear();
+                if (length - position < buf.capacity()) {
+                    buf.limit((int) (length - position));
+                }
+                int n = in.read(buf);
+                if (n < 0) {
+                    throw truncated(source.getName());
+                }
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+                position += n;
+            }
+        }
+        return length;
+    }
+
+    /** @return the length of the leading complete chunks */
+    private static long completeLength(List<JfrChunkHeader> chunks) {
+        if (chunks.isEmpty()) {
+            return 0;
+        }
+        JfrChunkHeader last = chunks.get(chunks.size() - 1);
+        return last.getOffset() + last.getSize();
+    }
+
+    private static IOException truncated(String name) {
+        return new IOException(String.format("Recording \"%s\" was truncated while merging", name));
+    }
+
+    /**
+     * Chooses an archive name for the merge of the given sources which does not collide with an
+     * existing recording.
+     */
+    public String nameFor(List<ArchivedRecordingInfo> sources, Instant now) throws IOException {
+        String recordingName = sources.get(0).getRecordingName();
+        for (ArchivedRecordingInfo info : sources) {
+            if (recordingName != null && !recordingName.equals(info.getRecordingName())) {
+                recordingName = null;
+            }
+        }
+        return storage.uniqueName(
+                sources.get(0).getTargetName(),
+                recordingName == null ? "merged" : recordingName + "-merged",
+                now);
+    }
+}
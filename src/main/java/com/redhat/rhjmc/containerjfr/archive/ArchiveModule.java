@@ -0,0 +1,189 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import com.google.gson.Gson;
+
+import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+import com.redhat.rhjmc.containerjfr.net.internal.reports.ReportService;
+import com.redhat.rhjmc.containerjfr.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.tui.ws.MessagingServer;
+
+import dagger.Module;
+import dagger.Provides;
+import io.vertx.ext.web.client.WebClient;
+
+@Module
+public abstract class ArchiveModule {
+
+    static final String STORAGE_ENV = "CONTAINER_JFR_ARCHIVE_STORAGE";
+
+    @Provides
+    @Singleton
+    static ArchiveLayout provideArchiveLayout(
+            @Named(MainModule.RECORDINGS_PATH) Path archivePath,
+            FileSystem fs,
+            Environment env,
+            Logger logger) {
+        ArchiveLayout layout =
+                new ArchiveLayout(
+                        archivePath,
+                        ArchiveLayout.strategyFromEnvironment(env, logger),
+                        fs,
+                        logger);
+        try {
+            layout.migrate();
+        } catch (IOException e) {
+            logger.warn(e);
+        }
+        return layout;
+    }
+
+    @Provides
+    @Singleton
+    static ArchiveStorage provideArchiveStorage(
+            ArchiveLayout layout,
+            FileSystem fs,
+            WebClient webClient,
+            Environment env,
+            Clock clock,
+            Logger logger) {
+        ArchiveStorage.Type type = storageTypeFromEnvironment(env, logger);
+        if (type == ArchiveStorage.Type.S3) {
+            try {
+                S3ArchiveStorage storage =
+                        S3ArchiveStorage.fromEnvironment(env, webClient, fs, clock, logger);
+                logger.info("Archive storage: S3");
+                return storage;
+            } catch (IllegalArgumentException e) {
+                logger.error(
+                        String.format(
+                                "S3 archive storage could not be configured, using %s: %s",
+                                layout.getRoot(), e.getMessage()));
+            }
+        }
+        return new FileSystemArchiveStorage(layout, fs);
+    }
+
+    static ArchiveStorage.Type storageTypeFromEnvironment(Environment env, Logger logger) {
+        String value = env.getEnv(STORAGE_ENV, ArchiveStorage.Type.FILESYSTEM.name()).trim();
+        try {
+            return ArchiveStorage.Type.valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            logger.warn(String.format("Unknown %s \"%s\", using FILESYSTEM", STORAGE_ENV, value));
+            return ArchiveStorage.Type.FILESYSTEM;
+        }
+    }
+
+    @Provides
+    @Singleton
+    static ArchiveIndex provideArchiveIndex(ArchiveStorage storage, Gson gson, Logger logger) {
+        ArchiveIndex index =
+                new ArchiveIndex(storage, gson, newDaemonExecutor("archive-index"), logger);
+        try {
+            index.load();
+        } catch (IOException e) {
+            logger.warn(e);
+        }
+        return index;
+    }
+
+    @Provides
+    @Singleton
+    static ArchiveRetentionService provideArchiveRetentionService(
+            ArchiveStorage storage,
+            ArchiveIndex archiveIndex,
+            ReportService reportService,
+            Environment env,
+            Clock clock,
+            Logger logger) {
+        return new ArchiveRetentionService(
+                storage,
+                archiveIndex,
+                reportService,
+                ArchiveRetentionPolicy.fromEnvironment(env, logger),
+                newDaemonExecutor("archive-retention"),
+                clock,
+                logger);
+    }
+
+    @Provides
+    @Singleton
+    static ArchiveMerger provideArchiveMerger(ArchiveStorage storage, ArchiveIndex archiveIndex) {
+        return new ArchiveMerger(storage, archiveIndex);
+    }
+
+    @Provides
+    @Singleton
+    static ArchiveWatcher provideArchiveWatcher(
+            ArchiveStorage storage,
+            ArchiveLayout layout,
+            FileSystem fs,
+            ArchiveIndex archiveIndex,
+            ReportService reportService,
+            MessagingServer messagingServer,
+            Clock clock,
+            Logger logger) {
+        return new ArchiveWatcher(
+                storage, layout, fs, archiveIndex, reportService, messagingServer, clock, logger);
+    }
+
+    private static ScheduledExecutorService newDaemonExecutor(String name) {
+        return Executors.newSingleThreadScheduledExecutor(
+                r -> {
+                    Thread t = new Thread(r, name);
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+}
@@ -0,0 +1,153 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/** Filtering, ordering and pagination options for {@link ArchiveIndex#query(ArchiveQuery)}. */
+public class ArchiveQuery {
+
+    public enum Sort {
+        NAME,
+        TIME,
+        SIZE,
+    }
+
+    private String targetName;
+    private String recordingName;
+    private Long from;
+    private Long to;
+    private Long minSize;
+    private Sort sort = Sort.NAME;
+    private boolean descending;
+    private Integer limit;
+    private String cursor;
+
+    public ArchiveQuery targetName(String targetName) {
+        this.targetName = targetName;
+        return this;
+    }
+
+    public ArchiveQuery recordingName(String recordingName) {
+        this.recordingName = recordingName;
+        return this;
+    }
+
+    /** Only include recordings archived at or after this time, in epoch millis. */
+    public ArchiveQuery from(Long from) {
+        this.from = from;
+        return this;
+    }
+
+    /** Only include recordings archived at or before this time, in epoch millis. */
+    public ArchiveQuery to(Long to) {
+        this.to = to;
+        return this;
+    }
+
+    public ArchiveQuery minSize(Long minSize) {
+        this.minSize = minSize;
+        return this;
+    }
+
+    public ArchiveQuery sort(Sort sort) {
+        this.sort = sort;
+        return this;
+    }
+
+    public ArchiveQuery descending(boolean descending) {
+        this.descending = descending;
+        return this;
+    }
+
+    public ArchiveQuery limit(Integer limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /** Resume after the last entry of a previous page, as given by {@link ArchivePage}. */
+    public ArchiveQuery cursor(String cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
+    public String getTargetName() {
+        return targetName;
+    }
+
+    public String getRecordingName() {
+        return recordingName;
+    }
+
+    public Long getFrom() {
+        return from;
+    }
+
+    public Long getTo() {
+        return to;
+    }
+
+    public Long getMinSize() {
+        return minSize;
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this);
+    }
+}
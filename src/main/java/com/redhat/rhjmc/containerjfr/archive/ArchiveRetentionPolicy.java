@@ -0,0 +1,136 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+
+/** Limits on archive contents. Any limit may be null, meaning it is not enforced. */
+public class ArchiveRetentionPolicy {
+
+    static final String MAX_BYTES_ENV = "CONTAINER_JFR_ARCHIVE_MAX_BYTES";
+    static final String MAX_BYTES_PER_TARGET_ENV = "CONTAINER_JFR_ARCHIVE_MAX_BYTES_PER_TARGET";
+    static final String MAX_AGE_SECONDS_ENV = "CONTAINER_JFR_ARCHIVE_MAX_AGE_SECONDS";
+    static final String MAX_COUNT_ENV = "CONTAINER_JFR_ARCHIVE_MAX_COUNT";
+    static final String PERIOD_SECONDS_ENV = "CONTAINER_JFR_ARCHIVE_RETENTION_PERIOD_SECONDS";
+    static final long DEFAULT_PERIOD_SECONDS = 60;
+
+    private final Long maxBytes;
+    private final Long maxBytesPerTarget;
+    private final Long maxAgeSeconds;
+    private final Long maxCount;
+    private final long periodSeconds;
+
+    ArchiveRetentionPolicy(
+            Long maxBytes,
+            Long maxBytesPerTarget,
+            Long maxAgeSeconds,
+            Long maxCount,
+            long periodSeconds) {
+        this.maxBytes = maxBytes;
+        this.maxBytesPerTarget = maxBytesPerTarget;
+        this.maxAgeSeconds = maxAgeSeconds;
+        this.maxCount = maxCount;
+        this.periodSeconds = periodSeconds;
+    }
+
+    static ArchiveRetentionPolicy fromEnvironment(Environment env, Logger logger) {
+        Long period = parseLimit(env, logger, PERIOD_SECONDS_ENV);
+        return new ArchiveRetentionPolicy(
+                parseLimit(env, logger, MAX_BYTES_ENV),
+                parseLimit(env, logger, MAX_BYTES_PER_TARGET_ENV),
+                parseLimit(env, logger, MAX_AGE_SECONDS_ENV),
+                parseLimit(env, logger, MAX_COUNT_ENV),
+                period == null || period < 1 ? DEFAULT_PERIOD_SECONDS : period);
+    }
+
+    private static Long parseLimit(Environment env, Logger logger, String name) {
+        if (!env.hasEnv(name)) {
+            return null;
+        }
+        try {
+            long value = Long.parseLong(env.getEnv(name).trim());
+            if (value < 0) {
+                logger.warn(String.format("%s must not be negative, ignoring", name));
+                return null;
+            }
+            return value;
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+            return null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxBytes != null
+                || maxBytesPerTarget != null
+                || maxAgeSeconds != null
+                || maxCount != null;
+    }
+
+    public Long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public Long getMaxBytesPerTarget() {
+        return maxBytesPerTarget;
+    }
+
+    public Long getMaxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    public Long getMaxCount() {
+        return maxCount;
+    }
+
+    public long getPeriodSeconds() {
+        return periodSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this);
+    }
+}
@@ -0,0 +1,266 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.net.internal.reports.ReportService;
+
+/**
+ * Enforces an {@link ArchiveRetentionPolicy} on the archive by deleting the oldest recordings
+ * first, and hands out space {@link Reservation}s so that saves can fail before they start rather
+ * than partway through writing.
+ */
+public class ArchiveRetentionService {
+
+    private final ArchiveStorage storage;
+    private final ArchiveIndex archiveIndex;
+    private final ReportService reportService;
+    private final ArchiveRetentionPolicy policy;
+    private final ScheduledExecutorService executor;
+    private final Clock clock;
+    private final Logger logger;
+
+    private final List<Reservation> reservations = new ArrayList<>();
+
+    ArchiveRetentionService(
+            ArchiveStorage storage,
+            ArchiveIndex archiveIndex,
+            ReportService reportService,
+            ArchiveRetentionPolicy policy,
+            ScheduledExecutorService executor,
+            Clock clock,
+            Logger logger) {
+        this.storage = storage;
+        this.archiveIndex = archiveIndex;
+        this.reportService = reportService;
+        this.policy = policy;
+        this.executor = executor;
+        this.clock = clock;
+        this.logger = logger;
+    }
+
+    public void start() {
+        if (!policy.isEnabled()) {
+            return;
+        }
+        logger.info(String.format("Archive retention policy: %s", policy));
+        executor.scheduleWithFixedDelay(
+                this::enforceQuietly, 0, policy.getPeriodSeconds(), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Reserve archive space for a recording about to be written. Older recordings are evicted if
+     * needed to honour the policy with the reservation included.
+     *
+     * @param sizeHint expected size in bytes, or a non-positive value if unknown, in which case the
+     *     size of the latest archived copy of the same recording is used
+     * @throws ArchiveSpaceException if the recording cannot fit within the policy limits or the
+     *     free space of the archive volume
+     */
+    public Reservation reserve(String targetName, String recordingName, long sizeHint)
+            throws IOException {
+        long estimate = sizeHint > 0 ? sizeHint : estimateSize(targetName, recordingName);
+        if (policy.getMaxBytes() != null && estimate > policy.getMaxBytes()) {
+            throw new ArchiveSpaceException(
+                    String.format(
+                            "Recording of %d bytes exceeds the archive limit of %d bytes",
+                            estimate, policy.getMaxBytes()));
+        }
+        if (policy.getMaxBytesPerTarget() != null && estimate > policy.getMaxBytesPerTarget()) {
+            throw new ArchiveSpaceException(
+                    String.format(
+                            "Recording of %d bytes exceeds the per-target archive limit of %d bytes",
+                            estimate, policy.getMaxBytesPerTarget()));
+        }
+        Reservation reservation = new Reservation(targetName, estimate);
+        synchronized (this) {
+            reservations.add(reservation);
+            enforce();
+        }
+        if (estimate > 0) {
+            long usable = storage.getUsableSpace();
+            if (usable < estimate) {
+                reservation.close();
+                throw new ArchiveSpaceException(
+                        String.format(
+                                "Recording of %d bytes exceeds the %d bytes free on the archive volume",
+                                estimate, usable));
+            }
+        }
+        return reservation;
+    }
+
+    /** Apply the retention policy now, deleting the oldest recordings until it is satisfied. */
+    public synchronized void enforce() {
+        if (!policy.isEnabled()) {
+            return;
+        }
+        List<ArchivedRecordingInfo> oldestFirst =
+                archiveIndex.query(new ArchiveQuery().sort(ArchiveQuery.Sort.TIME)).getRecordings();
+
+        long reservedBytes = 0;
+        Map<String, Long> reservedTargetBytes = new HashMap<>();
+        for (Reservation r : reservations) {
+            reservedBytes += r.bytes;
+            if (r.targetName != null) {
+                reservedTargetBytes.merge(r.targetName, r.bytes, Long::sum);
+            }
+        }
+
+        long now = clock.getWallTime();
+        long totalBytes = archiveIndex.getTotalSize() + reservedBytes;
+        long count = archiveIndex.size() + reservations.size();
+        Map<String, Long> targetBytes = new HashMap<>();
+        for (ArchivedRecordingInfo info : oldestFirst) {
+            if (info.getTargetName() != null) {
+                targetBytes.merge(info.getTargetName(), info.getSize(), Long::sum);
+            }
+        }
+        reservedTargetBytes.forEach((t, b) -> targetBytes.merge(t, b, Long::sum));
+
+        for (ArchivedRecordingInfo info : oldestFirst) {
+            String target = info.getTargetName();
+            boolean expired =
+                    policy.getMaxAgeSeconds() != null
+                            && now - ArchiveIndex.timeOf(info)
+                                    > TimeUnit.SECONDS.toMillis(policy.getMaxAgeSeconds());
+            boolean overTarget =
+                    policy.getMaxBytesPerTarget() != null
+                            && target != null
+                            && targetBytes.getOrDefault(target, 0L) > policy.getMaxBytesPerTarget();
+            boolean overCount = policy.getMaxCount() != null && count > policy.getMaxCount();
+            boolean overTotal = policy.getMaxBytes() != null && totalBytes > policy.getMaxBytes();
+            if (!(expired || overTarget || overCount || overTotal)) {
+                continue;
+            }
+            if (!evict(info)) {
+                continue;
+            }
+            totalBytes -= info.getSize();
+            count--;
+            if (target != null) {
+                targetBytes.merge(target, -info.getSize(), Long::sum);
+            }
+        }
+    }
+
+    private void enforceQuietly() {
+        try {
+            enforce();
+        } catch (Exception e) {
+            logger.warn(e);
+        }
+    }
+
+    private boolean evict(ArchivedRecordingInfo info) {
+        try {
+            storage.delete(info.getName());
+        } catch (IOException e) {
+            logger.warn(e);
+            return false;
+        }
+        archiveIndex.remove(info.getName());
+        reportService.delete(info.getName());
+        logger.info(
+                String.format("Archived recording %s removed by retention policy", info.getName()));
+        return true;
+    }
+
+    private long estimateSize(String targetName, String recordingName) {
+        return archiveIndex
+                .query(
+                        new ArchiveQuery()
+                                .targetName(targetName)
+                                .recordingName(recordingName)
+                                .sort(ArchiveQuery.Sort.TIME)
+                                .descending(true)
+                                .limit(1))
+                .getRecordings().stream()
+                .findFirst()
+                .map(ArchivedRecordingInfo::getSize)
+                .orElse(0L);
+    }
+
+    private synchronized void release(Reservation reservation) {
+        reservations.remove(reservation);
+    }
+
+    public class Reservation implements AutoCloseable {
+        private final String targetName;
+        private final long bytes;
+        private boolean closed;
+
+        private Reservation(String targetName, long bytes) {
+            this.targetName = targetName;
+            this.bytes = bytes;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            synchronized (ArchiveRetentionService.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                release(this);
+            }
+            // the saved recording is now indexed with its real size, which may differ from the
+            // estimate
+            if (policy.isEnabled()) {
+                executor.execute(ArchiveRetentionService.this::enforceQuietly);
+            }
+        }
+    }
+}
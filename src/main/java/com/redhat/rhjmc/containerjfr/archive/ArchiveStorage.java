@@ -0,0 +1,180 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Where archived recording files are kept. Recordings are addressed by their flat archive name;
+ * names starting with "." are reserved for bookkeeping files such as the persisted {@link
+ * ArchiveIndex} and are not listed.
+ *
+ * <p>Methods taking a recording name throw {@link IllegalArgumentException} if it is not a plain
+ * file name, and those reading a recording throw {@link java.nio.file.NoSuchFileException} if it
+ * does not exist.
+ */
+public interface ArchiveStorage {
+
+    enum Type {
+        FILESYSTEM,
+        S3,
+        ;
+    }
+
+    boolean isAvailable();
+
+    /** @return all recordings in storage, in no particular order */
+    List<StoredRecording> list() throws IOException;
+
+    Optional<StoredRecording> stat(String name) throws IOException;
+
+    default boolean exists(String name) throws IOException {
+        return stat(name).isPresent();
+    }
+
+    InputStream read(String name) throws IOException;
+
+    /** @return a stream of at most length bytes of the recording, starting at offset */
+    InputStream read(String name, long offset, long length) throws IOException;
+
+    /**
+     * Writes the recording from the source stream, replacing any existing recording of the same
+     * name. The recording only becomes visible to other readers once it has been written
+     * completely.
+     *
+     * @return the number of bytes written
+     */
+    long write(String name, InputStream source) throws IOException;
+
+    /**
+     * @return a new local file in which a recording to be added under the given name can be
+     *     prepared before being passed to {@link #store(Path, String)}
+     */
+    Path createStagingFile(String name) throws IOException;
+
+    /**
+     * Adds a complete local file to storage under the given name. The file is moved into place
+     * where storage is local and otherwise copied, so the caller should delete the source if it
+     * still exists afterwards.
+     */
+    void store(Path source, String name) throws IOException;
+
+    /** @return true if the recording existed and was deleted */
+    boolean delete(String name) throws IOException;
+
+    /** @return the root directory of storage, if it is on the local filesystem */
+    Optional<Path> getLocalRoot();
+
+    /**
+     * @return the local file backing the named recording, whether or not it exists, if storage is
+     *     on the local filesystem
+     */
+    Optional<Path> localPath(String name);
+
+    /** @return bytes available for new recordings, or Long.MAX_VALUE if not limited */
+    long getUsableSpace() throws IOException;
+
+    /**
+     * Chooses a name for a new recording following the naming of saved recordings, ex.
+     * "some-host_foo_20191219T213834Z.jfr", numbered if needed so that it does not collide with an
+     * existing recording.
+     */
+    default String uniqueName(String targetName, String recordingName, Instant now)
+            throws IOException {
+        String timestamp = now.truncatedTo(ChronoUnit.SECONDS).toString().replaceAll("[-:]+", "");
+        String base = String.format("%s_%s_%s", targetName, recordingName, timestamp);
+        String name = base + ".jfr";
+        int count = 1;
+        while (exists(name)) {
+            name = String.format("%s.%d.jfr", base, count++);
+        }
+        return name;
+    }
+
+    /**
+     * Reads the chunk headers of the named recording, which has the given size. Local recordings
+     * are read through a {@link FileChannel}, others with one ranged read per header.
+     */
+    default List<JfrChunkHeader> readChunkHeaders(String name, long size) throws IOException {
+        Optional<Path> local = localPath(name);
+        if (local.isPresent()) {
+            try (FileChannel channel = FileChannel.open(local.get(), StandardOpenOption.READ)) {
+                return JfrChunkHeader.readAll(channel);
+            }
+        }
+        return JfrChunkHeader.readAll(
+                (ByteBuffer dst, long position) -> {
+                    int total = 0;
+                    try (InputStream in = read(name, position, dst.remaining())) {
+                        byte[] buf = new byte[dst.remaining()];
+                        int n;
+                        while (total < buf.length
+                                && (n = in.read(buf, total, buf.length - total)) > 0) {
+                            total += n;
+                        }
+                        dst.put(buf, 0, total);
+                    }
+                    return total > 0 ? total : -1;
+                },
+                size);
+    }
+
+    static void checkName(String name) {
+        if (name.isEmpty()
+                || name.equals(".")
+                || name.equals("..")
+                || name.contains("/")
+                || name.contains("\\")) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid recording name \"%s\"", name));
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.net.internal.reports.ReportService;
+import com.redhat.rhjmc.containerjfr.tui.ws.MessagingServer;
+
+/**
+ * Watches the archive for files added, changed or removed by anything, including other processes
+ * sharing the volume, and applies those changes to the {@link ArchiveIndex} and archived report
+ * cache. Connected WebSocket clients are sent an {@link #NOTIFICATION_CATEGORY} notification for
+ * each change.
+ *
+ * <p>Only archives kept on the local filesystem are watched. Other {@link ArchiveStorage} is only
+ * expected to be changed through container-jfr itself.
+ */
+public class ArchiveWatcher {
+
+    public static final String NOTIFICATION_CATEGORY = "ArchiveChanged";
+    // recordings are usually written in many small pieces, so wait for writes to settle before
+    // re-reading a file
+    static final long QUIET_PERIOD_MS = 500;
+
+    public enum ChangeType {
+        CREATED,
+        MODIFIED,
+        DELETED,
+        /** events were lost and the whole archive was rescanned */
+        RESCANNED,
+        ;
+    }
+
+    private final ArchiveStorage storage;
+    private final ArchiveLayout layout;
+    private final FileSystem fs;
+    private final ArchiveIndex archiveIndex;
+    private final ReportService reportService;
+    private final MessagingServer messagingServer;
+    private final Clock clock;
+    private final Logger logger;
+
+    private final Map<String, PendingChange> pending = new HashMap<>();
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private WatchService watchService;
+    private Thread thread;
+
+    ArchiveWatcher(
+            ArchiveStorage storage,
+            ArchiveLayout layout,
+            FileSystem fs,
+            ArchiveIndex archiveIndex,
+            ReportService reportService,
+            MessagingServer messagingServer,
+            Clock clock,
+            Logger logger) {
+        this.storage = storage;
+        this.layout = layout;
+        this.fs = fs;
+        this.archiveIndex = archiveIndex;
+        this.reportService = reportService;
+        this.messagingServer = messagingServer;
+        this.clock = clock;
+        this.logger = logger;
+    }
+
+    public synchronized void start() throws IOException {
+        Path root = layout.getRoot();
+        if (thread != null || storage.getLocalRoot().isEmpty() || !fs.isDirectory(root)) {
+            return;
+        }
+        watchService = root.getFileSystem().newWatchService();
+        watch(root);
+        for (String child : fs.listDirectoryChildren(root)) {
+            Path path = root.resolve(child);
+            if (ArchiveLayout.isArchivedFileName(child) && fs.isDirectory(path)) {
+                watch(path);
+            }
+        }
+        // pick up anything that changed between the index being loaded and the watch starting
+        archiveIndex.reconcile().forEach(reportService::delete);
+        thread = new Thread(this::run, "archive-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private void watch(Path dir) throws IOException {
+        WatchKey key =
+                dir.register(
+                        watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+        watchedDirectories.put(key, dir);
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                // changes are applied as they settle, even while other files keep changing
+                WatchKey key = watchService.poll(processPending(), TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    continue;
+                }
+                Path dir = watchedDirectories.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    try {
+                        handle(dir, event);
+                    } catch (IOException e) {
+                        // eg. a directory removed again before it could be watched
+                        logger.warn(e);
+                        rescan();
+                    }
+                }
+                if (!key.reset()) {
+                    watchedDirectories.remove(key);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handle(Path dir, WatchEvent<?> event) throws IOException {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            rescan();
+            return;
+        }
+        Path path = dir.resolve((Path) event.context());
+        String name = path.getFileName().toString();
+        if (!ArchiveLayout.isArchivedFileName(name)) {
+            return;
+        }
+        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                && dir.equals(layout.getRoot())
+                && fs.isDirectory(path)) {
+            watch(path);
+            // files may have been written before the watch was registered
+            for (String child : fs.listDirectoryChildren(path)) {
+                changed(child, StandardWatchEventKinds.ENTRY_CREATE);
+            }
+            return;
+        }
+        changed(name, event.kind());
+    }
+
+    /** Record an event for the named recording, to be applied once writes settle. */
+    synchronized void changed(String name, WatchEvent.Kind<?> kind) {
+        ChangeType type;
+        if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+            type = ChangeType.CREATED;
+        } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+            type = ChangeType.DELETED;
+        } else {
+            type = ChangeType.MODIFIED;
+        }
+        long now = clock.getMonotonicTime();
+        // a file created and then written to within the quiet period is still new
+        pending.merge(
+                name,
+                new PendingChange(type, now),
+                (a, b) -> new PendingChange(a.type == ChangeType.CREATED ? a.type : b.type, now));
+    }
+
+    /**
+     * Apply the changes to files which have not changed again for {@link #QUIET_PERIOD_MS}.
+     *
+     * @return milliseconds until the next pending change settles
+     */
+    synchronized long processPending() {
+        long now = clock.getMonotonicTime();
+        long quietPeriod = TimeUnit.MILLISECONDS.toNanos(QUIET_PERIOD_MS);
+        long next = quietPeriod;
+        Iterator<Map.Entry<String, PendingChange>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, PendingChange> entry = it.next();
+            long quiet = now - entry.getValue().lastEvent;
+            if (quiet >= quietPeriod) {
+                it.remove();
+                apply(entry.getKey(), entry.getValue().type);
+            } else {
+                next = Math.min(next, quietPeriod - quiet);
+            }
+        }
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next));
+    }
+
+    private void apply(String name, ChangeType type) {
+        Path path;
+        try {
+            path = layout.resolve(name);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        if (!fs.isRegularFile(path)) {
+            // deleted, or moved elsewhere within the archive by a layout migration
+            if (archiveIndex.remove(name).isPresent() || type == ChangeType.DELETED) {
+                reportService.delete(name);
+                notify(new Change(name, ChangeType.DELETED, null));
+            }
+            return;
+        }
+        Optional<ArchivedRecordingInfo> previous = archiveIndex.get(name);
+        ArchivedRecordingInfo info;
+        try {
+            info = archiveIndex.index(name);
+        } catch (IOException e) {
+            logger.warn(e);
+            return;
+        }
+        if (previous.isPresent()) {
+            if (previous.get().equals(info)) {
+                // already indexed by container-jfr itself when saving
+                if (type == ChangeType.CREATED) {
+                    notify(new Change(name, ChangeType.CREATED, info));
+                }
+                return;
+            }
+            reportService.delete(name);
+            notify(new Change(name, ChangeType.MODIFIED, info));
+        } else {
+            notify(new Change(name, ChangeType.CREATED, info));
+        }
+    }
+
+    void rescan() {
+        logger.info("Archive watch events overflowed, rescanning");
+        synchronized (this) {
+            pending.clear();
+        }
+        try {
+            // as when changes are applied one at a time, reports of changed recordings are stale
+            archiveIndex.reconcile().forEach(reportService::delete);
+        } catch (IOException e) {
+            logger.warn(e);
+        }
+        notify(new Change(null, ChangeType.RESCANNED, null));
+    }
+
+    private void notify(Change change) {
+        logger.trace(String.format("Archive change: %s", change));
+        messagingServer.notifyClients(NOTIFICATION_CATEGORY, change);
+    }
+
+    private static class PendingChange {
+        final ChangeType type;
+        final long lastEvent;
+
+        PendingChange(ChangeType type, long lastEvent) {
+            this.type = type;
+            this.lastEvent = lastEvent;
+        }
+    }
+
+    public static class Change {
+        private final String name;
+        private final ChangeType type;
+        private final ArchivedRecordingInfo recording;
+
+        Change(String name, ChangeType type, ArchivedRecordingInfo recording) {
+            this.name = name;
+            this.type = type;
+            this.recording = recording;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ChangeType getType() {
+            return type;
+        }
+
+        public ArchivedRecordingInfo getRecording() {
+            return recording;
+        }
+
+        @Override
+        public String toString() {
+            return ToStringBuilder.reflectionToString(this);
+        }
+    }
+}
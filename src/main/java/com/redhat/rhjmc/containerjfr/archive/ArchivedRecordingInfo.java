@@ -0,0 +1,165 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+public class ArchivedRecordingInfo {
+
+    public static final Pattern RECORDING_FILENAME_PATTERN =
+            Pattern.compile("([A-Za-z\\d-]*)_([A-Za-z\\d-_]*)_([\\d]*T[\\d]*Z)(.[\\d]+)?");
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+    private final String name;
+    private final String targetName;
+    private final String recordingName;
+    private final Long archivedTime;
+    private final long size;
+    private final long lastModified;
+    private final int chunkCount;
+    private final Long startTime;
+    private final Long endTime;
+
+    ArchivedRecordingInfo(
+            String name,
+            long size,
+            long lastModified,
+            int chunkCount,
+            Long startTime,
+            Long endTime) {
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.chunkCount = chunkCount;
+        this.startTime = startTime;
+        this.endTime = endTime;
+
+        String basename = name.endsWith(".jfr") ? name.substring(0, name.length() - 4) : name;
+        Matcher m = RECORDING_FILENAME_PATTERN.matcher(basename);
+        if (m.matches()) {
+            this.targetName = m.group(1);
+            this.recordingName = m.group(2);
+            this.archivedTime = parseTimestamp(m.group(3));
+        } else {
+            this.targetName = null;
+            this.recordingName = null;
+            this.archivedTime = null;
+        }
+    }
+
+    static Long parseTimestamp(String timestamp) {
+        try {
+            return LocalDateTime.parse(timestamp, TIMESTAMP_FORMAT)
+                    .toInstant(ZoneOffset.UTC)
+                    .toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** @return the target name encoded in the file name, or null if the name is not recognized */
+    public String getTargetName() {
+        return targetName;
+    }
+
+    /** @return the recording name encoded in the file name, or null if not recognized */
+    public String getRecordingName() {
+        return recordingName;
+    }
+
+    /** @return epoch millis of the archival timestamp in the file name, or null */
+    public Long getArchivedTime() {
+        return archivedTime;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /** @return epoch millis of the earliest chunk start, or null if no chunks were found */
+    public Long getStartTime() {
+        return startTime;
+    }
+
+    /** @return epoch millis of the latest chunk end, or null if no chunks were found */
+    public Long getEndTime() {
+        return endTime;
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this);
+    }
+
+    @Override
+    public int hashCode() {
+        return HashCodeBuilder.reflectionHashCode(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return EqualsBuilder.reflectionEquals(this, o);
+    }
+}
@@ -0,0 +1,204 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+
+/** Keeps recordings in a local (or mounted) directory, arranged by an {@link ArchiveLayout}. */
+public class FileSystemArchiveStorage implements ArchiveStorage {
+
+    private final ArchiveLayout layout;
+    private final FileSystem fs;
+
+    FileSystemArchiveStorage(ArchiveLayout layout, FileSystem fs) {
+        this.layout = layout;
+        this.fs = fs;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return fs.isDirectory(layout.getRoot());
+    }
+
+    @Override
+    public List<StoredRecording> list() throws IOException {
+        List<StoredRecording> recordings = new ArrayList<>();
+        for (Map.Entry<String, Path> recording : layout.listRecordings().entrySet()) {
+            BasicFileAttributes attrs =
+                    Files.readAttributes(recording.getValue(), BasicFileAttributes.class);
+            recordings.add(
+                    new StoredRecording(
+                            recording.getKey(), attrs.size(), attrs.lastModifiedTime().toMillis()));
+        }
+        return recordings;
+    }
+
+    @Override
+    public Optional<StoredRecording> stat(String name) throws IOException {
+        Path path = path(name);
+        if (!fs.isRegularFile(path)) {
+            return Optional.empty();
+        }
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        return Optional.of(
+                new StoredRecording(name, attrs.size(), attrs.lastModifiedTime().toMillis()));
+    }
+
+    @Override
+    public boolean exists(String name) {
+        return fs.exists(path(name));
+    }
+
+    @Override
+    public InputStream read(String name) throws IOException {
+        return fs.newInputStream(path(name));
+    }
+
+    @Override
+    public InputStream read(String name, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(path(name), StandardOpenOption.READ);
+        try {
+            channel.position(offset);
+            return new BoundedInputStream(Channels.newInputStream(channel), length);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public long write(String name, InputStream source) throws IOException {
+        Path destination = pathForWrite(name);
+        Path staging = stagingPath(name);
+        try {
+            long written = Files.copy(source, staging, StandardCopyOption.REPLACE_EXISTING);
+            move(staging, destination);
+            return written;
+        } finally {
+            fs.deleteIfExists(staging);
+        }
+    }
+
+    @Override
+    public Path createStagingFile(String name) throws IOException {
+        // hidden, and on the same volume as the archive so that storing it is a rename
+        return stagingPath(name);
+    }
+
+    @Override
+    public void store(Path source, String name) throws IOException {
+        move(source, pathForWrite(name));
+    }
+
+    @Override
+    public boolean delete(String name) throws IOException {
+        return fs.deleteIfExists(path(name));
+    }
+
+    @Override
+    public Optional<Path> getLocalRoot() {
+        return Optional.of(layout.getRoot());
+    }
+
+    @Override
+    public Optional<Path> localPath(String name) {
+        return Optional.of(path(name));
+    }
+
+    @Override
+    public long getUsableSpace() throws IOException {
+        if (!isAvailable()) {
+            return Long.MAX_VALUE;
+        }
+        return Files.getFileStore(layout.getRoot()).getUsableSpace();
+    }
+
+    private Path path(String name) {
+        if (!ArchiveLayout.isArchivedFileName(name)) {
+            // bookkeeping files are kept directly within the archive directory
+            ArchiveStorage.checkName(name);
+            return layout.getRoot().resolve(name);
+        }
+        return layout.resolve(name);
+    }
+
+    private Path pathForWrite(String name) throws IOException {
+        if (!ArchiveLayout.isArchivedFileName(name)) {
+            return path(name);
+        }
+        return layout.resolveForWrite(name);
+    }
+
+    private Path stagingPath(String name) {
+        ArchiveStorage.checkName(name);
+        return layout.getRoot().resolve(String.format(".%s.part", name));
+    }
+
+    private static void move(Path source, Path destination) throws IOException {
+        try {
+            Files.move(
+                    source,
+                    destination,
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fixed-size header found at the start of every chunk in a JFR file. JFR files are a sequence of
+ * self-contained chunks, so a file can be described (or split apart) by walking these headers
+ * without parsing any event data.
+ */
+public class JfrChunkHeader {
+
+    static final byte[] MAGIC = new byte[] {'F', 'L', 'R', 0};
+    static final int HEADER_SIZE = 68;
+
+    private final long offset;
+    private final short majorVersion;
+    private final short minorVersion;
+    private final long size;
+    private final long startNanos;
+    private final long durationNanos;
+
+    JfrChunkHeader(
+            long offset,
+            short majorVersion,
+            short minorVersion,
+            long size,
+            long startNanos,
+            long durationNanos) {
+        this.offset = offset;
+        this.majorVersion = majorVersion;
+        this.minorVersion = minorVersion;
+        this.size = size;
+        this.startNanos = startNanos;
+        this.durationNanos = durationNanos;
+    }
+
+    /**
+     * Reads all chunk headers from the channel, starting at position 0. Reading stops at the first
+     * region which does not look like a complete chunk, so a truncated or in-progress trailing
+     * chunk is ignored. A channel not containing JFR data yields an empty list.
+     */
+    public static List<JfrChunkHeader> readAll(FileChannel channel) throws IOException {
+        return readAll(channel::read, channel.size());
+    }
+
+    /** As {@link #readAll(FileChannel)}, for data of the given size read through the reader. */
+    public static List<JfrChunkHeader> readAll(PositionalReader reader, long fileSize)
+            throws IOException {
+        List<JfrChunkHeader> headers = new ArrayList<>();
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        long position = 0;
+        while (position + HEADER_SIZE <= fileSize) {
+            buf.clear();
+            while (buf.hasRemaining()) {
+                if (reader.read(buf, position + buf.position()) < 0) {
+                    return Collections.unmodifiableList(headers);
+                }
+            }
+            buf.flip();
+            JfrChunkHeader header = parse(buf, position);
+            if (header == null || header.getSize() <= 0 || position + header.getSize() > fileSize) {
+                break;
+            }
+            headers.add(header);
+            position += header.getSize();
+        }
+        return Collections.unmodifiableList(headers);
+    }
+
+    public interface PositionalReader {
+        /**
+         * Reads bytes into the buffer from the given position, as {@link
+         * FileChannel#read(ByteBuffer, long)}.
+         *
+         * @return the number of bytes read, or -1 at the end of the data
+         */
+        int read(ByteBuffer dst, long position) throws IOException;
+    }
+
+    static JfrChunkHeader parse(ByteBuffer buf, long offset) {
+        for (byte b : MAGIC) {
+            if (buf.get() != b) {
+                return null;
+            }
+        }
+        short major = buf.getShort();
+        short minor = buf.getShort();
+        long size = buf.getLong();
+        buf.getLong(); // constant pool offset
+        buf.getLong(); // metadata offset
+        long startNanos = buf.getLong();
+        long durationNanos = buf.getLong();
+        return new JfrChunkHeader(offset, major, minor, size, startNanos, durationNanos);
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public short getMajorVersion() {
+        return majorVersion;
+    }
+
+    public short getMinorVersion() {
+        return minorVersion;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public long getEndNanos() {
+        return startNanos + durationNanos;
+    }
+}
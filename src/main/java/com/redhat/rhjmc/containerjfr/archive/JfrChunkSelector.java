@@ -0,0 +1,299 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies the chunks of a JFR recording which overlap a time range, dropping the rest. Chunks are
+ * self-contained, so the result is a valid recording without any event data being parsed, and at
+ * most one fixed-size buffer is held in memory regardless of the size of the recording. The
+ * selection is only as fine-grained as the recording's chunks, so the result may contain events
+ * somewhat outside of the requested range.
+ *
+ * <p>Events can also be selected by type, in which case each copied chunk is rewritten by a {@link
+ * JfrEventFilter}, and chunks without any of the selected events are dropped as well.
+ */
+public class JfrChunkSelector {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Long fromMillis;
+    private final Long toMillis;
+    private final Long fromNanos;
+    private final Long toNanos;
+    private final Set<String> eventTypes;
+    private final JfrEventFilter eventFilter;
+
+    /**
+     * @param fromMillis epoch millis of the start of the range, or null for unbounded
+     * @param toMillis epoch millis of the end of the range, or null for unbounded
+     * @throws IllegalArgumentException if the range ends before it starts
+     */
+    public JfrChunkSelector(Long fromMillis, Long toMillis) {
+        this(fromMillis, toMillis, Set.of());
+    }
+
+    /**
+     * @param eventTypes names of the event types to keep, ex. "jdk.ExecutionSample", or empty to
+     *     keep every event
+     * @throws IllegalArgumentException if the range ends before it starts
+     */
+    public JfrChunkSelector(Long fromMillis, Long toMillis, Set<String> eventTypes) {
+        if (fromMillis != null && toMillis != null && fromMillis > toMillis) {
+            throw new IllegalArgumentException("Time range must not end before it starts");
+        }
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        this.fromNanos = fromMillis == null ? null : TimeUnit.MILLISECONDS.toNanos(fromMillis);
+        this.toNanos = toMillis == null ? null : TimeUnit.MILLISECONDS.toNanos(toMillis);
+        this.eventTypes = Set.copyOf(eventTypes);
+        this.eventFilter = this.eventTypes.isEmpty() ? null : new JfrEventFilter(this.eventTypes);
+    }
+
+    public Long getFromMillis() {
+        return fromMillis;
+    }
+
+    public Long getToMillis() {
+        return toMillis;
+    }
+
+    public Set<String> getEventTypes() {
+        return eventTypes;
+    }
+
+    /**
+     * Whether events are selected by type, in which case each chunk must be read more than once.
+     * Streams are then copied with {@link #copy(InputStream, WritableByteChannel, FileChannel)}.
+     */
+    public boolean selectsEvents() {
+        return eventFilter != null;
+    }
+
+    boolean includes(JfrChunkHeader chunk) {
+        if (fromNanos != null && chunk.getEndNanos() < fromNanos) {
+            return false;
+        }
+        if (toNanos != null && chunk.getStartNanos() > toNanos) {
+            return false;
+        }
+        return true;
+    }
+
+    /** @return the number of bytes written */
+    public long copy(FileChannel in, WritableByteChannel out) throws IOException {
+        long written = 0;
+        for (JfrChunkHeader chunk : JfrChunkHeader.readAll(in)) {
+            if (!includes(chunk)) {
+                continue;
+            }
+            if (eventFilter != null) {
+                written += eventFilter.filter(in, chunk, out);
+                continue;
+            }
+            long position = chunk.getOffset();
+            long end = chunk.getOffset() + chunk.getSize();
+            while (position < end) {
+                long n = in.transferTo(position, end - position, out);
+                if (n <= 0) {
+                    throw new IOException("Recording was truncated while copying its chunks");
+                }
+                position += n;
+            }
+            written += chunk.getSize();
+        }
+        return written;
+    }
+
+    /**
+     * Reads the recording from a stream, such as one opened on a target JVM. Reading stops at the
+     * end of the stream or at the first region not starting with a chunk header. The stream cannot
+     * be rewound, so chunks are written out as they are read, and a trailing partial chunk is
+     * truncated from the output again once found.
+     *
+     * @return the number of bytes written
+     */
+    public long copy(InputStream in, FileChannel out) throws IOException {
+        long start = out.position();
+        try {
+            return copy(in, (WritableByteChannel) out);
+        } catch (PartialChunkException e) {
+            out.truncate(start + e.getWritten());
+            return e.getWritten();
+        }
+    }
+
+    /**
+     * As {@link #copy(InputStream, FileChannel)}, for output which cannot be taken back once
+     * written, such as a response. If the stream ends within a chunk which is being copied, this
+     * fails with a {@link PartialChunkException} instead.
+     *
+     * @return the number of bytes written
+     */
+    public long copy(InputStream in, WritableByteChannel out) throws IOException {
+        if (eventFilter != null) {
+            throw new IllegalStateException("Selecting events from a stream needs a scratch file");
+        }
+        byte[] buf = new byte[BUFFER_SIZE];
+        ByteBuffer header =
+                ByteBuffer.wrap(buf, 0, JfrChunkHeader.HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        long offset = 0;
+        long written = 0;
+        while (readFully(in, buf, JfrChunkHeader.HEADER_SIZE)) {
+            header.clear();
+            JfrChunkHeader chunk = JfrChunkHeader.parse(header, offset);
+            if (chunk == null || chunk.getSize() < JfrChunkHeader.HEADER_SIZE) {
+                break;
+            }
+            boolean include = includes(chunk);
+            if (include) {
+                write(out, buf, JfrChunkHeader.HEADER_SIZE);
+            }
+            long remaining = chunk.getSize() - JfrChunkHeader.HEADER_SIZE;
+            while (remaining > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (n < 0) {
+                    if (include) {
+                        throw new PartialChunkException(written);
+                    }
+                    return written;
+                }
+                if (include) {
+                    write(out, buf, n);
+                }
+                remaining -= n;
+            }
+            if (include) {
+                written += chunk.getSize();
+            }
+            offset += chunk.getSize();
+        }
+        return written;
+    }
+
+    /**
+     * As {@link #copy(InputStream, WritableByteChannel)}, first reading each chunk to be copied
+     * into the scratch file, which therefore holds at most one chunk at a time. A chunk is only
+     * written out once complete, so a trailing partial chunk is left out of any output.
+     *
+     * @return the number of bytes written
+     */
+    public long copy(InputStream in, WritableByteChannel out, FileChannel scratch)
+            throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        ByteBuffer header =
+                ByteBuffer.wrap(buf, 0, JfrChunkHeader.HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        long offset = 0;
+        long written = 0;
+        while (readFully(in, buf, JfrChunkHeader.HEADER_SIZE)) {
+            header.clear();
+            JfrChunkHeader chunk = JfrChunkHeader.parse(header, offset);
+            if (chunk == null || chunk.getSize() < JfrChunkHeader.HEADER_SIZE) {
+                break;
+            }
+            boolean include = includes(chunk);
+            if (include) {
+                scratch.truncate(0);
+                scratch.position(0);
+                write(scratch, buf, JfrChunkHeader.HEADER_SIZE);
+            }
+            long remaining = chunk.getSize() - JfrChunkHeader.HEADER_SIZE;
+            while (remaining > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (n < 0) {
+                    return written;
+                }
+                if (include) {
+                    write(scratch, buf, n);
+                }
+                remaining -= n;
+            }
+            if (include) {
+                written += copy(scratch, out);
+            }
+            offset += chunk.getSize();
+        }
+        return written;
+    }
+
+    /** Thrown when a stream being copied ends after part of its last chunk was written. */
+    public static class PartialChunkException extends IOException {
+        private final long written;
+
+        PartialChunkException(long written) {
+            super("Recording ended within a chunk");
+            this.written = written;
+        }
+
+        /** @return the number of bytes written for the preceding, complete chunks */
+        public long getWritten() {
+            return written;
+        }
+    }
+
+    private static void write(WritableByteChannel out, byte[] buf, int len) throws IOException {
+        ByteBuffer src = ByteBuffer.wrap(buf, 0, len);
+        while (src.hasRemaining()) {
+            out.write(src);
+        }
+    }
+
+    private static boolean readFully(InputStream in, byte[] buf, int len) throws IOException {
+        int read = 0;
+        while (read < len) {
+            int n = in.read(buf, read, len - read);
+            if (n < 0) {
+                return false;
+            }
+            read += n;
+        }
+        return true;
+    }
+}
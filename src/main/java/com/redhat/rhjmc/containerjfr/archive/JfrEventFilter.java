@@ -0,0 +1,498 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites a JFR chunk to contain only events of the selected types. Events are size-prefixed
+ * records, so unwanted ones can be skipped without being parsed. The metadata and constant pool
+ * events are always kept, and the chunk header's size and offsets, as well as the links between
+ * constant pool events, are patched to account for the dropped events.
+ *
+ * <p>The chunk is read twice, first to find the size of the result, which the header must give
+ * before any events, and then to write it. Only the event type names and the positions of the
+ * constant pool events are held in memory, in addition to a fixed-size read buffer.
+ */
+class JfrEventFilter {
+
+    static final long METADATA_TYPE = 0;
+    static final long CHECKPOINT_TYPE = 1;
+
+    // type, start time, duration and link to the previous constant pool, at up to 9 bytes each
+    private static final int MAX_CHECKPOINT_FIELDS_SIZE = 4 * 9;
+
+    private final Set<String> eventTypes;
+
+    JfrEventFilter(Set<String> eventTypes) {
+        this.eventTypes = eventTypes;
+    }
+
+    /**
+     * Writes the chunk with only the selected events to the output, leaving it out entirely if it
+     * contains none of them.
+     *
+     * @return the number of bytes written
+     */
+    long filter(FileChannel in, JfrChunkHeader chunk, WritableByteChannel out) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(JfrChunkHeader.HEADER_SIZE);
+        header.order(ByteOrder.BIG_ENDIAN);
+        while (header.hasRemaining()) {
+            if (in.read(header, chunk.getOffset() + header.position()) < 0) {
+                throw new EOFException("Recording was truncated while filtering its events");
+            }
+        }
+        if (chunk.getMajorVersion() < 2) {
+            throw new IOException(
+                    String.format(
+                            "Event types cannot be selected from JFR %d.%d recordings",
+                            chunk.getMajorVersion(), chunk.getMinorVersion()));
+        }
+        long constantPoolOffset = header.getLong(16);
+        long metadataOffset = header.getLong(24);
+        boolean compressed = (header.getInt(64) & 1) != 0;
+
+        Reader reader = new Reader(in, compressed);
+        reader.seek(chunk.getOffset() + metadataOffset);
+        Set<Long> ids = readEventTypeIds(reader);
+
+        Pass measured = new Pass(reader, chunk, constantPoolOffset, metadataOffset, ids, null);
+        measured.run();
+        if (measured.selectedEvents == 0) {
+            return 0;
+        }
+        header.putLong(8, measured.length);
+        header.putLong(16, measured.newConstantPoolOffset);
+        header.putLong(24, measured.newMetadataOffset);
+        header.rewind();
+        writeFully(out, header);
+        new Pass(reader, chunk, constantPoolOffset, metadataOffset, ids, out).run();
+        return measured.length;
+    }
+
+    /**
+     * Reads the ids of the selected event types from the metadata event, which describes each type
+     * as a "class" element with "name" and "id" attributes.
+     */
+    private Set<Long> readEventTypeIds(Reader reader) throws IOException {
+        reader.readInt(); // size
+        if (reader.readLong() != METADATA_TYPE) {
+            throw new IOException("Chunk metadata offset does not point to its metadata");
+        }
+        reader.readLong(); // start time
+        reader.readLong(); // duration
+        reader.readLong(); // metadata id
+        int count = reader.readInt();
+        if (count < 0) {
+            throw new IOException("Chunk metadata is malformed");
+        }
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            strings[i] = reader.readString();
+        }
+        Set<Long> ids = new HashSet<>();
+        readElement(reader, strings, ids);
+        return ids;
+    }
+
+    private void readElement(Reader reader, String[] strings, Set<Long> ids) throws IOException {
+        String element = string(strings, reader.readInt());
+        int attributeCount = reader.readInt();
+        Map<String, String> attributes = new HashMap<>();
+        for (int i = 0; i < attributeCount; i++) {
+            attributes.put(string(strings, reader.readInt()), string(strings, reader.readInt()));
+        }
+        if ("class".equals(element) && eventTypes.contains(attributes.get("name"))) {
+            try {
+                ids.add(Long.parseLong(attributes.get("id")));
+            } catch (NumberFormatException e) {
+                throw new IOException("Chunk metadata has a malformed type id", e);
+            }
+        }
+        int childCount = reader.readInt();
+        for (int i = 0; i < childCount; i++) {
+            readElement(reader, strings, ids);
+        }
+    }
+
+    private static String string(String[] strings, int index) throws IOException {
+        if (index < 0 || index >= strings.length) {
+            throw new IOException("Chunk metadata refers to a missing string");
+        }
+        return strings[index];
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            out.write(src);
+        }
+    }
+
+    /**
+     * One walk over the events of a chunk, measuring the filtered result and, given an output,
+     * writing it. Runs of adjacent kept events are copied together.
+     */
+    private static class Pass {
+        private final Reader reader;
+        private final long base;
+        private final long end;
+        private final long constantPoolOffset;
+        private final long metadataOffset;
+        private final Set<Long> ids;
+        private final WritableByteChannel out;
+        // positions of constant pool events in the original chunk and in the result
+        private final Map<Long, Long> checkpoints = new HashMap<>();
+
+        long length = JfrChunkHeader.HEADER_SIZE;
+        long newConstantPoolOffset = -1;
+        long newMetadataOffset = -1;
+        long selectedEvents;
+
+        private long runStart;
+        private long runEnd;
+
+        Pass(
+                Reader reader,
+                JfrChunkHeader chunk,
+                long constantPoolOffset,
+                long metadataOffset,
+                Set<Long> ids,
+                WritableByteChannel out) {
+            this.reader = reader;
+            this.base = chunk.getOffset();
+            this.end = chunk.getOffset() + chunk.getSize();
+            this.constantPoolOffset = constantPoolOffset;
+            this.metadataOffset = metadataOffset;
+            this.ids = ids;
+            this.out = out;
+        }
+
+        void run() throws IOException {
+            long position = base + JfrChunkHeader.HEADER_SIZE;
+            while (position < end) {
+                reader.seek(position);
+                long size = reader.readInt();
+                if (size <= 0 || size > end - position) {
+                    throw new IOException("Chunk contains a malformed event");
+                }
+                long type = reader.readLong();
+                long offset = position - base;
+                if (offset == constantPoolOffset) {
+                    newConstantPoolOffset = length;
+                }
+                if (offset == metadataOffset) {
+                    newMetadataOffset = length;
+                }
+                if (type == CHECKPOINT_TYPE) {
+                    copyRun();
+                    checkpoints.put(offset, length);
+                    length += copyCheckpoint(position, size);
+                } else if (type == METADATA_TYPE || ids.contains(type)) {
+                    if (type != METADATA_TYPE) {
+                        selectedEvents++;
+                    }
+                    if (runEnd != position) {
+                        copyRun();
+                        runStart = position;
+                    }
+                    runEnd = position + size;
+                    length += size;
+                }
+                position += size;
+            }
+            copyRun();
+            if (newConstantPoolOffset < 0 || newMetadataOffset < 0) {
+                throw new IOException("Chunk header offsets do not point to events");
+            }
+        }
+
+        /**
+         * Copies a constant pool event, rewriting its link to the previous one. The event begins
+         * with its size, type, start time, duration and the offset of the previous constant pool
+         * event relative to its own, or 0 for the first.
+         *
+         * @return the size of the rewritten event
+         */
+        private long copyCheckpoint(long position, long size) throws IOException {
+            reader.seek(position);
+            reader.readInt();
+            int sizeWidth = (int) (reader.position() - position);
+            reader.readLong(); // type
+            reader.readLong(); // start time
+            reader.readLong(); // duration
+            long fieldsEnd = reader.position();
+            long delta = reader.readLong();
+            int deltaWidth = (int) (reader.position() - fieldsEnd);
+            long restStart = reader.position();
+
+            long newDelta = 0;
+            if (delta != 0) {
+                Long previous = checkpoints.get(position - base + delta);
+                if (previous == null) {
+                    throw new IOException("Chunk constant pools are not linked in order");
+                }
+                newDelta = previous - length;
+            }
+            ByteBuffer fields = ByteBuffer.allocate(MAX_CHECKPOINT_FIELDS_SIZE);
+            reader.copy(position + sizeWidth, (int) (fieldsEnd - position - sizeWidth), fields);
+            reader.encodeLong(fields, newDelta, deltaWidth);
+            fields.flip();
+            long rest = position + size - restStart;
+            long bodySize = fields.remaining() + rest;
+
+            ByteBuffer sizeField = ByteBuffer.allocate(9);
+            int width = sizeWidth;
+            while (true) {
+                sizeField.clear();
+                reader.encodeInt(sizeField, bodySize + width, sizeWidth);
+                if (sizeField.position() == width) {
+                    break;
+                }
+                width = sizeField.position();
+            }
+            sizeField.flip();
+            if (out != null) {
+                writeFully(out, sizeField);
+                writeFully(out, fields);
+                reader.transferTo(restStart, rest, out);
+            }
+            return width + bodySize;
+        }
+
+        private void copyRun() throws IOException {
+            if (runEnd > runStart && out != null) {
+                reader.transferTo(runStart, runEnd - runStart, out);
+            }
+            runStart = runEnd = 0;
+        }
+    }
+
+    /**
+     * Reads the integers and strings of a chunk through a fixed-size buffer. Chunks usually store
+     * integers in a variable-length encoding of 7 bits per byte, where the ninth byte of a long
+     * holds a full 8 bits, and otherwise as plain big-endian values.
+     */
+    private static class Reader {
+        private final FileChannel in;
+        private final boolean compressed;
+        private final ByteBuffer window;
+        private long windowStart;
+        private long position;
+
+        Reader(FileChannel in, boolean compressed) {
+            this.in = in;
+            this.compressed = compressed;
+            this.window = ByteBuffer.allocate(JfrChunkSelector.BUFFER_SIZE);
+            this.window.order(ByteOrder.BIG_ENDIAN).flip();
+        }
+
+        long position() {
+            return position;
+        }
+
+        void seek(long position) {
+            this.position = position;
+        }
+
+        byte readByte() throws IOException {
+            ensure(1);
+            return window.get((int) (position++ - windowStart));
+        }
+
+        int readInt() throws IOException {
+            if (!compressed) {
+                ensure(4);
+                int value = window.getInt((int) (position - windowStart));
+                position += 4;
+                return value;
+            }
+            return (int) readVarLong();
+        }
+
+        long readLong() throws IOException {
+            if (!compressed) {
+                ensure(8);
+                long value = window.getLong((int) (position - windowStart));
+                position += 8;
+                return value;
+            }
+            return readVarLong();
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                byte b = readByte();
+                value |= (b & 0x7FL) << (7 * i);
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            return value | ((readByte() & 0xFFL) << 56);
+        }
+
+        String readString() throws IOException {
+            byte encoding = readByte();
+            switch (encoding) {
+                case 0:
+                    return null;
+                case 1:
+                    return "";
+                case 2:
+                    readLong(); // reference into a constant pool, not used in metadata
+                    return null;
+                case 3:
+                case 5:
+                    {
+                        int length = readInt();
+                        if (length < 0) {
+                            throw new IOException("Chunk contains a malformed string");
+                        }
+                        byte[] bytes = new byte[length];
+                        for (int i = 0; i < length; i++) {
+                            bytes[i] = readByte();
+                        }
+                        return new String(
+                                bytes,
+                                encoding == 3
+                                        ? StandardCharsets.UTF_8
+                                        : StandardCharsets.ISO_8859_1);
+                    }
+                case 4:
+                    {
+                        int length = readInt();
+                        if (length < 0) {
+                            throw new IOException("Chunk contains a malformed string");
+                        }
+                        StringBuilder sb = new StringBuilder(length);
+                        for (int i = 0; i < length; i++) {
+                            sb.append((char) readInt());
+                        }
+                        return sb.toString();
+                    }
+                default:
+                    throw new IOException(
+                            String.format(
+                                    "Chunk contains a string of unknown encoding %d", encoding));
+            }
+        }
+
+        /** Copies raw bytes from the given position into the buffer. */
+        void copy(long from, int length, ByteBuffer dst) throws IOException {
+            seek(from);
+            ensure(length);
+            for (int i = 0; i < length; i++) {
+                dst.put(window.get((int) (position++ - windowStart)));
+            }
+        }
+
+        void encodeInt(ByteBuffer dst, long value, int width) {
+            if (!compressed) {
+                dst.putInt((int) value);
+                return;
+            }
+            encodeVarLong(dst, value, width);
+        }
+
+        void encodeLong(ByteBuffer dst, long value, int width) {
+            if (!compressed) {
+                dst.putLong(value);
+                return;
+            }
+            encodeVarLong(dst, value, width);
+        }
+
+        /**
+         * Writes the value in at least the given number of bytes, as writers pad some fields so
+         * that they can be filled in later. Keeping their width keeps the event's size unchanged.
+         */
+        private static void encodeVarLong(ByteBuffer dst, long value, int width) {
+            long rest = value;
+            for (int i = 0; i < 8; i++) {
+                if ((rest & ~0x7FL) == 0 && i + 1 >= width) {
+                    dst.put((byte) rest);
+                    return;
+                }
+                dst.put((byte) ((rest & 0x7F) | 0x80));
+                rest >>>= 7;
+            }
+            dst.put((byte) rest);
+        }
+
+        void transferTo(long from, long length, WritableByteChannel out) throws IOException {
+            long position = from;
+            long end = from + length;
+            while (position < end) {
+                long n = in.transferTo(position, end - position, out);
+                if (n <= 0) {
+                    throw new EOFException("Recording was truncated while filtering its events");
+                }
+                position += n;
+            }
+        }
+
+        private void ensure(int length) throws IOException {
+            if (position >= windowStart && position + length <= windowStart + window.limit()) {
+                return;
+            }
+            window.clear();
+            windowStart = position;
+            while (window.position() < length) {
+                if (in.read(window, windowStart + window.position()) < 0) {
+                    window.flip();
+                    throw new EOFException("Recording was truncated while filtering its events");
+                }
+            }
+            window.flip();
+        }
+    }
+}
@@ -0,0 +1,648 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+import com.redhat.rhjmc.containerjfr.sys.FileSystem;
+
+import io.vertx.core.Context;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.ext.web.client.HttpRequest;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+
+/**
+ * Keeps recordings as objects in a bucket of an S3-compatible object store, such as AWS S3 or
+ * MinIO, addressed path-style as {@code <endpoint>/<bucket>/<prefix><name>}.
+ *
+ * <p>Recordings are uploaded with multipart uploads of {@link #PART_SIZE_ENV} bytes, so at most one
+ * part of a recording is held in memory while it is written and nothing is staged on local disk.
+ * Likewise they are read back with successive part-sized ranged GETs rather than one long-lived
+ * response. Listing the bucket is only needed to build the {@link ArchiveIndex}; everything else is
+ * served from the index.
+ *
+ * <p>Requests are sent with the application's Vert.x {@link WebClient} and the calling thread waits
+ * for each response, so like all other archive operations this storage may only be used from worker
+ * threads, never from an event loop. A request which has not completed within {@link
+ * #REQUEST_TIMEOUT_ENV} seconds fails with an {@link IOException}, so an unresponsive endpoint
+ * cannot hold those threads indefinitely.
+ */
+public class S3ArchiveStorage implements ArchiveStorage {
+
+    static final String ENDPOINT_ENV = "CONTAINER_JFR_S3_ENDPOINT";
+    static final String BUCKET_ENV = "CONTAINER_JFR_S3_BUCKET";
+    static final String REGION_ENV = "CONTAINER_JFR_S3_REGION";
+    static final String ACCESS_KEY_ENV = "CONTAINER_JFR_S3_ACCESS_KEY";
+    static final String SECRET_KEY_ENV = "CONTAINER_JFR_S3_SECRET_KEY";
+    static final String PREFIX_ENV = "CONTAINER_JFR_S3_PREFIX";
+    static final String PART_SIZE_ENV = "CONTAINER_JFR_S3_PART_SIZE";
+    static final String REQUEST_TIMEOUT_ENV = "CONTAINER_JFR_S3_REQUEST_TIMEOUT_SECONDS";
+
+    static final String DEFAULT_REGION = "us-east-1";
+    // the smallest part size S3 accepts for all but the last part of a multipart upload
+    static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+    static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+    static final long DEFAULT_REQUEST_TIMEOUT_SECONDS = 60;
+
+    private final String baseUri;
+    private final String prefix;
+    private final int partSize;
+    private final long requestTimeoutMs;
+    private final S3RequestSigner signer;
+    private final WebClient http;
+    private final FileSystem fs;
+    private final Clock clock;
+    private final Logger logger;
+
+    S3ArchiveStorage(
+            URI endpoint,
+            String bucket,
+            String prefix,
+            int partSize,
+            long requestTimeoutMs,
+            S3RequestSigner signer,
+            WebClient http,
+            FileSystem fs,
+            Clock clock,
+            Logger logger) {
+        this.baseUri =
+                String.format(
+                        "%s/%s/",
+                        StringUtils.removeEnd(endpoint.toString(), "/"),
+                        S3RequestSigner.encode(bucket, true));
+        this.prefix = prefix;
+        this.partSize = partSize;
+        this.requestTimeoutMs = requestTimeoutMs;
+        this.signer = signer;
+        this.http = http;
+        this.fs = fs;
+        this.clock = clock;
+        this.logger = logger;
+    }
+
+    /** @throws IllegalArgumentException if the environment does not configure a usable store */
+    static S3ArchiveStorage fromEnvironment(
+            Environment env, WebClient http, FileSystem fs, Clock clock, Logger logger) {
+        String endpoint = env.getEnv(ENDPOINT_ENV, "").trim();
+        String bucket = env.getEnv(BUCKET_ENV, "").trim();
+        String accessKey = env.getEnv(ACCESS_KEY_ENV, "").trim();
+        String secretKey = env.getEnv(SECRET_KEY_ENV, "").trim();
+        if (StringUtils.isAnyBlank(endpoint, bucket, accessKey, secretKey)) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "%s, %s, %s and %s must all be set",
+                            ENDPOINT_ENV, BUCKET_ENV, ACCESS_KEY_ENV, SECRET_KEY_ENV));
+        }
+        URI endpointUri;
+        try {
+            endpointUri = new URI(endpoint);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid %s \"%s\"", ENDPOINT_ENV, endpoint), e);
+        }
+        if (endpointUri.getHost() == null) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid %s \"%s\"", ENDPOINT_ENV, endpoint));
+        }
+        int partSize = DEFAULT_PART_SIZE;
+        String partSizeValue = env.getEnv(PART_SIZE_ENV, "").trim();
+        if (!partSizeValue.isEmpty()) {
+            try {
+                partSize = Math.max(MIN_PART_SIZE, Integer.parseInt(partSizeValue));
+            } catch (NumberFormatException e) {
+                logger.warn(
+                        String.format(
+                                "Invalid %s \"%s\", using %d",
+                                PART_SIZE_ENV, partSizeValue, DEFAULT_PART_SIZE));
+            }
+        }
+        long requestTimeoutSeconds = DEFAULT_REQUEST_TIMEOUT_SECONDS;
+        String requestTimeoutValue = env.getEnv(REQUEST_TIMEOUT_ENV, "").trim();
+        if (!requestTimeoutValue.isEmpty()) {
+            try {
+                requestTimeoutSeconds = Math.max(1, Long.parseLong(requestTimeoutValue));
+            } catch (NumberFormatException e) {
+                logger.warn(
+                        String.format(
+                                "Invalid %s \"%s\", using %d",
+                                REQUEST_TIMEOUT_ENV,
+                                requestTimeoutValue,
+                                DEFAULT_REQUEST_TIMEOUT_SECONDS));
+            }
+        }
+        return new S3ArchiveStorage(
+                endpointUri,
+                bucket,
+                env.getEnv(PREFIX_ENV, "").trim(),
+                partSize,
+                TimeUnit.SECONDS.toMillis(requestTimeoutSeconds),
+                new S3RequestSigner(
+                        env.getEnv(REGION_ENV, DEFAULT_REGION).trim(), accessKey, secretKey),
+                http,
+                fs,
+                clock,
+                logger);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public List<StoredRecording> list() throws IOException {
+        List<StoredRecording> recordings = new ArrayList<>();
+        String continuationToken = null;
+        do {
+            String uri =
+                    String.format(
+                            "%s?list-type=2&delimiter=%%2F&prefix=%s",
+                            baseUri, S3RequestSigner.encode(prefix, true));
+            if (continuationToken != null) {
+                uri += "&continuation-token=" + S3RequestSigner.encode(continuationToken, true);
+            }
+            HttpResponse<Buffer> response = send(HttpMethod.GET, uri);
+            checkStatus(response, "List");
+            Element result = parseXml(response.body());
+            NodeList contents = result.getElementsByTagName("Contents");
+            for (int i = 0; i < contents.getLength(); i++) {
+                Element object = (Element) contents.item(i);
+                String name = StringUtils.removeStart(text(object, "Key"), prefix);
+                if (!ArchiveLayout.isArchivedFileName(name)) {
+                    continue;
+                }
+                recordings.add(
+                        new StoredRecording(
+                                name,
+                                Long.parseLong(text(object, "Size")),
+                                Instant.parse(text(object, "LastModified")).toEpochMilli()));
+            }
+            continuationToken =
+                    Boolean.parseBoolean(text(result, "IsTruncated"))
+                            ? text(result, "NextContinuationToken")
+                            : null;
+        } while (continuationToken != null);
+        return recordings;
+    }
+
+    @Override
+    public Optional<StoredRecording> stat(String name) throws IOException {
+        HttpResponse<Buffer> response = send(HttpMethod.HEAD, objectUri(name));
+        if (response.statusCode() == 404) {
+            return Optional.empty();
+        }
+        checkStatus(response, "Stat");
+        String length = response.getHeader("Content-Length");
+        String lastModified = response.getHeader("Last-Modified");
+        long modified = 0;
+        if (lastModified != null) {
+            try {
+                modified =
+                        ZonedDateTime.parse(lastModified, DateTimeFormatter.RFC_1123_DATE_TIME)
+                                .toInstant()
+                                .toEpochMilli();
+            } catch (DateTimeParseException e) {
+                logger.warn(e);
+            }
+        }
+        return Optional.of(
+                new StoredRecording(name, length == null ? 0 : Long.parseLong(length), modified));
+    }
+
+    @Override
+    public InputStream read(String name) throws IOException {
+        StoredRecording recording = stat(name).orElseThrow(() -> new NoSuchFileException(name));
+        return new RangedObjectInputStream(name, 0, recording.getSize(), true);
+    }
+
+    @Override
+    public InputStream read(String name, long offset, long length) throws IOException {
+        if (length <= 0) {
+            return InputStream.nullInputStream();
+        }
+        RangedObjectInputStream in =
+                new RangedObjectInputStream(name, offset, offset + length, false);
+        // fetch the first part eagerly so that a missing object is reported here
+        in.fill();
+        return in;
+    }
+
+    @Override
+    public long write(String name, InputStream source) throws IOException {
+        byte[] part = new byte[partSize];
+        int n = source.readNBytes(part, 0, partSize);
+        if (n < partSize) {
+            checkStatus(send(HttpMethod.PUT, objectUri(name), part, n), "Write");
+            return n;
+        }
+
+        String uploadId = initiateUpload(name);
+        try {
+            List<String> etags = new ArrayList<>();
+            long written = 0;
+            while (n > 0) {
+                etags.add(uploadPart(name, uploadId, etags.size() + 1, part, n));
+                written += n;
+                n = source.readNBytes(part, 0, partSize);
+            }
+            completeUpload(name, uploadId, etags);
+            return written;
+        } catch (IOException | RuntimeException e) {
+            abortUpload(name, uploadId);
+            throw e;
+        }
+    }
+
+    @Override
+    public Path createStagingFile(String name) throws IOException {
+        ArchiveStorage.checkName(name);
+        return fs.createTempFile(null, ".jfr");
+    }
+
+    @Override
+    public void store(Path source, String name) throws IOException {
+        try (InputStream in = fs.newInputStream(source)) {
+            write(name, in);
+        }
+    }
+
+    @Override
+    public boolean delete(String name) throws IOException {
+        if (!exists(name)) {
+            return false;
+        }
+        checkStatus(send(HttpMethod.DELETE, objectUri(name)), "Delete");
+        return true;
+    }
+
+    @Override
+    public Optional<Path> getLocalRoot() {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Path> localPath(String name) {
+        return Optional.empty();
+    }
+
+    @Override
+    public long getUsableSpace() {
+        return Long.MAX_VALUE;
+    }
+
+    private String initiateUpload(String name) throws IOException {
+        HttpResponse<Buffer> response = send(HttpMethod.POST, objectUri(name) + "?uploads=");
+        checkStatus(response, "Write");
+        String uploadId = text(parseXml(response.body()), "UploadId");
+        if (uploadId == null) {
+            throw new IOException(String.format("S3 Write of %s returned no upload ID", name));
+        }
+        return uploadId;
+    }
+
+    private String uploadPart(String name, String uploadId, int partNumber, byte[] part, int length)
+            throws IOException {
+        HttpResponse<Buffer> response =
+                send(
+                        HttpMethod.PUT,
+                        String.format(
+                                "%s?partNumber=%d&uploadId=%s",
+                                objectUri(name),
+                                partNumber,
+                                S3RequestSigner.encode(uploadId, true)),
+                        part,
+                        length);
+        checkStatus(response, "Write");
+        String etag = response.getHeader("ETag");
+        if (etag == null) {
+            throw new IOException(
+                    String.format("S3 Write of %s part %d returned no ETag", name, partNumber));
+        }
+        return etag;
+    }
+
+    private void completeUpload(String name, String uploadId, List<String> etags)
+            throws IOException {
+        StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+        for (int i = 0; i < etags.size(); i++) {
+            body.append(
+                    String.format(
+                            "<Part><PartNumber>%d</PartNumber><ETag>%s</ETag></Part>",
+                            i + 1, escapeXml(etags.get(i))));
+        }
+        body.append("</CompleteMultipartUpload>");
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        HttpResponse<Buffer> response =
+                send(HttpMethod.POST, uploadUri(name, uploadId), bytes, bytes.length);
+        checkStatus(response, "Write");
+        // errors which occur after the response has started are reported with a 200 status
+        Element result = parseXml(response.body());
+        if ("Error".equals(result.getTagName())) {
+            throw new IOException(
+                    String.format("S3 Write of %s failed: %s", name, text(result, "Code")));
+        }
+    }
+
+    private void abortUpload(String name, String uploadId) {
+        try {
+            checkStatus(send(HttpMethod.DELETE, uploadUri(name, uploadId)), "Abort");
+        } catch (IOException | RuntimeException e) {
+            // the bucket's lifecycle rules are left to clean up the parts already uploaded
+            logger.warn(e);
+        }
+    }
+
+    /** @return the part of the object in the range, shorter if the object ends first */
+    private Buffer readRange(String name, long offset, long length) throws IOException {
+        HttpResponse<Buffer> response =
+                send(
+                        HttpMethod.GET,
+                        objectUri(name),
+                        String.format("bytes=%d-%d", offset, offset + length - 1),
+                        null,
+                        0);
+        if (response.statusCode() == 404) {
+            throw new NoSuchFileException(name);
+        }
+        if (response.statusCode() == 416) {
+            return Buffer.buffer();
+        }
+        checkStatus(response, "Read");
+        if (response.statusCode() != 206) {
+            throw new IOException(String.format("S3 Read of %s ignored the requested range", name));
+        }
+        return response.body() == null ? Buffer.buffer() : response.body();
+    }
+
+    private HttpResponse<Buffer> send(HttpMethod method, String uri) throws IOException {
+        return send(method, uri, null, null, 0);
+    }
+
+    private HttpResponse<Buffer> send(HttpMethod method, String uri, byte[] body, int length)
+            throws IOException {
+        return send(method, uri, null, body, length);
+    }
+
+    private HttpResponse<Buffer> send(
+            HttpMethod method, String uri, String range, byte[] body, int length)
+            throws IOException {
+        if (Context.isOnEventLoopThread()) {
+            throw new IllegalStateException("S3 requests must not be made from an event loop");
+        }
+        HttpRequest<Buffer> request = http.requestAbs(method, uri).timeout(requestTimeoutMs);
+        if (range != null) {
+            request.putHeader("Range", range);
+        }
+        signer.sign(
+                method.name(),
+                URI.create(uri),
+                request.headers(),
+                body == null
+                        ? S3RequestSigner.EMPTY_PAYLOAD_SHA256
+                        : DigestUtils.sha256Hex(new ByteArrayInputStream(body, 0, length)),
+                clock.now());
+        CompletableFuture<HttpResponse<Buffer>> future = new CompletableFuture<>();
+        if (body == null) {
+            request.send(
+                    ar -> {
+                        if (ar.failed()) {
+                            future.completeExceptionally(ar.cause());
+                        } else {
+                            future.complete(ar.result());
+                        }
+                    });
+        } else {
+            request.sendBuffer(
+                    Buffer.buffer(length).appendBytes(body, 0, length),
+                    ar -> {
+                        if (ar.failed()) {
+                            future.completeExceptionally(ar.cause());
+                        } else {
+                            future.complete(ar.result());
+                        }
+                    });
+        }
+        try {
+            // the request timeout only applies while no data arrives, so also bound the whole
+            // exchange rather than let a trickling endpoint hold this worker indefinitely
+            return future.get(requestTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (TimeoutException e) {
+            throw new IOException(
+                    String.format(
+                            "S3 %s request timed out after %d ms", method.name(), requestTimeoutMs),
+                    e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private String objectUri(String name) {
+        ArchiveStorage.checkName(name);
+        return baseUri + S3RequestSigner.encode(prefix + name, false);
+    }
+
+    private String uploadUri(String name, String uploadId) {
+        return objectUri(name) + "?uploadId=" + S3RequestSigner.encode(uploadId, true);
+    }
+
+    private static void checkStatus(HttpResponse<Buffer> response, String operation)
+            throws IOException {
+        int status = response.statusCode();
+        if (status >= 200 && status < 300) {
+            return;
+        }
+        String code = response.statusMessage();
+        if (response.body() != null && response.body().length() > 0) {
+            try {
+                String errorCode = text(parseXml(response.body()), "Code");
+                if (errorCode != null) {
+                    code = errorCode;
+                }
+            } catch (IOException e) {
+                // not an S3 error document, keep the reason phrase
+            }
+        }
+        throw new IOException(String.format("S3 %s failed: %d %s", operation, status, code));
+    }
+
+    static Element parseXml(Buffer body) throws IOException {
+        if (body == null || body.length() == 0) {
+            throw new IOException("Empty S3 response");
+        }
+        try (InputStream in = new ByteArrayInputStream(body.getBytes())) {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            // responses are only ever plain documents, so refuse anything which could make the
+            // parser reach out to other resources
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+            factory.setXIncludeAware(false);
+            factory.setExpandEntityReferences(false);
+            Document document = factory.newDocumentBuilder().parse(in);
+            return document.getDocumentElement();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Invalid S3 response", e);
+        }
+    }
+
+    private static String text(Element parent, String tagName) {
+        NodeList nodes = parent.getElementsByTagName(tagName);
+        return nodes.getLength() == 0 ? null : nodes.item(0).getTextContent();
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace(">", "&gt;")
+                .replace("\"", "&quot;");
+    }
+
+    /**
+     * Reads part of an object as a sequence of part-sized ranged reads, holding at most one part in
+     * memory.
+     */
+    private class RangedObjectInputStream extends InputStream {
+        private final String name;
+        // whether the object is known to extend to the end of the range
+        private final boolean exact;
+        private long end;
+        private long position;
+        private Buffer current;
+        private int currentPosition;
+
+        RangedObjectInputStream(String name, long position, long end, boolean exact) {
+            this.name = name;
+            this.position = position;
+            this.end = end;
+            this.exact = exact;
+        }
+
+        void fill() throws IOException {
+            if (position >= end || (current != null && currentPosition < current.length())) {
+                return;
+            }
+            long requested = Math.min(partSize, end - position);
+            current = readRange(name, position, requested);
+            currentPosition = 0;
+            if (current.length() < requested) {
+                if (exact) {
+                    throw new IOException(
+                            String.format(
+                                    "S3 Read of %s ended early at byte %d",
+                                    name, position + current.length()));
+                }
+                // the object ends within this part
+                end = position + current.length();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            fill();
+            if (position >= end) {
+                return -1;
+            }
+            int n = Math.min(len, current.length() - currentPosition);
+            current.getBytes(currentPosition, currentPosition + n, b, off);
+            currentPosition += n;
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            current = null;
+            position = end;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.commons.codec.digest.HmacUtils;
+import io.vertx.core.MultiMap;
+
+/**
+ * Signs requests to an S3-compatible object store with AWS Signature Version 4, as described at
+ * https://docs.aws.amazon.com/AmazonS3/latest/API/sig-v4-header-based-auth.html.
+ */
+class S3RequestSigner {
+
+    static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    static final String CONTENT_SHA256_HEADER = "x-amz-content-sha256";
+    static final String DATE_HEADER = "x-amz-date";
+    static final String EMPTY_PAYLOAD_SHA256 = DigestUtils.sha256Hex(new byte[0]);
+
+    private static final DateTimeFormatter DATE_TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+
+    private final String region;
+    private final String accessKey;
+    private final String secretKey;
+
+    S3RequestSigner(String region, String accessKey, String secretKey) {
+        this.region = region;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+    }
+
+    /**
+     * Adds the date, payload hash and authorization headers to the request headers.
+     *
+     * @param payloadSha256 hex SHA-256 of the request body
+     */
+    void sign(String method, URI uri, MultiMap requestHeaders, String payloadSha256, Instant now) {
+        String dateTime = DATE_TIME_FORMAT.format(now);
+        String scope = String.format("%s/%s/s3/aws4_request", DATE_FORMAT.format(now), region);
+        requestHeaders.set("Host", hostHeader(uri));
+        requestHeaders.set(DATE_HEADER, dateTime);
+        requestHeaders.set(CONTENT_SHA256_HEADER, payloadSha256);
+
+        Map<String, String> headers = new TreeMap<>();
+        for (Map.Entry<String, String> header : requestHeaders) {
+            String name = header.getKey().toLowerCase();
+            if (name.equals("host")
+                    || name.equals("range")
+                    || name.equals("content-md5")
+                    || name.startsWith("x-amz-")) {
+                headers.put(name, header.getValue().trim());
+            }
+        }
+        StringBuilder canonicalHeaders = new StringBuilder();
+        StringJoiner signedHeaders = new StringJoiner(";");
+        headers.forEach(
+                (k, v) -> {
+                    canonicalHeaders.append(k).append(':').append(v).append('\n');
+                    signedHeaders.add(k);
+                });
+
+        String canonicalRequest =
+                String.join(
+                        "\n",
+                        method,
+                        uri.getRawPath().isEmpty() ? "/" : uri.getRawPath(),
+                        canonicalQuery(uri),
+                        canonicalHeaders.toString(),
+                        signedHeaders.toString(),
+                        payloadSha256);
+        String stringToSign =
+                String.join(
+                        "\n",
+                        ALGORITHM,
+                        dateTime,
+                        scope,
+                        DigestUtils.sha256Hex(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+
+        byte[] key =
+                hmac(
+                        ("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8),
+                        DATE_FORMAT.format(now));
+        key = hmac(key, region);
+        key = hmac(key, "s3");
+        key = hmac(key, "aws4_request");
+        String signature = Hex.encodeHexString(hmac(key, stringToSign));
+
+        requestHeaders.set(
+                "Authorization",
+                String.format(
+                        "%s Credential=%s/%s, SignedHeaders=%s, Signature=%s",
+                        ALGORITHM, accessKey, scope, signedHeaders, signature));
+    }
+
+    /** Percent-encodes as required for canonical requests, leaving only unreserved characters. */
+    static String encode(String value, boolean encodeSlash) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z')
+                    || (c >= 'a' && c <= 'z')
+                    || (c >= '0' && c <= '9')
+                    || c == '-'
+                    || c == '_'
+                    || c == '.'
+                    || c == '~'
+                    || (c == '/' && !encodeSlash)) {
+                sb.append(c);
+            } else {
+                sb.append(String.format("%%%02X", b & 0xff));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String canonicalQuery(URI uri) {
+        if (uri.getRawQuery() == null) {
+            return "";
+        }
+        Map<String, String> params = new TreeMap<>();
+        for (String param : uri.getRawQuery().split("&")) {
+            if (param.isEmpty()) {
+                continue;
+            }
+            int eq = param.indexOf('=');
+            String name = eq < 0 ? param : param.substring(0, eq);
+            String value = eq < 0 ? "" : param.substring(eq + 1);
+            params.put(
+                    encode(URLDecoder.decode(name, StandardCharsets.UTF_8), true),
+                    encode(URLDecoder.decode(value, StandardCharsets.UTF_8), true));
+        }
+        StringJoiner query = new StringJoiner("&");
+        params.forEach((k, v) -> query.add(k + "=" + v));
+        return query.toString();
+    }
+
+    private static String hostHeader(URI uri) {
+        return uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        return new HmacUtils(HmacAlgorithms.HMAC_SHA_256, key)
+                .hmac(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
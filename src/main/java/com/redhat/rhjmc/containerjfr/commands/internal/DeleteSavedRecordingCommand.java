@@ -41,15 +41,12 @@
  */
 package com.redhat.rhjmc.containerjfr.commands.internal;
 
-import java.nio.file.Path;
-
 import javax.inject.Inject;
-import javax.inject.Named;
 import javax.inject.Singleton;
 
-import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.commands.SerializableCommand;
-import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
 import com.redhat.rhjmc.containerjfr.core.tui.ClientWriter;
 import com.redhat.rhjmc.containerjfr.net.internal.reports.ReportService;
 
@@ -59,20 +56,20 @@ import com.redhat.rhjmc.containerjfr.net.internal.reports.ReportService;
 class DeleteSavedRecordingCommand implements SerializableCommand {
 
     private final ClientWriter cw;
-    private final FileSystem fs;
-    private final Path recordingsPath;
+    private final ArchiveStorage archiveStorage;
     private final ReportService reportService;
+    private final ArchiveIndex archiveIndex;
 
     @Inject
     DeleteSavedRecordingCommand(
             ClientWriter cw,
-            FileSystem fs,
-            @Named(MainModule.RECORDINGS_PATH) Path recordingsPath,
-            ReportService reportService) {
+            ArchiveStorage archiveStorage,
+            ReportService reportService,
+            ArchiveIndex archiveIndex) {
         this.cw = cw;
-        this.fs = fs;
-        this.recordingsPath = recordingsPath;
+        this.archiveStorage = archiveStorage;
         this.reportService = reportService;
+        this.archiveIndex = archiveIndex;
     }
 
     @Override
@@ -83,7 +80,8 @@ class DeleteSavedRecordingCommand implements SerializableCommand {
     @Override
     public void execute(String[] args) throws Exception {
         String name = args[0];
-        if (fs.deleteIfExists(recordingsPath.resolve(name))) {
+        if (archiveStorage.delete(name)) {
+            archiveIndex.remove(name);
             reportService.delete(name);
             cw.println(String.format("\"%s\" deleted", name));
         } else {
@@ -95,7 +93,8 @@ class DeleteSavedRecordingCommand implements SerializableCommand {
     public Output<?> serializableExecute(String[] args) {
         try {
             String name = args[0];
-            if (fs.deleteIfExists(recordingsPath.resolve(name))) {
+            if (archiveStorage.delete(name)) {
+                archiveIndex.remove(name);
                 reportService.delete(name);
                 return new SuccessOutput();
             } else {
@@ -123,6 +122,6 @@ class DeleteSavedRecordingCommand implements SerializableCommand {
 
     @Override
     public boolean isAvailable() {
-        return fs.isDirectory(recordingsPath);
+        return archiveStorage.isAvailable();
     }
 }
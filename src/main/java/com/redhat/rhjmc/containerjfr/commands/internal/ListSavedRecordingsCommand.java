@@ -44,20 +44,19 @@ package com.redhat.rhjmc.containerjfr.commands.internal;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.URISyntaxException;
-import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.apache.commons.lang3.ArrayUtils;
 
-import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
+import com.redhat.rhjmc.containerjfr.archive.ArchivedRecordingInfo;
 import com.redhat.rhjmc.containerjfr.commands.SerializableCommand;
-import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
 import com.redhat.rhjmc.containerjfr.core.tui.ClientWriter;
 import com.redhat.rhjmc.containerjfr.jmc.serialization.SavedRecordingDescriptor;
 import com.redhat.rhjmc.containerjfr.net.web.WebServer;
@@ -68,19 +67,19 @@ import com.redhat.rhjmc.containerjfr.net.web.WebServer;
 class ListSavedRecordingsCommand implements SerializableCommand {
 
     private final ClientWriter cw;
-    private final FileSystem fs;
-    private final Path recordingsPath;
+    private final ArchiveStorage archiveStorage;
+    private final ArchiveIndex archiveIndex;
     private final WebServer exporter;
 
     @Inject
     ListSavedRecordingsCommand(
             ClientWriter cw,
-            FileSystem fs,
-            @Named(MainModule.RECORDINGS_PATH) Path recordingsPath,
+            ArchiveStorage archiveStorage,
+            ArchiveIndex archiveIndex,
             WebServer exporter) {
         this.cw = cw;
-        this.fs = fs;
-        this.recordingsPath = recordingsPath;
+        this.archiveStorage = archiveStorage;
+        this.archiveIndex = archiveIndex;
         this.exporter = exporter;
     }
 
@@ -92,16 +91,16 @@ class ListSavedRecordingsCommand implements SerializableCommand {
     @Override
     public void execute(String[] args) throws Exception {
         cw.println("Saved recordings:");
-        List<String> saved = fs.listDirectoryChildren(recordingsPath);
+        List<ArchivedRecordingInfo> saved = archiveIndex.list();
         if (saved.isEmpty()) {
             cw.println("\tNone");
         }
-        for (String file : saved) {
+        for (ArchivedRecordingInfo info : saved) {
             SavedRecordingDescriptor descriptor =
                     new SavedRecordingDescriptor(
-                            file,
-                            exporter.getArchivedDownloadURL(file),
-                            exporter.getArchivedReportURL(file));
+                            info,
+                            exporter.getArchivedDownloadURL(info.getName()),
+                            exporter.getArchivedReportURL(info.getName()));
             cw.println(toString(descriptor));
         }
     }
@@ -110,12 +109,12 @@ class ListSavedRecordingsCommand implements SerializableCommand {
     public Output<?> serializableExecute(String[] args) {
         List<SavedRecordingDescriptor> recordings = new ArrayList<>();
         try {
-            for (String name : fs.listDirectoryChildren(recordingsPath)) {
+            for (ArchivedRecordingInfo info : archiveIndex.list()) {
                 recordings.add(
                         new SavedRecordingDescriptor(
-                                name,
-                                exporter.getArchivedDownloadURL(name),
-                                exporter.getArchivedReportURL(name)));
+                                info,
+                                exporter.getArchivedDownloadURL(info.getName()),
+                                exporter.getArchivedReportURL(info.getName())));
             }
         } catch (IOException | URISyntaxException e) {
             return new ExceptionOutput(e);
@@ -134,7 +133,7 @@ class ListSavedRecordingsCommand implements SerializableCommand {
 
     @Override
     public boolean isAvailable() {
-        return fs.isDirectory(recordingsPath);
+        return archiveStorage.isAvailable();
     }
 
     private static String toString(SavedRecordingDescriptor descriptor) throws Exception {
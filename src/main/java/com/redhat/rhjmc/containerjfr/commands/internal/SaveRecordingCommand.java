@@ -41,25 +41,25 @@
  */
 package com.redhat.rhjmc.containerjfr.commands.internal;
 
-import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Path;
-import java.time.temporal.ChronoUnit;
 import java.util.Optional;
 import java.util.StringJoiner;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
 
-import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveRetentionService;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.commands.SerializableCommand;
 import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
 import com.redhat.rhjmc.containerjfr.core.sys.Clock;
-import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
 import com.redhat.rhjmc.containerjfr.core.tui.ClientWriter;
+import com.redhat.rhjmc.containerjfr.jobs.Job;
+import com.redhat.rhjmc.containerjfr.jobs.JobManager;
+import com.redhat.rhjmc.containerjfr.jobs.RecordingSize;
 import com.redhat.rhjmc.containerjfr.net.ConnectionDescriptor;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
 
@@ -70,21 +70,27 @@ class SaveRecordingCommand extends AbstractConnectedCommand implements Serializa
 
     private final ClientWriter cw;
     private final Clock clock;
-    private final FileSystem fs;
-    private final Path recordingsPath;
+    private final ArchiveStorage archiveStorage;
+    private final ArchiveIndex archiveIndex;
+    private final ArchiveRetentionService retentionService;
+    private final JobManager jobManager;
 
     @Inject
     SaveRecordingCommand(
             ClientWriter cw,
             TargetConnectionManager targetConnectionManager,
             Clock clock,
-            FileSystem fs,
-            @Named(MainModule.RECORDINGS_PATH) Path recordingsPath) {
+            ArchiveStorage archiveStorage,
+            ArchiveIndex archiveIndex,
+            ArchiveRetentionService retentionService,
+            JobManager jobManager) {
         super(targetConnectionManager);
         this.cw = cw;
         this.clock = clock;
-        this.fs = fs;
-        this.recordingsPath = recordingsPath;
+        this.archiveStorage = archiveStorage;
+        this.archiveIndex = archiveIndex;
+        this.retentionService = retentionService;
+        this.jobManager = jobManager;
     }
 
     @Override
@@ -97,20 +103,11 @@ class SaveRecordingCommand extends AbstractConnectedCommand implements Serializa
         String targetId = args[0];
         String name = args[1];
 
-        targetConnectionManager.executeConnectedTask(
-                new ConnectionDescriptor(targetId),
-                connection -> {
-                    Optional<IRecordingDescriptor> descriptor = getDescriptorByName(targetId, name);
-                    if (descriptor.isPresent()) {
-                        cw.println(
-                                String.format(
-                                        "Recording saved as \"%s\"",
-                                        saveRecording(connection, descriptor.get())));
-                    } else {
-                        cw.println(String.format("Recording with name \"%s\" not found", name));
-                    }
-                    return null;
-                });
+        try {
+            cw.println(String.format("Recording saved as \"%s\"", save(targetId, name)));
+        } catch (RecordingNotFoundException e) {
+            cw.println(e.getMessage());
+        }
     }
 
     @Override
@@ -119,23 +116,36 @@ class SaveRecordingCommand extends AbstractConnectedCommand implements Serializa
         String name = args[1];
 
         try {
-            return targetConnectionManager.executeConnectedTask(
-                    new ConnectionDescriptor(targetId),
-                    connection -> {
-                        Optional<IRecordingDescriptor> descriptor =
-                                getDescriptorByName(targetId, name);
-                        if (descriptor.isPresent()) {
-                            return new StringOutput(saveRecording(connection, descriptor.get()));
-                        } else {
-                            return new FailureOutput(
-                                    String.format("Recording with name \"%s\" not found", name));
-                        }
-                    });
+            return new StringOutput(save(targetId, name));
+        } catch (RecordingNotFoundException e) {
+            return new FailureOutput(e.getMessage());
         } catch (Exception e) {
             return new ExceptionOutput(e);
         }
     }
 
+    // run as a job so that command saves share the per-target limits of HTTP saves and show up
+    // in the job listing, but wait for it to keep the command synchronous
+    private String save(String targetId, String name) throws Exception {
+        return jobManager
+                .submit(
+                        Job.TYPE_SAVE,
+                        targetId,
+                        name,
+                        job ->
+                                targetConnectionManager.executeConnectedTask(
+                                        new ConnectionDescriptor(targetId),
+                                        connection -> {
+                                            Optional<IRecordingDescriptor> descriptor =
+                                                    getDescriptorByName(targetId, name);
+                                            if (descriptor.isEmpty()) {
+                                                throw new RecordingNotFoundException(name);
+                                            }
+                                            return saveRecording(job, connection, descriptor.get());
+                                        }))
+                .await();
+    }
+
     @Override
     public void validate(String[] args) throws FailedValidationException {
         if (args.length != 2) {
@@ -168,34 +178,34 @@ class SaveRecordingCommand extends AbstractConnectedCommand implements Serializa
 
     @Override
     public boolean isAvailable() {
-        return fs.isDirectory(recordingsPath);
+        return archiveStorage.isAvailable();
     }
 
-    private String saveRecording(JFRConnection connection, IRecordingDescriptor descriptor)
+    private String saveRecording(Job job, JFRConnection connection, IRecordingDescriptor descriptor)
             throws Exception {
         String recordingName = descriptor.getName();
         if (recordingName.endsWith(".jfr")) {
             recordingName = recordingName.substring(0, recordingName.length() - 4);
         }
         String targetName = connection.getHost().replaceAll("[\\._]+", "-");
-        String timestamp =
-                clock.now().truncatedTo(ChronoUnit.SECONDS).toString().replaceAll("[-:]+", "");
-        String destination = String.format("%s_%s_%s", targetName, recordingName, timestamp);
-        // TODO byte-sized rename limit is arbitrary. Probably plenty since recordings are also
-        // differentiated by second-resolution timestamp
-        byte count = 1;
-        while (fs.exists(recordingsPath.resolve(destination + ".jfr"))) {
-            destination =
-                    String.format("%s_%s_%s.%d", targetName, recordingName, timestamp, count++);
-            if (count == Byte.MAX_VALUE) {
-                throw new IOException(
-                        "Recording could not be saved. File already exists and rename attempts were exhausted.");
-            }
-        }
-        destination += ".jfr";
-        try (InputStream stream = connection.getService().openStream(descriptor, false)) {
-            fs.copy(stream, recordingsPath.resolve(destination));
+        String destination = archiveStorage.uniqueName(targetName, recordingName, clock.now());
+        Optional<Long> size = RecordingSize.lookup(connection, descriptor);
+        size.ifPresent(job::setTotalBytes);
+        try (ArchiveRetentionService.Reservation reservation =
+                        retentionService.reserve(targetName, recordingName, size.orElse(0L));
+                InputStream stream =
+                        job.track(connection.getService().openStream(descriptor, false))) {
+            archiveStorage.write(destination, stream);
+            archiveIndex.index(destination);
         }
         return destination;
     }
+
+    static class RecordingNotFoundException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        RecordingNotFoundException(String recordingName) {
+            super(String.format("Recording with name \"%s\" not found", recordingName));
+        }
+    }
 }
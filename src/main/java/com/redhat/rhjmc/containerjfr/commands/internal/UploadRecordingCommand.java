@@ -45,34 +45,35 @@ import static com.redhat.rhjmc.containerjfr.util.HttpStatusCodeIdentifier.isSucc
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.Map;
 import java.util.Optional;
 import java.util.StringJoiner;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 import javax.inject.Singleton;
 
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.validator.routines.UrlValidator;
 
 import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
 
-import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.commands.SerializableCommand;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
 import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
 import com.redhat.rhjmc.containerjfr.core.tui.ClientWriter;
+import com.redhat.rhjmc.containerjfr.jobs.Job;
+import com.redhat.rhjmc.containerjfr.jobs.JobManager;
 import com.redhat.rhjmc.containerjfr.net.ConnectionDescriptor;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
 import com.redhat.rhjmc.containerjfr.net.web.HttpMimeType;
+import com.redhat.rhjmc.containerjfr.net.web.MultipartUploadStream;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.vertx.core.AsyncResult;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.ext.web.client.HttpResponse;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.multipart.MultipartForm;
@@ -90,8 +91,9 @@ class UploadRecordingCommand extends AbstractConnectedCommand implements Seriali
     private final ClientWriter cw;
     private final FileSystem fs;
     private final Environment env;
-    private final Path recordingsPath;
+    private final ArchiveStorage archiveStorage;
     private final WebClient webClient;
+    private final JobManager jobManager;
 
     @Inject
     UploadRecordingCommand(
@@ -99,14 +101,16 @@ class UploadRecordingCommand extends AbstractConnectedCommand implements Seriali
             TargetConnectionManager targetConnectionManager,
             FileSystem fs,
             Environment env,
-            @Named(MainModule.RECORDINGS_PATH) Path recordingsPath,
-            WebClient webClient) {
+            ArchiveStorage archiveStorage,
+            WebClient webClient,
+            JobManager jobManager) {
         super(targetConnectionManager);
         this.cw = cw;
         this.fs = fs;
         this.env = env;
-        this.recordingsPath = recordingsPath;
+        this.archiveStorage = archiveStorage;
         this.webClient = webClient;
+        this.jobManager = jobManager;
     }
 
     @Override
@@ -119,7 +123,7 @@ class UploadRecordingCommand extends AbstractConnectedCommand implements Seriali
         String targetId = args[0];
         String recordingName = args[1];
         String datasourceUrl = env.getEnv(GRAFANA_DATASOURCE_ENV).concat("/load");
-        ResponseMessage response = doPost(targetId, recordingName, datasourceUrl);
+        ResponseMessage response = upload(targetId, recordingName, datasourceUrl);
 
         if (!isSuccessCode(response.statusCode)
                 || response.statusMessage == null
@@ -143,7 +147,7 @@ class UploadRecordingCommand extends AbstractConnectedCommand implements Seriali
         String datasourceUrl = env.getEnv(GRAFANA_DATASOURCE_ENV).concat("/load");
 
         try {
-            ResponseMessage response = doPost(targetId, recordingName, datasourceUrl);
+            ResponseMessage response = upload(targetId, recordingName, datasourceUrl);
 
             if (!isSuccessCode(response.statusCode)
                     || response.statusMessage == null
@@ -165,16 +169,72 @@ class UploadRecordingCommand extends AbstractConnectedCommand implements Seriali
         }
     }
 
-    private ResponseMessage doPost(String targetId, String recordingName, String datasourceUrl)
+    // run as a job so that command uploads share the per-target limits of HTTP uploads and show
+    // up in the job listing, but wait for it to keep the command synchronous
+    private ResponseMessage upload(String targetId, String recordingName, String datasourceUrl)
             throws Exception {
-        Pair<Path, Boolean> recordingPath =
-                getBestRecordingForName(targetId, recordingName)
-                        .orElseThrow(() -> new RecordingNotFoundException(targetId, recordingName));
+        AtomicReference<ResponseMessage> response = new AtomicReference<>();
+        jobManager
+                .submit(
+                        Job.TYPE_UPLOAD,
+                        targetId,
+                        recordingName,
+                        job -> {
+                            response.set(doPost(targetId, recordingName, datasourceUrl));
+                            return response.get().body;
+                        })
+                .await();
+        return response.get();
+    }
 
-        Path path = recordingPath.getLeft();
-        if (path == null) {
-            throw new IOException("Recording path could not be determined");
+    private ResponseMessage doPost(String targetId, String recordingName, String datasourceUrl)
+            throws Exception {
+        Optional<IRecordingDescriptor> currentRecording =
+                getDescriptorByName(targetId, recordingName);
+        if (currentRecording.isPresent()) {
+            // the recording is streamed straight from the target, so the connection must stay
+            // open until the upload is complete
+            return targetConnectionManager.executeConnectedTask(
+                    new ConnectionDescriptor(targetId),
+                    connection -> {
+                        try (InputStream stream =
+                                connection.getService().openStream(currentRecording.get(), false)) {
+                            return postStream(datasourceUrl, recordingName, stream);
+                        }
+                    });
         }
+        Optional<Path> path = getArchivedRecordingPath(recordingName);
+        if (path.isPresent()) {
+            return postFile(datasourceUrl, path.get());
+        }
+        if (!archiveStorage.exists(recordingName)) {
+            throw new RecordingNotFoundException(targetId, recordingName);
+        }
+        try (InputStream stream = archiveStorage.read(recordingName)) {
+            return postStream(datasourceUrl, recordingName, stream);
+        }
+    }
+
+    private ResponseMessage postStream(
+            String datasourceUrl, String recordingName, InputStream stream) throws Exception {
+        MultipartUploadStream body =
+                new MultipartUploadStream(
+                        "file", recordingName, HttpMimeType.OCTET_STREAM.mime(), stream);
+        CompletableFuture<ResponseMessage> future = new CompletableFuture<>();
+        webClient
+                .postAbs(datasourceUrl)
+                .putHeader(HttpHeaders.CONTENT_TYPE.toString(), body.getContentType())
+                .sendStream(
+                        body,
+                        uploadHandler -> {
+                            body.close();
+                            complete(future, uploadHandler);
+                        });
+        body.pump();
+        return future.get();
+    }
+
+    private ResponseMessage postFile(String datasourceUrl, Path path) throws Exception {
         Path fileName = path.getFileName();
         path = path.toAbsolutePath();
         if (fileName == null || path == null) {
@@ -183,32 +243,26 @@ class UploadRecordingCommand extends AbstractConnectedCommand implements Seriali
 
         MultipartForm form = MultipartForm.create();
         form.binaryFileUpload(
-                "file", fileName.toString(), path.toString(), HttpMimeType.OCTET_STREAM.toString());
+                "file", fileName.toString(), path.toString(), HttpMimeType.OCTET_STREAM.mime());
 
         CompletableFuture<ResponseMessage> future = new CompletableFuture<>();
-        try {
-            webClient
-                    .postAbs(datasourceUrl)
-                    .sendMultipartForm(
-                            form,
-                            uploadHandler -> {
-                                if (uploadHandler.failed()) {
-                                    future.completeExceptionally(uploadHandler.cause());
-                                    return;
-                                }
-                                HttpResponse<Buffer> response = uploadHandler.result();
-                                future.complete(
-                                        new ResponseMessage(
-                                                response.statusCode(),
-                                                response.statusMessage(),
-                                                response.bodyAsString()));
-                            });
-            return future.get();
-        } finally {
-            if (recordingPath.getRight()) {
-                fs.deleteIfExists(path);
-            }
+        webClient
+                .postAbs(datasourceUrl)
+                .sendMultipartForm(form, uploadHandler -> complete(future, uploadHandler));
+        return future.get();
+    }
+
+    private static void complete(
+            CompletableFuture<ResponseMessage> future,
+            AsyncResult<HttpResponse<Buffer>> uploadHandler) {
+        if (uploadHandler.failed()) {
+            future.completeExceptionally(uploadHandler.cause());
+            return;
         }
+        HttpResponse<Buffer> response = uploadHandler.result();
+        future.complete(
+                new ResponseMessage(
+                        response.statusCode(), response.statusMessage(), response.bodyAsString()));
     }
 
     @Override
@@ -258,35 +312,10 @@ class UploadRecordingCommand extends AbstractConnectedCommand implements Seriali
         return super.isAvailable() && env.hasEnv(GRAFANA_DATASOURCE_ENV);
     }
 
-    // returned stream should be cleaned up by HttpClient
-    @SuppressFBWarnings("OBL_UNSATISFIED_OBLIGATION")
-    Optional<Pair<Path, Boolean>> getBestRecordingForName(String targetId, String recordingName)
-            throws Exception {
-        Optional<IRecordingDescriptor> currentRecording =
-                getDescriptorByName(targetId, recordingName);
-        if (currentRecording.isPresent()) {
-            // FIXME extract createTempFile wrapper into FileSystem
-            Path tempFile = Files.createTempFile(null, null);
-            return Optional.of(
-                    targetConnectionManager.executeConnectedTask(
-                            new ConnectionDescriptor(targetId),
-                            connection -> {
-                                InputStream stream =
-                                        connection
-                                                .getService()
-                                                .openStream(currentRecording.get(), false);
-                                try (stream) {
-                                    fs.copy(stream, tempFile, StandardCopyOption.REPLACE_EXISTING);
-                                }
-                                return Pair.of(tempFile, true);
-                            }));
-        }
-
-        Path archivedRecording = recordingsPath.resolve(recordingName);
-        if (fs.isRegularFile(archivedRecording) && fs.isReadable(archivedRecording)) {
-            return Optional.of(Pair.of(archivedRecording, false));
-        }
-        return Optional.empty();
+    Optional<Path> getArchivedRecordingPath(String recordingName) {
+        return archiveStorage
+                .localPath(recordingName)
+                .filter(p -> fs.isRegularFile(p) && fs.isReadable(p));
     }
 
     private static class ResponseMessage {
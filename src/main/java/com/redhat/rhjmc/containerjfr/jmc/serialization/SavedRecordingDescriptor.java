@@ -45,16 +45,43 @@ import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
+import com.redhat.rhjmc.containerjfr.archive.ArchivedRecordingInfo;
+
 public class SavedRecordingDescriptor {
 
     private final String name;
     private final String downloadUrl;
     private final String reportUrl;
+    private final String targetName;
+    private final String recordingName;
+    private final Long archivedTime;
+    private final Long size;
+    private final Long startTime;
+    private final Long endTime;
 
     public SavedRecordingDescriptor(String name, String downloadUrl, String reportUrl) {
         this.name = name;
         this.downloadUrl = downloadUrl;
         this.reportUrl = reportUrl;
+        this.targetName = null;
+        this.recordingName = null;
+        this.archivedTime = null;
+        this.size = null;
+        this.startTime = null;
+        this.endTime = null;
+    }
+
+    public SavedRecordingDescriptor(
+            ArchivedRecordingInfo info, String downloadUrl, String reportUrl) {
+        this.name = info.getName();
+        this.downloadUrl = downloadUrl;
+        this.reportUrl = reportUrl;
+        this.targetName = info.getTargetName();
+        this.recordingName = info.getRecordingName();
+        this.archivedTime = info.getArchivedTime();
+        this.size = info.getSize();
+        this.startTime = info.getStartTime();
+        this.endTime = info.getEndTime();
     }
 
     public String getName() {
@@ -69,6 +96,30 @@ public class SavedRecordingDescriptor {
         return reportUrl;
     }
 
+    public String getTargetName() {
+        return targetName;
+    }
+
+    public String getRecordingName() {
+        return recordingName;
+    }
+
+    public Long getArchivedTime() {
+        return archivedTime;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public Long getStartTime() {
+        return startTime;
+    }
+
+    public Long getEndTime() {
+        return endTime;
+    }
+
     @Override
     public String toString() {
         return ToStringBuilder.reflectionToString(this);
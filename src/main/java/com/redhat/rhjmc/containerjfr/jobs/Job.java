@@ -0,0 +1,292 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.jobs;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * A long-running save or upload submitted to the {@link JobManager}. Non-transient fields are
+ * serialized by Gson as the job status seen by HTTP and WebSocket clients.
+ */
+@SuppressFBWarnings(
+        value = "URF_UNREAD_FIELD",
+        justification =
+                "This class will be (de)serialized by Gson, so not all fields may be accessed directly")
+public class Job {
+
+    public static final String TYPE_SAVE = "save";
+    public static final String TYPE_UPLOAD = "upload";
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        CANCELLED,
+        ;
+
+        public boolean isFinished() {
+            return this == COMPLETED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private final String id;
+    private final String type;
+    private final String targetId;
+    private final String recordingName;
+    private volatile State state = State.QUEUED;
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private volatile Long totalBytes;
+    private volatile Long etaMillis;
+    private final long createdTime;
+    private volatile Long startTime;
+    private volatile Long endTime;
+    private volatile String result;
+    private volatile String error;
+
+    private final transient JobTask task;
+    private final transient CompletableFuture<String> completion = new CompletableFuture<>();
+    private transient volatile boolean cancelRequested;
+    private transient volatile Thread runner;
+    private transient volatile Consumer<Job> progressListener;
+
+    Job(String type, String targetId, String recordingName, JobTask task, long createdTime) {
+        this.id = UUID.randomUUID().toString();
+        this.type = type;
+        this.targetId = targetId;
+        this.recordingName = recordingName;
+        this.task = task;
+        this.createdTime = createdTime;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getTargetId() {
+        return targetId;
+    }
+
+    public String getRecordingName() {
+        return recordingName;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    public Long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /** Set when the size of the transfer is known up front, enabling an ETA estimate. */
+    public void setTotalBytes(Long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    public Long getEtaMillis() {
+        return etaMillis;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /** Completes with the task result, or exceptionally with its failure or cancellation. */
+    public CompletableFuture<String> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Blocks until the job finishes.
+     *
+     * @throws Exception the failure of the task, or a CancellationException
+     */
+    public String await() throws Exception {
+        try {
+            return completion.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    /** @throws InterruptedIOException if the job has been cancelled */
+    public void checkCancelled() throws InterruptedIOException {
+        if (cancelRequested) {
+            throw new InterruptedIOException(String.format("Job %s was cancelled", id));
+        }
+    }
+
+    public void addBytesTransferred(long bytes) {
+        bytesTransferred.addAndGet(bytes);
+        Consumer<Job> listener = progressListener;
+        if (listener != null) {
+            listener.accept(this);
+        }
+    }
+
+    /**
+     * Wraps a stream so that reads from it are counted towards this job's progress, and fail once
+     * the job is cancelled.
+     */
+    public InputStream track(InputStream in) {
+        return new ProgressInputStream(in);
+    }
+
+    JobTask getTask() {
+        return task;
+    }
+
+    void setProgressListener(Consumer<Job> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    void requestCancel() {
+        this.cancelRequested = true;
+        Thread t = runner;
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    void started(Thread runner, long now) {
+        this.runner = runner;
+        this.startTime = now;
+        this.state = State.RUNNING;
+    }
+
+    void finished(State state, String result, String error, long now) {
+        this.runner = null;
+        this.endTime = now;
+        this.result = result;
+        this.error = error;
+        this.etaMillis = state == State.COMPLETED ? Long.valueOf(0L) : null;
+        this.state = state;
+    }
+
+    void updateEstimate(long now) {
+        Long total = totalBytes;
+        Long start = startTime;
+        long transferred = bytesTransferred.get();
+        if (state != State.RUNNING || total == null || start == null || transferred <= 0) {
+            return;
+        }
+        long elapsed = Math.max(1, now - start);
+        long remaining = Math.max(0, total - transferred);
+        this.etaMillis = (long) ((double) remaining * elapsed / transferred);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("id", id)
+                .append("type", type)
+                .append("targetId", targetId)
+                .append("recordingName", recordingName)
+                .append("state", state)
+                .build();
+    }
+
+    private class ProgressInputStream extends FilterInputStream {
+        ProgressInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkCancelled();
+            int b = super.read();
+            if (b >= 0) {
+                addBytesTransferred(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkCancelled();
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                addBytesTransferred(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            checkCancelled();
+            long skipped = super.skip(n);
+            addBytesTransferred(skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.jobs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.tui.ws.MessagingServer;
+
+/**
+ * Runs save and upload {@link Job}s on a bounded pool, allowing at most a fixed number of jobs to
+ * run against any one target at a time. Jobs beyond that limit wait in a per-target queue, and
+ * submissions are rejected once too many jobs are waiting overall. Connected WebSocket clients are
+ * sent a {@link #NOTIFICATION_CATEGORY} notification whenever a job changes state, and periodically
+ * while it makes progress.
+ */
+public class JobManager {
+
+    public static final String NOTIFICATION_CATEGORY = "JobStatus";
+    static final long PROGRESS_NOTIFICATION_INTERVAL_MS = 1_000;
+    static final int RETAINED_FINISHED_JOBS = 100;
+
+    private final Executor executor;
+    private final int maxJobsPerTarget;
+    private final int maxQueuedJobs;
+    private final MessagingServer messagingServer;
+    private final Clock clock;
+    private final Logger logger;
+
+    // insertion-ordered so that the oldest finished jobs are forgotten first
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    private final Map<String, Deque<Job>> queued = new HashMap<>();
+    private final Map<String, Integer> running = new HashMap<>();
+    private final Map<String, Long> lastProgressNotification = new ConcurrentHashMap<>();
+    private int queuedCount;
+
+    public JobManager(
+            Executor executor,
+            int maxJobsPerTarget,
+            int maxQueuedJobs,
+            MessagingServer messagingServer,
+            Clock clock,
+            Logger logger) {
+        this.executor = executor;
+        this.maxJobsPerTarget = maxJobsPerTarget;
+        this.maxQueuedJobs = maxQueuedJobs;
+        this.messagingServer = messagingServer;
+        this.clock = clock;
+        this.logger = logger;
+    }
+
+    /** @throws RejectedExecutionException if too many jobs are already waiting to run */
+    public Job submit(String type, String targetId, String recordingName, JobTask task) {
+        Job job = new Job(type, targetId, recordingName, task, clock.getWallTime());
+        job.setProgressListener(this::onProgress);
+        synchronized (this) {
+            if (queuedCount >= maxQueuedJobs) {
+                throw new RejectedExecutionException(
+                        String.format("Too many jobs queued (%d)", queuedCount));
+            }
+            jobs.put(job.getId(), job);
+            queued.computeIfAbsent(key(job), k -> new ArrayDeque<>()).add(job);
+            queuedCount++;
+        }
+        logger.trace(String.format("Job submitted: %s", job));
+        publish(job);
+        dispatch(key(job));
+        return job;
+    }
+
+    public Optional<Job> get(String id) {
+        Job job;
+        synchronized (this) {
+            job = jobs.get(id);
+        }
+        if (job != null) {
+            job.updateEstimate(clock.getWallTime());
+        }
+        return Optional.ofNullable(job);
+    }
+
+    public List<Job> list() {
+        List<Job> list;
+        synchronized (this) {
+            list = new ArrayList<>(jobs.values());
+        }
+        long now = clock.getWallTime();
+        list.forEach(job -> job.updateEstimate(now));
+        return list;
+    }
+
+    /**
+     * Cancels a queued or running job. Running jobs are interrupted and stop at their next progress
+     * update.
+     *
+     * @return false if there is no such job or it has already finished
+     */
+    public boolean cancel(String id) {
+        Job job;
+        boolean wasQueued;
+        synchronized (this) {
+            job = jobs.get(id);
+            if (job == null || job.getState().isFinished()) {
+                return false;
+            }
+            Deque<Job> q = queued.get(key(job));
+            wasQueued = q != null && q.remove(job);
+            if (wasQueued) {
+                queuedCount--;
+                job.finished(Job.State.CANCELLED, null, null, clock.getWallTime());
+            } else {
+                job.requestCancel();
+            }
+        }
+        if (wasQueued) {
+            job.getCompletion().completeExceptionally(new CancellationException());
+            publish(job);
+        }
+        return true;
+    }
+
+    private void dispatch(String key) {
+        List<Job> ready = new ArrayList<>();
+        synchronized (this) {
+            Deque<Job> q = queued.get(key);
+            while (q != null && !q.isEmpty() && running.getOrDefault(key, 0) < maxJobsPerTarget) {
+                ready.add(q.poll());
+                queuedCount--;
+                running.merge(key, 1, Integer::sum);
+            }
+            if (q != null && q.isEmpty()) {
+                queued.remove(key);
+            }
+        }
+        for (Job job : ready) {
+            try {
+                executor.execute(() -> run(job));
+            } catch (RejectedExecutionException e) {
+                logger.warn(e);
+                finish(job, Job.State.FAILED, null, e);
+            }
+        }
+    }
+
+    private void run(Job job) {
+        job.started(Thread.currentThread(), clock.getWallTime());
+        publish(job);
+        try {
+            job.checkCancelled();
+            String result = job.getTask().run(job);
+            if (job.isCancelRequested()) {
+                finish(job, Job.State.CANCELLED, null, new CancellationException());
+            } else {
+                finish(job, Job.State.COMPLETED, result, null);
+            }
+        } catch (Exception e) {
+            if (job.isCancelRequested()) {
+                finish(job, Job.State.CANCELLED, null, new CancellationException());
+            } else {
+                logger.warn(e);
+                finish(job, Job.State.FAILED, null, e);
+            }
+        } finally {
+            // clear any interrupt raised by a cancellation racing with completion, so that it
+            // does not leak into the next job run by this pool thread
+            Thread.interrupted();
+        }
+    }
+
+    private void finish(Job job, Job.State state, String result, Exception cause) {
+        String key = key(job);
+        job.finished(
+                state,
+                result,
+                cause == null || state == Job.State.CANCELLED ? null : cause.getMessage(),
+                clock.getWallTime());
+        lastProgressNotification.remove(job.getId());
+        synchronized (this) {
+            running.computeIfPresent(key, (k, n) -> n > 1 ? n - 1 : null);
+            pruneFinished();
+        }
+        logger.trace(String.format("Job finished: %s", job));
+        publish(job);
+        if (cause == null) {
+            job.getCompletion().complete(result);
+        } else {
+            job.getCompletion().completeExceptionally(cause);
+        }
+        dispatch(key);
+    }
+
+    private void pruneFinished() {
+        long finished = jobs.values().stream().filter(j -> j.getState().isFinished()).count();
+        Iterator<Job> it = jobs.values().iterator();
+        while (finished > RETAINED_FINISHED_JOBS && it.hasNext()) {
+            if (it.next().getState().isFinished()) {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+
+    private void onProgress(Job job) {
+        long now = clock.getWallTime();
+        Long last = lastProgressNotification.get(job.getId());
+        if (last != null && now - last < PROGRESS_NOTIFICATION_INTERVAL_MS) {
+            return;
+        }
+        lastProgressNotification.put(job.getId(), now);
+        job.updateEstimate(now);
+        publish(job);
+    }
+
+    private void publish(Job job) {
+        messagingServer.notifyClients(NOTIFICATION_CATEGORY, job);
+    }
+
+    private static String key(Job job) {
+        return job.getTargetId() == null ? "" : job.getTargetId();
+    }
+}
@@ -0,0 +1,114 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.jobs;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Singleton;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+import com.redhat.rhjmc.containerjfr.tui.ws.MessagingServer;
+
+import dagger.Module;
+import dagger.Provides;
+
+@Module
+public abstract class JobsModule {
+
+    static final String MAX_CONCURRENT_JOBS_ENV = "CONTAINER_JFR_MAX_CONCURRENT_JOBS";
+    static final String MAX_JOBS_PER_TARGET_ENV = "CONTAINER_JFR_MAX_JOBS_PER_TARGET";
+    static final String MAX_QUEUED_JOBS_ENV = "CONTAINER_JFR_MAX_QUEUED_JOBS";
+    static final int DEFAULT_MAX_CONCURRENT_JOBS = 4;
+    static final int DEFAULT_MAX_JOBS_PER_TARGET = 1;
+    static final int DEFAULT_MAX_QUEUED_JOBS = 64;
+
+    @Provides
+    @Singleton
+    static JobManager provideJobManager(
+            Environment env, MessagingServer messagingServer, Clock clock, Logger logger) {
+        int maxConcurrent =
+                getPositiveInt(env, logger, MAX_CONCURRENT_JOBS_ENV, DEFAULT_MAX_CONCURRENT_JOBS);
+        int maxPerTarget =
+                getPositiveInt(env, logger, MAX_JOBS_PER_TARGET_ENV, DEFAULT_MAX_JOBS_PER_TARGET);
+        int maxQueued = getPositiveInt(env, logger, MAX_QUEUED_JOBS_ENV, DEFAULT_MAX_QUEUED_JOBS);
+        logger.info(
+                String.format(
+                        "Job limits: %d concurrent, %d per target, %d queued",
+                        maxConcurrent, maxPerTarget, maxQueued));
+        AtomicInteger threadCount = new AtomicInteger();
+        // the JobManager only hands over as many jobs as may run per target, and bounds its own
+        // queues, so the pool's work queue never grows beyond maxQueued
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(
+                        maxConcurrent,
+                        maxConcurrent,
+                        60,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(),
+                        r -> {
+                            Thread t = new Thread(r, "job-" + threadCount.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        });
+        executor.allowCoreThreadTimeOut(true);
+        return new JobManager(executor, maxPerTarget, maxQueued, messagingServer, clock, logger);
+    }
+
+    static int getPositiveInt(Environment env, Logger logger, String name, int defaultValue) {
+        try {
+            int value = Integer.parseInt(env.getEnv(name, String.valueOf(defaultValue)).trim());
+            if (value < 1) {
+                logger.warn(String.format("%s must be positive, using %d", name, defaultValue));
+                return defaultValue;
+            }
+            return value;
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of observed values, usually durations in seconds, over fixed buckets. Observing a
+ * value does not allocate. Children are looked up by label values; callers on hot paths should look
+ * up their children once and keep them.
+ */
+public class Histogram extends Metric<Histogram.Child> {
+
+    public static final double[] DEFAULT_BUCKETS = {
+        0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    private final double[] buckets;
+
+    Histogram(String name, String help, double[] buckets, String... labelNames) {
+        super(name, help, labelNames);
+        if (buckets.length == 0) {
+            throw new IllegalArgumentException(name + " must have at least one bucket");
+        }
+        this.buckets = Arrays.copyOf(buckets, buckets.length);
+        Arrays.sort(this.buckets);
+    }
+
+    public Child labels(String... labelValues) {
+        return child(labelValues, k -> new Child(buckets));
+    }
+
+    @Override
+    String type() {
+        return "histogram";
+    }
+
+    @Override
+    void writeChild(StringBuilder sb, List<String> labelValues, Child child) {
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += child.counts[i].sum();
+            writeSample(sb, "_bucket", labelValues, "le", formatValue(buckets[i]), cumulative);
+        }
+        cumulative += child.counts[buckets.length].sum();
+        writeSample(sb, "_bucket", labelValues, "le", "+Inf", cumulative);
+        writeSample(sb, "_sum", labelValues, null, null, child.sum.sum());
+        writeSample(sb, "_count", labelValues, null, null, cumulative);
+    }
+
+    public static class Child {
+        private final double[] buckets;
+        // one more than the number of buckets, for values above the largest bucket
+        private final LongAdder[] counts;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Child(double[] buckets) {
+            this.buckets = buckets;
+            this.counts = new LongAdder[buckets.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        public void observe(double value) {
+            int i = 0;
+            while (i < buckets.length && value > buckets[i]) {
+                i++;
+            }
+            counts[i].increment();
+            sum.add(value);
+        }
+
+        /** Observes the time elapsed since startNanos, a {@link System#nanoTime()}, in seconds */
+        public void observeSince(long startNanos) {
+            observe((System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/** A named family of samples, one child per distinct combination of label values */
+abstract class Metric<C> {
+
+    final String name;
+    final String help;
+    final List<String> labelNames;
+    // insertion-ordered so that scrapes are stable
+    private final Map<List<String>, C> children = new LinkedHashMap<>();
+
+    Metric(String name, String help, String... labelNames) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = List.of(labelNames);
+    }
+
+    abstract String type();
+
+    abstract void writeChild(StringBuilder sb, List<String> labelValues, C child);
+
+    C child(String[] labelValues, Function<List<String>, C> factory) {
+        List<String> key = key(labelValues);
+        synchronized (children) {
+            return children.computeIfAbsent(key, factory);
+        }
+    }
+
+    void putChild(String[] labelValues, C child) {
+        List<String> key = key(labelValues);
+        synchronized (children) {
+            children.put(key, child);
+        }
+    }
+
+    void writeTo(StringBuilder sb) {
+        List<Map.Entry<List<String>, C>> snapshot;
+        synchronized (children) {
+            snapshot = new ArrayList<>(children.entrySet());
+        }
+        sb.append("# HELP ").append(name).append(' ').append(escapeHelp(help)).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type()).append('\n');
+        for (Map.Entry<List<String>, C> e : snapshot) {
+            writeChild(sb, e.getKey(), e.getValue());
+        }
+    }
+
+    void writeSample(
+            StringBuilder sb,
+            String suffix,
+            List<String> labelValues,
+            String extraLabel,
+            String extraValue,
+            double value) {
+        sb.append(name).append(suffix);
+        if (!labelValues.isEmpty() || extraLabel != null) {
+            sb.append('{');
+            for (int i = 0; i < labelValues.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                appendLabel(sb, labelNames.get(i), labelValues.get(i));
+            }
+            if (extraLabel != null) {
+                if (!labelValues.isEmpty()) {
+                    sb.append(',');
+                }
+                appendLabel(sb, extraLabel, extraValue);
+            }
+            sb.append('}');
+        }
+        sb.append(' ').append(formatValue(value)).append('\n');
+    }
+
+    private List<String> key(String[] labelValues) {
+        if (labelValues.length != labelNames.size()) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "%s expects labels %s, got %s",
+                            name, labelNames, Arrays.toString(labelValues)));
+        }
+        return List.of(labelValues);
+    }
+
+    private static void appendLabel(StringBuilder sb, String name, String value) {
+        sb.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    static String formatValue(double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return "+Inf";
+        }
+        if (value == Double.NEGATIVE_INFINITY) {
+            return "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,114 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Holds the metrics reported at the /metrics endpoint and writes them in the Prometheus text
+ * exposition format. Registering a metric which already exists with the same type returns the
+ * existing metric.
+ */
+public class MetricsRegistry {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final Pattern NAME_PATTERN = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+
+    private final Map<String, Metric<?>> metrics = new LinkedHashMap<>();
+
+    public Counter counter(String name, String help, String... labelNames) {
+        return register(Counter.class, new Counter(name, help, labelNames));
+    }
+
+    public Gauge gauge(String name, String help, String... labelNames) {
+        return register(Gauge.class, new Gauge(name, help, labelNames));
+    }
+
+    public Histogram histogram(String name, String help, String... labelNames) {
+        return histogram(name, help, Histogram.DEFAULT_BUCKETS, labelNames);
+    }
+
+    public Histogram histogram(String name, String help, double[] buckets, String... labelNames) {
+        return register(Histogram.class, new Histogram(name, help, buckets, labelNames));
+    }
+
+    public String scrape() {
+        List<Metric<?>> snapshot;
+        synchronized (metrics) {
+            snapshot = new ArrayList<>(metrics.values());
+        }
+        StringBuilder sb = new StringBuilder(4096);
+        for (Metric<?> metric : snapshot) {
+            metric.writeTo(sb);
+        }
+        return sb.toString();
+    }
+
+    private <T extends Metric<?>> T register(Class<T> type, T metric) {
+        if (!NAME_PATTERN.matcher(metric.name).matches()) {
+            throw new IllegalArgumentException("Invalid metric name " + metric.name);
+        }
+        for (String label : metric.labelNames) {
+            if (!NAME_PATTERN.matcher(label).matches() || label.contains(":")) {
+                throw new IllegalArgumentException("Invalid label name " + label);
+            }
+        }
+        synchronized (metrics) {
+            Metric<?> existing = metrics.putIfAbsent(metric.name, metric);
+            if (existing == null) {
+                return metric;
+            }
+            if (!type.isInstance(existing) || !existing.labelNames.equals(metric.labelNames)) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "%s is already registered as a %s with labels %s",
+                                metric.name, existing.type(), existing.labelNames));
+            }
+            return type.cast(existing);
+        }
+    }
+}
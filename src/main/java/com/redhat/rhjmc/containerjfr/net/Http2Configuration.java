@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net;
+
+import java.util.List;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+
+import io.vertx.core.http.Http2Settings;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpVersion;
+
+/**
+ * Configures HTTP/2 on the web server. Over TLS, HTTP/2 is offered to clients through ALPN
+ * alongside HTTP/1.1, which browsers still use for WebSocket upgrades. Plain HTTP servers accept
+ * HTTP/2 cleartext (h2c) from clients and proxies which ask for it, by upgrade or with prior
+ * knowledge.
+ */
+class Http2Configuration {
+
+    static final String DISABLE_HTTP2_ENV = "CONTAINER_JFR_DISABLE_HTTP2";
+    static final String MAX_CONCURRENT_STREAMS_ENV = "CONTAINER_JFR_HTTP2_MAX_CONCURRENT_STREAMS";
+    static final String INITIAL_WINDOW_SIZE_ENV = "CONTAINER_JFR_HTTP2_INITIAL_WINDOW_SIZE";
+    static final String CONNECTION_WINDOW_SIZE_ENV = "CONTAINER_JFR_HTTP2_CONNECTION_WINDOW_SIZE";
+    static final long DEFAULT_MAX_CONCURRENT_STREAMS = 100;
+
+    private final Environment env;
+    private final Logger logger;
+
+    Http2Configuration(Environment env, Logger logger) {
+        this.env = env;
+        this.logger = logger;
+    }
+
+    boolean enabled() {
+        return !env.hasEnv(DISABLE_HTTP2_ENV);
+    }
+
+    /** Must be applied after the SSL configuration, since ALPN is only used over TLS */
+    HttpServerOptions applyToHttpServerOptions(HttpServerOptions options) {
+        if (!enabled()) {
+            return options.setUseAlpn(false);
+        }
+        if (options.isSsl()) {
+            options.setUseAlpn(true)
+                    .setAlpnVersions(List.of(HttpVersion.HTTP_2, HttpVersion.HTTP_1_1));
+        }
+
+        Http2Settings settings = options.getInitialSettings();
+        try {
+            settings.setMaxConcurrentStreams(
+                    getLong(MAX_CONCURRENT_STREAMS_ENV, DEFAULT_MAX_CONCURRENT_STREAMS));
+        } catch (IllegalArgumentException iae) {
+            logger.warn(iae);
+            settings.setMaxConcurrentStreams(DEFAULT_MAX_CONCURRENT_STREAMS);
+        }
+        if (env.hasEnv(INITIAL_WINDOW_SIZE_ENV)) {
+            try {
+                settings.setInitialWindowSize(
+                        (int) getLong(INITIAL_WINDOW_SIZE_ENV, settings.getInitialWindowSize()));
+            } catch (IllegalArgumentException iae) {
+                logger.warn(iae);
+            }
+        }
+        options.setInitialSettings(settings);
+
+        if (env.hasEnv(CONNECTION_WINDOW_SIZE_ENV)) {
+            long size = getLong(CONNECTION_WINDOW_SIZE_ENV, options.getHttp2ConnectionWindowSize());
+            if (size > 0 && size <= Integer.MAX_VALUE) {
+                options.setHttp2ConnectionWindowSize((int) size);
+            } else {
+                logger.warn(
+                        String.format(
+                                "%s must be between 1 and %d, using default",
+                                CONNECTION_WINDOW_SIZE_ENV, Integer.MAX_VALUE));
+            }
+        }
+        return options;
+    }
+
+    private long getLong(String name, long defaultValue) {
+        try {
+            return Long.parseLong(env.getEnv(name, String.valueOf(defaultValue)).trim());
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+            return defaultValue;
+        }
+    }
+}
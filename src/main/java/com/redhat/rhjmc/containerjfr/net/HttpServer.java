@@ -47,6 +47,9 @@ import java.util.concurrent.CompletableFuture;
 
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpServerOptions;
@@ -65,26 +68,53 @@ public class HttpServer {
     private final HandlerDelegate<ServerWebSocket> websocketHandlerDelegate =
             new HandlerDelegate<>();
 
-    private final io.vertx.core.http.HttpServer server;
+    private final HttpServerOptions serverOptions;
+    private final int instances;
+    private volatile String deploymentId;
     private volatile boolean isAlive;
 
-    HttpServer(Vertx vertx, NetworkConfiguration netConf, SslConfiguration sslConf, Logger logger) {
+    HttpServer(
+            Vertx vertx,
+            NetworkConfiguration netConf,
+            SslConfiguration sslConf,
+            Http2Configuration http2Conf,
+            WebSocketCompressionConfiguration wsCompressionConf,
+            Logger logger) {
         this.vertx = vertx;
         this.netConf = netConf;
         this.sslConf = sslConf;
         this.logger = logger;
-        this.server =
-                vertx.createHttpServer(
-                        sslConf.applyToHttpServerOptions(
-                                new HttpServerOptions()
-                                        .setPort(netConf.getInternalWebServerPort())
-                                        .addWebSocketSubProtocol("*")
-                                        .setCompressionSupported(true)
-                                        .setLogActivity(true)));
+        this.serverOptions =
+                wsCompressionConf.applyToHttpServerOptions(
+                        http2Conf.applyToHttpServerOptions(
+                                sslConf.applyToHttpServerOptions(
+                                        new HttpServerOptions()
+                                                .setPort(netConf.getInternalWebServerPort())
+                                                .addWebSocketSubProtocol("*")
+                                                .setCompressionSupported(true)
+                                                .setLogActivity(
+                                                        netConf.isWebServerActivityLogged()))));
+        this.instances = netConf.getWebServerInstances();
 
         if (!sslConf.enabled()) {
             this.logger.warn("No available SSL certificates. Fallback to plain HTTP.");
         }
+        if (http2Conf.enabled()) {
+            this.logger.info(
+                    String.format(
+                            "HTTP/2 enabled (%s), max %d concurrent streams",
+                            serverOptions.isUseAlpn() ? "ALPN" : "h2c",
+                            serverOptions.getInitialSettings().getMaxConcurrentStreams()));
+        }
+        if (wsCompressionConf.enabled()) {
+            this.logger.info(
+                    String.format(
+                            "WebSocket permessage-deflate enabled, level %d%s",
+                            serverOptions.getWebsocketCompressionLevel(),
+                            serverOptions.getWebsocketAllowServerNoContext()
+                                    ? ", no context takeover"
+                                    : ""));
+        }
     }
 
     public void start() throws SocketException, UnknownHostException {
@@ -92,28 +122,30 @@ public class HttpServer {
             return;
         }
 
-        CompletableFuture<Void> future = new CompletableFuture<>();
-        this.server
-                .requestHandler(requestHandlerDelegate)
-                .webSocketHandler(websocketHandlerDelegate)
-                .listen(
-                        res -> {
-                            if (res.failed()) {
-                                future.completeExceptionally(res.cause());
-                                return;
-                            }
-                            future.complete(null);
-                        });
-
-        future.join(); // wait for async deployment to complete
+        // each verticle instance listens on the same port from its own event loop, and Vert.x
+        // spreads incoming connections between them
+        CompletableFuture<String> future = new CompletableFuture<>();
+        this.vertx.deployVerticle(
+                ServerVerticle::new,
+                new DeploymentOptions().setInstances(instances),
+                res -> {
+                    if (res.failed()) {
+                        future.completeExceptionally(res.cause());
+                        return;
+                    }
+                    future.complete(res.result());
+                });
+
+        this.deploymentId = future.join(); // wait for async deployment to complete
 
         logger.info(
                 String.format(
-                        "%s service running on %s://%s:%d",
+                        "%s service running on %s://%s:%d (%d instances)",
                         isSsl() ? "HTTPS" : "HTTP",
                         isSsl() ? "https" : "http",
                         netConf.getWebServerHost(),
-                        netConf.getExternalWebServerPort()));
+                        netConf.getExternalWebServerPort(),
+                        instances));
         this.isAlive = true;
     }
 
@@ -122,8 +154,10 @@ public class HttpServer {
             return;
         }
 
+        // undeploying the verticles closes the servers they started
         CompletableFuture<Void> future = new CompletableFuture<>();
-        this.server.close(
+        this.vertx.undeploy(
+                deploymentId,
                 res -> {
                     if (res.failed()) {
                         future.completeExceptionally(res.cause());
@@ -156,9 +190,27 @@ public class HttpServer {
         return vertx;
     }
 
+    private class ServerVerticle extends AbstractVerticle {
+        @Override
+        public void start(Future<Void> startFuture) {
+            vertx.createHttpServer(serverOptions)
+                    .requestHandler(requestHandlerDelegate)
+                    .webSocketHandler(websocketHandlerDelegate)
+                    .listen(
+                            res -> {
+                                if (res.failed()) {
+                                    startFuture.fail(res.cause());
+                                    return;
+                                }
+                                startFuture.complete();
+                            });
+        }
+    }
+
     private static class HandlerDelegate<T> implements Handler<T> {
 
-        private Handler<T> mHandler;
+        // set from the main thread but read from every server instance's event loop
+        private volatile Handler<T> mHandler;
 
         @Override
         public final void handle(T event) {
@@ -44,16 +44,19 @@ package com.redhat.rhjmc.containerjfr.net;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
 
 public class NetworkConfiguration {
 
     private final Environment env;
     private final NetworkResolver resolver;
+    private final Logger logger;
 
-    NetworkConfiguration(Environment env, NetworkResolver resolver) {
+    NetworkConfiguration(Environment env, NetworkResolver resolver, Logger logger) {
         this.env = env;
         this.resolver = resolver;
+        this.logger = logger;
     }
 
     public String getCommandChannelHost() throws SocketException, UnknownHostException {
@@ -102,6 +105,26 @@ public class NetworkConfiguration {
                         "CONTAINER_JFR_EXT_WEB_PORT", String.valueOf(getInternalWebServerPort())));
     }
 
+    /**
+     * Number of HTTP server instances to deploy. Instances share the web server port and each runs
+     * on its own event loop, so that request handling is spread across cores.
+     */
+    public int getWebServerInstances() {
+        int defaultInstances = Runtime.getRuntime().availableProcessors();
+        try {
+            return Math.max(
+                    1,
+                    Integer.parseInt(
+                            env.getEnv(
+                                            "CONTAINER_JFR_WEB_INSTANCES",
+                                            String.valueOf(defaultInstances))
+                                    .trim()));
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+            return defaultInstances;
+        }
+    }
+
     public boolean isSslProxied() {
         return env.hasEnv("CONTAINER_JFR_SSL_PROXIED");
     }
@@ -109,4 +132,9 @@ public class NetworkConfiguration {
     public boolean isUntrustedSslAllowed() {
         return env.hasEnv("CONTAINER_JFR_ALLOW_UNTRUSTED_SSL");
     }
+
+    /** Netty wire-level logging of web server connections, for debugging only */
+    public boolean isWebServerActivityLogged() {
+        return env.hasEnv("CONTAINER_JFR_WEB_LOG_ACTIVITY");
+    }
 }
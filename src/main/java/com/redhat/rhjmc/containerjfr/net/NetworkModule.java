@@ -51,6 +51,7 @@ import com.redhat.rhjmc.containerjfr.core.net.JFRConnectionToolkit;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
 import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
 import com.redhat.rhjmc.containerjfr.core.tui.ClientWriter;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
 import com.redhat.rhjmc.containerjfr.net.internal.reports.ReportsModule;
 
 import dagger.Binds;
@@ -58,6 +59,7 @@ import dagger.Module;
 import dagger.Provides;
 import dagger.multibindings.IntoSet;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.client.WebClientOptions;
 
@@ -67,15 +69,25 @@ public abstract class NetworkModule {
     @Provides
     @Singleton
     static HttpServer provideHttpServer(
-            Vertx vertx, NetworkConfiguration netConf, SslConfiguration sslConf, Logger logger) {
-        return new HttpServer(vertx, netConf, sslConf, logger);
+            Vertx vertx,
+            NetworkConfiguration netConf,
+            SslConfiguration sslConf,
+            Environment env,
+            Logger logger) {
+        return new HttpServer(
+                vertx,
+                netConf,
+                sslConf,
+                new Http2Configuration(env, logger),
+                new WebSocketCompressionConfiguration(env, logger),
+                logger);
     }
 
     @Provides
     @Singleton
     static NetworkConfiguration provideNetworkConfiguration(
-            Environment env, NetworkResolver resolver) {
-        return new NetworkConfiguration(env, resolver);
+            Environment env, NetworkResolver resolver, Logger logger) {
+        return new NetworkConfiguration(env, resolver, logger);
     }
 
     @Provides
@@ -87,14 +99,41 @@ public abstract class NetworkModule {
     @Provides
     @Singleton
     static TargetConnectionManager provideTargetConnectionManager(
-            Logger logger, ClientWriter cw, FileSystem fs, Environment env) {
-        return new TargetConnectionManager(logger, new JFRConnectionToolkit(cw, fs, env));
+            Logger logger,
+            ClientWriter cw,
+            FileSystem fs,
+            Environment env,
+            MetricsRegistry metrics) {
+        int maxConnectionsPerTarget = TargetConnectionManager.DEFAULT_MAX_TARGET_CONNECTIONS;
+        try {
+            String maxConnections =
+                    env.getEnv(
+                            TargetConnectionManager.MAX_TARGET_CONNECTIONS_ENV,
+                            String.valueOf(maxConnectionsPerTarget));
+            maxConnectionsPerTarget = Math.max(1, Integer.parseInt(maxConnections.trim()));
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+        }
+        return new TargetConnectionManager(
+                logger, new JFRConnectionToolkit(cw, fs, env), metrics, maxConnectionsPerTarget);
     }
 
     @Provides
     @Singleton
-    static Vertx provideVertx() {
-        return Vertx.vertx();
+    static Vertx provideVertx(Environment env, Logger logger) {
+        VertxConfiguration vertxConf = new VertxConfiguration(env, logger);
+        VertxOptions options = vertxConf.applyToVertxOptions(new VertxOptions());
+        Vertx vertx = Vertx.vertx(options);
+        logger.info(
+                String.format(
+                        "Vert.x: %d event loop threads, %d worker threads, %s transport",
+                        options.getEventLoopPoolSize(),
+                        options.getWorkerPoolSize(),
+                        vertx.isNativeTransportEnabled() ? "native" : "NIO"));
+        if (vertxConf.isNativeTransportPreferred() && !vertx.isNativeTransportEnabled()) {
+            logger.warn("Native transport requested but not available, using NIO");
+        }
+        return vertx;
     }
 
     @Provides
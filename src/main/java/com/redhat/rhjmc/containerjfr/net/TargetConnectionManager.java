@@ -46,7 +46,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -56,38 +59,88 @@ import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.net.Credentials;
 import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
 import com.redhat.rhjmc.containerjfr.core.net.JFRConnectionToolkit;
+import com.redhat.rhjmc.containerjfr.metrics.Counter;
+import com.redhat.rhjmc.containerjfr.metrics.Histogram;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
 
 public class TargetConnectionManager {
 
     public static final Pattern HOST_PORT_PAIR_PATTERN =
             Pattern.compile("^([^:\\s]+)(?::(\\d{1,5}))?$");
 
+    public static final String MAX_TARGET_CONNECTIONS_ENV = "CONTAINER_JFR_MAX_TARGET_CONNECTIONS";
+    public static final int DEFAULT_MAX_TARGET_CONNECTIONS = 1;
+
     private final Logger logger;
-    // FIXME verify concurrent connection safety and remove locking
-    private final ReentrantLock lock = new ReentrantLock();
+    // connections to different targets may be open concurrently, but each target only allows a
+    // limited number at once
+    private final int maxConnectionsPerTarget;
+    private final Map<String, TargetPermits> permits = new ConcurrentHashMap<>();
     // maintain a short-lived cache of connections to allow nested ConnectedTasks
-    // without having to manage connection reuse
-    private final Map<ConnectionDescriptor, JFRConnection> activeConnections = new HashMap<>();
+    // without having to manage connection reuse. Tasks only nest within a thread
+    private final ThreadLocal<Map<ConnectionDescriptor, JFRConnection>> activeConnections =
+            ThreadLocal.withInitial(HashMap::new);
     private final JFRConnectionToolkit jfrConnectionToolkit;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final Histogram.Child lockWait;
+    private final Histogram.Child connectDuration;
+    private final Counter.Child connectFailures;
+    private final Histogram.Child taskDuration;
+
+    TargetConnectionManager(
+            Logger logger, JFRConnectionToolkit jfrConnectionToolkit, MetricsRegistry metrics) {
+        this(logger, jfrConnectionToolkit, metrics, DEFAULT_MAX_TARGET_CONNECTIONS);
+    }
 
-    TargetConnectionManager(Logger logger, JFRConnectionToolkit jfrConnectionToolkit) {
+    TargetConnectionManager(
+            Logger logger,
+            JFRConnectionToolkit jfrConnectionToolkit,
+            MetricsRegistry metrics,
+            int maxConnectionsPerTarget) {
         this.logger = logger;
+        this.maxConnectionsPerTarget = maxConnectionsPerTarget;
         this.jfrConnectionToolkit = jfrConnectionToolkit;
+        this.lockWait =
+                metrics.histogram(
+                                "containerjfr_jmx_connection_lock_wait_seconds",
+                                "Time spent waiting for a target to allow another JMX connection")
+                        .labels();
+        this.connectDuration =
+                metrics.histogram(
+                                "containerjfr_jmx_connect_duration_seconds",
+                                "Time taken to open target JMX connections")
+                        .labels();
+        this.connectFailures =
+                metrics.counter(
+                                "containerjfr_jmx_connect_failures_total",
+                                "Target JMX connections which could not be opened")
+                        .labels();
+        this.taskDuration =
+                metrics.histogram(
+                                "containerjfr_jmx_task_duration_seconds",
+                                "Time taken by operations on target JMX connections, including"
+                                        + " connecting")
+                        .labels();
+        metrics.gauge(
+                        "containerjfr_jmx_connections_active",
+                        "Target JMX connections currently open")
+                .register(openConnections::get);
     }
 
     public <T> T executeConnectedTask(
             ConnectionDescriptor connectionDescriptor, ConnectedTask<T> task) throws Exception {
-        try {
-            if (activeConnections.containsKey(connectionDescriptor)) {
-                return task.execute(activeConnections.get(connectionDescriptor));
-            } else {
-                try (JFRConnection connection = connect(connectionDescriptor)) {
-                    activeConnections.put(connectionDescriptor, connection);
-                    return task.execute(connection);
-                }
-            }
+        Map<ConnectionDescriptor, JFRConnection> active = activeConnections.get();
+        JFRConnection existing = active.get(connectionDescriptor);
+        if (existing != null) {
+            return task.execute(existing);
+        }
+        long start = System.nanoTime();
+        try (JFRConnection connection = connect(connectionDescriptor)) {
+            active.put(connectionDescriptor, connection);
+            return task.execute(connection);
         } finally {
-            activeConnections.remove(connectionDescriptor);
+            active.remove(connectionDescriptor);
+            taskDuration.observeSince(start);
         }
     }
 
@@ -133,15 +186,60 @@ public class TargetConnectionManager {
     private JFRConnection connect(JMXServiceURL url, Optional<Credentials> credentials)
             throws Exception {
         logger.trace(String.format("Locking connection %s", url.toString()));
-        lock.lockInterruptibly();
-        return jfrConnectionToolkit.connect(
-                url,
-                credentials.orElse(null),
-                List.of(
-                        lock::unlock,
-                        () ->
-                                logger.trace(
-                                        String.format("Unlocking connection %s", url.toString()))));
+        TargetPermits targetPermits =
+                permits.computeIfAbsent(
+                        url.toString(), k -> new TargetPermits(maxConnectionsPerTarget));
+        long start = System.nanoTime();
+        Runnable release = targetPermits.acquire();
+        lockWait.observeSince(start);
+        start = System.nanoTime();
+        try {
+            JFRConnection connection =
+                    jfrConnectionToolkit.connect(
+                            url,
+                            credentials.orElse(null),
+                            List.of(
+                                    release,
+                                    openConnections::decrementAndGet,
+                                    () ->
+                                            logger.trace(
+                                                    String.format(
+                                                            "Unlocking connection %s",
+                                                            url.toString()))));
+            openConnections.incrementAndGet();
+            return connection;
+        } catch (Exception e) {
+            release.run();
+            connectFailures.inc();
+            throw e;
+        } finally {
+            connectDuration.observeSince(start);
+        }
+    }
+
+    /**
+     * Limits concurrent connections to one target. Every connection takes a permit, whichever
+     * thread opens it; nested ConnectedTasks reuse their thread's open connection instead of
+     * opening another. Connections may be closed on a different thread from the one which opened
+     * them.
+     */
+    private static class TargetPermits {
+        private final Semaphore semaphore;
+
+        TargetPermits(int max) {
+            this.semaphore = new Semaphore(max, true);
+        }
+
+        /** @return the action which gives the permit back, to be run exactly once */
+        Runnable acquire() throws InterruptedException {
+            semaphore.acquire();
+            AtomicBoolean released = new AtomicBoolean();
+            return () -> {
+                if (released.compareAndSet(false, true)) {
+                    semaphore.release();
+                }
+            };
+        }
     }
 
     public interface ConnectedTask<T> {
@@ -0,0 +1,117 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net;
+
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+import io.vertx.core.VertxOptions;
+
+/**
+ * Tunes the Vert.x instance from the environment. Settings which are not given keep the Vert.x
+ * defaults.
+ */
+class VertxConfiguration {
+
+    static final String EVENT_LOOP_THREADS_ENV = "CONTAINER_JFR_VERTX_EVENT_LOOP_THREADS";
+    static final String WORKER_THREADS_ENV = "CONTAINER_JFR_VERTX_WORKER_THREADS";
+    static final String BLOCKED_THREAD_CHECK_MS_ENV = "CONTAINER_JFR_VERTX_BLOCKED_THREAD_CHECK_MS";
+    static final String MAX_EVENT_LOOP_EXECUTE_MS_ENV =
+            "CONTAINER_JFR_VERTX_MAX_EVENT_LOOP_EXECUTE_MS";
+    static final String MAX_WORKER_EXECUTE_MS_ENV = "CONTAINER_JFR_VERTX_MAX_WORKER_EXECUTE_MS";
+    static final String NATIVE_TRANSPORT_ENV = "CONTAINER_JFR_VERTX_NATIVE_TRANSPORT";
+
+    private final Environment env;
+    private final Logger logger;
+
+    VertxConfiguration(Environment env, Logger logger) {
+        this.env = env;
+        this.logger = logger;
+    }
+
+    VertxOptions applyToVertxOptions(VertxOptions options) {
+        getPositive(EVENT_LOOP_THREADS_ENV).ifPresent(n -> options.setEventLoopPoolSize((int) n));
+        getPositive(WORKER_THREADS_ENV).ifPresent(n -> options.setWorkerPoolSize((int) n));
+        getPositive(BLOCKED_THREAD_CHECK_MS_ENV)
+                .ifPresent(
+                        ms ->
+                                options.setBlockedThreadCheckInterval(ms)
+                                        .setBlockedThreadCheckIntervalUnit(TimeUnit.MILLISECONDS));
+        getPositive(MAX_EVENT_LOOP_EXECUTE_MS_ENV)
+                .ifPresent(
+                        ms ->
+                                options.setMaxEventLoopExecuteTime(ms)
+                                        .setMaxEventLoopExecuteTimeUnit(TimeUnit.MILLISECONDS));
+        getPositive(MAX_WORKER_EXECUTE_MS_ENV)
+                .ifPresent(
+                        ms ->
+                                options.setMaxWorkerExecuteTime(ms)
+                                        .setMaxWorkerExecuteTimeUnit(TimeUnit.MILLISECONDS));
+        // only takes effect if a native transport, such as netty-transport-native-epoll, is on
+        // the classpath. Vert.x falls back to NIO otherwise
+        options.setPreferNativeTransport(isNativeTransportPreferred());
+        return options;
+    }
+
+    boolean isNativeTransportPreferred() {
+        return env.hasEnv(NATIVE_TRANSPORT_ENV);
+    }
+
+    private OptionalLong getPositive(String name) {
+        if (!env.hasEnv(name)) {
+            return OptionalLong.empty();
+        }
+        try {
+            long value = Long.parseLong(env.getEnv(name).trim());
+            if (value < 1 || value > Integer.MAX_VALUE) {
+                logger.warn(String.format("%s must be positive, using default", name));
+                return OptionalLong.empty();
+            }
+            return OptionalLong.of(value);
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+            return OptionalLong.empty();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+import io.vertx.core.http.HttpServerOptions;
+
+/**
+ * Configures permessage-deflate (RFC 7692) compression of WebSocket messages. It is negotiated per
+ * connection, so clients which do not offer the extension receive uncompressed messages. Without
+ * context takeover each message is compressed on its own, which saves keeping a deflate window per
+ * connection at the cost of a lower compression ratio for small messages.
+ */
+class WebSocketCompressionConfiguration {
+
+    static final String DISABLE_WS_COMPRESSION_ENV = "CONTAINER_JFR_DISABLE_WS_COMPRESSION";
+    static final String WS_COMPRESSION_LEVEL_ENV = "CONTAINER_JFR_WS_COMPRESSION_LEVEL";
+    static final String WS_COMPRESSION_NO_CONTEXT_TAKEOVER_ENV =
+            "CONTAINER_JFR_WS_COMPRESSION_NO_CONTEXT_TAKEOVER";
+    static final int DEFAULT_COMPRESSION_LEVEL = 6;
+
+    private final Environment env;
+    private final Logger logger;
+
+    WebSocketCompressionConfiguration(Environment env, Logger logger) {
+        this.env = env;
+        this.logger = logger;
+    }
+
+    boolean enabled() {
+        return !env.hasEnv(DISABLE_WS_COMPRESSION_ENV);
+    }
+
+    HttpServerOptions applyToHttpServerOptions(HttpServerOptions options) {
+        // per-frame compression is an obsolete draft extension
+        options.setPerFrameWebsocketCompressionSupported(false);
+        if (!enabled()) {
+            return options.setPerMessageWebsocketCompressionSupported(false);
+        }
+        boolean noContextTakeover = env.hasEnv(WS_COMPRESSION_NO_CONTEXT_TAKEOVER_ENV);
+        return options.setPerMessageWebsocketCompressionSupported(true)
+                .setWebsocketCompressionLevel(getCompressionLevel())
+                .setWebsocketAllowServerNoContext(noContextTakeover)
+                .setWebsocketPreferredClientNoContext(noContextTakeover);
+    }
+
+    private int getCompressionLevel() {
+        try {
+            int level =
+                    Integer.parseInt(
+                            env.getEnv(
+                                            WS_COMPRESSION_LEVEL_ENV,
+                                            String.valueOf(DEFAULT_COMPRESSION_LEVEL))
+                                    .trim());
+            if (level < 1 || level > 9) {
+                logger.warn(
+                        String.format(
+                                "%s must be between 1 and 9, using %d",
+                                WS_COMPRESSION_LEVEL_ENV, DEFAULT_COMPRESSION_LEVEL));
+                return DEFAULT_COMPRESSION_LEVEL;
+            }
+            return level;
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+            return DEFAULT_COMPRESSION_LEVEL;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import io.vertx.core.Context;
+import io.vertx.core.streams.WriteStream;
+
+public final class WriteStreams {
+
+    private static final long DRAIN_POLL_MS = 1000;
+
+    private WriteStreams() {}
+
+    /**
+     * Blocks a worker thread until the stream's write queue is no longer full, so that a slow
+     * client applies backpressure to whatever is producing the writes instead of letting them queue
+     * up in memory. Returns immediately on an event loop thread, since the event loop must never be
+     * blocked and is what drains the queue.
+     *
+     * @param closed whether the stream has been closed, which also ends the wait
+     * @return false if the queue was still full after the timeout
+     */
+    public static boolean awaitDrain(WriteStream<?> stream, BooleanSupplier closed, long timeoutMs)
+            throws InterruptedException {
+        if (!stream.writeQueueFull() || Context.isOnEventLoopThread()) {
+            return true;
+        }
+        CountDownLatch drained = new CountDownLatch(1);
+        stream.drainHandler(v -> drained.countDown());
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            // the queue may have drained before the handler was set
+            while (stream.writeQueueFull() && !closed.getAsBoolean()) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                if (drained.await(Math.min(remaining, DRAIN_POLL_MS), TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            }
+            return true;
+        } finally {
+            stream.drainHandler(null);
+        }
+    }
+}
@@ -60,6 +60,8 @@ import com.github.benmanes.caffeine.cache.Scheduler;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
 import com.redhat.rhjmc.containerjfr.core.reports.ReportGenerator;
+import com.redhat.rhjmc.containerjfr.metrics.Histogram;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
 import com.redhat.rhjmc.containerjfr.net.ConnectionDescriptor;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
 import com.redhat.rhjmc.containerjfr.net.internal.reports.ReportService.RecordingNotFoundException;
@@ -70,16 +72,25 @@ class ActiveRecordingReportCache {
     protected final ReportGenerator reportGenerator;
     protected final ReentrantLock generationLock;
     protected final LoadingCache<RecordingDescriptor, String> cache;
+    protected final Histogram.Child generationDuration;
     protected final Logger logger;
 
     ActiveRecordingReportCache(
             TargetConnectionManager targetConnectionManager,
             ReportGenerator reportGenerator,
             @Named(ReportsModule.REPORT_GENERATION_LOCK) ReentrantLock generationLock,
+            MetricsRegistry metrics,
             Logger logger) {
         this.targetConnectionManager = targetConnectionManager;
         this.reportGenerator = reportGenerator;
         this.generationLock = generationLock;
+        this.generationDuration =
+                metrics.histogram(
+                                ReportsModule.GENERATION_DURATION_METRIC,
+                                "Time taken to generate automated analysis reports",
+                                ReportsModule.GENERATION_DURATION_BUCKETS,
+                                "source")
+                        .labels("active");
         this.logger = logger;
 
         this.cache =
@@ -90,7 +101,18 @@ class ActiveRecordingReportCache {
                         .expireAfterWrite(30, TimeUnit.MINUTES)
                         .refreshAfterWrite(5, TimeUnit.MINUTES)
                         .softValues()
+                        .recordStats()
                         .build(k -> getReport(k));
+
+        metrics.counter(ReportsModule.CACHE_HITS_METRIC, "Report cache hits", "cache")
+                .register(() -> cache.stats().hitCount(), "active");
+        metrics.counter(ReportsModule.CACHE_MISSES_METRIC, "Report cache misses", "cache")
+                .register(() -> cache.stats().missCount(), "active");
+        metrics.gauge(
+                        "containerjfr_report_cache_entries",
+                        "Approximate number of cached reports",
+                        "cache")
+                .register(cache::estimatedSize, "active");
     }
 
     String get(ConnectionDescriptor connectionDescriptor, String recordingName) {
@@ -125,7 +147,12 @@ class ActiveRecordingReportCache {
                         String.format(
                                 "Active report cache miss for %s",
                                 recordingDescriptor.recordingName));
-                return reportGenerator.generateReport(stream);
+                long start = System.nanoTime();
+                try {
+                    return reportGenerator.generateReport(stream);
+                } finally {
+                    generationDuration.observeSince(start);
+                }
             }
         } finally {
             generationLock.unlock();
@@ -45,6 +45,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.Optional;
@@ -54,76 +55,94 @@ import javax.inject.Named;
 
 import org.apache.commons.io.input.ReaderInputStream;
 
-import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.reports.ReportGenerator;
 import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.metrics.Counter;
+import com.redhat.rhjmc.containerjfr.metrics.Histogram;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
 import com.redhat.rhjmc.containerjfr.net.web.WebModule;
 
 class ArchivedRecordingReportCache {
 
-    protected final Path savedRecordingsPath;
+    protected final ArchiveStorage archiveStorage;
     protected final Path archivedRecordingsReportPath;
     protected final FileSystem fs;
     protected final ReportGenerator reportGenerator;
     protected final ReentrantLock generationLock;
+    protected final Counter.Child hits;
+    protected final Counter.Child misses;
+    protected final Histogram.Child generationDuration;
     protected final Logger logger;
 
     ArchivedRecordingReportCache(
-            @Named(MainModule.RECORDINGS_PATH) Path savedRecordingsPath,
+            ArchiveStorage archiveStorage,
             @Named(WebModule.WEBSERVER_TEMP_DIR_PATH) Path webServerTempPath,
             FileSystem fs,
             ReportGenerator reportGenerator,
             @Named(ReportsModule.REPORT_GENERATION_LOCK) ReentrantLock generationLock,
+            MetricsRegistry metrics,
             Logger logger) {
-        this.savedRecordingsPath = savedRecordingsPath;
+        this.archiveStorage = archiveStorage;
         this.archivedRecordingsReportPath = webServerTempPath;
         this.fs = fs;
         this.reportGenerator = reportGenerator;
         this.generationLock = generationLock;
+        this.hits =
+                metrics.counter(ReportsModule.CACHE_HITS_METRIC, "Report cache hits", "cache")
+                        .labels("archived");
+        this.misses =
+                metrics.counter(ReportsModule.CACHE_MISSES_METRIC, "Report cache misses", "cache")
+                        .labels("archived");
+        this.generationDuration =
+                metrics.histogram(
+                                ReportsModule.GENERATION_DURATION_METRIC,
+                                "Time taken to generate automated analysis reports",
+                                ReportsModule.GENERATION_DURATION_BUCKETS,
+                                "source")
+                        .labels("archived");
         this.logger = logger;
     }
 
     Optional<Path> get(String recordingName) {
         Path dest = getCachedReportPath(recordingName);
         if (fs.isReadable(dest) && fs.isRegularFile(dest)) {
+            hits.inc();
             return Optional.of(dest);
         }
         try {
             generationLock.lock();
             // check again in case the previous lock holder already created the cached file
             if (fs.isReadable(dest) && fs.isRegularFile(dest)) {
+                hits.inc();
                 return Optional.of(dest);
             }
 
-            return fs.listDirectoryChildren(savedRecordingsPath).stream()
-                    .filter(name -> name.equals(recordingName))
-                    .map(savedRecordingsPath::resolve)
-                    .findFirst()
-                    .flatMap(
-                            recording -> {
-                                logger.trace(
-                                        String.format(
-                                                "Archived report cache miss for %s",
-                                                recordingName));
-                                try (InputStream stream = fs.newInputStream(recording)) {
-                                    String report = reportGenerator.generateReport(stream);
-                                    try (ReaderInputStream ris =
-                                            new ReaderInputStream(
-                                                    new StringReader(report),
-                                                    StandardCharsets.UTF_8)) {
-                                        // TODO use an abstraction over Files.write and avoid this
-                                        // intermediate stream
-                                        fs.copy(ris, dest, StandardCopyOption.REPLACE_EXISTING);
-                                    }
-                                    return Optional.of(dest);
-                                } catch (IOException ioe) {
-                                    logger.warn(ioe);
-                                    return Optional.empty();
-                                }
-                            });
-        } catch (IOException ioe) {
-            logger.warn(ioe);
+            logger.trace(String.format("Archived report cache miss for %s", recordingName));
+            misses.inc();
+            try (InputStream stream = archiveStorage.read(recordingName)) {
+                long start = System.nanoTime();
+                String report;
+                try {
+                    report = reportGenerator.generateReport(stream);
+                } finally {
+                    generationDuration.observeSince(start);
+                }
+                try (ReaderInputStream ris =
+                        new ReaderInputStream(new StringReader(report), StandardCharsets.UTF_8)) {
+                    // TODO use an abstraction over Files.write and avoid this intermediate stream
+                    fs.copy(ris, dest, StandardCopyOption.REPLACE_EXISTING);
+                }
+                return Optional.of(dest);
+            } catch (NoSuchFileException nsfe) {
+                return Optional.empty();
+            } catch (IOException ioe) {
+                logger.warn(ioe);
+                return Optional.empty();
+            }
+        } catch (IllegalArgumentException iae) {
+            logger.warn(iae);
             return Optional.empty();
         } finally {
             generationLock.unlock();
@@ -48,11 +48,12 @@ import java.util.concurrent.locks.ReentrantLock;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
-import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.reports.ReportGenerator;
 import com.redhat.rhjmc.containerjfr.core.reports.ReportTransformer;
 import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
 import com.redhat.rhjmc.containerjfr.net.web.WebModule;
 
@@ -66,6 +67,13 @@ import dagger.Provides;
 public abstract class ReportsModule {
 
     static final String REPORT_GENERATION_LOCK = "REPORT_GENERATION_LOCK";
+    static final String CACHE_HITS_METRIC = "containerjfr_report_cache_hits_total";
+    static final String CACHE_MISSES_METRIC = "containerjfr_report_cache_misses_total";
+    static final String GENERATION_DURATION_METRIC =
+            "containerjfr_report_generation_duration_seconds";
+    static final double[] GENERATION_DURATION_BUCKETS = {
+        0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120
+    };
 
     @Provides
     @Singleton
@@ -88,22 +96,30 @@ public abstract class ReportsModule {
             TargetConnectionManager targetConnectionManager,
             ReportGenerator reportGenerator,
             @Named(REPORT_GENERATION_LOCK) ReentrantLock generationLock,
+            MetricsRegistry metrics,
             Logger logger) {
         return new ActiveRecordingReportCache(
-                targetConnectionManager, reportGenerator, generationLock, logger);
+                targetConnectionManager, reportGenerator, generationLock, metrics, logger);
     }
 
     @Provides
     @Singleton
     static ArchivedRecordingReportCache provideArchivedRecordingReportCache(
-            @Named(MainModule.RECORDINGS_PATH) Path savedRecordingsPath,
+            ArchiveStorage archiveStorage,
             @Named(WebModule.WEBSERVER_TEMP_DIR_PATH) Path webServerTempDir,
             FileSystem fs,
             ReportGenerator reportGenerator,
             @Named(REPORT_GENERATION_LOCK) ReentrantLock generationLock,
+            MetricsRegistry metrics,
             Logger logger) {
         return new ArchivedRecordingReportCache(
-                savedRecordingsPath, webServerTempDir, fs, reportGenerator, generationLock, logger);
+                archiveStorage,
+                webServerTempDir,
+                fs,
+                reportGenerator,
+                generationLock,
+                metrics,
+                logger);
     }
 
     @Provides
@@ -0,0 +1,276 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import java.util.stream.Collectors;
+
+import com.google.gson.Gson;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+import io.vertx.core.http.HttpServerRequest;
+
+/**
+ * Web server access log. The event loop only decides whether to sample a request and offers an
+ * entry to a bounded queue; entries are formatted and logged by a single background thread. When
+ * the queue is full entries are dropped, and the number dropped is reported with the next entry
+ * logged. Requests which fail with a 4xx or 5xx status are always logged, regardless of sampling
+ * and excluded paths.
+ */
+class AccessLog {
+
+    static final String SAMPLE_RATE_ENV = "CONTAINER_JFR_ACCESS_LOG_SAMPLE_RATE";
+    static final String EXCLUDE_ENV = "CONTAINER_JFR_ACCESS_LOG_EXCLUDE";
+    static final String FORMAT_ENV = "CONTAINER_JFR_ACCESS_LOG_FORMAT";
+    static final String QUEUE_ENV = "CONTAINER_JFR_ACCESS_LOG_QUEUE";
+    static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    enum Format {
+        TEXT,
+        JSON,
+    }
+
+    private final double sampleRate;
+    private final List<String> excludedPaths;
+    private final Format format;
+    private final BlockingQueue<Entry> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final DoubleSupplier random;
+    private final Gson gson;
+    private final Logger logger;
+    private Thread appender;
+
+    AccessLog(
+            double sampleRate,
+            List<String> excludedPaths,
+            Format format,
+            int queueCapacity,
+            DoubleSupplier random,
+            Gson gson,
+            Logger logger) {
+        this.sampleRate = sampleRate;
+        this.excludedPaths = List.copyOf(excludedPaths);
+        this.format = format;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.random = random;
+        this.gson = gson;
+        this.logger = logger;
+    }
+
+    static AccessLog fromEnvironment(Environment env, Gson gson, Logger logger) {
+        double sampleRate = 1;
+        try {
+            sampleRate = Double.parseDouble(env.getEnv(SAMPLE_RATE_ENV, "1").trim());
+            if (!(sampleRate >= 0 && sampleRate <= 1)) {
+                logger.warn(String.format("%s must be between 0 and 1, using 1", SAMPLE_RATE_ENV));
+                sampleRate = 1;
+            }
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+        }
+
+        Format format = Format.TEXT;
+        try {
+            format =
+                    Format.valueOf(env.getEnv(FORMAT_ENV, Format.TEXT.name()).trim().toUpperCase());
+        } catch (IllegalArgumentException iae) {
+            logger.warn(iae);
+        }
+
+        int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        try {
+            queueCapacity =
+                    Integer.parseInt(
+                            env.getEnv(QUEUE_ENV, String.valueOf(DEFAULT_QUEUE_CAPACITY)).trim());
+            if (queueCapacity < 1) {
+                logger.warn(
+                        String.format(
+                                "%s must be at least 1, using %d",
+                                QUEUE_ENV, DEFAULT_QUEUE_CAPACITY));
+                queueCapacity = DEFAULT_QUEUE_CAPACITY;
+            }
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+        }
+
+        List<String> excludedPaths =
+                Arrays.stream(env.getEnv(EXCLUDE_ENV, "").split(","))
+                        .map(String::trim)
+                        .filter(s -> !s.isEmpty())
+                        .collect(Collectors.toList());
+
+        return new AccessLog(
+                sampleRate,
+                excludedPaths,
+                format,
+                queueCapacity,
+                () -> ThreadLocalRandom.current().nextDouble(),
+                gson,
+                logger);
+    }
+
+    synchronized void start() {
+        if (appender != null) {
+            return;
+        }
+        appender = new Thread(this::drain, "container-jfr-access-log");
+        appender.setDaemon(true);
+        appender.start();
+    }
+
+    synchronized void stop() {
+        if (appender == null) {
+            return;
+        }
+        appender.interrupt();
+        appender = null;
+    }
+
+    /** Called on the event loop once the response to req has ended */
+    void record(HttpServerRequest req, long startNanos) {
+        int status = req.response().getStatusCode();
+        if (status < 400 && !isSampled(req.path())) {
+            return;
+        }
+        Entry entry =
+                new Entry(
+                        System.currentTimeMillis(),
+                        String.valueOf(req.remoteAddress()),
+                        req.rawMethod(),
+                        req.path(),
+                        String.valueOf(req.version()),
+                        status,
+                        req.response().bytesWritten(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        if (!queue.offer(entry)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private boolean isSampled(String path) {
+        if (sampleRate <= 0) {
+            return false;
+        }
+        for (String excluded : excludedPaths) {
+            if (path == null) {
+                break;
+            }
+            if (excluded.endsWith("*")
+                    ? path.startsWith(excluded.substring(0, excluded.length() - 1))
+                    : path.equals(excluded)) {
+                return false;
+            }
+        }
+        return sampleRate >= 1 || random.getAsDouble() < sampleRate;
+    }
+
+    private void drain() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Entry entry = queue.take();
+                long droppedCount = dropped.getAndSet(0);
+                if (droppedCount > 0) {
+                    logger.warn(
+                            String.format(
+                                    "%d access log entries dropped, queue full", droppedCount));
+                }
+                logger.info(format(entry));
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    String format(Entry entry) {
+        switch (format) {
+            case JSON:
+                return gson.toJson(entry);
+            case TEXT:
+            default:
+                return String.format(
+                        "(%s): %s %s %d %dms",
+                        entry.remoteAddress,
+                        entry.method,
+                        entry.path,
+                        entry.status,
+                        entry.durationMs);
+        }
+    }
+
+    static class Entry {
+        final long timestamp;
+        final String remoteAddress;
+        final String method;
+        final String path;
+        final String protocol;
+        final int status;
+        final long bytes;
+        final long durationMs;
+
+        Entry(
+                long timestamp,
+                String remoteAddress,
+                String method,
+                String path,
+                String protocol,
+                int status,
+                long bytes,
+                long durationMs) {
+            this.timestamp = timestamp;
+            this.remoteAddress = remoteAddress;
+            this.method = method;
+            this.path = path;
+            this.protocol = protocol;
+            this.status = status;
+            this.bytes = bytes;
+            this.durationMs = durationMs;
+        }
+    }
+}
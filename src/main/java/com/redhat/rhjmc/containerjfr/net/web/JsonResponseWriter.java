@@ -0,0 +1,174 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+
+/**
+ * Writes JSON arrays to responses one element at a time, so that large listings are never held in
+ * memory as a single String. Output is sent in chunks of about {@link #CHUNK_SIZE} characters as it
+ * is produced, and responses which fit within a single chunk are sent whole, as before.
+ *
+ * <p>When called from a worker thread, writing waits for the client to catch up whenever the
+ * response's write queue is full, so that a slow client cannot cause the whole response to be
+ * buffered on the server instead.
+ */
+public final class JsonResponseWriter {
+
+    static final int CHUNK_SIZE = 16 * 1024;
+    static final long DRAIN_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(60);
+
+    private JsonResponseWriter() {}
+
+    public static void writeArray(HttpServerResponse response, Gson gson, Iterable<?> items)
+            throws IOException {
+        writeArray(response, gson, items.iterator());
+    }
+
+    /** Elements are only taken from the Stream as they are written */
+    public static void writeArray(HttpServerResponse response, Gson gson, Stream<?> items)
+            throws IOException {
+        writeArray(response, gson, items.iterator());
+    }
+
+    public static void writeArray(HttpServerResponse response, Gson gson, Iterator<?> items)
+            throws IOException {
+        ChunkWriter out = new ChunkWriter(response, CHUNK_SIZE);
+        JsonWriter json = gson.newJsonWriter(out);
+        json.beginArray();
+        while (items.hasNext()) {
+            Object item = items.next();
+            if (item == null) {
+                json.nullValue();
+            } else {
+                try {
+                    gson.toJson(item, item.getClass(), json);
+                } catch (JsonIOException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        }
+        json.endArray();
+        out.end();
+    }
+
+    static class ChunkWriter extends Writer {
+
+        private final HttpServerResponse response;
+        private final int chunkSize;
+        private final StringBuilder pending;
+        private boolean chunked;
+
+        ChunkWriter(HttpServerResponse response, int chunkSize) {
+            this.response = response;
+            this.chunkSize = chunkSize;
+            this.pending = new StringBuilder(chunkSize + 256);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            pending.append((char) c);
+            writeChunkIfFull();
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            pending.append(cbuf, off, len);
+            writeChunkIfFull();
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            pending.append(str, off, off + len);
+            writeChunkIfFull();
+        }
+
+        @Override
+        public void flush() {
+            // chunks are only written once full
+        }
+
+        @Override
+        public void close() {}
+
+        void end() {
+            response.end(pending.toString());
+            pending.setLength(0);
+        }
+
+        private void writeChunkIfFull() throws IOException {
+            if (pending.length() < chunkSize) {
+                return;
+            }
+            int end = pending.length();
+            // do not split a surrogate pair across chunks, since each is encoded separately
+            if (Character.isHighSurrogate(pending.charAt(end - 1))) {
+                end--;
+            }
+            Buffer chunk = Buffer.buffer(pending.substring(0, end));
+            pending.delete(0, end);
+            if (!chunked) {
+                response.setChunked(true);
+                chunked = true;
+            }
+            response.write(chunk);
+            awaitDrain();
+        }
+
+        private void awaitDrain() throws IOException {
+            ResponseChannel.awaitDrain(response, DRAIN_TIMEOUT_MS);
+        }
+    }
+}
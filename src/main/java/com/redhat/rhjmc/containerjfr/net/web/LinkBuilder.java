@@ -0,0 +1,231 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.net.HttpServer;
+import com.redhat.rhjmc.containerjfr.net.NetworkConfiguration;
+
+/**
+ * Builds the advertised URLs of recordings and reports. Resolving the advertised host may mean a
+ * socket connection and DNS lookup, so it is only done once per refresh interval rather than for
+ * every link, and links are built by appending encoded path segments to precomputed prefixes.
+ */
+public class LinkBuilder {
+
+    static final long REFRESH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final HttpServer server;
+    private final NetworkConfiguration netConf;
+    private final Clock clock;
+    private final Logger logger;
+
+    private volatile Base base;
+
+    LinkBuilder(HttpServer server, NetworkConfiguration netConf, Clock clock, Logger logger) {
+        this.server = server;
+        this.netConf = netConf;
+        this.clock = clock;
+        this.logger = logger;
+    }
+
+    public URI getHostUri() throws SocketException, UnknownHostException {
+        return base().uri;
+    }
+
+    public String getArchivedDownloadURL(String recordingName)
+            throws SocketException, UnknownHostException {
+        return base().archivedRecordings + encodeSegment(recordingName);
+    }
+
+    public String getArchivedReportURL(String recordingName)
+            throws SocketException, UnknownHostException {
+        return base().archivedReports + encodeSegment(recordingName);
+    }
+
+    public String getDownloadURL(JFRConnection connection, String recordingName)
+            throws IOException {
+        return targetUrl(connection, "/recordings/", recordingName);
+    }
+
+    public String getReportURL(JFRConnection connection, String recordingName) throws IOException {
+        return targetUrl(connection, "/reports/", recordingName);
+    }
+
+    private String targetUrl(JFRConnection connection, String collection, String recordingName)
+            throws IOException {
+        return base().targets
+                + encodeSegment(connection.getJMXURL().toString())
+                + collection
+                + encodeSegment(recordingName);
+    }
+
+    private Base base() throws SocketException, UnknownHostException {
+        Base current = this.base;
+        long now = clock.getMonotonicTime();
+        if (current != null && now - current.resolvedAt < REFRESH_INTERVAL_NANOS) {
+            return current;
+        }
+        synchronized (this) {
+            current = this.base;
+            if (current != null && now - current.resolvedAt < REFRESH_INTERVAL_NANOS) {
+                return current;
+            }
+            String scheme = server.isSsl() ? "https" : "http";
+            String host;
+            int port;
+            try {
+                host = netConf.getWebServerHost();
+                port = netConf.getExternalWebServerPort();
+            } catch (SocketException | UnknownHostException e) {
+                if (current == null) {
+                    throw e;
+                }
+                logger.warn(
+                        String.format(
+                                "Could not resolve advertised web host, continuing to use %s: %s",
+                                current.uri, e.getMessage()));
+                this.base = current.resolvedAt(now);
+                return this.base;
+            }
+            if (current != null && current.matches(scheme, host, port)) {
+                this.base = current.resolvedAt(now);
+            } else {
+                this.base = new Base(scheme, host, port, now);
+                if (current != null) {
+                    logger.info(
+                            String.format(
+                                    "Advertised web host changed from %s to %s",
+                                    current.uri, this.base.uri));
+                }
+            }
+            return this.base;
+        }
+    }
+
+    /** Percent-encodes all but the characters allowed unescaped within a URI path segment */
+    static String encodeSegment(String segment) {
+        if (".".equals(segment) || "..".equals(segment)) {
+            // these would otherwise be removed from the path by normalisation
+            return segment.replace(".", "%2E");
+        }
+        StringBuilder sb = null;
+        byte[] bytes = segment.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            if (isSegmentChar(b)) {
+                if (sb != null) {
+                    sb.append((char) b);
+                }
+                continue;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(bytes.length + 16);
+                sb.append(segment, 0, i);
+            }
+            sb.append('%').append(HEX[b >> 4]).append(HEX[b & 0xF]);
+        }
+        // segments which need no escaping, such as most recording names, are returned as-is
+        return sb == null ? segment : sb.toString();
+    }
+
+    private static boolean isSegmentChar(int c) {
+        // RFC 3986 pchar: unreserved, sub-delims, ':' and '@'
+        return (c >= 'a' && c <= 'z')
+                || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9')
+                || "-._~!$&'()*+,;=:@".indexOf(c) >= 0;
+    }
+
+    private static class Base {
+        final String scheme;
+        final String host;
+        final int port;
+        final long resolvedAt;
+        final URI uri;
+        final String archivedRecordings;
+        final String archivedReports;
+        final String targets;
+
+        Base(String scheme, String host, int port, long resolvedAt) {
+            this.scheme = scheme;
+            this.host = host;
+            this.port = port;
+            this.resolvedAt = resolvedAt;
+            String root =
+                    String.format(
+                            "%s://%s:%d",
+                            scheme,
+                            // IPv6 literals must be bracketed
+                            host.indexOf(':') >= 0 && !host.startsWith("[")
+                                    ? "[" + host + "]"
+                                    : host,
+                            port);
+            this.uri = URI.create(root);
+            this.archivedRecordings = root + "/api/v1/recordings/";
+            this.archivedReports = root + "/api/v1/reports/";
+            this.targets = root + "/api/v1/targets/";
+        }
+
+        boolean matches(String scheme, String host, int port) {
+            return this.scheme.equals(scheme)
+                    && Objects.equals(this.host, host)
+                    && this.port == port;
+        }
+
+        Base resolvedAt(long resolvedAt) {
+            return new Base(scheme, host, port, resolvedAt);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * A multipart/form-data request body holding a single file, read from an {@link InputStream} as the
+ * request is able to accept it. This allows a recording to be uploaded straight from its source,
+ * ex. a JMX connection, without first copying it to disk, while holding at most a few buffers of it
+ * in memory at a time.
+ *
+ * <p>The stream is driven by a blocking {@link #pump()} call, so that the source can be read on a
+ * worker thread while the consumer controls the pace through {@link #pause()} and {@link
+ * #resume()}.
+ */
+public class MultipartUploadStream implements ReadStream<Buffer> {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private final InputStream source;
+    private final String boundary;
+    private final Buffer head;
+    private final Buffer tail;
+
+    private Handler<Buffer> handler;
+    private Handler<Void> endHandler;
+    private Handler<Throwable> exceptionHandler;
+    private long demand = Long.MAX_VALUE;
+    private boolean closed;
+
+    public MultipartUploadStream(
+            String name, String fileName, String contentType, InputStream source) {
+        this.source = source;
+        this.boundary = UUID.randomUUID().toString().replace("-", "");
+        this.head =
+                Buffer.buffer(
+                        String.format(
+                                "--%s\r\nContent-Disposition: form-data; name=\"%s\"; filename=\"%s\"\r\nContent-Type: %s\r\n\r\n",
+                                boundary, name, fileName, contentType));
+        this.tail = Buffer.buffer(String.format("\r\n--%s--\r\n", boundary));
+    }
+
+    /** @return the value for the Content-Type header of the request carrying this body */
+    public String getContentType() {
+        return String.format("multipart/form-data; boundary=%s", boundary);
+    }
+
+    /**
+     * Reads the source and passes it on to the handler while there is demand for it. Blocks until
+     * the whole body has been passed on or the stream is closed, so must not be called on an event
+     * loop thread.
+     */
+    public void pump() throws IOException, InterruptedException {
+        try {
+            if (!emit(head)) {
+                return;
+            }
+            byte[] buf = new byte[CHUNK_SIZE];
+            int n;
+            while ((n = source.read(buf)) >= 0) {
+                if (n > 0 && !emit(Buffer.buffer(n).appendBytes(buf, 0, n))) {
+                    return;
+                }
+            }
+            if (!emit(tail)) {
+                return;
+            }
+        } catch (IOException | InterruptedException e) {
+            Handler<Throwable> h;
+            synchronized (this) {
+                closed = true;
+                h = exceptionHandler;
+            }
+            if (h != null) {
+                h.handle(e);
+            }
+            throw e;
+        }
+        Handler<Void> h;
+        synchronized (this) {
+            closed = true;
+            h = endHandler;
+        }
+        if (h != null) {
+            h.handle(null);
+        }
+    }
+
+    /**
+     * Makes {@link #pump()} return without passing on any more data, ex. because the request has
+     * already failed or been answered.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    private boolean emit(Buffer buffer) throws InterruptedException {
+        Handler<Buffer> h;
+        synchronized (this) {
+            while (!closed && (handler == null || demand == 0)) {
+                wait();
+            }
+            if (closed) {
+                return false;
+            }
+            if (demand != Long.MAX_VALUE) {
+                demand--;
+            }
+            h = handler;
+        }
+        // called without holding the lock, since the handler may pause this stream in turn
+        h.handle(buffer);
+        return true;
+    }
+
+    @Override
+    public synchronized MultipartUploadStream handler(Handler<Buffer> handler) {
+        this.handler = handler;
+        notifyAll();
+        return this;
+    }
+
+    @Override
+    public synchronized MultipartUploadStream pause() {
+        demand = 0;
+        return this;
+    }
+
+    @Override
+    public MultipartUploadStream resume() {
+        return fetch(Long.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized MultipartUploadStream fetch(long amount) {
+        demand += amount;
+        if (demand < 0) {
+            demand = Long.MAX_VALUE;
+        }
+        notifyAll();
+        return this;
+    }
+
+    @Override
+    public synchronized MultipartUploadStream endHandler(Handler<Void> endHandler) {
+        this.endHandler = endHandler;
+        return this;
+    }
+
+    @Override
+    public synchronized MultipartUploadStream exceptionHandler(Handler<Throwable> handler) {
+        this.exceptionHandler = handler;
+        return this;
+    }
+}
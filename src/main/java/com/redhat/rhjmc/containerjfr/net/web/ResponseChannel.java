@@ -0,0 +1,151 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import com.redhat.rhjmc.containerjfr.net.WriteStreams;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+
+/**
+ * Channel writing to a response, so that recording data can be streamed to the client as it is read
+ * or produced rather than first being written out to a file. Data is sent in chunks of about {@link
+ * #CHUNK_SIZE} bytes, and responses which fit within a single chunk are sent whole.
+ *
+ * <p>As for {@link JsonResponseWriter}, writing from a worker thread waits for the client to catch
+ * up whenever the response's write queue is full. Closing the channel does not end the response,
+ * which is done by {@link #end()} once all data has been written.
+ */
+public final class ResponseChannel implements WritableByteChannel {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private final HttpServerResponse response;
+    private final byte[] pending;
+    private int pendingLength;
+    private boolean chunked;
+    private boolean open;
+
+    public ResponseChannel(HttpServerResponse response) {
+        this(response, CHUNK_SIZE);
+    }
+
+    ResponseChannel(HttpServerResponse response, int chunkSize) {
+        this.response = response;
+        this.pending = new byte[chunkSize];
+        this.open = true;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        int written = src.remaining();
+        while (src.hasRemaining()) {
+            if (pendingLength == pending.length) {
+                writeChunk();
+            }
+            int n = Math.min(src.remaining(), pending.length - pendingLength);
+            src.get(pending, pendingLength, n);
+            pendingLength += n;
+        }
+        return written;
+    }
+
+    /** Sends any remaining data and ends the response. */
+    public void end() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        open = false;
+        response.end(Buffer.buffer(Arrays.copyOf(pending, pendingLength)));
+        pendingLength = 0;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    private void writeChunk() throws IOException {
+        if (response.closed()) {
+            throw new IOException("Client closed the connection");
+        }
+        if (!chunked) {
+            response.setChunked(true);
+            chunked = true;
+        }
+        // Buffer.buffer(byte[]) does not copy, and the pending array is reused
+        response.write(Buffer.buffer(Arrays.copyOf(pending, pendingLength)));
+        pendingLength = 0;
+        awaitDrain(response, JsonResponseWriter.DRAIN_TIMEOUT_MS);
+    }
+
+    static void awaitDrain(HttpServerResponse response, long timeoutMs) throws IOException {
+        try {
+            boolean drained = WriteStreams.awaitDrain(response, response::closed, timeoutMs);
+            if (response.closed()) {
+                throw new IOException("Client closed the connection");
+            }
+            if (!drained) {
+                throw new IOException(
+                        String.format("Client did not read the response for %dms", timeoutMs));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+}
@@ -52,7 +52,10 @@ import javax.inject.Singleton;
 import com.google.gson.Gson;
 
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
 import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
 import com.redhat.rhjmc.containerjfr.net.HttpServer;
 import com.redhat.rhjmc.containerjfr.net.NetworkConfiguration;
@@ -71,12 +74,30 @@ public abstract class WebModule {
     @Singleton
     static WebServer provideWebServer(
             HttpServer httpServer,
-            NetworkConfiguration netConf,
+            LinkBuilder links,
             Set<RequestHandler> requestHandlers,
             Gson gson,
             AuthManager authManager,
+            Environment env,
+            MetricsRegistry metrics,
             Logger logger) {
-        return new WebServer(httpServer, netConf, requestHandlers, gson, authManager, logger);
+        return new WebServer(
+                httpServer,
+                links,
+                requestHandlers,
+                gson,
+                authManager,
+                WorkerPools.fromEnvironment(env, metrics, logger),
+                AccessLog.fromEnvironment(env, gson, logger),
+                metrics,
+                logger);
+    }
+
+    @Provides
+    @Singleton
+    static LinkBuilder provideLinkBuilder(
+            HttpServer httpServer, NetworkConfiguration netConf, Clock clock, Logger logger) {
+        return new LinkBuilder(httpServer, netConf, clock, logger);
     }
 
     @Provides
@@ -51,8 +51,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.time.Duration;
-import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -61,17 +59,16 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 
-import org.apache.http.client.utils.URIBuilder;
-
 import org.openjdk.jmc.rjmx.services.jfr.FlightRecorderException;
 
 import com.google.gson.Gson;
 
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
+import com.redhat.rhjmc.containerjfr.metrics.Histogram;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
 import com.redhat.rhjmc.containerjfr.net.HttpServer;
-import com.redhat.rhjmc.containerjfr.net.NetworkConfiguration;
 import com.redhat.rhjmc.containerjfr.net.web.handlers.RequestHandler;
 
 import io.vertx.core.Handler;
@@ -87,31 +84,48 @@ public class WebServer {
     public static final String AUTH_SCHEME_HEADER = "X-WWW-Authenticate";
 
     private final HttpServer server;
-    private final NetworkConfiguration netConf;
+    private final LinkBuilder links;
     private final List<RequestHandler> requestHandlers;
     private final Gson gson;
     private final AuthManager auth;
+    private final WorkerPools workerPools;
+    private final AccessLog accessLog;
+    private final Histogram requestDuration;
     private final Logger logger;
 
     WebServer(
             HttpServer server,
-            NetworkConfiguration netConf,
+            LinkBuilder links,
             Set<RequestHandler> requestHandlers,
             Gson gson,
             AuthManager auth,
+            WorkerPools workerPools,
+            AccessLog accessLog,
+            MetricsRegistry metrics,
             Logger logger) {
         this.server = server;
-        this.netConf = netConf;
+        this.links = links;
         this.requestHandlers = new ArrayList<>(requestHandlers);
         Collections.sort(this.requestHandlers, (a, b) -> a.path().compareTo(b.path()));
         this.gson = gson;
         this.auth = auth;
+        this.workerPools = workerPools;
+        this.accessLog = accessLog;
+        this.requestDuration =
+                metrics.histogram(
+                        "containerjfr_http_request_duration_seconds",
+                        "Time taken to respond to web requests, by route and status class",
+                        "method",
+                        "route",
+                        "status");
         this.logger = logger;
     }
 
     public void start() throws FlightRecorderException, SocketException, UnknownHostException {
         Router router =
                 Router.router(server.getVertx()); // a vertx is only available after server started
+        workerPools.start(server.getVertx());
+        accessLog.start();
 
         // error page handler
         Handler<RoutingContext> failureHandler =
@@ -129,6 +143,15 @@ public class WebServer {
                         logger.error(exception);
                     }
 
+                    if (ctx.response().headWritten()) {
+                        // part of a streamed response has already been sent, so the failure can
+                        // only be signalled by ending the connection or stream early
+                        if (!ctx.response().ended()) {
+                            ctx.response().reset();
+                        }
+                        return;
+                    }
+
                     if (exception.getStatusCode() == 401) {
                         ctx.response().putHeader(AUTH_SCHEME_HEADER, auth.getScheme().toString());
                     }
@@ -170,11 +193,16 @@ public class WebServer {
                         route = router.route(handler.httpMethod(), handler.path());
                     }
                     route = route.order(handler.getPriority());
+                    Handler<RoutingContext> routeHandler;
                     if (handler.isAsync()) {
-                        route = route.handler(handler);
+                        routeHandler = handler;
                     } else {
-                        route = route.blockingHandler(handler, handler.isOrdered());
+                        routeHandler = workerPools.blockingHandler(handler);
+                    }
+                    if (!RequestHandler.ALL_PATHS.equals(handler.path())) {
+                        routeHandler = timed(handler, routeHandler);
                     }
+                    route = route.handler(routeHandler);
                     route = route.failureHandler(failureHandler);
                     if (!handler.isAvailable()) {
                         logger.trace(
@@ -186,25 +214,45 @@ public class WebServer {
 
         this.server.requestHandler(
                 req -> {
-                    Instant start = Instant.now();
-                    req.response()
-                            .endHandler(
-                                    (res) ->
-                                            logger.info(
-                                                    String.format(
-                                                            "(%s): %s %s %d %dms",
-                                                            req.remoteAddress().toString(),
-                                                            req.method().toString(),
-                                                            req.path(),
-                                                            req.response().getStatusCode(),
-                                                            Duration.between(start, Instant.now())
-                                                                    .toMillis())));
+                    long start = System.nanoTime();
+                    req.response().endHandler(res -> accessLog.record(req, start));
                     router.handle(req);
                 });
     }
 
+    private Handler<RoutingContext> timed(
+            RequestHandler handler, Handler<RoutingContext> routeHandler) {
+        String method = handler.httpMethod().toString();
+        String path = handler.path();
+        // histogram children by status class, looked up once each so that timing a request does
+        // not look up labels
+        Histogram.Child[] byStatusClass = new Histogram.Child[6];
+        return ctx -> {
+            long start = System.nanoTime();
+            ctx.addBodyEndHandler(
+                    v -> {
+                        int statusClass = ctx.response().getStatusCode() / 100;
+                        if (statusClass < 1 || statusClass > 5) {
+                            statusClass = 0;
+                        }
+                        Histogram.Child child = byStatusClass[statusClass];
+                        if (child == null) {
+                            child =
+                                    requestDuration.labels(
+                                            method,
+                                            path,
+                                            statusClass == 0 ? "other" : statusClass + "xx");
+                            byStatusClass[statusClass] = child;
+                        }
+                        child.observeSince(start);
+                    });
+            routeHandler.handle(ctx);
+        };
+    }
+
     public void stop() {
         this.server.requestHandler(null);
+        accessLog.stop();
     }
 
     public URL getHostUrl()
@@ -213,66 +261,28 @@ public class WebServer {
         return getHostUri().toURL();
     }
 
-    URI getHostUri() throws SocketException, UnknownHostException, URISyntaxException {
-        // FIXME replace URIBuilder with another implementation. This is the only remaining use
-        // of the Apache HttpComponents dependency
-        return new URIBuilder()
-                .setScheme(server.isSsl() ? "https" : "http")
-                .setHost(netConf.getWebServerHost())
-                .setPort(netConf.getExternalWebServerPort())
-                .build()
-                .normalize();
+    URI getHostUri() throws SocketException, UnknownHostException {
+        return links.getHostUri();
     }
 
     public String getArchivedDownloadURL(String recordingName)
             throws UnknownHostException, URISyntaxException, SocketException {
-        return new URIBuilder(getHostUri())
-                .setScheme(server.isSsl() ? "https" : "http")
-                .setPathSegments("api", "v1", "recordings", recordingName)
-                .build()
-                .normalize()
-                .toString();
+        return links.getArchivedDownloadURL(recordingName);
     }
 
     public String getDownloadURL(JFRConnection connection, String recordingName)
             throws URISyntaxException, IOException {
-        return new URIBuilder(getHostUri())
-                .setScheme(server.isSsl() ? "https" : "http")
-                .setPathSegments(
-                        "api",
-                        "v1",
-                        "targets",
-                        getTargetId(connection),
-                        "recordings",
-                        recordingName)
-                .build()
-                .normalize()
-                .toString();
+        return links.getDownloadURL(connection, recordingName);
     }
 
     public String getArchivedReportURL(String recordingName)
             throws SocketException, UnknownHostException, URISyntaxException {
-        return new URIBuilder(getHostUri())
-                .setScheme(server.isSsl() ? "https" : "http")
-                .setPathSegments("api", "v1", "reports", recordingName)
-                .build()
-                .normalize()
-                .toString();
+        return links.getArchivedReportURL(recordingName);
     }
 
     public String getReportURL(JFRConnection connection, String recordingName)
             throws URISyntaxException, IOException {
-        return new URIBuilder(getHostUri())
-                .setScheme(server.isSsl() ? "https" : "http")
-                .setPathSegments(
-                        "api", "v1", "targets", getTargetId(connection), "reports", recordingName)
-                .build()
-                .normalize()
-                .toString();
-    }
-
-    private String getTargetId(JFRConnection conn) throws IOException {
-        return conn.getJMXURL().toString();
+        return links.getReportURL(connection, recordingName);
     }
 
     public static class DownloadDescriptor {
@@ -0,0 +1,220 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+import com.redhat.rhjmc.containerjfr.metrics.Counter;
+import com.redhat.rhjmc.containerjfr.metrics.Gauge;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
+import com.redhat.rhjmc.containerjfr.net.web.handlers.RequestHandler;
+import com.redhat.rhjmc.containerjfr.net.web.handlers.WorkerPool;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.ext.web.Route;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.impl.HttpStatusException;
+import io.vertx.ext.web.impl.RoutingContextDecorator;
+
+/**
+ * Runs blocking {@link RequestHandler}s on bounded worker pools rather than on the shared Vert.x
+ * worker pool. Each pool accepts only as many requests as it has threads plus its queue depth, and
+ * turns further requests away with a 503 and a Retry-After header, so that an overloaded server
+ * fails fast rather than queueing requests without limit.
+ */
+class WorkerPools {
+
+    static final int RETRY_AFTER_SECONDS = 5;
+
+    private final Map<WorkerPool, Limits> limits;
+    private final Map<WorkerPool, Pool> pools = new EnumMap<>(WorkerPool.class);
+    private final Gauge inFlightGauge;
+    private final Counter rejectedCounter;
+    private final Logger logger;
+
+    WorkerPools(Map<WorkerPool, Limits> limits, MetricsRegistry metrics, Logger logger) {
+        this.limits = new EnumMap<>(limits);
+        this.inFlightGauge =
+                metrics.gauge(
+                        "containerjfr_worker_pool_requests",
+                        "Requests running or waiting on each worker pool",
+                        "pool");
+        this.rejectedCounter =
+                metrics.counter(
+                        "containerjfr_worker_pool_rejected_total",
+                        "Requests rejected because a worker pool was saturated",
+                        "pool");
+        this.logger = logger;
+    }
+
+    static WorkerPools fromEnvironment(Environment env, MetricsRegistry metrics, Logger logger) {
+        Map<WorkerPool, Limits> limits = new EnumMap<>(WorkerPool.class);
+        for (WorkerPool pool : WorkerPool.values()) {
+            int size = getInt(env, logger, pool.sizeEnv(), pool.getDefaultSize(), 1);
+            int queueDepth =
+                    getInt(env, logger, pool.queueDepthEnv(), pool.getDefaultQueueDepth(), 0);
+            limits.put(pool, new Limits(size, queueDepth));
+        }
+        return new WorkerPools(limits, metrics, logger);
+    }
+
+    /** Creates the worker executors. A Vert.x instance is only available once the server starts */
+    void start(Vertx vertx) {
+        synchronized (pools) {
+            limits.forEach(
+                    (pool, l) -> {
+                        if (pools.containsKey(pool)) {
+                            return;
+                        }
+                        logger.info(
+                                String.format(
+                                        "%s worker pool: %d threads, %d queued",
+                                        pool, l.size, l.queueDepth));
+                        String name = pool.name().toLowerCase();
+                        Pool p =
+                                new Pool(
+                                        pool,
+                                        vertx.createSharedWorkerExecutor(
+                                                "container-jfr-" + name + "-worker", l.size),
+                                        l.size + l.queueDepth,
+                                        rejectedCounter.labels(name));
+                        inFlightGauge.register(p.inFlight::get, name);
+                        pools.put(pool, p);
+                    });
+        }
+    }
+
+    Handler<RoutingContext> blockingHandler(RequestHandler handler) {
+        Pool pool;
+        synchronized (pools) {
+            pool = pools.get(handler.workerPool());
+        }
+        if (pool == null) {
+            throw new IllegalStateException(
+                    String.format("%s worker pool not started", handler.workerPool()));
+        }
+        return ctx -> pool.execute(handler, ctx);
+    }
+
+    private class Pool {
+        private final WorkerPool name;
+        private final WorkerExecutor executor;
+        private final int capacity;
+        // requests which are running or waiting for a thread
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Counter.Child rejected;
+
+        Pool(WorkerPool name, WorkerExecutor executor, int capacity, Counter.Child rejected) {
+            this.name = name;
+            this.executor = executor;
+            this.capacity = capacity;
+            this.rejected = rejected;
+        }
+
+        void execute(RequestHandler handler, RoutingContext ctx) {
+            if (inFlight.incrementAndGet() > capacity) {
+                inFlight.decrementAndGet();
+                rejected.inc();
+                logger.warn(
+                        String.format(
+                                "%s worker pool saturated, rejecting %s",
+                                name, ctx.request().path()));
+                ctx.response()
+                        .putHeader(HttpHeaders.RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDS));
+                ctx.fail(new HttpStatusException(503, "Server busy, retry later"));
+                return;
+            }
+            // mirrors the blockingHandler route decorator, so that the handler sees the route it
+            // was registered on
+            Route currentRoute = ctx.currentRoute();
+            executor.executeBlocking(
+                    promise -> {
+                        try {
+                            handler.handle(new RoutingContextDecorator(currentRoute, ctx));
+                            promise.complete();
+                        } finally {
+                            inFlight.decrementAndGet();
+                        }
+                    },
+                    handler.isOrdered(),
+                    res -> {
+                        if (res.failed()) {
+                            ctx.fail(res.cause());
+                        }
+                    });
+        }
+    }
+
+    static class Limits {
+        final int size;
+        final int queueDepth;
+
+        Limits(int size, int queueDepth) {
+            this.size = size;
+            this.queueDepth = queueDepth;
+        }
+    }
+
+    private static int getInt(
+            Environment env, Logger logger, String name, int defaultValue, int minimum) {
+        try {
+            int value = Integer.parseInt(env.getEnv(name, String.valueOf(defaultValue)).trim());
+            if (value < minimum) {
+                logger.warn(
+                        String.format(
+                                "%s must be at least %d, using %d", name, minimum, defaultValue));
+                return defaultValue;
+            }
+            return value;
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+            return defaultValue;
+        }
+    }
+}
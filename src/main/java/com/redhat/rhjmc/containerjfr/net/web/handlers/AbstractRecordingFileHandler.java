@@ -0,0 +1,213 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web.handlers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveRetentionService;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveSpaceException;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
+import com.redhat.rhjmc.containerjfr.archive.JfrChunkSelector;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.net.AuthManager;
+import com.redhat.rhjmc.containerjfr.net.web.HttpMimeType;
+import com.redhat.rhjmc.containerjfr.net.web.ResponseChannel;
+import com.redhat.rhjmc.containerjfr.sys.FileSystem;
+
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.impl.HttpStatusException;
+
+/**
+ * Base for handlers which produce a new recording file, ex. by merging or filtering existing
+ * recordings, and respond with its contents. The file is either saved to the archive or streamed to
+ * the client as it is written.
+ */
+abstract class AbstractRecordingFileHandler extends AbstractAuthenticatedRequestHandler {
+
+    protected final ArchiveStorage archiveStorage;
+    protected final ArchiveIndex archiveIndex;
+    protected final ArchiveRetentionService retentionService;
+    protected final FileSystem fs;
+    protected final Logger logger;
+
+    AbstractRecordingFileHandler(
+            AuthManager auth,
+            ArchiveStorage archiveStorage,
+            ArchiveIndex archiveIndex,
+            ArchiveRetentionService retentionService,
+            FileSystem fs,
+            Logger logger) {
+        super(auth);
+        this.archiveStorage = archiveStorage;
+        this.archiveIndex = archiveIndex;
+        this.retentionService = retentionService;
+        this.fs = fs;
+        this.logger = logger;
+    }
+
+    interface RecordingWriter {
+        /** @return the number of bytes written */
+        long write(Path destination) throws Exception;
+    }
+
+    interface RecordingStreamWriter {
+        /** @return the number of bytes written */
+        long write(WritableByteChannel out) throws Exception;
+    }
+
+    /**
+     * Writes the recording into the archive under the given name, first making room for it
+     * according to the retention quotas, and responds with its contents.
+     */
+    void saveAndSend(
+            RoutingContext ctx,
+            String name,
+            String targetName,
+            String recordingName,
+            RecordingWriter writer)
+            throws Exception {
+        // write into a staging file first so that making room for the result cannot evict any
+        // recording still being read
+        Path staging = archiveStorage.createStagingFile(name);
+        boolean sendingStaging = false;
+        try {
+            long size = writer.write(staging);
+            try (ArchiveRetentionService.Reservation reservation =
+                    retentionService.reserve(targetName, recordingName, size)) {
+                archiveStorage.store(staging, name);
+                archiveIndex.index(name);
+            }
+            Optional<Path> stored = archiveStorage.localPath(name);
+            if (stored.isPresent()) {
+                sendFile(ctx, stored.get(), name, false);
+            } else {
+                // storage is remote and was given a copy, so respond from the local one
+                sendingStaging = true;
+                sendFile(ctx, staging, name, true);
+            }
+        } catch (ArchiveSpaceException e) {
+            throw new HttpStatusException(507, e.getMessage(), e);
+        } finally {
+            if (!sendingStaging) {
+                fs.deleteIfExists(staging);
+            }
+        }
+    }
+
+    /**
+     * Responds with the recording as it is written, without storing it. Failures before any data
+     * has been sent produce the usual error response; later ones can only end the response early.
+     */
+    void streamRecording(RoutingContext ctx, String name, RecordingStreamWriter writer)
+            throws Exception {
+        HttpServerResponse response = ctx.response();
+        response.putHeader(HttpHeaders.CONTENT_TYPE, HttpMimeType.OCTET_STREAM.mime())
+                .putHeader(
+                        HttpHeaders.CONTENT_DISPOSITION,
+                        String.format("attachment; filename=\"%s\"", name));
+        ResponseChannel out = new ResponseChannel(response);
+        try {
+            writer.write(out);
+        } catch (Exception e) {
+            out.close();
+            if (!response.headWritten()) {
+                response.headers()
+                        .remove(HttpHeaders.CONTENT_TYPE)
+                        .remove(HttpHeaders.CONTENT_DISPOSITION);
+            }
+            throw e;
+        }
+        out.end();
+    }
+
+    /**
+     * Copies the selected part of a recording read from a stream. Selecting event types reads each
+     * chunk more than once, so the chunks are then staged one at a time in a scratch file.
+     */
+    long copySelection(InputStream in, JfrChunkSelector selector, WritableByteChannel out)
+            throws IOException {
+        if (!selector.selectsEvents()) {
+            // a file can have a trailing partial chunk truncated again, other output cannot
+            return out instanceof FileChannel
+                    ? selector.copy(in, (FileChannel) out)
+                    : selector.copy(in, out);
+        }
+        Path scratch = fs.createTempFile(null, ".jfr");
+        try (FileChannel channel =
+                FileChannel.open(scratch, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return selector.copy(in, out, channel);
+        } finally {
+            fs.deleteIfExists(scratch);
+        }
+    }
+
+    void sendFile(RoutingContext ctx, Path file, String name, boolean deleteAfter) {
+        ctx.response()
+                .putHeader(HttpHeaders.CONTENT_TYPE, HttpMimeType.OCTET_STREAM.mime())
+                .putHeader(
+                        HttpHeaders.CONTENT_DISPOSITION,
+                        String.format("attachment; filename=\"%s\"", name))
+                .sendFile(
+                        file.toString(),
+                        res -> {
+                            if (res.failed()) {
+                                logger.warn(res.cause());
+                            }
+                            if (deleteAfter) {
+                                try {
+                                    fs.deleteIfExists(file);
+                                } catch (IOException e) {
+                                    logger.warn(e);
+                                }
+                            }
+                        });
+    }
+}
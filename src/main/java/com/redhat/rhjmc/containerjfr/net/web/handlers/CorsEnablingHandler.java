@@ -46,6 +46,7 @@ import javax.inject.Inject;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
 import com.redhat.rhjmc.containerjfr.net.web.WebServer;
 
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.CorsHandler;
@@ -63,6 +64,7 @@ class CorsEnablingHandler implements RequestHandler {
                 CorsHandler.create(getOrigin())
                         .allowedHeader("Authorization")
                         .allowedHeader(AbstractAuthenticatedRequestHandler.JMX_AUTH_HEADER)
+                        .allowedHeader(JobGetHandler.PREFER_HEADER)
                         .allowedMethod(HttpMethod.GET)
                         .allowedMethod(HttpMethod.POST)
                         .allowedMethod(HttpMethod.PATCH)
@@ -71,7 +73,9 @@ class CorsEnablingHandler implements RequestHandler {
                         .allowedMethod(HttpMethod.DELETE)
                         .allowCredentials(true)
                         .exposedHeader(WebServer.AUTH_SCHEME_HEADER)
-                        .exposedHeader(AbstractAuthenticatedRequestHandler.JMX_AUTH_HEADER);
+                        .exposedHeader(AbstractAuthenticatedRequestHandler.JMX_AUTH_HEADER)
+                        .exposedHeader(RecordingsGetHandler.NEXT_CURSOR_HEADER)
+                        .exposedHeader(HttpHeaders.LOCATION.toString());
     }
 
     @Override
@@ -0,0 +1,115 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web.handlers;
+
+import javax.inject.Inject;
+
+import com.google.gson.Gson;
+
+import com.redhat.rhjmc.containerjfr.jobs.Job;
+import com.redhat.rhjmc.containerjfr.jobs.JobManager;
+import com.redhat.rhjmc.containerjfr.net.AuthManager;
+import com.redhat.rhjmc.containerjfr.net.web.HttpMimeType;
+
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.impl.HttpStatusException;
+
+class JobGetHandler extends AbstractAuthenticatedRequestHandler {
+
+    static final String PATH = JobsGetHandler.PATH + "/:jobId";
+    // clients may ask for long-running operations to be answered with a job handle instead of
+    // waiting for the result, see RFC 7240
+    static final String PREFER_HEADER = "Prefer";
+    static final String RESPOND_ASYNC = "respond-async";
+
+    private final JobManager jobManager;
+    private final Gson gson;
+
+    @Inject
+    JobGetHandler(AuthManager auth, JobManager jobManager, Gson gson) {
+        super(auth);
+        this.jobManager = jobManager;
+        this.gson = gson;
+    }
+
+    @Override
+    public HttpMethod httpMethod() {
+        return HttpMethod.GET;
+    }
+
+    @Override
+    public String path() {
+        return PATH;
+    }
+
+    @Override
+    void handleAuthenticated(RoutingContext ctx) throws Exception {
+        String jobId = ctx.pathParam("jobId");
+        Job job = jobManager.get(jobId).orElseThrow(() -> new HttpStatusException(404, jobId));
+        ctx.response().putHeader(HttpHeaders.CONTENT_TYPE, HttpMimeType.JSON.mime());
+        ctx.response().end(gson.toJson(job));
+    }
+
+    static boolean prefersAsync(RoutingContext ctx) {
+        String prefer = ctx.request().getHeader(PREFER_HEADER);
+        if (prefer == null) {
+            return false;
+        }
+        for (String preference : prefer.split(",")) {
+            if (RESPOND_ASYNC.equalsIgnoreCase(preference.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Answers a request with 202 Accepted, pointing the client at the job's status resource. */
+    static void respondAccepted(RoutingContext ctx, Gson gson, Job job) {
+        ctx.response()
+                .setStatusCode(202)
+                .putHeader(HttpHeaders.LOCATION, JobsGetHandler.PATH + "/" + job.getId())
+                .putHeader(HttpHeaders.CONTENT_TYPE, HttpMimeType.JSON.mime())
+                .end(gson.toJson(job));
+    }
+}
@@ -0,0 +1,237 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web.handlers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveRetentionService;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
+import com.redhat.rhjmc.containerjfr.archive.ArchivedRecordingInfo;
+import com.redhat.rhjmc.containerjfr.archive.JfrChunkHeader;
+import com.redhat.rhjmc.containerjfr.archive.JfrChunkSelector;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.net.AuthManager;
+import com.redhat.rhjmc.containerjfr.sys.FileSystem;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.impl.HttpStatusException;
+
+class RecordingChunksPostHandler extends AbstractRecordingFileHandler {
+
+    static final String PATH = "/api/v1/recordings/:recordingName/chunks";
+    static final List<String> EVENT_FILTER_PARAMS = List.of("events", "eventTypes");
+
+    private final Clock clock;
+
+    @Inject
+    RecordingChunksPostHandler(
+            AuthManager auth,
+            ArchiveStorage archiveStorage,
+            ArchiveIndex archiveIndex,
+            ArchiveRetentionService retentionService,
+            FileSystem fs,
+            Clock clock,
+            Logger logger) {
+        super(auth, archiveStorage, archiveIndex, retentionService, fs, logger);
+        this.clock = clock;
+    }
+
+    @Override
+    public HttpMethod httpMethod() {
+        return HttpMethod.POST;
+    }
+
+    @Override
+    public String path() {
+        return PATH;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return false;
+    }
+
+    @Override
+    public WorkerPool workerPool() {
+        return WorkerPool.ARCHIVE;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return archiveStorage.isAvailable();
+    }
+
+    @Override
+    void handleAuthenticated(RoutingContext ctx) throws Exception {
+        String recordingName = ctx.pathParam("recordingName");
+        MultiMap attrs = ctx.request().formAttributes();
+        JfrChunkSelector selector = parseSelection(attrs);
+        boolean save = Boolean.parseBoolean(attrs.get("save"));
+
+        ArchivedRecordingInfo info;
+        try {
+            info = archiveIndex.find(recordingName);
+        } catch (NoSuchFileException e) {
+            throw new HttpStatusException(404, String.format("%s not found", recordingName), e);
+        }
+        RecordingStreamWriter writer =
+                out -> checkNotEmpty(copy(recordingName, info, selector, out));
+
+        String baseName = stripExtension(recordingName);
+        if (save) {
+            String targetName = info.getTargetName() != null ? info.getTargetName() : "unknown";
+            String sourceName =
+                    info.getRecordingName() != null
+                            ? info.getRecordingName()
+                            : baseName.replaceAll("[\\._]+", "-");
+            String name =
+                    archiveStorage.uniqueName(targetName, sourceName + "-chunks", clock.now());
+            saveAndSend(
+                    ctx,
+                    name,
+                    targetName,
+                    sourceName,
+                    destination -> {
+                        try (FileChannel out =
+                                FileChannel.open(
+                                        destination,
+                                        StandardOpenOption.WRITE,
+                                        StandardOpenOption.CREATE,
+                                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                            return writer.write(out);
+                        }
+                    });
+        } else {
+            streamRecording(ctx, baseName + "-chunks.jfr", writer);
+        }
+    }
+
+    private long copy(
+            String recordingName,
+            ArchivedRecordingInfo info,
+            JfrChunkSelector selector,
+            WritableByteChannel out)
+            throws IOException {
+        Optional<Path> source = archiveStorage.localPath(recordingName);
+        if (source.isPresent()) {
+            try (FileChannel in = FileChannel.open(source.get(), StandardOpenOption.READ)) {
+                return selector.copy(in, out);
+            }
+        }
+        // only read the complete chunks, since a partial one cannot be dropped again once sent
+        List<JfrChunkHeader> chunks =
+                archiveStorage.readChunkHeaders(recordingName, info.getSize());
+        if (chunks.isEmpty()) {
+            return 0;
+        }
+        JfrChunkHeader last = chunks.get(chunks.size() - 1);
+        try (InputStream in =
+                archiveStorage.read(recordingName, 0, last.getOffset() + last.getSize())) {
+            return copySelection(in, selector, out);
+        }
+    }
+
+    /**
+     * Reads the "from" and "to" form parameters, in epoch milliseconds, and the comma-separated
+     * event type names given as "events" or "eventTypes". At least one of these must be given.
+     */
+    static JfrChunkSelector parseSelection(MultiMap attrs) {
+        String from = attrs.get("from");
+        String to = attrs.get("to");
+        Set<String> eventTypes = new HashSet<>();
+        for (String param : EVENT_FILTER_PARAMS) {
+            for (String value : attrs.getAll(param)) {
+                Arrays.stream(value.split(","))
+                        .map(String::trim)
+                        .filter(StringUtils::isNotBlank)
+                        .forEach(eventTypes::add);
+            }
+        }
+        if (StringUtils.isAllBlank(from, to) && eventTypes.isEmpty()) {
+            throw new HttpStatusException(
+                    400, "\"from\", \"to\" or \"events\" form parameter must be provided");
+        }
+        try {
+            return new JfrChunkSelector(parseMillis(from), parseMillis(to), eventTypes);
+        } catch (IllegalArgumentException e) {
+            throw new HttpStatusException(
+                    400, String.format("Invalid time range: %s", e.getMessage()), e);
+        }
+    }
+
+    static long checkNotEmpty(long written) {
+        if (written == 0) {
+            throw new HttpStatusException(404, "No recording data matches the selection");
+        }
+        return written;
+    }
+
+    static String stripExtension(String recordingName) {
+        if (recordingName.endsWith(".jfr")) {
+            return recordingName.substring(0, recordingName.length() - 4);
+        }
+        return recordingName;
+    }
+
+    private static Long parseMillis(String value) {
+        return StringUtils.isBlank(value) ? null : Long.valueOf(value.trim());
+    }
+}
@@ -42,13 +42,11 @@
 package com.redhat.rhjmc.containerjfr.net.web.handlers;
 
 import java.io.IOException;
-import java.nio.file.Path;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 
-import com.redhat.rhjmc.containerjfr.MainModule;
-import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
 import com.redhat.rhjmc.containerjfr.net.internal.reports.ReportService;
 
@@ -59,19 +57,19 @@ import io.vertx.ext.web.handler.impl.HttpStatusException;
 class RecordingDeleteHandler extends AbstractAuthenticatedRequestHandler {
 
     private final ReportService reportService;
-    private final FileSystem fs;
-    private final Path savedRecordingsPath;
+    private final ArchiveIndex archiveIndex;
+    private final ArchiveStorage archiveStorage;
 
     @Inject
     RecordingDeleteHandler(
             AuthManager auth,
             ReportService reportService,
-            FileSystem fs,
-            @Named(MainModule.RECORDINGS_PATH) Path savedRecordingsPath) {
+            ArchiveIndex archiveIndex,
+            ArchiveStorage archiveStorage) {
         super(auth);
         this.reportService = reportService;
-        this.fs = fs;
-        this.savedRecordingsPath = savedRecordingsPath;
+        this.archiveIndex = archiveIndex;
+        this.archiveStorage = archiveStorage;
     }
 
     @Override
@@ -87,27 +85,19 @@ class RecordingDeleteHandler extends AbstractAuthenticatedRequestHandler {
     @Override
     public void handleAuthenticated(RoutingContext ctx) throws Exception {
         String recordingName = ctx.pathParam("recordingName");
-        fs.listDirectoryChildren(savedRecordingsPath).stream()
-                .filter(saved -> saved.equals(recordingName))
-                .map(savedRecordingsPath::resolve)
-                .findFirst()
-                .ifPresentOrElse(
-                        path -> {
-                            try {
-                                if (!fs.exists(path)) {
-                                    throw new HttpStatusException(404, recordingName);
-                                }
-                                fs.deleteIfExists(path);
-                            } catch (IOException e) {
-                                throw new HttpStatusException(500, e.getMessage(), e);
-                            } finally {
-                                reportService.delete(recordingName);
-                            }
-                            ctx.response().setStatusCode(200);
-                            ctx.response().end();
-                        },
-                        () -> {
-                            throw new HttpStatusException(404, recordingName);
-                        });
+        try {
+            if (!archiveStorage.delete(recordingName)) {
+                throw new HttpStatusException(404, recordingName);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new HttpStatusException(404, recordingName);
+        } catch (IOException e) {
+            throw new HttpStatusException(500, e.getMessage(), e);
+        } finally {
+            archiveIndex.remove(recordingName);
+            reportService.delete(recordingName);
+        }
+        ctx.response().setStatusCode(200);
+        ctx.response().end();
     }
 }
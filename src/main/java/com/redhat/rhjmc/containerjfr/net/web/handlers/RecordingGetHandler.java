@@ -41,15 +41,12 @@
  */
 package com.redhat.rhjmc.containerjfr.net.web.handlers;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.Optional;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 
-import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
+import com.redhat.rhjmc.containerjfr.archive.StoredRecording;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
@@ -59,16 +56,13 @@ import io.vertx.ext.web.RoutingContext;
 
 class RecordingGetHandler extends TargetRecordingGetHandler {
 
-    private final Path savedRecordingsPath;
+    private final ArchiveStorage archiveStorage;
 
     @Inject
     RecordingGetHandler(
-            AuthManager auth,
-            Environment env,
-            @Named(MainModule.RECORDINGS_PATH) Path savedRecordingsPath,
-            Logger logger) {
-        super(auth, env, null, logger);
-        this.savedRecordingsPath = savedRecordingsPath;
+            AuthManager auth, Environment env, ArchiveStorage archiveStorage, Logger logger) {
+        super(auth, env, null, null, logger);
+        this.archiveStorage = archiveStorage;
         if (env.hasEnv(USE_LOW_MEM_PRESSURE_STREAMING_ENV)) {
             logger.info("low memory pressure streaming enabled for web server");
         } else {
@@ -87,8 +81,8 @@ class RecordingGetHandler extends TargetRecordingGetHandler {
     }
 
     @Override
-    public boolean isOrdered() {
-        return false;
+    public WorkerPool workerPool() {
+        return WorkerPool.ARCHIVE;
     }
 
     @Override
@@ -101,21 +95,12 @@ class RecordingGetHandler extends TargetRecordingGetHandler {
     Optional<DownloadDescriptor> getRecordingDescriptor(
             ConnectionDescriptor unused, String recordingName) {
         try {
-            // TODO refactor Files calls into FileSystem for testability
-            Optional<Path> savedRecording =
-                    Files.list(savedRecordingsPath)
-                            .filter(
-                                    saved ->
-                                            saved.getFileName()
-                                                    .toFile()
-                                                    .getName()
-                                                    .equals(recordingName))
-                            .findFirst();
+            Optional<StoredRecording> savedRecording = archiveStorage.stat(recordingName);
             if (savedRecording.isPresent()) {
                 return Optional.of(
                         new DownloadDescriptor(
-                                Files.newInputStream(savedRecording.get(), StandardOpenOption.READ),
-                                Files.size(savedRecording.get()),
+                                archiveStorage.read(recordingName),
+                                savedRecording.get().getSize(),
                                 null));
             }
         } catch (Exception e) {
@@ -41,23 +41,25 @@
  */
 package com.redhat.rhjmc.containerjfr.net.web.handlers;
 
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 
-import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
 import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
 import com.redhat.rhjmc.containerjfr.net.web.HttpMimeType;
+import com.redhat.rhjmc.containerjfr.net.web.MultipartUploadStream;
 
+import io.vertx.core.AsyncResult;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.client.HttpResponse;
@@ -70,7 +72,7 @@ class RecordingUploadPostHandler extends AbstractAuthenticatedRequestHandler {
     private final Environment env;
     private final WebClient webClient;
     private final FileSystem fs;
-    private final Path savedRecordingsPath;
+    private final ArchiveStorage archiveStorage;
 
     @Inject
     RecordingUploadPostHandler(
@@ -78,12 +80,12 @@ class RecordingUploadPostHandler extends AbstractAuthenticatedRequestHandler {
             Environment env,
             WebClient webClient,
             FileSystem fs,
-            @Named(MainModule.RECORDINGS_PATH) Path savedRecordingsPath) {
+            ArchiveStorage archiveStorage) {
         super(auth);
         this.env = env;
         this.webClient = webClient;
         this.fs = fs;
-        this.savedRecordingsPath = savedRecordingsPath;
+        this.archiveStorage = archiveStorage;
     }
 
     @Override
@@ -101,6 +103,11 @@ class RecordingUploadPostHandler extends AbstractAuthenticatedRequestHandler {
         return false;
     }
 
+    @Override
+    public WorkerPool workerPool() {
+        return WorkerPool.ARCHIVE;
+    }
+
     @Override
     void handleAuthenticated(RoutingContext ctx) throws Exception {
         String recordingName = ctx.pathParam("recordingName");
@@ -117,10 +124,21 @@ class RecordingUploadPostHandler extends AbstractAuthenticatedRequestHandler {
     }
 
     private ResponseMessage doPost(String recordingName, URL uploadUrl) throws Exception {
-        Path recordingPath =
-                getRecordingPath(recordingName)
-                        .orElseThrow(() -> new HttpStatusException(404, recordingName));
+        String loadUrl = uploadUrl.toURI().resolve("/load").normalize().toString();
+        Optional<Path> recordingPath = getRecordingPath(recordingName);
+        if (recordingPath.isPresent()) {
+            return postFile(loadUrl, recordingName, recordingPath.get());
+        }
+        if (!archiveStorage.exists(recordingName)) {
+            throw new HttpStatusException(404, recordingName);
+        }
+        try (InputStream stream = archiveStorage.read(recordingName)) {
+            return postStream(loadUrl, recordingName, stream);
+        }
+    }
 
+    private ResponseMessage postFile(String loadUrl, String recordingName, Path recordingPath)
+            throws Exception {
         MultipartForm form =
                 MultipartForm.create()
                         .binaryFileUpload(
@@ -131,33 +149,52 @@ class RecordingUploadPostHandler extends AbstractAuthenticatedRequestHandler {
 
         CompletableFuture<ResponseMessage> future = new CompletableFuture<>();
         webClient
-                .postAbs(uploadUrl.toURI().resolve("/load").normalize().toString())
+                .postAbs(loadUrl)
+                .timeout(30_000L)
+                .sendMultipartForm(form, uploadHandler -> complete(future, uploadHandler));
+        return future.get();
+    }
+
+    private ResponseMessage postStream(String loadUrl, String recordingName, InputStream stream)
+            throws Exception {
+        MultipartUploadStream body =
+                new MultipartUploadStream(
+                        "file", recordingName, HttpMimeType.OCTET_STREAM.mime(), stream);
+        CompletableFuture<ResponseMessage> future = new CompletableFuture<>();
+        webClient
+                .postAbs(loadUrl)
                 .timeout(30_000L)
-                .sendMultipartForm(
-                        form,
+                .putHeader(HttpHeaders.CONTENT_TYPE.toString(), body.getContentType())
+                .sendStream(
+                        body,
                         uploadHandler -> {
-                            if (uploadHandler.failed()) {
-                                future.completeExceptionally(uploadHandler.cause());
-                                return;
-                            }
-                            HttpResponse<Buffer> response = uploadHandler.result();
-                            future.complete(
-                                    new ResponseMessage(
-                                            response.statusCode(),
-                                            response.statusMessage(),
-                                            response.bodyAsString()));
+                            body.close();
+                            complete(future, uploadHandler);
                         });
+        body.pump();
         return future.get();
     }
 
+    private static void complete(
+            CompletableFuture<ResponseMessage> future,
+            AsyncResult<HttpResponse<Buffer>> uploadHandler) {
+        if (uploadHandler.failed()) {
+            future.completeExceptionally(uploadHandler.cause());
+            return;
+        }
+        HttpResponse<Buffer> response = uploadHandler.result();
+        future.complete(
+                new ResponseMessage(
+                        response.statusCode(), response.statusMessage(), response.bodyAsString()));
+    }
+
+    /** @return the local file of the recording, if the archive is kept on the local filesystem */
     Optional<Path> getRecordingPath(String recordingName) throws Exception {
         try {
-            Path archivedRecording = savedRecordingsPath.resolve(recordingName);
-            if (fs.isRegularFile(archivedRecording) && fs.isReadable(archivedRecording)) {
-                return Optional.of(archivedRecording);
-            }
-            return Optional.empty();
-        } catch (InvalidPathException e) {
+            return archiveStorage
+                    .localPath(recordingName)
+                    .filter(p -> fs.isRegularFile(p) && fs.isReadable(p));
+        } catch (IllegalArgumentException e) {
             throw new HttpStatusException(400, e.getMessage(), e);
         }
     }
@@ -45,31 +45,38 @@ import java.net.SocketException;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
 import java.nio.file.Path;
-import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 import javax.inject.Provider;
 
 import com.google.gson.Gson;
 
-import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchivePage;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveQuery;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.jmc.serialization.SavedRecordingDescriptor;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
+import com.redhat.rhjmc.containerjfr.net.web.JsonResponseWriter;
 import com.redhat.rhjmc.containerjfr.net.web.WebServer;
 
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.impl.HttpStatusException;
 
 class RecordingsGetHandler extends AbstractAuthenticatedRequestHandler {
 
-    private final Path savedRecordingsPath;
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private final ArchiveStorage archiveStorage;
     private final FileSystem fs;
+    private final ArchiveIndex archiveIndex;
     private final Provider<WebServer> webServerProvider;
     private final Gson gson;
     private final Logger logger;
@@ -77,14 +84,16 @@ class RecordingsGetHandler extends AbstractAuthenticatedRequestHandler {
     @Inject
     RecordingsGetHandler(
             AuthManager auth,
-            @Named(MainModule.RECORDINGS_PATH) Path savedRecordingsPath,
+            ArchiveStorage archiveStorage,
             FileSystem fs,
+            ArchiveIndex archiveIndex,
             Provider<WebServer> webServerProvider,
             Gson gson,
             Logger logger) {
         super(auth);
-        this.savedRecordingsPath = savedRecordingsPath;
+        this.archiveStorage = archiveStorage;
         this.fs = fs;
+        this.archiveIndex = archiveIndex;
         this.webServerProvider = webServerProvider;
         this.gson = gson;
         this.logger = logger;
@@ -102,38 +111,26 @@ class RecordingsGetHandler extends AbstractAuthenticatedRequestHandler {
 
     @Override
     public void handleAuthenticated(RoutingContext ctx) throws Exception {
-        if (!fs.exists(savedRecordingsPath)) {
-            throw new HttpStatusException(
-                    501,
-                    String.format(
-                            "Archive path %s does not exist", savedRecordingsPath.toString()));
+        Optional<Path> localRoot = archiveStorage.getLocalRoot();
+        if (localRoot.isPresent()) {
+            checkLocalRoot(localRoot.get());
         }
-        if (!fs.isReadable(savedRecordingsPath)) {
-            throw new HttpStatusException(
-                    501,
-                    String.format(
-                            "Archive path %s is not readable", savedRecordingsPath.toString()));
-        }
-        if (!fs.isDirectory(savedRecordingsPath)) {
-            throw new HttpStatusException(
-                    501,
-                    String.format(
-                            "Archive path %s is not a directory", savedRecordingsPath.toString()));
+        ArchivePage page;
+        try {
+            page = archiveIndex.query(parseQuery(ctx.request()));
+        } catch (IllegalArgumentException e) {
+            throw new HttpStatusException(400, e.getMessage(), e);
         }
         WebServer webServer = webServerProvider.get();
-        List<String> names = this.fs.listDirectoryChildren(savedRecordingsPath);
-        List<Map<String, String>> result =
-                names.stream()
+        Stream<SavedRecordingDescriptor> result =
+                page.getRecordings().stream()
                         .map(
-                                name -> {
+                                info -> {
                                     try {
-                                        return Map.of(
-                                                "name",
-                                                name,
-                                                "reportUrl",
-                                                webServer.getArchivedReportURL(name),
-                                                "downloadUrl",
-                                                webServer.getArchivedDownloadURL(name));
+                                        return new SavedRecordingDescriptor(
+                                                info,
+                                                webServer.getArchivedDownloadURL(info.getName()),
+                                                webServer.getArchivedReportURL(info.getName()));
                                     } catch (SocketException
                                             | UnknownHostException
                                             | URISyntaxException e) {
@@ -141,8 +138,81 @@ class RecordingsGetHandler extends AbstractAuthenticatedRequestHandler {
                                         return null;
                                     }
                                 })
-                        .filter(Objects::nonNull)
-                        .collect(Collectors.toList());
-        ctx.response().end(gson.toJson(result));
+                        .filter(Objects::nonNull);
+        if (page.getNextCursor() != null) {
+            ctx.response().putHeader(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        JsonResponseWriter.writeArray(ctx.response(), gson, result);
+    }
+
+    private void checkLocalRoot(Path archivePath) {
+        if (!fs.exists(archivePath)) {
+            throw new HttpStatusException(
+                    501, String.format("Archive path %s does not exist", archivePath.toString()));
+        }
+        if (!fs.isReadable(archivePath)) {
+            throw new HttpStatusException(
+                    501, String.format("Archive path %s is not readable", archivePath.toString()));
+        }
+        if (!fs.isDirectory(archivePath)) {
+            throw new HttpStatusException(
+                    501,
+                    String.format("Archive path %s is not a directory", archivePath.toString()));
+        }
+    }
+
+    static ArchiveQuery parseQuery(HttpServerRequest req) {
+        ArchiveQuery query =
+                new ArchiveQuery()
+                        .targetName(req.getParam("target"))
+                        .recordingName(req.getParam("recordingName"))
+                        .from(parseLong(req, "from"))
+                        .to(parseLong(req, "to"))
+                        .minSize(parseLong(req, "minSize"))
+                        .cursor(req.getParam("cursor"));
+        Long limit = parseLong(req, "limit");
+        if (limit != null) {
+            if (limit < 1 || limit > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("limit must be a positive integer");
+            }
+            query.limit(limit.intValue());
+        }
+        String sort = req.getParam("sort");
+        if (sort != null) {
+            try {
+                query.sort(ArchiveQuery.Sort.valueOf(sort.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(
+                        String.format("Unknown sort \"%s\", expected name, time or size", sort));
+            }
+        }
+        String order = req.getParam("order");
+        if (order != null) {
+            switch (order.toLowerCase()) {
+                case "asc":
+                    query.descending(false);
+                    break;
+                case "desc":
+                    query.descending(true);
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            String.format("Unknown order \"%s\", expected asc or desc", order));
+            }
+        }
+        return query;
+    }
+
+    private static Long parseLong(HttpServerRequest req, String param) {
+        String value = req.getParam(param);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    String.format("%s must be an integer, got \"%s\"", param, value));
+        }
     }
 }
@@ -0,0 +1,150 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web.handlers;
+
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveMerger;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveRetentionService;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
+import com.redhat.rhjmc.containerjfr.archive.ArchivedRecordingInfo;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.net.AuthManager;
+import com.redhat.rhjmc.containerjfr.sys.FileSystem;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.impl.HttpStatusException;
+
+class RecordingsMergePostHandler extends AbstractRecordingFileHandler {
+
+    static final String PATH = "/api/v1/recordings/merge";
+
+    private final ArchiveMerger merger;
+    private final Clock clock;
+
+    @Inject
+    RecordingsMergePostHandler(
+            AuthManager auth,
+            ArchiveMerger merger,
+            ArchiveStorage archiveStorage,
+            ArchiveIndex archiveIndex,
+            ArchiveRetentionService retentionService,
+            FileSystem fs,
+            Clock clock,
+            Logger logger) {
+        super(auth, archiveStorage, archiveIndex, retentionService, fs, logger);
+        this.merger = merger;
+        this.clock = clock;
+    }
+
+    @Override
+    public HttpMethod httpMethod() {
+        return HttpMethod.POST;
+    }
+
+    @Override
+    public String path() {
+        return PATH;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return false;
+    }
+
+    @Override
+    public WorkerPool workerPool() {
+        return WorkerPool.ARCHIVE;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return archiveStorage.isAvailable();
+    }
+
+    @Override
+    void handleAuthenticated(RoutingContext ctx) throws Exception {
+        MultiMap attrs = ctx.request().formAttributes();
+        String recordings = attrs.get("recordings");
+        if (StringUtils.isBlank(recordings)) {
+            throw new HttpStatusException(400, "\"recordings\" form parameter must be provided");
+        }
+        List<String> names =
+                Arrays.stream(recordings.split(","))
+                        .map(String::trim)
+                        .filter(StringUtils::isNotBlank)
+                        .collect(Collectors.toList());
+        boolean save = Boolean.parseBoolean(attrs.get("save"));
+
+        List<ArchivedRecordingInfo> sources;
+        try {
+            sources = merger.plan(names);
+        } catch (NoSuchFileException e) {
+            throw new HttpStatusException(404, String.format("%s not found", e.getMessage()), e);
+        } catch (IllegalArgumentException e) {
+            throw new HttpStatusException(400, e.getMessage(), e);
+        }
+
+        if (save) {
+            String name = merger.nameFor(sources, clock.now());
+            saveAndSend(
+                    ctx,
+                    name,
+                    sources.get(0).getTargetName(),
+                    sources.get(0).getRecordingName(),
+                    destination -> merger.merge(sources, destination));
+        } else {
+            streamRecording(ctx, "merged.jfr", out -> merger.merge(sources, out));
+        }
+    }
+}
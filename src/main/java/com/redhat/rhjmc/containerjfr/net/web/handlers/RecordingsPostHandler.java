@@ -46,17 +46,19 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Map;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 
 import org.openjdk.jmc.flightrecorder.CouldNotLoadRecordingException;
 import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
 
 import com.google.gson.Gson;
 
-import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveRetentionService;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveSpaceException;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
+import com.redhat.rhjmc.containerjfr.archive.ArchivedRecordingInfo;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
@@ -74,14 +76,13 @@ import io.vertx.ext.web.handler.impl.HttpStatusException;
 
 class RecordingsPostHandler extends AbstractAuthenticatedRequestHandler {
 
-    private static final Pattern RECORDING_FILENAME_PATTERN =
-            Pattern.compile("([A-Za-z\\d-]*)_([A-Za-z\\d-_]*)_([\\d]*T[\\d]*Z)(.[\\d]+)?");
-
     static final String PATH = "/api/v1/recordings";
 
     private final Vertx vertx;
     private final FileSystem fs;
-    private final Path savedRecordingsPath;
+    private final ArchiveStorage archiveStorage;
+    private final ArchiveIndex archiveIndex;
+    private final ArchiveRetentionService retentionService;
     private final Gson gson;
     private final Logger logger;
 
@@ -90,13 +91,17 @@ class RecordingsPostHandler extends AbstractAuthenticatedRequestHandler {
             AuthManager auth,
             HttpServer httpServer,
             FileSystem fs,
-            @Named(MainModule.RECORDINGS_PATH) Path savedRecordingsPath,
+            ArchiveStorage archiveStorage,
+            ArchiveIndex archiveIndex,
+            ArchiveRetentionService retentionService,
             Gson gson,
             Logger logger) {
         super(auth);
         this.vertx = httpServer.getVertx();
         this.fs = fs;
-        this.savedRecordingsPath = savedRecordingsPath;
+        this.archiveStorage = archiveStorage;
+        this.archiveIndex = archiveIndex;
+        this.retentionService = retentionService;
         this.gson = gson;
         this.logger = logger;
     }
@@ -122,13 +127,13 @@ class RecordingsPostHandler extends AbstractAuthenticatedRequestHandler {
     }
 
     @Override
-    public boolean isOrdered() {
-        return true;
+    public WorkerPool workerPool() {
+        return WorkerPool.ARCHIVE;
     }
 
     @Override
     void handleAuthenticated(RoutingContext ctx) throws Exception {
-        if (!fs.isDirectory(savedRecordingsPath)) {
+        if (!archiveStorage.isAvailable()) {
             throw new HttpStatusException(503, "Recording saving not available");
         }
 
@@ -154,7 +159,7 @@ class RecordingsPostHandler extends AbstractAuthenticatedRequestHandler {
             fileName = fileName.substring(0, fileName.length() - 4);
         }
 
-        Matcher m = RECORDING_FILENAME_PATTERN.matcher(fileName);
+        Matcher m = ArchivedRecordingInfo.RECORDING_FILENAME_PATTERN.matcher(fileName);
         if (!m.matches()) {
             throw new HttpStatusException(400, "Incorrect recording file name pattern");
         }
@@ -169,30 +174,66 @@ class RecordingsPostHandler extends AbstractAuthenticatedRequestHandler {
 
         final String basename = String.format("%s_%s_%s", targetName, recordingName, timestamp);
         final String uploadedFileName = upload.uploadedFileName();
+        final long uploadSize = upload.size();
         validateRecording(
                 upload.uploadedFileName(),
                 (res) ->
-                        saveRecording(
-                                basename,
-                                uploadedFileName,
-                                count,
-                                (res2) -> {
-                                    if (res2.failed()) {
-                                        ctx.fail(res2.cause());
+                        reserveSpace(
+                                targetName,
+                                recordingName,
+                                uploadSize,
+                                (reservation) -> {
+                                    if (reservation.failed()) {
+                                        ctx.fail(reservation.cause());
                                         return;
                                     }
+                                    saveRecording(
+                                            basename,
+                                            uploadedFileName,
+                                            count,
+                                            (res2) -> {
+                                                reservation.result().close();
+                                                if (res2.failed()) {
+                                                    ctx.fail(res2.cause());
+                                                    return;
+                                                }
 
-                                    ctx.response()
-                                            .putHeader(
-                                                    HttpHeaders.CONTENT_TYPE,
-                                                    HttpMimeType.JSON.mime())
-                                            .end(gson.toJson(Map.of("name", res2.result())));
-
-                                    logger.info(
-                                            String.format("Recording saved as %s", res2.result()));
+                                                ctx.response()
+                                                        .putHeader(
+                                                                HttpHeaders.CONTENT_TYPE,
+                                                                HttpMimeType.JSON.mime())
+                                                        .end(
+                                                                gson.toJson(
+                                                                        Map.of(
+                                                                                "name",
+                                                                                res2.result())));
+
+                                                logger.info(
+                                                        String.format(
+                                                                "Recording saved as %s",
+                                                                res2.result()));
+                                            });
                                 }));
     }
 
+    private void reserveSpace(
+            String targetName,
+            String recordingName,
+            long size,
+            Handler<AsyncResult<ArchiveRetentionService.Reservation>> handler) {
+        vertx.<ArchiveRetentionService.Reservation>executeBlocking(
+                event -> {
+                    try {
+                        event.complete(retentionService.reserve(targetName, recordingName, size));
+                    } catch (ArchiveSpaceException e) {
+                        event.fail(new HttpStatusException(507, e.getMessage(), e));
+                    } catch (IOException e) {
+                        event.fail(e);
+                    }
+                },
+                handler);
+    }
+
     private void validateRecording(String recordingFile, Handler<AsyncResult<Void>> handler) {
         vertx.executeBlocking(
                 event -> {
@@ -238,35 +279,70 @@ class RecordingsPostHandler extends AbstractAuthenticatedRequestHandler {
 
         String filename = counter > 1 ? basename + "." + counter + ".jfr" : basename + ".jfr";
 
-        vertx.fileSystem()
-                .exists(
-                        savedRecordingsPath.resolve(filename).toString(),
-                        (res) -> {
-                            if (res.failed()) {
-                                handler.handle(makeFailedAsyncResult(res.cause()));
-                                return;
-                            }
-
-                            if (res.result()) {
-                                saveRecording(basename, tmpFile, counter + 1, handler);
-                                return;
-                            }
-
-                            // verified no name clash at this time
-                            vertx.fileSystem()
-                                    .move(
-                                            tmpFile,
-                                            savedRecordingsPath.resolve(filename).toString(),
-                                            (res2) -> {
-                                                if (res2.failed()) {
-                                                    handler.handle(
-                                                            makeFailedAsyncResult(res2.cause()));
-                                                    return;
-                                                }
+        vertx.<Boolean>executeBlocking(
+                event -> {
+                    try {
+                        event.complete(archiveStorage.exists(filename));
+                    } catch (IOException e) {
+                        event.fail(e);
+                    }
+                },
+                (res) -> {
+                    if (res.failed()) {
+                        handler.handle(makeFailedAsyncResult(res.cause()));
+                        return;
+                    }
 
-                                                handler.handle(makeAsyncResult(filename));
-                                            });
-                        });
+                    if (res.result()) {
+                        saveRecording(basename, tmpFile, counter + 1, handler);
+                        return;
+                    }
+
+                    // verified no name clash at this time
+                    moveRecording(tmpFile, filename, handler);
+                });
+    }
+
+    private void moveRecording(
+            String tmpFile, String filename, Handler<AsyncResult<String>> handler) {
+        vertx.executeBlocking(
+                event -> {
+                    Path source = Path.of(tmpFile);
+                    try {
+                        archiveStorage.store(source, filename);
+                        fs.deleteIfExists(source);
+                        event.complete();
+                    } catch (IOException e) {
+                        event.fail(e);
+                    }
+                },
+                res -> {
+                    if (res.failed()) {
+                        handler.handle(makeFailedAsyncResult(res.cause()));
+                        return;
+                    }
+                    indexRecording(filename, handler);
+                });
+    }
+
+    private void indexRecording(String filename, Handler<AsyncResult<String>> handler) {
+        vertx.executeBlocking(
+                event -> {
+                    try {
+                        archiveIndex.index(filename);
+                        event.complete();
+                    } catch (IOException e) {
+                        event.fail(e);
+                    }
+                },
+                res -> {
+                    if (res.failed()) {
+                        // the recording was saved successfully, it just won't be listed with
+                        // metadata until the index is next reconciled
+                        logger.warn(res.cause());
+                    }
+                    handler.handle(makeAsyncResult(filename));
+                });
     }
 
     private <T> AsyncResult<T> makeAsyncResult(T result) {
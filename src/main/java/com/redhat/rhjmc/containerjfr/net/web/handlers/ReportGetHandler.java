@@ -80,8 +80,8 @@ class ReportGetHandler extends AbstractAuthenticatedRequestHandler {
     }
 
     @Override
-    public boolean isOrdered() {
-        return true;
+    public WorkerPool workerPool() {
+        return WorkerPool.ARCHIVE;
     }
 
     @Override
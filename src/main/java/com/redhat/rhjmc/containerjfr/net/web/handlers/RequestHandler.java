@@ -67,7 +67,16 @@ public interface RequestHandler extends Handler<RoutingContext> {
         return true;
     }
 
+    /**
+     * Whether requests to this handler must run one after another rather than concurrently. Only
+     * applies to handlers which are not async.
+     */
     default boolean isOrdered() {
-        return true;
+        return false;
+    }
+
+    /** The worker pool to run this handler on. Only applies to handlers which are not async. */
+    default WorkerPool workerPool() {
+        return WorkerPool.DEFAULT;
     }
 }
@@ -41,15 +41,14 @@
  */
 package com.redhat.rhjmc.containerjfr.net.web.handlers;
 
-import java.nio.file.Path;
-
-import javax.inject.Named;
-
+import com.google.gson.Gson;
 import com.google.inject.Provides;
 
-import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveRetentionService;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.core.sys.Clock;
-import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.jobs.JobManager;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
 
 import dagger.Binds;
@@ -75,6 +74,10 @@ public abstract class RequestHandlersModule {
     @IntoSet
     abstract RequestHandler bindHealthGetHandler(HealthGetHandler handler);
 
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindMetricsGetHandler(MetricsGetHandler handler);
+
     @Binds
     @IntoSet
     abstract RequestHandler bindClientUrlGetHandler(ClientUrlGetHandler handler);
@@ -113,11 +116,21 @@ public abstract class RequestHandlersModule {
 
     @Provides
     TargetRecordingPatchSave provideTargetRecordingPatchSave(
-            FileSystem fs,
-            @Named(MainModule.RECORDINGS_PATH) Path recordingsPath,
+            ArchiveStorage archiveStorage,
+            ArchiveIndex archiveIndex,
+            ArchiveRetentionService retentionService,
             TargetConnectionManager targetConnectionManager,
-            Clock clock) {
-        return new TargetRecordingPatchSave(fs, recordingsPath, targetConnectionManager, clock);
+            JobManager jobManager,
+            Clock clock,
+            Gson gson) {
+        return new TargetRecordingPatchSave(
+                archiveStorage,
+                archiveIndex,
+                retentionService,
+                targetConnectionManager,
+                jobManager,
+                clock,
+                gson);
     }
 
     @Provides
@@ -210,4 +223,44 @@ public abstract class RequestHandlersModule {
     @Binds
     @IntoSet
     abstract RequestHandler bindTargetSnapshotPostHandler(TargetSnapshotPostHandler handler);
+
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindRecordingsMergePostBodyHandler(
+            RecordingsMergePostBodyHandler handler);
+
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindRecordingsMergePostHandler(RecordingsMergePostHandler handler);
+
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindRecordingChunksPostBodyHandler(
+            RecordingChunksPostBodyHandler handler);
+
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindRecordingChunksPostHandler(RecordingChunksPostHandler handler);
+
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindTargetRecordingChunksPostBodyHandler(
+            TargetRecordingChunksPostBodyHandler handler);
+
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindTargetRecordingChunksPostHandler(
+            TargetRecordingChunksPostHandler handler);
+
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindJobsGetHandler(JobsGetHandler handler);
+
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindJobGetHandler(JobGetHandler handler);
+
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindJobDeleteHandler(JobDeleteHandler handler);
 }
@@ -41,19 +41,40 @@
  */
 package com.redhat.rhjmc.containerjfr.net.web.handlers;
 
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
 import javax.inject.Inject;
 
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.StaticHandler;
 
 class StaticAssetsGetHandler implements RequestHandler {
 
+    // assets are read-only within the image, so their properties can be cached for a long time
+    static final long FILE_CACHE_ENTRY_TIMEOUT_MS = TimeUnit.HOURS.toMillis(1);
+
     private final StaticHandler staticHandler;
+    private final WebClientAssets assets;
 
     @Inject
-    StaticAssetsGetHandler() {
-        this.staticHandler = StaticHandler.create(WebClientAssetsGetHandler.WEB_CLIENT_ASSETS_BASE);
+    StaticAssetsGetHandler(WebClientAssets assets) {
+        this(
+                StaticHandler.create(WebClientAssetsGetHandler.WEB_CLIENT_ASSETS_BASE)
+                        .setCachingEnabled(true)
+                        .setFilesReadOnly(true)
+                        .setCacheEntryTimeout(FILE_CACHE_ENTRY_TIMEOUT_MS)
+                        // already compressed formats gain nothing from compressing again
+                        .skipCompressionForSuffixes(
+                                Set.of("png", "jpg", "jpeg", "gif", "woff", "woff2")),
+                assets);
+    }
+
+    StaticAssetsGetHandler(StaticHandler staticHandler, WebClientAssets assets) {
+        this.staticHandler = staticHandler;
+        this.assets = assets;
     }
 
     @Override
@@ -68,6 +89,20 @@ class StaticAssetsGetHandler implements RequestHandler {
 
     @Override
     public void handle(RoutingContext ctx) {
+        String resource = WebClientAssets.resourcePath(ctx.normalisedPath());
+        // assets which do not exist fall through to the web-client index page, which must not
+        // receive their cache headers
+        if (assets.exists(resource)) {
+            if (assets.sendPrecompressed(ctx, resource)) {
+                return;
+            }
+            String cacheControl = WebClientAssets.cacheControl(resource);
+            if (cacheControl != null) {
+                // replaces the StaticHandler's default max-age
+                ctx.addHeadersEndHandler(
+                        v -> ctx.response().headers().set(HttpHeaders.CACHE_CONTROL, cacheControl));
+            }
+        }
         staticHandler.handle(ctx);
     }
 }
@@ -41,9 +41,7 @@
  */
 package com.redhat.rhjmc.containerjfr.net.web.handlers;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
 
 import javax.inject.Inject;
 
@@ -54,6 +52,7 @@ import com.google.gson.Gson;
 import com.redhat.rhjmc.containerjfr.jmc.serialization.SerializableEventTypeInfo;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
+import com.redhat.rhjmc.containerjfr.net.web.JsonResponseWriter;
 
 import io.vertx.core.http.HttpMethod;
 import io.vertx.ext.web.RoutingContext;
@@ -82,19 +81,12 @@ class TargetEventsGetHandler extends AbstractAuthenticatedRequestHandler {
 
     @Override
     void handleAuthenticated(RoutingContext ctx) throws Exception {
-        List<SerializableEventTypeInfo> templates =
+        Collection<? extends IEventTypeInfo> infos =
                 connectionManager.executeConnectedTask(
                         getConnectionDescriptorFromContext(ctx),
-                        connection -> {
-                            Collection<? extends IEventTypeInfo> origInfos =
-                                    connection.getService().getAvailableEventTypes();
-                            List<SerializableEventTypeInfo> infos =
-                                    new ArrayList<>(origInfos.size());
-                            for (IEventTypeInfo info : origInfos) {
-                                infos.add(new SerializableEventTypeInfo(info));
-                            }
-                            return infos;
-                        });
-        ctx.response().end(gson.toJson(templates));
+                        connection -> connection.getService().getAvailableEventTypes());
+        // each event type is only converted as it is written
+        JsonResponseWriter.writeArray(
+                ctx.response(), gson, infos.stream().map(SerializableEventTypeInfo::new));
     }
 }
@@ -0,0 +1,185 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web.handlers;
+
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.Optional;
+
+import javax.inject.Inject;
+
+import org.openjdk.jmc.common.unit.UnitLookup;
+import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
+
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveRetentionService;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
+import com.redhat.rhjmc.containerjfr.archive.JfrChunkSelector;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.net.AuthManager;
+import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
+import com.redhat.rhjmc.containerjfr.sys.FileSystem;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.impl.HttpStatusException;
+
+class TargetRecordingChunksPostHandler extends AbstractRecordingFileHandler {
+
+    static final String PATH = "/api/v1/targets/:targetId/recordings/:recordingName/chunks";
+
+    private final TargetConnectionManager targetConnectionManager;
+    private final Clock clock;
+
+    @Inject
+    TargetRecordingChunksPostHandler(
+            AuthManager auth,
+            TargetConnectionManager targetConnectionManager,
+            ArchiveStorage archiveStorage,
+            ArchiveIndex archiveIndex,
+            ArchiveRetentionService retentionService,
+            FileSystem fs,
+            Clock clock,
+            Logger logger) {
+        super(auth, archiveStorage, archiveIndex, retentionService, fs, logger);
+        this.targetConnectionManager = targetConnectionManager;
+        this.clock = clock;
+    }
+
+    @Override
+    public HttpMethod httpMethod() {
+        return HttpMethod.POST;
+    }
+
+    @Override
+    public String path() {
+        return PATH;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return false;
+    }
+
+    @Override
+    public WorkerPool workerPool() {
+        return WorkerPool.TRANSFER;
+    }
+
+    @Override
+    void handleAuthenticated(RoutingContext ctx) throws Exception {
+        String recordingName =
+                RecordingChunksPostHandler.stripExtension(ctx.pathParam("recordingName"));
+        MultiMap attrs = ctx.request().formAttributes();
+        JfrChunkSelector selector = RecordingChunksPostHandler.parseSelection(attrs);
+        boolean save = Boolean.parseBoolean(attrs.get("save"));
+
+        targetConnectionManager.executeConnectedTask(
+                getConnectionDescriptorFromContext(ctx),
+                connection -> {
+                    Optional<IRecordingDescriptor> descriptor =
+                            connection.getService().getAvailableRecordings().stream()
+                                    .filter(r -> Objects.equals(recordingName, r.getName()))
+                                    .findFirst();
+                    if (descriptor.isEmpty()) {
+                        throw new HttpStatusException(
+                                404, String.format("%s not found", recordingName));
+                    }
+                    RecordingStreamWriter writer =
+                            out -> {
+                                try (InputStream in =
+                                        openStream(connection, descriptor.get(), selector)) {
+                                    return RecordingChunksPostHandler.checkNotEmpty(
+                                            copySelection(in, selector, out));
+                                }
+                            };
+                    if (save) {
+                        String targetName = connection.getHost().replaceAll("[\\._]+", "-");
+                        String name =
+                                archiveStorage.uniqueName(
+                                        targetName, recordingName + "-chunks", clock.now());
+                        saveAndSend(
+                                ctx,
+                                name,
+                                targetName,
+                                recordingName,
+                                destination -> {
+                                    try (FileChannel out =
+                                            FileChannel.open(
+                                                    destination,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                                        return writer.write(out);
+                                    }
+                                });
+                    } else {
+                        // a trailing partial chunk can no longer be dropped once streamed, so the
+                        // response is then ended early instead, unless events are being selected
+                        streamRecording(ctx, recordingName + "-chunks.jfr", writer);
+                    }
+                    return null;
+                });
+    }
+
+    private InputStream openStream(
+            JFRConnection connection, IRecordingDescriptor descriptor, JfrChunkSelector selector)
+            throws Exception {
+        if (selector.getFromMillis() != null && selector.getToMillis() != null) {
+            // let the target leave out chunks outside of the range where it can, so that they are
+            // not transferred just to be dropped again
+            return connection
+                    .getService()
+                    .openStream(
+                            descriptor,
+                            UnitLookup.EPOCH_MS.quantity(selector.getFromMillis()),
+                            UnitLookup.EPOCH_MS.quantity(selector.getToMillis()),
+                            false);
+        }
+        return connection.getService().openStream(descriptor, false);
+    }
+}
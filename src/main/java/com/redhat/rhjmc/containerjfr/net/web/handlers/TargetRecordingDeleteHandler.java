@@ -60,15 +60,18 @@ class TargetRecordingDeleteHandler extends AbstractAuthenticatedRequestHandler {
 
     private final TargetConnectionManager targetConnectionManager;
     private final ReportService reportService;
+    private final TargetRecordingDownloadCache downloadCache;
 
     @Inject
     TargetRecordingDeleteHandler(
             AuthManager auth,
             TargetConnectionManager targetConnectionManager,
-            ReportService reportService) {
+            ReportService reportService,
+            TargetRecordingDownloadCache downloadCache) {
         super(auth);
         this.targetConnectionManager = targetConnectionManager;
         this.reportService = reportService;
+        this.downloadCache = downloadCache;
     }
 
     @Override
@@ -95,6 +98,7 @@ class TargetRecordingDeleteHandler extends AbstractAuthenticatedRequestHandler {
                     if (descriptor.isPresent()) {
                         connection.getService().close(descriptor.get());
                         reportService.delete(connectionDescriptor, recordingName);
+                        downloadCache.invalidate(connectionDescriptor, recordingName);
                         ctx.response().setStatusCode(200);
                         ctx.response().end();
                     } else {
@@ -0,0 +1,550 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web.handlers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.net.Credentials;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+import com.redhat.rhjmc.containerjfr.net.ConnectionDescriptor;
+import com.redhat.rhjmc.containerjfr.net.web.WebModule;
+import com.redhat.rhjmc.containerjfr.net.web.WebServer.DownloadDescriptor;
+import com.redhat.rhjmc.containerjfr.sys.FileSystem;
+
+/**
+ * Shares a single stream from a target between concurrent downloads of the same active recording.
+ * The first download opens the recording on the target and copies it into a spill file in the web
+ * server's temporary directory, and every download, including the first, reads from that spill file
+ * as it grows. Once the copy is complete the spill file is kept for a short window so that
+ * downloads arriving just afterwards are served from it as well, rather than opening the recording
+ * on the target again. If every download goes away before the copy is complete, the copy is
+ * abandoned rather than pulling the rest of the recording from the target for nobody.
+ *
+ * <p>Copies run on a pool with as many threads as the {@link WorkerPool#TRANSFER} pool, since each
+ * copy is started by a download running on one of its threads. They cannot run on that pool itself,
+ * because the download waits for the copy while holding its thread.
+ */
+@Singleton
+class TargetRecordingDownloadCache {
+
+    static final String WINDOW_SECONDS_ENV = "CONTAINER_JFR_DOWNLOAD_CACHE_WINDOW_SECONDS";
+    static final long DEFAULT_WINDOW_SECONDS = 10;
+
+    private final Path tempDir;
+    private final FileSystem fs;
+    private final Duration window;
+    private final ExecutorService fillExecutor;
+    private final ScheduledExecutorService evictionExecutor;
+    private final Logger logger;
+    private final Map<Key, Spill> spills = new HashMap<>();
+
+    @Inject
+    TargetRecordingDownloadCache(
+            Environment env,
+            @Named(WebModule.WEBSERVER_TEMP_DIR_PATH) Path tempDir,
+            FileSystem fs,
+            Logger logger) {
+        this(
+                tempDir,
+                fs,
+                getWindow(env, logger),
+                newFillExecutor(getFillThreads(env, logger)),
+                Executors.newSingleThreadScheduledExecutor(
+                        daemonThreadFactory("download-cache-evict-")),
+                logger);
+    }
+
+    TargetRecordingDownloadCache(
+            Path tempDir,
+            FileSystem fs,
+            Duration window,
+            ExecutorService fillExecutor,
+            ScheduledExecutorService evictionExecutor,
+            Logger logger) {
+        this.tempDir = tempDir;
+        this.fs = fs;
+        this.window = window;
+        this.fillExecutor = fillExecutor;
+        this.evictionExecutor = evictionExecutor;
+        this.logger = logger;
+    }
+
+    /**
+     * Returns a download of the named recording, shared with any other download of it that is in
+     * progress or that completed within the window. The opener is only called if there is no such
+     * download, and an empty result from it is passed on rather than remembered.
+     */
+    Optional<DownloadDescriptor> open(
+            ConnectionDescriptor connectionDescriptor, String recordingName, Opener opener)
+            throws Exception {
+        Key key = new Key(connectionDescriptor, recordingName);
+        Spill spill;
+        boolean owner = false;
+        synchronized (spills) {
+            spill = spills.get(key);
+            if (spill == null) {
+                spill = new Spill(key);
+                spills.put(key, spill);
+                owner = true;
+            } else {
+                logger.trace(String.format("Sharing download of %s", recordingName));
+            }
+            spill.readers++;
+        }
+
+        if (owner) {
+            start(spill, opener);
+        }
+
+        try {
+            if (!awaitOpened(spill)) {
+                release(spill);
+                return Optional.empty();
+            }
+            return Optional.of(new DownloadDescriptor(new SpillInputStream(spill), null, null));
+        } catch (Exception e) {
+            release(spill);
+            throw e;
+        }
+    }
+
+    /** Drops any shared download of the named recording, for example once it has been deleted. */
+    void invalidate(ConnectionDescriptor connectionDescriptor, String recordingName) {
+        Spill spill;
+        synchronized (spills) {
+            spill = spills.get(new Key(connectionDescriptor, recordingName));
+        }
+        if (spill != null) {
+            discard(spill);
+        }
+    }
+
+    private void start(Spill spill, Opener opener) {
+        Optional<DownloadDescriptor> source = Optional.empty();
+        try {
+            source = opener.open();
+            if (source.isEmpty()) {
+                discard(spill);
+                spill.opened.complete(false);
+                return;
+            }
+            spill.file = fs.createTempFile(tempDir, "download-", ".jfr");
+            DownloadDescriptor descriptor = source.get();
+            fillExecutor.execute(() -> fill(spill, descriptor));
+            spill.opened.complete(true);
+        } catch (Exception e) {
+            source.ifPresent(this::closeSource);
+            discard(spill);
+            spill.opened.completeExceptionally(e);
+        }
+    }
+
+    private boolean awaitOpened(Spill spill) throws Exception {
+        try {
+            return spill.opened.get();
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof Exception) {
+                throw (Exception) ee.getCause();
+            }
+            throw ee;
+        }
+    }
+
+    private void fill(Spill spill, DownloadDescriptor source) {
+        try (FileChannel out = FileChannel.open(spill.file, StandardOpenOption.WRITE)) {
+            byte[] buff = new byte[TargetRecordingGetHandler.WRITE_BUFFER_SIZE];
+            int n;
+            while ((n = source.stream.read(buff)) != -1) {
+                if (spill.abandoned) {
+                    logger.trace(
+                            String.format(
+                                    "Abandoning download of %s, no clients remain",
+                                    spill.key.recordingName));
+                    spill.complete(new InterruptedIOException("Download abandoned"));
+                    return;
+                }
+                ByteBuffer bb = ByteBuffer.wrap(buff, 0, n);
+                while (bb.hasRemaining()) {
+                    out.write(bb);
+                }
+                spill.advance(n);
+            }
+            spill.complete(null);
+        } catch (Exception e) {
+            logger.warn(e);
+            discard(spill);
+            spill.complete(e);
+            return;
+        } finally {
+            closeSource(source);
+        }
+
+        if (window.isZero() || window.isNegative()) {
+            discard(spill);
+        } else {
+            evictionExecutor.schedule(
+                    () -> discard(spill), window.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void closeSource(DownloadDescriptor source) {
+        try {
+            source.stream.close();
+        } catch (IOException e) {
+            logger.warn(e);
+        }
+        source.resource.ifPresent(
+                resource -> {
+                    try {
+                        resource.close();
+                    } catch (Exception e) {
+                        logger.warn(e);
+                    }
+                });
+    }
+
+    private void discard(Spill spill) {
+        boolean delete;
+        synchronized (spills) {
+            spills.remove(spill.key, spill);
+            spill.discarded = true;
+            delete = spill.readers == 0;
+        }
+        if (delete) {
+            deleteFile(spill);
+        }
+    }
+
+    private void release(Spill spill) {
+        boolean delete;
+        synchronized (spills) {
+            spill.readers--;
+            if (spill.readers == 0 && !spill.isDone()) {
+                // nobody is left to read the rest, so stop copying it from the target
+                spills.remove(spill.key, spill);
+                spill.discarded = true;
+                spill.abandoned = true;
+            }
+            delete = spill.discarded && spill.readers == 0;
+        }
+        if (delete) {
+            deleteFile(spill);
+        }
+    }
+
+    private void deleteFile(Spill spill) {
+        if (spill.file == null) {
+            return;
+        }
+        try {
+            fs.deleteIfExists(spill.file);
+        } catch (IOException e) {
+            logger.warn(e);
+        }
+    }
+
+    private static Duration getWindow(Environment env, Logger logger) {
+        try {
+            long seconds =
+                    Long.parseLong(
+                            env.getEnv(WINDOW_SECONDS_ENV, String.valueOf(DEFAULT_WINDOW_SECONDS))
+                                    .trim());
+            if (seconds < 0) {
+                logger.warn(
+                        String.format(
+                                "%s must not be negative, using %d",
+                                WINDOW_SECONDS_ENV, DEFAULT_WINDOW_SECONDS));
+                seconds = DEFAULT_WINDOW_SECONDS;
+            }
+            return Duration.ofSeconds(seconds);
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+            return Duration.ofSeconds(DEFAULT_WINDOW_SECONDS);
+        }
+    }
+
+    private static int getFillThreads(Environment env, Logger logger) {
+        WorkerPool pool = WorkerPool.TRANSFER;
+        try {
+            int threads =
+                    Integer.parseInt(
+                            env.getEnv(pool.sizeEnv(), String.valueOf(pool.getDefaultSize()))
+                                    .trim());
+            return threads < 1 ? pool.getDefaultSize() : threads;
+        } catch (NumberFormatException nfe) {
+            // already reported when the worker pools are configured
+            return pool.getDefaultSize();
+        }
+    }
+
+    private static ExecutorService newFillExecutor(int threads) {
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(
+                        threads,
+                        threads,
+                        60,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(),
+                        daemonThreadFactory("download-cache-fill-"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    interface Opener {
+        Optional<DownloadDescriptor> open() throws Exception;
+    }
+
+    private class SpillInputStream extends InputStream {
+        private final Spill spill;
+        private FileChannel channel;
+        private long position;
+        private boolean closed;
+
+        SpillInputStream(Spill spill) {
+            this.spill = spill;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n;
+            do {
+                n = read(b, 0, 1);
+            } while (n == 0);
+            return n == -1 ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            long available = spill.awaitAvailable(position);
+            if (available < 0) {
+                return -1;
+            }
+            if (channel == null) {
+                channel = FileChannel.open(spill.file, StandardOpenOption.READ);
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, available)), position);
+            if (n > 0) {
+                position += n;
+            }
+            return Math.max(n, 0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } finally {
+                release(spill);
+            }
+        }
+    }
+
+    private static class Spill {
+        final Key key;
+        final CompletableFuture<Boolean> opened = new CompletableFuture<>();
+        volatile Path file;
+        // guarded by the enclosing cache's spills map
+        int readers;
+        boolean discarded;
+        // set with the spills map held, but read by the copy without it
+        volatile boolean abandoned;
+        // guarded by this
+        private long written;
+        private boolean done;
+        private Exception failure;
+
+        Spill(Key key) {
+            this.key = key;
+        }
+
+        synchronized void advance(long n) {
+            written += n;
+            notifyAll();
+        }
+
+        synchronized boolean isDone() {
+            return done;
+        }
+
+        synchronized void complete(Exception failure) {
+            this.done = true;
+            this.failure = failure;
+            notifyAll();
+        }
+
+        /**
+         * Blocks until there are bytes beyond the given position, and returns how many, or -1 if
+         * the copy is complete and there are none.
+         */
+        synchronized long awaitAvailable(long position) throws IOException {
+            while (written <= position && !done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            if (failure != null) {
+                throw new IOException(failure);
+            }
+            if (written <= position) {
+                return -1;
+            }
+            return written - position;
+        }
+    }
+
+    private static class Key {
+        // a per-process secret, so that the credentials digests kept in the cache cannot be
+        // checked against guessed passwords by anyone who does not also have the key
+        private static final HmacUtils CREDENTIALS_HMAC =
+                new HmacUtils(HmacAlgorithms.HMAC_SHA_256, randomKey());
+
+        final String targetId;
+        final String credentials;
+        final String recordingName;
+
+        Key(ConnectionDescriptor connectionDescriptor, String recordingName) {
+            // keyed on a digest of the credentials so that downloads are only shared between
+            // clients which presented the same credentials to the target, without keeping the
+            // password itself for as long as the download is cached
+            this.targetId = connectionDescriptor.getTargetId();
+            this.credentials = connectionDescriptor.getCredentials().map(Key::digest).orElse(null);
+            this.recordingName = recordingName;
+        }
+
+        private static byte[] randomKey() {
+            byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            return key;
+        }
+
+        private static String digest(Credentials credentials) {
+            String username = String.valueOf(credentials.getUsername());
+            // length-prefixed so that moving characters between the two cannot collide
+            return CREDENTIALS_HMAC.hmacHex(
+                    username.length() + ":" + username + credentials.getPassword());
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other == null) {
+                return false;
+            }
+            if (other == this) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) other;
+            return new EqualsBuilder()
+                    .append(targetId, k.targetId)
+                    .append(credentials, k.credentials)
+                    .append(recordingName, k.recordingName)
+                    .isEquals();
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashCodeBuilder()
+                    .append(targetId)
+                    .append(credentials)
+                    .append(recordingName)
+                    .hashCode();
+        }
+    }
+}
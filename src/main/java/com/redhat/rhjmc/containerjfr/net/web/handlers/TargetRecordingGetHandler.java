@@ -78,6 +78,7 @@ class TargetRecordingGetHandler extends AbstractAuthenticatedRequestHandler {
 
     protected final Environment env;
     protected final TargetConnectionManager targetConnectionManager;
+    protected final TargetRecordingDownloadCache downloadCache;
     protected final Logger logger;
 
     @Inject
@@ -85,10 +86,12 @@ class TargetRecordingGetHandler extends AbstractAuthenticatedRequestHandler {
             AuthManager auth,
             Environment env,
             TargetConnectionManager targetConnectionManager,
+            TargetRecordingDownloadCache downloadCache,
             Logger logger) {
         super(auth);
         this.env = env;
         this.targetConnectionManager = targetConnectionManager;
+        this.downloadCache = downloadCache;
         this.logger = logger;
     }
 
@@ -107,6 +110,11 @@ class TargetRecordingGetHandler extends AbstractAuthenticatedRequestHandler {
         return false;
     }
 
+    @Override
+    public WorkerPool workerPool() {
+        return WorkerPool.TRANSFER;
+    }
+
     @Override
     void handleAuthenticated(RoutingContext ctx) throws Exception {
         String recordingName = ctx.pathParam("recordingName");
@@ -159,6 +167,15 @@ class TargetRecordingGetHandler extends AbstractAuthenticatedRequestHandler {
 
     Optional<DownloadDescriptor> getRecordingDescriptor(
             ConnectionDescriptor connectionDescriptor, String recordingName) throws Exception {
+        // concurrent downloads of the same recording share one stream from the target
+        return downloadCache.open(
+                connectionDescriptor,
+                recordingName,
+                () -> openRecordingStream(connectionDescriptor, recordingName));
+    }
+
+    Optional<DownloadDescriptor> openRecordingStream(
+            ConnectionDescriptor connectionDescriptor, String recordingName) throws Exception {
         JFRConnection connection = targetConnectionManager.connect(connectionDescriptor);
         Optional<IRecordingDescriptor> desc =
                 connection.getService().getAvailableRecordings().stream()
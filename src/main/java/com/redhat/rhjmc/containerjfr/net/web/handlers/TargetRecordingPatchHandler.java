@@ -81,6 +81,11 @@ class TargetRecordingPatchHandler extends AbstractAuthenticatedRequestHandler {
         return false;
     }
 
+    @Override
+    public WorkerPool workerPool() {
+        return WorkerPool.TRANSFER;
+    }
+
     @Override
     void handleAuthenticated(RoutingContext ctx) throws Exception {
         String mtd = ctx.getBodyAsString();
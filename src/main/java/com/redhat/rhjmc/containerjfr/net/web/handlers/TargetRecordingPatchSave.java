@@ -41,21 +41,25 @@
  */
 package com.redhat.rhjmc.containerjfr.net.web.handlers;
 
-import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Path;
-import java.time.temporal.ChronoUnit;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 
 import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
 
-import com.redhat.rhjmc.containerjfr.MainModule;
+import com.google.gson.Gson;
+
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveRetentionService;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveSpaceException;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
 import com.redhat.rhjmc.containerjfr.core.sys.Clock;
-import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.jobs.Job;
+import com.redhat.rhjmc.containerjfr.jobs.JobManager;
+import com.redhat.rhjmc.containerjfr.jobs.RecordingSize;
 import com.redhat.rhjmc.containerjfr.net.ConnectionDescriptor;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
 
@@ -64,76 +68,97 @@ import io.vertx.ext.web.handler.impl.HttpStatusException;
 
 class TargetRecordingPatchSave {
 
-    private final FileSystem fs;
-    private final Path recordingsPath;
+    private final ArchiveStorage archiveStorage;
+    private final ArchiveIndex archiveIndex;
+    private final ArchiveRetentionService retentionService;
     private final TargetConnectionManager targetConnectionManager;
+    private final JobManager jobManager;
     private final Clock clock;
+    private final Gson gson;
 
     @Inject
     TargetRecordingPatchSave(
-            FileSystem fs,
-            @Named(MainModule.RECORDINGS_PATH) Path recordingsPath,
+            ArchiveStorage archiveStorage,
+            ArchiveIndex archiveIndex,
+            ArchiveRetentionService retentionService,
             TargetConnectionManager targetConnectionManager,
-            Clock clock) {
-        this.fs = fs;
-        this.recordingsPath = recordingsPath;
+            JobManager jobManager,
+            Clock clock,
+            Gson gson) {
+        this.archiveStorage = archiveStorage;
+        this.archiveIndex = archiveIndex;
+        this.retentionService = retentionService;
         this.targetConnectionManager = targetConnectionManager;
+        this.jobManager = jobManager;
         this.clock = clock;
+        this.gson = gson;
     }
 
     void handle(RoutingContext ctx, ConnectionDescriptor connectionDescriptor) throws Exception {
+        String targetId = ctx.pathParam("targetId");
         String recordingName = ctx.pathParam("recordingName");
 
-        String saveName =
-                targetConnectionManager.executeConnectedTask(
-                        connectionDescriptor,
-                        connection -> {
-                            Optional<IRecordingDescriptor> descriptor =
-                                    connection.getService().getAvailableRecordings().stream()
-                                            .filter(
-                                                    recording ->
-                                                            recording
-                                                                    .getName()
-                                                                    .equals(recordingName))
-                                            .findFirst();
-                            if (descriptor.isPresent()) {
-                                return saveRecording(connection, descriptor.get());
-                            } else {
-                                throw new HttpStatusException(
-                                        404,
-                                        String.format(
-                                                "Recording with name \"%s\" not found",
-                                                recordingName));
-                            }
-                        });
+        Job job;
+        try {
+            job =
+                    jobManager.submit(
+                            Job.TYPE_SAVE,
+                            targetId,
+                            recordingName,
+                            j -> save(j, connectionDescriptor, recordingName));
+        } catch (RejectedExecutionException e) {
+            throw new HttpStatusException(503, e.getMessage(), e);
+        }
+        if (JobGetHandler.prefersAsync(ctx)) {
+            JobGetHandler.respondAccepted(ctx, gson, job);
+            return;
+        }
+        String saveName = job.await();
         ctx.response().setStatusCode(200);
         ctx.response().end(saveName);
     }
 
-    private String saveRecording(JFRConnection connection, IRecordingDescriptor descriptor)
+    private String save(Job job, ConnectionDescriptor connectionDescriptor, String recordingName)
+            throws Exception {
+        return targetConnectionManager.executeConnectedTask(
+                connectionDescriptor,
+                connection -> {
+                    Optional<IRecordingDescriptor> descriptor =
+                            connection.getService().getAvailableRecordings().stream()
+                                    .filter(recording -> recording.getName().equals(recordingName))
+                                    .findFirst();
+                    if (descriptor.isPresent()) {
+                        return saveRecording(job, connection, descriptor.get());
+                    } else {
+                        throw new HttpStatusException(
+                                404,
+                                String.format(
+                                        "Recording with name \"%s\" not found", recordingName));
+                    }
+                });
+    }
+
+    private String saveRecording(Job job, JFRConnection connection, IRecordingDescriptor descriptor)
             throws Exception {
         String recordingName = descriptor.getName();
         if (recordingName.endsWith(".jfr")) {
             recordingName = recordingName.substring(0, recordingName.length() - 4);
         }
         String targetName = connection.getHost().replaceAll("[\\._]+", "-");
-        String timestamp =
-                clock.now().truncatedTo(ChronoUnit.SECONDS).toString().replaceAll("[-:]+", "");
-        String destination = String.format("%s_%s_%s", targetName, recordingName, timestamp);
-        // TODO byte-sized rename limit is arbitrary. Probably plenty since recordings are also
-        // differentiated by second-resolution timestamp
-        byte count = 1;
-        while (fs.exists(recordingsPath.resolve(destination + ".jfr"))) {
-            destination =
-                    String.format("%s_%s_%s.%d", targetName, recordingName, timestamp, count++);
-            if (count == Byte.MAX_VALUE) {
-                throw new IOException(
-                        "Recording could not be saved. File already exists and rename attempts were exhausted.");
-            }
+        String destination = archiveStorage.uniqueName(targetName, recordingName, clock.now());
+        Optional<Long> size = RecordingSize.lookup(connection, descriptor);
+        size.ifPresent(job::setTotalBytes);
+        ArchiveRetentionService.Reservation reservation;
+        try {
+            reservation = retentionService.reserve(targetName, recordingName, size.orElse(0L));
+        } catch (ArchiveSpaceException e) {
+            throw new HttpStatusException(507, e.getMessage(), e);
         }
-        destination += ".jfr";
-        try (InputStream stream = connection.getService().openStream(descriptor, false)) {
-            fs.copy(stream, recordingsPath.resolve(destination));
+        try (reservation;
+                InputStream stream =
+                        job.track(connection.getService().openStream(descriptor, false))) {
+            archiveStorage.write(destination, stream);
+            archiveIndex.index(destination);
         }
         return destination;
     }
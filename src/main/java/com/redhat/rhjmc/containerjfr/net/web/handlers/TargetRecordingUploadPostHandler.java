@@ -41,40 +41,46 @@
  */
 package com.redhat.rhjmc.containerjfr.net.web.handlers;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.inject.Inject;
 
-import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
+import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
+
+import com.google.gson.Gson;
+
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
-import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.jobs.Job;
+import com.redhat.rhjmc.containerjfr.jobs.JobManager;
+import com.redhat.rhjmc.containerjfr.jobs.RecordingSize;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
+import com.redhat.rhjmc.containerjfr.net.ConnectionDescriptor;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
 import com.redhat.rhjmc.containerjfr.net.internal.reports.ReportService.RecordingNotFoundException;
 import com.redhat.rhjmc.containerjfr.net.web.HttpMimeType;
+import com.redhat.rhjmc.containerjfr.net.web.MultipartUploadStream;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.client.HttpResponse;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.handler.impl.HttpStatusException;
-import io.vertx.ext.web.multipart.MultipartForm;
 
 class TargetRecordingUploadPostHandler extends AbstractAuthenticatedRequestHandler {
 
     private final Environment env;
     private final TargetConnectionManager targetConnectionManager;
     private final WebClient webClient;
-    private final FileSystem fs;
+    private final JobManager jobManager;
+    private final Gson gson;
 
     @Inject
     TargetRecordingUploadPostHandler(
@@ -82,12 +88,14 @@ class TargetRecordingUploadPostHandler extends AbstractAuthenticatedRequestHandl
             Environment env,
             TargetConnectionManager targetConnectionManager,
             WebClient webClient,
-            FileSystem fs) {
+            JobManager jobManager,
+            Gson gson) {
         super(auth);
         this.env = env;
         this.targetConnectionManager = targetConnectionManager;
         this.webClient = webClient;
-        this.fs = fs;
+        this.jobManager = jobManager;
+        this.gson = gson;
     }
 
     @Override
@@ -105,88 +113,129 @@ class TargetRecordingUploadPostHandler extends AbstractAuthenticatedRequestHandl
         return false;
     }
 
+    @Override
+    public WorkerPool workerPool() {
+        return WorkerPool.TRANSFER;
+    }
+
     @Override
     void handleAuthenticated(RoutingContext ctx) throws Exception {
+        URL uploadUrl;
         try {
-            URL uploadUrl = new URL(env.getEnv("GRAFANA_DATASOURCE_URL"));
-            ResponseMessage response = doPost(ctx, uploadUrl);
-            ctx.response().setStatusCode(response.statusCode);
-            ctx.response().setStatusMessage(response.statusMessage);
-            ctx.response().end(response.body);
+            uploadUrl = new URL(env.getEnv("GRAFANA_DATASOURCE_URL"));
         } catch (MalformedURLException e) {
             throw new HttpStatusException(501, e);
-        } catch (RecordingNotFoundException e) {
-            throw new HttpStatusException(404, e);
         }
-    }
-
-    // FindBugs thinks the recordingPath or its properties is null somehow
-    @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
-    private ResponseMessage doPost(RoutingContext ctx, URL uploadUrl) throws Exception {
         String targetId = ctx.pathParam("targetId");
         String recordingName = ctx.pathParam("recordingName");
-        Path recordingPath =
-                targetConnectionManager.executeConnectedTask(
-                        getConnectionDescriptorFromContext(ctx),
-                        connection ->
-                                getRecordingCopyPath(connection, targetId, recordingName)
-                                        .orElseThrow(
-                                                () ->
-                                                        new RecordingNotFoundException(
-                                                                targetId, recordingName)));
-
-        MultipartForm form =
-                MultipartForm.create()
-                        .binaryFileUpload(
-                                "file",
-                                recordingName,
-                                recordingPath.toString(),
-                                HttpMimeType.OCTET_STREAM.toString());
+        ConnectionDescriptor connectionDescriptor = getConnectionDescriptorFromContext(ctx);
 
-        CompletableFuture<ResponseMessage> future = new CompletableFuture<>();
+        AtomicReference<ResponseMessage> response = new AtomicReference<>();
+        Job job;
         try {
-            webClient
-                    .postAbs(uploadUrl.toURI().resolve("/load").normalize().toString())
-                    .timeout(30_000L)
-                    .sendMultipartForm(
-                            form,
-                            uploadHandler -> {
-                                if (uploadHandler.failed()) {
-                                    future.completeExceptionally(uploadHandler.cause());
-                                    return;
+            job =
+                    jobManager.submit(
+                            Job.TYPE_UPLOAD,
+                            targetId,
+                            recordingName,
+                            j -> {
+                                ResponseMessage msg =
+                                        doPost(
+                                                j,
+                                                connectionDescriptor,
+                                                targetId,
+                                                recordingName,
+                                                uploadUrl);
+                                response.set(msg);
+                                if (msg.statusCode < 200 || msg.statusCode >= 300) {
+                                    throw new IOException(
+                                            String.format(
+                                                    "Upload failed: %d %s",
+                                                    msg.statusCode, msg.statusMessage));
                                 }
-                                HttpResponse<Buffer> response = uploadHandler.result();
-                                future.complete(
-                                        new ResponseMessage(
-                                                response.statusCode(),
-                                                response.statusMessage(),
-                                                response.bodyAsString()));
+                                return msg.body;
                             });
-            return future.get();
-        } finally {
-            fs.deleteIfExists(recordingPath);
+        } catch (RejectedExecutionException e) {
+            throw new HttpStatusException(503, e.getMessage(), e);
         }
+        if (JobGetHandler.prefersAsync(ctx)) {
+            JobGetHandler.respondAccepted(ctx, gson, job);
+            return;
+        }
+
+        try {
+            job.await();
+        } catch (RecordingNotFoundException e) {
+            throw new HttpStatusException(404, e);
+        } catch (Exception e) {
+            // an unsuccessful upload still has a response from the datasource to relay
+            if (response.get() == null) {
+                throw e;
+            }
+        }
+        ResponseMessage msg = response.get();
+        ctx.response().setStatusCode(msg.statusCode);
+        ctx.response().setStatusMessage(msg.statusMessage);
+        ctx.response().end(msg.body);
     }
 
-    Optional<Path> getRecordingCopyPath(
-            JFRConnection connection, String targetId, String recordingName) throws Exception {
-        return connection.getService().getAvailableRecordings().stream()
-                .filter(recording -> recording.getName().equals(recordingName))
-                .findFirst()
-                .map(
-                        descriptor -> {
-                            try {
-                                // FIXME extract createTempFile wrapper into FileSystem
-                                Path tempFile = Files.createTempFile(null, null);
-                                try (InputStream stream =
-                                        connection.getService().openStream(descriptor, false)) {
-                                    fs.copy(stream, tempFile, StandardCopyOption.REPLACE_EXISTING);
-                                }
-                                return tempFile;
-                            } catch (Exception e) {
-                                throw new HttpStatusException(500, e);
+    private ResponseMessage doPost(
+            Job job,
+            ConnectionDescriptor connectionDescriptor,
+            String targetId,
+            String recordingName,
+            URL uploadUrl)
+            throws Exception {
+        String loadUrl = uploadUrl.toURI().resolve("/load").normalize().toString();
+        // the recording is streamed straight from the target, so the connection must stay open
+        // until the upload is complete
+        return targetConnectionManager.executeConnectedTask(
+                connectionDescriptor,
+                connection -> {
+                    IRecordingDescriptor descriptor =
+                            connection.getService().getAvailableRecordings().stream()
+                                    .filter(recording -> recording.getName().equals(recordingName))
+                                    .findFirst()
+                                    .orElseThrow(
+                                            () ->
+                                                    new RecordingNotFoundException(
+                                                            targetId, recordingName));
+                    RecordingSize.lookup(connection, descriptor).ifPresent(job::setTotalBytes);
+                    try (InputStream stream =
+                            job.track(connection.getService().openStream(descriptor, false))) {
+                        job.checkCancelled();
+                        return upload(loadUrl, recordingName, stream);
+                    }
+                });
+    }
+
+    private ResponseMessage upload(String loadUrl, String recordingName, InputStream stream)
+            throws Exception {
+        MultipartUploadStream body =
+                new MultipartUploadStream(
+                        "file", recordingName, HttpMimeType.OCTET_STREAM.mime(), stream);
+        CompletableFuture<ResponseMessage> future = new CompletableFuture<>();
+        webClient
+                .postAbs(loadUrl)
+                .timeout(30_000L)
+                .putHeader(HttpHeaders.CONTENT_TYPE.toString(), body.getContentType())
+                .sendStream(
+                        body,
+                        uploadHandler -> {
+                            body.close();
+                            if (uploadHandler.failed()) {
+                                future.completeExceptionally(uploadHandler.cause());
+                                return;
                             }
+                            HttpResponse<Buffer> response = uploadHandler.result();
+                            future.complete(
+                                    new ResponseMessage(
+                                            response.statusCode(),
+                                            response.statusMessage(),
+                                            response.bodyAsString()));
                         });
+        body.pump();
+        return future.get();
     }
 
     private static class ResponseMessage {
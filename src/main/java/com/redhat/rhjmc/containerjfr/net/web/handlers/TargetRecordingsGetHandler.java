@@ -54,6 +54,7 @@ import com.google.gson.Gson;
 import com.redhat.rhjmc.containerjfr.jmc.serialization.HyperlinkedSerializableRecordingDescriptor;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
+import com.redhat.rhjmc.containerjfr.net.web.JsonResponseWriter;
 import com.redhat.rhjmc.containerjfr.net.web.WebServer;
 
 import io.vertx.core.http.HttpMethod;
@@ -109,6 +110,6 @@ class TargetRecordingsGetHandler extends AbstractAuthenticatedRequestHandler {
                             }
                             return list;
                         });
-        ctx.response().end(gson.toJson(descriptors));
+        JsonResponseWriter.writeArray(ctx.response(), gson, descriptors);
     }
 }
@@ -82,8 +82,8 @@ class TargetReportGetHandler extends AbstractAuthenticatedRequestHandler {
     }
 
     @Override
-    public boolean isOrdered() {
-        return true;
+    public WorkerPool workerPool() {
+        return WorkerPool.TARGET;
     }
 
     @Override
@@ -46,6 +46,7 @@ import javax.inject.Inject;
 import com.google.gson.Gson;
 
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
+import com.redhat.rhjmc.containerjfr.net.web.JsonResponseWriter;
 import com.redhat.rhjmc.containerjfr.platform.PlatformClient;
 
 import io.vertx.core.http.HttpMethod;
@@ -75,6 +76,7 @@ class TargetsGetHandler extends AbstractAuthenticatedRequestHandler {
 
     @Override
     void handleAuthenticated(RoutingContext ctx) throws Exception {
-        ctx.response().end(gson.toJson(this.platformClient.listDiscoverableServices()));
+        JsonResponseWriter.writeArray(
+                ctx.response(), gson, this.platformClient.listDiscoverableServices());
     }
 }
@@ -0,0 +1,308 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web.handlers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.impl.MimeMapping;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.impl.Utils;
+
+/**
+ * Sends the gzip and brotli variants of web-client assets which are written alongside them at build
+ * time, so that assets are not compressed again on every request. Fingerprinted assets, whose names
+ * contain a content hash, may be cached by browsers indefinitely, while index.html is only cached
+ * briefly so that a new web-client version is picked up soon after an upgrade.
+ *
+ * <p>As the StaticHandler does for the assets themselves, variants are sent with ETag and
+ * Last-Modified validators, and a conditional request for a variant the client already has is
+ * answered with 304 Not Modified. The ETag names the encoding, since each variant is a different
+ * representation of the asset.
+ */
+@Singleton
+class WebClientAssets {
+
+    static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+    static final String INDEX_CACHE_CONTROL = "public, max-age=60";
+    static final String INDEX_PAGE = "index.html";
+
+    // a hash of at least 8 hex digits between separators, as in app.3f2a9c1b.js or
+    // main-3f2a9c1b.bundle.js
+    private static final Pattern FINGERPRINT = Pattern.compile("[.-][0-9a-f]{8,}[.-]");
+
+    enum Encoding {
+        // in order of preference
+        BROTLI("br", ".br"),
+        GZIP("gzip", ".gz"),
+        ;
+
+        final String token;
+        final String suffix;
+
+        Encoding(String token, String suffix) {
+            this.token = token;
+            this.suffix = suffix;
+        }
+    }
+
+    private final Function<String, Optional<AssetFile>> lookup;
+    // only assets which exist are remembered, so that requests for arbitrary paths cannot grow
+    // this without bound
+    private final Map<String, Map<Encoding, AssetFile>> variants = new ConcurrentHashMap<>();
+
+    @Inject
+    WebClientAssets() {
+        this(WebClientAssets::lookupClasspath);
+    }
+
+    WebClientAssets(Function<String, Optional<AssetFile>> lookup) {
+        this.lookup = lookup;
+    }
+
+    /** The classpath resource for a request path, which must already be normalised */
+    static String resourcePath(String requestPath) {
+        String path = requestPath == null || requestPath.isEmpty() ? "/" : requestPath;
+        if (path.endsWith("/")) {
+            path += INDEX_PAGE;
+        }
+        return WebClientAssetsGetHandler.WEB_CLIENT_ASSETS_BASE + path;
+    }
+
+    /** @return the Cache-Control header value for the asset, or null to use the default */
+    static String cacheControl(String resource) {
+        String fileName = resource.substring(resource.lastIndexOf('/') + 1);
+        if (INDEX_PAGE.equals(fileName)) {
+            return INDEX_CACHE_CONTROL;
+        }
+        if (FINGERPRINT.matcher(fileName).find()) {
+            return IMMUTABLE_CACHE_CONTROL;
+        }
+        return null;
+    }
+
+    boolean exists(String resource) {
+        return variants.containsKey(resource) || lookup.apply(resource).isPresent();
+    }
+
+    /**
+     * Sends a precompressed variant of the asset if one exists which the client accepts.
+     *
+     * @return false if nothing was sent, in which case the caller should send the asset itself
+     */
+    boolean sendPrecompressed(RoutingContext ctx, String resource) {
+        Map<Encoding, AssetFile> available = variantsOf(resource);
+        if (available.isEmpty()) {
+            return false;
+        }
+        HttpServerResponse response = ctx.response();
+        response.putHeader("Vary", HttpHeaders.ACCEPT_ENCODING);
+        Encoding encoding =
+                negotiate(ctx.request().getHeader(HttpHeaders.ACCEPT_ENCODING), available.keySet());
+        if (encoding == null) {
+            return false;
+        }
+
+        String cacheControl = cacheControl(resource);
+        if (cacheControl != null) {
+            response.putHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        }
+        AssetFile variant = available.get(encoding);
+        if (variant.lastModified > 0) {
+            String etag = variant.etag(encoding);
+            response.putHeader(HttpHeaders.ETAG, etag);
+            response.putHeader(
+                    HttpHeaders.LAST_MODIFIED, Utils.formatRFC1123DateTime(variant.lastModified));
+            if (isNotModified(ctx.request(), etag, variant.lastModified)) {
+                response.setStatusCode(304).end();
+                return true;
+            }
+        }
+
+        String contentType = MimeMapping.getMimeTypeForFilename(resource);
+        if (contentType != null) {
+            if (contentType.startsWith("text")) {
+                // as the StaticHandler does
+                contentType += ";charset=UTF-8";
+            }
+            response.putHeader(HttpHeaders.CONTENT_TYPE, contentType);
+        }
+        // a response which already has a Content-Encoding is not compressed again by the server
+        response.putHeader(HttpHeaders.CONTENT_ENCODING, encoding.token)
+                .sendFile(resource + encoding.suffix);
+        return true;
+    }
+
+    private Map<Encoding, AssetFile> variantsOf(String resource) {
+        Map<Encoding, AssetFile> cached = variants.get(resource);
+        if (cached != null) {
+            return cached;
+        }
+        if (lookup.apply(resource).isEmpty()) {
+            return Map.of();
+        }
+        Map<Encoding, AssetFile> found = new EnumMap<>(Encoding.class);
+        for (Encoding encoding : Encoding.values()) {
+            lookup.apply(resource + encoding.suffix).ifPresent(f -> found.put(encoding, f));
+        }
+        Map<Encoding, AssetFile> result = Collections.unmodifiableMap(found);
+        variants.put(resource, result);
+        return result;
+    }
+
+    /**
+     * Follows the StaticHandler: a matching If-None-Match wins, and If-Modified-Since is only
+     * considered when there is no If-None-Match.
+     */
+    static boolean isNotModified(HttpServerRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                // weak comparison, as If-None-Match requires
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if ("*".equals(tag) || etag.equals(tag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = request.getHeader(HttpHeaders.IF_MODIFIED_SINCE);
+        if (ifModifiedSince == null) {
+            return false;
+        }
+        long since = Utils.parseRFC1123DateTime(ifModifiedSince);
+        // HTTP dates have one second precision
+        return since >= 0 && lastModified / 1000 <= since / 1000;
+    }
+
+    static Optional<AssetFile> lookupClasspath(String path) {
+        URL url = WebClientAssets.class.getClassLoader().getResource(path);
+        if (url == null) {
+            return Optional.empty();
+        }
+        try {
+            URLConnection connection = url.openConnection();
+            long lastModified = connection.getLastModified();
+            long size = connection.getContentLengthLong();
+            // some connections open the resource to find its size
+            try (InputStream in = connection.getInputStream()) {
+                return Optional.of(new AssetFile(lastModified, size));
+            }
+        } catch (IOException e) {
+            // the variant can still be sent, just without validators
+            return Optional.of(new AssetFile(0, -1));
+        }
+    }
+
+    static Encoding negotiate(String acceptEncoding, Set<Encoding> available) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return null;
+        }
+        Set<Encoding> accepted = EnumSet.noneOf(Encoding.class);
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String token = parts[0].trim();
+            if (isRejected(parts)) {
+                continue;
+            }
+            for (Encoding encoding : Encoding.values()) {
+                if (encoding.token.equalsIgnoreCase(token)) {
+                    accepted.add(encoding);
+                }
+            }
+        }
+        for (Encoding encoding : Encoding.values()) {
+            if (accepted.contains(encoding) && available.contains(encoding)) {
+                return encoding;
+            }
+        }
+        return null;
+    }
+
+    static class AssetFile {
+        final long lastModified;
+        final long size;
+
+        AssetFile(long lastModified, long size) {
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        String etag(Encoding encoding) {
+            return String.format("\"%x-%x-%s\"", lastModified, size, encoding.token);
+        }
+    }
+
+    private static boolean isRejected(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2).trim()) <= 0;
+                } catch (NumberFormatException nfe) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -55,8 +55,12 @@ class WebClientAssetsGetHandler implements RequestHandler {
     static final String WEB_CLIENT_ASSETS_BASE =
             WebServer.class.getPackageName().replaceAll("\\.", "/");
 
+    private final WebClientAssets assets;
+
     @Inject
-    WebClientAssetsGetHandler() {}
+    WebClientAssetsGetHandler(WebClientAssets assets) {
+        this.assets = assets;
+    }
 
     @Override
     public int getPriority() {
@@ -75,7 +79,14 @@ class WebClientAssetsGetHandler implements RequestHandler {
 
     @Override
     public void handle(RoutingContext ctx) {
+        String index = WEB_CLIENT_ASSETS_BASE + "/" + WebClientAssets.INDEX_PAGE;
+        if (assets.sendPrecompressed(ctx, index)) {
+            return;
+        }
         ctx.response().putHeader(HttpHeaders.CONTENT_TYPE, HttpMimeType.HTML.mime());
-        ctx.response().sendFile(WEB_CLIENT_ASSETS_BASE + "/index.html");
+        ctx.response().putHeader(HttpHeaders.CACHE_CONTROL, WebClientAssets.INDEX_CACHE_CONTROL);
+        // the server may still compress the page itself
+        ctx.response().putHeader("Vary", HttpHeaders.ACCEPT_ENCODING);
+        ctx.response().sendFile(index);
     }
 }
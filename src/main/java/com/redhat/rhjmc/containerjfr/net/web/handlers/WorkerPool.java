@@ -0,0 +1,90 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web.handlers;
+
+/**
+ * The bounded worker pools which blocking {@link RequestHandler}s are run on. Pools are per kind of
+ * work rather than per handler: handlers of one kind contend for the same resource anyway, such as
+ * target connections or the archive volume, and separating the kinds is enough that a burst of one
+ * cannot starve the others of threads.
+ */
+public enum WorkerPool {
+    DEFAULT(4, 32),
+    /** short requests to target JVMs, such as listing or stopping recordings and reports */
+    TARGET(4, 16),
+    /**
+     * requests which hold their thread for as long as a recording streams from a target or a job
+     * runs, such as downloads, chunk extraction and synchronous saves and uploads
+     */
+    TRANSFER(16, 16),
+    ARCHIVE(4, 16),
+    ;
+
+    private final int defaultSize;
+    private final int defaultQueueDepth;
+
+    WorkerPool(int defaultSize, int defaultQueueDepth) {
+        this.defaultSize = defaultSize;
+        this.defaultQueueDepth = defaultQueueDepth;
+    }
+
+    /** Environment variable naming the number of threads in the pool */
+    public String sizeEnv() {
+        return String.format("CONTAINER_JFR_%s_WORKERS", name());
+    }
+
+    /**
+     * Environment variable naming the number of requests which may wait for a thread of the pool
+     * before further requests are turned away
+     */
+    public String queueDepthEnv() {
+        return String.format("CONTAINER_JFR_%s_WORKER_QUEUE", name());
+    }
+
+    public int getDefaultSize() {
+        return defaultSize;
+    }
+
+    public int getDefaultQueueDepth() {
+        return defaultQueueDepth;
+    }
+}
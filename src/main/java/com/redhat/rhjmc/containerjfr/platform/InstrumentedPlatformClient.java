@@ -0,0 +1,95 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.platform;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.redhat.rhjmc.containerjfr.metrics.Counter;
+import com.redhat.rhjmc.containerjfr.metrics.Histogram;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
+
+/** Times target discovery by the selected platform's client */
+class InstrumentedPlatformClient implements PlatformClient {
+
+    private final PlatformClient delegate;
+    private final Histogram.Child duration;
+    private final Counter.Child failures;
+    private final AtomicInteger discovered = new AtomicInteger();
+
+    InstrumentedPlatformClient(PlatformClient delegate, MetricsRegistry metrics) {
+        this.delegate = delegate;
+        String platform = delegate.getClass().getSimpleName();
+        this.duration =
+                metrics.histogram(
+                                "containerjfr_discovery_duration_seconds",
+                                "Time taken to discover targets on the platform",
+                                "platform")
+                        .labels(platform);
+        this.failures =
+                metrics.counter(
+                                "containerjfr_discovery_failures_total",
+                                "Target discoveries which failed",
+                                "platform")
+                        .labels(platform);
+        metrics.gauge(
+                        "containerjfr_discovered_targets",
+                        "Number of targets found by the latest discovery",
+                        "platform")
+                .register(discovered::get, platform);
+    }
+
+    @Override
+    public List<ServiceRef> listDiscoverableServices() {
+        long start = System.nanoTime();
+        try {
+            List<ServiceRef> services = delegate.listDiscoverableServices();
+            discovered.set(services.size());
+            return services;
+        } catch (RuntimeException e) {
+            failures.inc();
+            throw e;
+        } finally {
+            duration.observeSince(start);
+        }
+    }
+}
@@ -51,6 +51,7 @@ import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.net.discovery.JvmDiscoveryClient;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
 import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
 import com.redhat.rhjmc.containerjfr.net.NoopAuthManager;
 import com.redhat.rhjmc.containerjfr.platform.internal.PlatformDetectionStrategy;
@@ -73,8 +74,11 @@ public abstract class PlatformModule {
     @Provides
     @Singleton
     static PlatformClient providePlatformClient(
-            PlatformDetectionStrategy<?> platformStrategy, Environment env, Logger logger) {
-        return platformStrategy.getPlatformClient();
+            PlatformDetectionStrategy<?> platformStrategy,
+            Environment env,
+            MetricsRegistry metrics,
+            Logger logger) {
+        return new InstrumentedPlatformClient(platformStrategy.getPlatformClient(), metrics);
     }
 
     @Provides
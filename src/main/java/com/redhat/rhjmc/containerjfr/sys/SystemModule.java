@@ -45,8 +45,8 @@ import javax.inject.Singleton;
 
 import com.redhat.rhjmc.containerjfr.core.sys.Clock;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
-import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
 
+import dagger.Binds;
 import dagger.Module;
 import dagger.Provides;
 
@@ -69,4 +69,7 @@ public abstract class SystemModule {
     static FileSystem provideFileSystem() {
         return new FileSystem();
     }
+
+    @Binds
+    abstract com.redhat.rhjmc.containerjfr.core.sys.FileSystem bindCoreFileSystem(FileSystem fs);
 }
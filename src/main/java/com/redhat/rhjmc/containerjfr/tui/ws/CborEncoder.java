@@ -0,0 +1,155 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.tui.ws;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Encodes JSON trees as CBOR (RFC 8949), a binary equivalent of JSON which any CBOR library can
+ * decode. Integers are encoded in as few bytes as their value needs, other numbers as 64-bit
+ * floats, and strings as UTF-8 without escaping.
+ */
+final class CborEncoder {
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int FALSE = 0xf4;
+    private static final int TRUE = 0xf5;
+    private static final int NULL = 0xf6;
+    private static final int FLOAT64 = 0xfb;
+
+    private CborEncoder() {}
+
+    static byte[] encode(JsonElement element) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, element);
+        return out.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream out, JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            out.write(NULL);
+        } else if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            writeHead(out, MAJOR_ARRAY, array.size());
+            for (JsonElement e : array) {
+                write(out, e);
+            }
+        } else if (element.isJsonObject()) {
+            JsonObject object = element.getAsJsonObject();
+            writeHead(out, MAJOR_MAP, object.size());
+            for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                writeText(out, entry.getKey());
+                write(out, entry.getValue());
+            }
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                out.write(primitive.getAsBoolean() ? TRUE : FALSE);
+            } else if (primitive.isNumber()) {
+                writeNumber(out, primitive);
+            } else {
+                writeText(out, primitive.getAsString());
+            }
+        }
+    }
+
+    private static void writeNumber(ByteArrayOutputStream out, JsonPrimitive primitive) {
+        long value;
+        try {
+            value = Long.parseLong(primitive.getAsString());
+        } catch (NumberFormatException nfe) {
+            // fractional, exponent or out of range
+            long bits = Double.doubleToLongBits(primitive.getAsDouble());
+            out.write(FLOAT64);
+            writeBigEndian(out, bits, 8);
+            return;
+        }
+        if (value >= 0) {
+            writeHead(out, MAJOR_UNSIGNED, value);
+        } else {
+            writeHead(out, MAJOR_NEGATIVE, -1 - value);
+        }
+    }
+
+    private static void writeText(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeHead(out, MAJOR_TEXT, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    // the argument is never negative, since it comes from a size or a non-negative long
+    private static void writeHead(ByteArrayOutputStream out, int major, long argument) {
+        int type = major << 5;
+        if (argument < 24) {
+            out.write(type | (int) argument);
+        } else if (argument <= 0xffL) {
+            out.write(type | 24);
+            writeBigEndian(out, argument, 1);
+        } else if (argument <= 0xffffL) {
+            out.write(type | 25);
+            writeBigEndian(out, argument, 2);
+        } else if (argument <= 0xffffffffL) {
+            out.write(type | 26);
+            writeBigEndian(out, argument, 4);
+        } else {
+            out.write(type | 27);
+            writeBigEndian(out, argument, 8);
+        }
+    }
+
+    private static void writeBigEndian(ByteArrayOutputStream out, long value, int bytes) {
+        for (int i = bytes - 1; i >= 0; i--) {
+            out.write((int) (value >>> (i * 8)) & 0xff);
+        }
+    }
+}
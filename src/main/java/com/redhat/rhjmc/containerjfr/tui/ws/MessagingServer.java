@@ -43,16 +43,20 @@ package com.redhat.rhjmc.containerjfr.tui.ws;
 
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import com.google.gson.Gson;
 
@@ -60,37 +64,127 @@ import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
 import com.redhat.rhjmc.containerjfr.core.tui.ClientReader;
 import com.redhat.rhjmc.containerjfr.core.tui.ClientWriter;
+import com.redhat.rhjmc.containerjfr.metrics.Counter;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
 import com.redhat.rhjmc.containerjfr.net.HttpServer;
 
+import io.vertx.core.Context;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.ServerWebSocket;
+
 public class MessagingServer {
 
     static final String MAX_CONNECTIONS_ENV_VAR = "CONTAINER_JFR_MAX_WS_CONNECTIONS";
     static final int MIN_CONNECTIONS = 1;
-    static final int MAX_CONNECTIONS = 64;
+    static final int MAX_CONNECTIONS = 4096;
     static final int DEFAULT_MAX_CONNECTIONS = 2;
+    static final String REAUTH_INTERVAL_ENV_VAR = "CONTAINER_JFR_WS_REAUTH_INTERVAL_SECONDS";
+    static final long DEFAULT_REAUTH_INTERVAL_SECONDS = 300;
+    // requested alongside the authorization subprotocol, if any, which must be listed first
+    static final String CBOR_SUBPROTOCOL = "cbor.containerjfr";
 
     private final int maxConnections;
-    private final BlockingQueue<String> inQ = new LinkedBlockingQueue<>();
+    private final long reauthIntervalSeconds;
+    // values are the background re-validation tasks, which may be null
     private final Map<WsClientReaderWriter, ScheduledFuture<?>> connections = new HashMap<>();
-    private final ScheduledExecutorService listenerPool;
+    private int pendingHandshakes;
+    private final ScheduledExecutorService reauthScheduler;
+    private volatile Consumer<ClientMessage> messageHandler;
     private final HttpServer server;
     private final AuthManager authManager;
+    private final Counter.Child messagesReceived;
+    private final Counter.Child messagesSent;
+    private final Counter.Child messagesDropped;
+    private final Counter.Child rejectedClients;
+    private final Counter.Child authFailures;
     private final Logger logger;
     private final Gson gson;
 
     MessagingServer(
-            HttpServer server, Environment env, AuthManager authManager, Logger logger, Gson gson) {
+            HttpServer server,
+            Environment env,
+            AuthManager authManager,
+            MetricsRegistry metrics,
+            Logger logger,
+            Gson gson) {
+        this(
+                server,
+                env,
+                authManager,
+                metrics,
+                logger,
+                gson,
+                Executors.newSingleThreadScheduledExecutor(
+                        r -> {
+                            Thread t = new Thread(r, "container-jfr-ws-reauth");
+                            t.setDaemon(true);
+                            return t;
+                        }));
+    }
+
+    MessagingServer(
+            HttpServer server,
+            Environment env,
+            AuthManager authManager,
+            MetricsRegistry metrics,
+            Logger logger,
+            Gson gson,
+            ScheduledExecutorService reauthScheduler) {
         this.server = server;
         this.authManager = authManager;
         this.logger = logger;
         this.gson = gson;
+        this.reauthScheduler = reauthScheduler;
         this.maxConnections = determineMaximumWsConnections(env);
-        this.listenerPool = Executors.newScheduledThreadPool(maxConnections);
+        this.reauthIntervalSeconds = determineReauthInterval(env);
+
+        metrics.gauge("containerjfr_websocket_clients", "Connected WebSocket clients")
+                .register(
+                        () -> {
+                            synchronized (connections) {
+                                return connections.size();
+                            }
+                        });
+        this.messagesReceived =
+                metrics.counter(
+                                "containerjfr_websocket_messages_received_total",
+                                "Messages received from WebSocket clients")
+                        .labels();
+        this.messagesSent =
+                metrics.counter(
+                                "containerjfr_websocket_messages_sent_total",
+                                "Messages sent to WebSocket clients")
+                        .labels();
+        this.messagesDropped =
+                metrics.counter(
+                                "containerjfr_websocket_messages_dropped_total",
+                                "Notifications not sent to WebSocket clients which had closed"
+                                        + " or were not reading messages")
+                        .labels();
+        this.rejectedClients =
+                metrics.counter(
+                                "containerjfr_websocket_rejected_total",
+                                "WebSocket clients rejected due to too many concurrent"
+                                        + " connections")
+                        .labels();
+        this.authFailures =
+                metrics.counter(
+                                "containerjfr_websocket_auth_failures_total",
+                                "WebSocket handshakes and sessions rejected due to invalid"
+                                        + " credentials")
+                        .labels();
     }
 
     public void start() throws SocketException, UnknownHostException {
         logger.info(String.format("Max concurrent WebSocket connections: %d", maxConnections));
+        if (reauthIntervalSeconds > 0) {
+            logger.info(
+                    String.format(
+                            "WebSocket credentials re-validated every %ds", reauthIntervalSeconds));
+        }
 
         server.websocketHandler(
                 (sws) -> {
@@ -98,102 +192,275 @@ public class MessagingServer {
                         sws.reject(404);
                         return;
                     }
+                    if (messageHandler == null) {
+                        // commands could not be executed yet, so the client should retry later
+                        sws.reject(503);
+                        return;
+                    }
                     String remoteAddress = sws.remoteAddress().toString();
                     synchronized (connections) {
-                        if (connections.size() >= maxConnections) {
+                        if (connections.size() + pendingHandshakes >= maxConnections) {
                             logger.info(
                                     String.format(
                                             "Dropping remote client %s due to too many concurrent connections",
                                             remoteAddress));
+                            rejectedClients.inc();
                             sws.reject();
                             return;
                         }
-                        logger.info(String.format("Connected remote client %s", remoteAddress));
-
-                        WsClientReaderWriter crw =
-                                new WsClientReaderWriter(this.logger, this.gson, sws);
-                        sws.closeHandler(
-                                (unused) -> {
-                                    logger.info(
-                                            String.format(
-                                                    "Disconnected remote client %s",
-                                                    remoteAddress));
-                                    removeConnection(crw);
-                                });
-                        sws.textMessageHandler(
-                                msg -> {
-                                    try {
-                                        String proto = sws.subProtocol();
-                                        authManager
-                                                .doAuthenticated(
-                                                        () -> proto,
-                                                        authManager::validateWebSocketSubProtocol)
-                                                .onSuccess(() -> crw.handle(msg))
-                                                // 1002: WebSocket "Protocol Error" close reason
-                                                .onFailure(
-                                                        () ->
-                                                                sws.close(
-                                                                        (short) 1002,
-                                                                        String.format(
-                                                                                "Invalid subprotocol \"%s\"",
-                                                                                proto)))
-                                                .execute();
-                                    } catch (InterruptedException
-                                            | ExecutionException
-                                            | TimeoutException e) {
-                                        logger.info(e);
-                                        // 1011: WebSocket "Internal Error" close reason
-                                        sws.close(
-                                                (short) 1011,
-                                                String.format(
-                                                        "Internal error: \"%s\"", e.getMessage()));
-                                    }
-                                });
-                        addConnection(crw);
-                        sws.accept();
+                        pendingHandshakes++;
                     }
+                    List<String> protocols = getRequestedSubProtocols(sws);
+                    String proto = protocols.isEmpty() ? null : protocols.get(0);
+                    boolean binary =
+                            protocols.stream().anyMatch(CBOR_SUBPROTOCOL::equalsIgnoreCase);
+                    Promise<Integer> handshake = Promise.promise();
+                    sws.setHandshake(handshake.future());
+                    Context context = Vertx.currentContext();
+                    validate(proto)
+                            .whenComplete(
+                                    (valid, t) ->
+                                            runOnContext(
+                                                    context,
+                                                    () ->
+                                                            completeHandshake(
+                                                                    sws,
+                                                                    remoteAddress,
+                                                                    proto,
+                                                                    binary,
+                                                                    handshake,
+                                                                    valid,
+                                                                    t)));
+                });
+    }
+
+    private void completeHandshake(
+            ServerWebSocket sws,
+            String remoteAddress,
+            String proto,
+            boolean binary,
+            Promise<Integer> handshake,
+            Boolean valid,
+            Throwable t) {
+        synchronized (connections) {
+            pendingHandshakes--;
+        }
+        if (t != null) {
+            logger.warn(
+                    String.format(
+                            "Could not validate remote client %s: %s",
+                            remoteAddress, t.getMessage()));
+            handshake.complete(500);
+        } else if (!Boolean.TRUE.equals(valid)) {
+            logger.info(
+                    String.format(
+                            "Rejecting remote client %s due to invalid credentials",
+                            remoteAddress));
+            authFailures.inc();
+            handshake.complete(401);
+        } else {
+            accept(sws, remoteAddress, proto, binary, handshake);
+        }
+    }
+
+    private void accept(
+            ServerWebSocket sws,
+            String remoteAddress,
+            String proto,
+            boolean binary,
+            Promise<Integer> handshake) {
+        WsClientReaderWriter crw = new WsClientReaderWriter(this.logger, this.gson, sws, binary);
+        sws.closeHandler(
+                (unused) -> {
+                    logger.info(String.format("Disconnected remote client %s", remoteAddress));
+                    removeConnection(crw);
                 });
+        // the client was authenticated during the handshake, so messages are not re-checked
+        sws.textMessageHandler(
+                msg -> {
+                    messagesReceived.inc();
+                    dispatch(crw, msg);
+                });
+        addConnection(crw, scheduleReauthentication(crw, sws, remoteAddress, proto));
+        handshake.complete(101);
+        logger.info(
+                String.format(
+                        "Connected remote client %s%s", remoteAddress, binary ? " (CBOR)" : ""));
+        if (sws.isClosed()) {
+            // the client went away before the handshake completed
+            removeConnection(crw);
+        }
+    }
+
+    /**
+     * Periodically re-validate a connection's credentials in the background, so that a revoked or
+     * expired token does not keep working for the lifetime of the connection.
+     */
+    private ScheduledFuture<?> scheduleReauthentication(
+            WsClientReaderWriter crw, ServerWebSocket sws, String remoteAddress, String proto) {
+        if (reauthIntervalSeconds <= 0) {
+            return null;
+        }
+        return reauthScheduler.scheduleWithFixedDelay(
+                () ->
+                        validate(proto)
+                                .whenComplete(
+                                        (valid, t) -> {
+                                            if (t != null) {
+                                                // keep the session and try again next time
+                                                logger.warn(
+                                                        String.format(
+                                                                "Could not re-validate remote client %s: %s",
+                                                                remoteAddress, t.getMessage()));
+                                            } else if (!Boolean.TRUE.equals(valid)) {
+                                                logger.info(
+                                                        String.format(
+                                                                "Disconnecting remote client %s, its credentials are no longer valid",
+                                                                remoteAddress));
+                                                authFailures.inc();
+                                                // 1008: WebSocket "Policy Violation" close reason
+                                                sws.close((short) 1008, "Authentication expired");
+                                                removeConnection(crw);
+                                            }
+                                        }),
+                reauthIntervalSeconds,
+                reauthIntervalSeconds,
+                TimeUnit.SECONDS);
+    }
+
+    private CompletableFuture<Boolean> validate(String proto) {
+        Future<Boolean> result;
+        try {
+            result = authManager.validateWebSocketSubProtocol(() -> proto);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (result instanceof CompletableFuture) {
+            return (CompletableFuture<Boolean>) result;
+        }
+        return CompletableFuture.supplyAsync(
+                () -> {
+                    try {
+                        return result.get();
+                    } catch (InterruptedException | ExecutionException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    private static void runOnContext(Context context, Runnable action) {
+        if (context == null) {
+            action.run();
+        } else {
+            context.runOnContext(v -> action.run());
+        }
+    }
+
+    // the subprotocol is only selected once the handshake completes, and since any subprotocol
+    // is accepted the first one requested is selected
+    private static List<String> getRequestedSubProtocols(ServerWebSocket sws) {
+        String header = sws.headers().get("Sec-WebSocket-Protocol");
+        if (header == null) {
+            return List.of();
+        }
+        return Arrays.stream(header.split(","))
+                .map(String::trim)
+                .filter(p -> !p.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Set the handler which receives every message from every client. It is called on the
+     * connection's event loop thread, so it must hand any blocking work off to another thread.
+     */
+    void setMessageHandler(Consumer<ClientMessage> messageHandler) {
+        this.messageHandler = messageHandler;
+    }
+
+    void dispatch(WsClientReaderWriter crw, String msg) {
+        crw.handle(msg);
+        Consumer<ClientMessage> handler = this.messageHandler;
+        if (handler == null) {
+            logger.trace(String.format("Dropping message received during shutdown: %s", msg));
+            return;
+        }
+        handler.accept(new ClientMessage(crw, msg));
     }
 
     void addConnection(WsClientReaderWriter crw) {
+        addConnection(crw, null);
+    }
+
+    private void addConnection(WsClientReaderWriter crw, ScheduledFuture<?> reauthTask) {
         synchronized (connections) {
-            ScheduledFuture<?> task =
-                    listenerPool.scheduleWithFixedDelay(
-                            () -> {
-                                String msg = crw.readLine();
-                                if (msg != null) {
-                                    inQ.add(msg);
-                                }
-                            },
-                            0,
-                            10,
-                            TimeUnit.MILLISECONDS);
-            connections.put(crw, task);
+            connections.put(crw, reauthTask);
         }
     }
 
     void removeConnection(WsClientReaderWriter crw) {
         synchronized (connections) {
-            ScheduledFuture<?> task = connections.remove(crw);
-            if (task != null) {
-                task.cancel(false);
-                crw.close();
+            if (!connections.containsKey(crw)) {
+                return;
             }
+            ScheduledFuture<?> reauthTask = connections.remove(crw);
+            if (reauthTask != null) {
+                reauthTask.cancel(false);
+            }
+            crw.close();
         }
     }
 
     private void closeConnections() {
         synchronized (connections) {
-            listenerPool.shutdown();
-            connections.forEach((crw, task) -> crw.close());
+            reauthScheduler.shutdownNow();
+            connections.keySet().forEach(WsClientReaderWriter::close);
             connections.clear();
         }
     }
 
-    void flush(ResponseMessage<?> message) {
+    /** Send a message, such as a command response, to a single client. */
+    void send(WsClientReaderWriter client, WsMessage message) {
+        synchronized (connections) {
+            if (!connections.containsKey(client)) {
+                // the client disconnected before its command completed
+                logger.trace(
+                        String.format("Dropping message for disconnected client: %s", message));
+                return;
+            }
+        }
+        client.flush(message);
+        messagesSent.inc();
+    }
+
+    /** Send a message to all connected clients, serializing it at most once per encoding. */
+    void broadcast(WsMessage message) {
+        String json = gson.toJson(message);
+        Buffer cbor = null;
+        int sent = 0;
         synchronized (connections) {
-            connections.forEach((c, t) -> c.flush(message));
+            for (WsClientReaderWriter c : connections.keySet()) {
+                boolean written;
+                if (c.isBinary()) {
+                    if (cbor == null) {
+                        cbor = Buffer.buffer(CborEncoder.encode(gson.toJsonTree(message)));
+                    }
+                    written = c.writeBinary(cbor);
+                } else {
+                    written = c.writeText(json);
+                }
+                if (written) {
+                    sent++;
+                } else {
+                    messagesDropped.inc();
+                }
+            }
         }
+        messagesSent.inc(sent);
+    }
+
+    /** Push an unsolicited notification to all connected clients. */
+    public <T> void notifyClients(String category, T message) {
+        broadcast(new NotificationMessage<>(category, message));
     }
 
     ClientReader getClientReader() {
@@ -205,12 +472,8 @@ public class MessagingServer {
 
             @Override
             public String readLine() {
-                try {
-                    return inQ.take();
-                } catch (InterruptedException e) {
-                    logger.warn(e);
-                    return null;
-                }
+                // messages are delivered to the message handler as they arrive instead
+                return null;
             }
         };
     }
@@ -256,4 +519,19 @@ public class MessagingServer {
             return DEFAULT_MAX_CONNECTIONS;
         }
     }
+
+    private long determineReauthInterval(Environment env) {
+        try {
+            long interval =
+                    Long.parseLong(
+                            env.getEnv(
+                                            REAUTH_INTERVAL_ENV_VAR,
+                                            String.valueOf(DEFAULT_REAUTH_INTERVAL_SECONDS))
+                                    .trim());
+            return Math.max(0, interval);
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+            return DEFAULT_REAUTH_INTERVAL_SECONDS;
+        }
+    }
 }
@@ -77,6 +77,7 @@ abstract class ResponseMessage<T> extends WsMessage {
         COMMAND_EXCEPTION(-2),
         MALFORMED_MESSAGE(-3),
         TARGET_AUTH_FAILURE(-4),
+        SERVER_BUSY(-5),
         ;
 
         private final int code;
@@ -41,46 +41,65 @@
  */
 package com.redhat.rhjmc.containerjfr.tui.ws;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import com.google.gson.Gson;
 
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
-import com.redhat.rhjmc.containerjfr.core.tui.ClientReader;
 import com.redhat.rhjmc.containerjfr.core.tui.ClientWriter;
+import com.redhat.rhjmc.containerjfr.net.WriteStreams;
 
 import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.ServerWebSocket;
 
-class WsClientReaderWriter implements ClientReader, ClientWriter, Handler<String> {
+class WsClientReaderWriter implements ClientWriter, Handler<String>, AutoCloseable {
+
+    static final long DRAIN_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(60);
 
     private final Logger logger;
     private final Gson gson;
-    private final BlockingQueue<String> inQ = new LinkedBlockingQueue<>();
 
     private final ServerWebSocket sws;
-    private final Object threadLock = new Object();
-    private Thread readingThread;
+    private final boolean binary;
+    private final long drainTimeoutMs;
+    // System.nanoTime() when a notification was first dropped for a full write queue, or -1
+    private long queueFullSince = -1;
 
     WsClientReaderWriter(Logger logger, Gson gson, ServerWebSocket sws) {
+        this(logger, gson, sws, false);
+    }
+
+    WsClientReaderWriter(Logger logger, Gson gson, ServerWebSocket sws, boolean binary) {
+        this(logger, gson, sws, binary, DRAIN_TIMEOUT_MS);
+    }
+
+    WsClientReaderWriter(
+            Logger logger, Gson gson, ServerWebSocket sws, boolean binary, long drainTimeoutMs) {
         this.logger = logger;
         this.gson = gson;
         this.sws = sws;
+        this.binary = binary;
+        this.drainTimeoutMs = drainTimeoutMs;
+    }
+
+    /** Whether this client asked for messages to be sent as CBOR binary messages */
+    boolean isBinary() {
+        return binary;
     }
 
     @Override
     public void handle(String msg) {
         logger.info(String.format("(%s): CMD %s", this.sws.remoteAddress().toString(), msg));
-        inQ.add(msg);
     }
 
     @Override
     public void close() {
-        inQ.clear();
-        synchronized (threadLock) {
-            if (readingThread != null) {
-                readingThread.interrupt();
+        if (!this.sws.isClosed()) {
+            try {
+                this.sws.close();
+            } catch (Exception e) {
+                logger.warn(e);
             }
         }
     }
@@ -90,29 +109,84 @@ class WsClientReaderWriter implements ClientReader, ClientWriter, Handler<String
         logger.info(s);
     }
 
-    void flush(ResponseMessage<?> message) {
+    /**
+     * Send a message, such as a command response. If the client is not keeping up with earlier
+     * messages then this waits for its write queue to drain first, unless called on the event loop.
+     * A client which stops reading entirely is disconnected.
+     */
+    void flush(WsMessage message) {
         if (!this.sws.isClosed()) {
             try {
-                this.sws.writeTextMessage(gson.toJson(message));
+                if (!WriteStreams.awaitDrain(this.sws, this.sws::isClosed, drainTimeoutMs)) {
+                    closeUnresponsive();
+                    return;
+                }
+                if (binary) {
+                    this.sws.writeBinaryMessage(
+                            Buffer.buffer(CborEncoder.encode(gson.toJsonTree(message))));
+                } else {
+                    this.sws.writeTextMessage(gson.toJson(message));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn(e);
             } catch (Exception e) {
                 logger.warn(e);
             }
         }
     }
 
-    @Override
-    public String readLine() {
+    /**
+     * Send an already serialized notification. Notifications are sent to every client from
+     * whichever thread raised them, so they do not wait for the client: while its write queue is
+     * full they are dropped instead, and a client which still has not drained its queue once
+     * notifications have been dropped for the drain timeout is disconnected, as {@link #flush}
+     * does.
+     *
+     * @return whether the message was queued for sending
+     */
+    boolean writeText(String json) {
+        return write(() -> this.sws.writeTextMessage(json));
+    }
+
+    /**
+     * Send an already CBOR encoded notification, as {@link #writeText}.
+     *
+     * @return whether the message was queued for sending
+     */
+    boolean writeBinary(Buffer cbor) {
+        return write(() -> this.sws.writeBinaryMessage(cbor));
+    }
+
+    private synchronized boolean write(Runnable write) {
+        if (this.sws.isClosed()) {
+            return false;
+        }
         try {
-            synchronized (threadLock) {
-                readingThread = Thread.currentThread();
-            }
-            return inQ.take();
-        } catch (InterruptedException e) {
-            return null;
-        } finally {
-            synchronized (threadLock) {
-                readingThread = null;
+            if (this.sws.writeQueueFull()) {
+                long now = System.nanoTime();
+                if (queueFullSince < 0) {
+                    queueFullSince = now;
+                } else if (now - queueFullSince >= TimeUnit.MILLISECONDS.toNanos(drainTimeoutMs)) {
+                    closeUnresponsive();
+                }
+                return false;
             }
+            queueFullSince = -1;
+            write.run();
+            return true;
+        } catch (Exception e) {
+            logger.warn(e);
+            return false;
         }
     }
+
+    private void closeUnresponsive() {
+        logger.warn(
+                String.format(
+                        "Closing remote client %s, it did not read messages for %dms",
+                        this.sws.remoteAddress(), drainTimeoutMs));
+        // 1008: WebSocket "Policy Violation" close reason
+        this.sws.close((short) 1008, "Client is not reading messages");
+    }
 }
@@ -42,7 +42,16 @@
 package com.redhat.rhjmc.containerjfr.tui.ws;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringUtils;
 import com.google.gson.Gson;
@@ -56,124 +65,285 @@ import com.redhat.rhjmc.containerjfr.core.tui.ClientReader;
 import com.redhat.rhjmc.containerjfr.tui.CommandExecutor;
 import dagger.Lazy;
 
+/**
+ * Executes commands received on the WebSocket channel on a bounded pool of worker threads. Messages
+ * are handed over by the MessagingServer as they arrive, on the connection's event loop thread, so
+ * no thread is tied up waiting on an idle client. Each client's commands are executed one at a time
+ * in the order they were sent, while commands from different clients may run concurrently. How many
+ * connections may be open to any one target at once is limited separately by the
+ * TargetConnectionManager.
+ */
 class WsCommandExecutor implements CommandExecutor {
 
+    static final String COMMAND_THREADS_ENV = "CONTAINER_JFR_WS_COMMAND_THREADS";
+    static final int DEFAULT_COMMAND_THREADS = 4;
+    static final String MAX_QUEUED_COMMANDS_ENV = "CONTAINER_JFR_WS_MAX_QUEUED_COMMANDS";
+    static final int DEFAULT_MAX_QUEUED_COMMANDS = 16;
+    static final String MAX_QUEUED_COMMANDS_TOTAL_ENV =
+            "CONTAINER_JFR_WS_MAX_QUEUED_COMMANDS_TOTAL";
+    static final int DEFAULT_MAX_QUEUED_COMMANDS_TOTAL = 256;
+
     private final Logger logger;
     private final MessagingServer server;
     private final ClientReader cr;
     private final Lazy<SerializableCommandRegistry> registry;
     private final Gson gson;
-    private volatile Thread readingThread;
-    private volatile boolean running = true;
+    private final Executor commandPool;
+    private final int maxQueuedPerClient;
+    private final int maxQueuedTotal;
+    // guards the queues' contents as well as the map
+    private final Map<WsClientReaderWriter, ClientQueue> clientQueues = new HashMap<>();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final AtomicInteger queuedCommands = new AtomicInteger();
 
     WsCommandExecutor(
             Logger logger,
             MessagingServer server,
             ClientReader cr,
             Lazy<SerializableCommandRegistry> commandRegistry,
-            Gson gson) {
+            Gson gson,
+            Executor commandPool,
+            int maxQueuedPerClient,
+            int maxQueuedTotal) {
         this.logger = logger;
         this.server = server;
         this.cr = cr;
         this.registry = commandRegistry;
         this.gson = gson;
+        this.commandPool = commandPool;
+        this.maxQueuedPerClient = maxQueuedPerClient;
+        this.maxQueuedTotal = maxQueuedTotal;
     }
 
+    /** Accepts client messages until shut down. */
     @Override
     public synchronized void run(String unused) {
-        readingThread = Thread.currentThread();
         try (cr) {
-            while (running) {
-                String rawMsg = cr.readLine();
-                try {
-                    if (StringUtils.isBlank(rawMsg)) {
-                        flush(new MalformedMessageResponseMessage(rawMsg));
-                        continue;
-                    }
-                    CommandMessage commandMessage = gson.fromJson(rawMsg, CommandMessage.class);
-                    if (commandMessage == null) {
-                        flush(new MalformedMessageResponseMessage(rawMsg));
-                        continue;
-                    }
-                    if (commandMessage.args == null) {
-                        commandMessage.args = Collections.emptyList();
-                    }
-                    String commandName = commandMessage.command;
-                    String[] args = commandMessage.args.toArray(new String[0]);
-                    if (StringUtils.isBlank(commandName)
-                            || !registry.get().getRegisteredCommandNames().contains(commandName)) {
-                        flush(new InvalidCommandResponseMessage(commandMessage.id, commandName));
-                        continue;
-                    }
-                    if (!registry.get().isCommandAvailable(commandName)) {
-                        flush(new CommandUnavailableMessage(commandMessage.id, commandName));
-                        continue;
-                    }
-                    try {
-                        registry.get().validate(commandName, args);
-                    } catch (FailedValidationException e) {
-                        flush(
-                                new FailedValidationResponseMessage(
-                                        commandMessage.id, commandName, e.getMessage()));
-                        continue;
-                    }
-                    SerializableCommand.Output<?> out = registry.get().execute(commandName, args);
-                    if (out instanceof SerializableCommand.SuccessOutput) {
-                        flush(
-                                new SuccessResponseMessage<Void>(
-                                        commandMessage.id, commandName, null));
-                    } else if (out instanceof SerializableCommand.FailureOutput) {
-                        flush(
-                                new FailureResponseMessage(
-                                        commandMessage.id,
-                                        commandName,
-                                        ((SerializableCommand.FailureOutput) out).getPayload()));
-                    } else if (out instanceof SerializableCommand.StringOutput) {
-                        flush(
-                                new SuccessResponseMessage<>(
-                                        commandMessage.id, commandName, out.getPayload()));
-                    } else if (out instanceof SerializableCommand.ListOutput) {
-                        flush(
-                                new SuccessResponseMessage<>(
-                                        commandMessage.id, commandName, out.getPayload()));
-                    } else if (out instanceof SerializableCommand.MapOutput) {
-                        flush(
-                                new SuccessResponseMessage<>(
-                                        commandMessage.id, commandName, out.getPayload()));
-                    } else if (out instanceof SerializableCommand.ExceptionOutput) {
-                        flush(
-                                new CommandExceptionResponseMessage(
-                                        commandMessage.id,
-                                        commandName,
-                                        ((SerializableCommand.ExceptionOutput) out).getPayload()));
-                    } else {
-                        flush(
-                                new CommandExceptionResponseMessage(
-                                        commandMessage.id, commandName, "internal error"));
-                    }
-                } catch (JsonSyntaxException jse) {
-                    reportException(rawMsg, jse);
-                }
-            }
+            server.setMessageHandler(this::dispatch);
+            stopped.await();
+        } catch (InterruptedException e) {
+            logger.warn(e);
+            server.setMessageHandler(null);
         } catch (IOException e) {
             logger.warn(e);
         }
     }
 
     void shutdown() {
-        this.running = false;
-        if (readingThread != Thread.currentThread()) {
-            readingThread.interrupt();
-            readingThread = null;
+        server.setMessageHandler(null);
+        if (commandPool instanceof ExecutorService) {
+            ((ExecutorService) commandPool).shutdown();
+        }
+        stopped.countDown();
+    }
+
+    /** Commands accepted from clients which have not yet started executing. */
+    int getQueuedCommands() {
+        return queuedCommands.get();
+    }
+
+    /** Queue a client message for execution. Never blocks, so it is safe on event loop threads. */
+    void dispatch(ClientMessage clientMessage) {
+        String busyReason = null;
+        synchronized (clientQueues) {
+            if (queuedCommands.get() >= maxQueuedTotal) {
+                busyReason =
+                        String.format(
+                                "Server busy, %d commands from all clients are already waiting"
+                                        + " to be executed",
+                                maxQueuedTotal);
+            } else {
+                ClientQueue queue =
+                        clientQueues.computeIfAbsent(clientMessage.client, ClientQueue::new);
+                if (!queue.offer(clientMessage)) {
+                    busyReason =
+                            String.format(
+                                    "Server busy, at most %d commands per client may wait to be"
+                                            + " executed",
+                                    maxQueuedPerClient);
+                }
+            }
+        }
+        if (busyReason != null) {
+            String id = null;
+            String commandName = null;
+            try {
+                CommandMessage commandMessage =
+                        gson.fromJson(clientMessage.text, CommandMessage.class);
+                if (commandMessage != null) {
+                    id = commandMessage.id;
+                    commandName = commandMessage.command;
+                }
+            } catch (JsonSyntaxException jse) {
+                // the response can only omit the ID
+            }
+            flush(clientMessage.client, new ServerBusyResponseMessage(id, commandName, busyReason));
         }
     }
 
-    private void reportException(String rawMsg, Exception e) {
+    private void execute(ClientMessage clientMessage) {
+        WsClientReaderWriter client = clientMessage.client;
+        String rawMsg = clientMessage.text;
+        CommandMessage commandMessage;
+        try {
+            if (StringUtils.isBlank(rawMsg)) {
+                flush(client, new MalformedMessageResponseMessage(rawMsg));
+                return;
+            }
+            commandMessage = gson.fromJson(rawMsg, CommandMessage.class);
+            if (commandMessage == null) {
+                flush(client, new MalformedMessageResponseMessage(rawMsg));
+                return;
+            }
+        } catch (JsonSyntaxException jse) {
+            reportException(client, rawMsg, jse);
+            return;
+        }
+        if (commandMessage.args == null) {
+            commandMessage.args = Collections.emptyList();
+        }
+        String commandName = commandMessage.command;
+        String[] args = commandMessage.args.toArray(new String[0]);
+        try {
+            if (StringUtils.isBlank(commandName)
+                    || !registry.get().getRegisteredCommandNames().contains(commandName)) {
+                flush(client, new InvalidCommandResponseMessage(commandMessage.id, commandName));
+                return;
+            }
+            if (!registry.get().isCommandAvailable(commandName)) {
+                flush(client, new CommandUnavailableMessage(commandMessage.id, commandName));
+                return;
+            }
+            try {
+                registry.get().validate(commandName, args);
+            } catch (FailedValidationException e) {
+                flush(
+                        client,
+                        new FailedValidationResponseMessage(
+                                commandMessage.id, commandName, e.getMessage()));
+                return;
+            }
+            SerializableCommand.Output<?> out = registry.get().execute(commandName, args);
+            if (out instanceof SerializableCommand.SuccessOutput) {
+                flush(
+                        client,
+                        new SuccessResponseMessage<Void>(commandMessage.id, commandName, null));
+            } else if (out instanceof SerializableCommand.FailureOutput) {
+                flush(
+                        client,
+                        new FailureResponseMessage(
+                                commandMessage.id,
+                                commandName,
+                                ((SerializableCommand.FailureOutput) out).getPayload()));
+            } else if (out instanceof SerializableCommand.StringOutput) {
+                flush(
+                        client,
+                        new SuccessResponseMessage<>(
+                                commandMessage.id, commandName, out.getPayload()));
+            } else if (out instanceof SerializableCommand.ListOutput) {
+                flush(
+                        client,
+                        new SuccessResponseMessage<>(
+                                commandMessage.id, commandName, out.getPayload()));
+            } else if (out instanceof SerializableCommand.MapOutput) {
+                flush(
+                        client,
+                        new SuccessResponseMessage<>(
+                                commandMessage.id, commandName, out.getPayload()));
+            } else if (out instanceof SerializableCommand.ExceptionOutput) {
+                flush(
+                        client,
+                        new CommandExceptionResponseMessage(
+                                commandMessage.id,
+                                commandName,
+                                ((SerializableCommand.ExceptionOutput) out).getPayload()));
+            } else {
+                flush(
+                        client,
+                        new CommandExceptionResponseMessage(
+                                commandMessage.id, commandName, "internal error"));
+            }
+        } catch (RuntimeException e) {
+            // commands now run on pooled threads, so the client must still get a response
+            logger.warn(e);
+            flush(client, new CommandExceptionResponseMessage(commandMessage.id, commandName, e));
+        }
+    }
+
+    private void reportException(WsClientReaderWriter client, String rawMsg, Exception e) {
         logger.warn(e);
-        flush(new CommandExceptionResponseMessage(null, rawMsg, e));
+        flush(client, new CommandExceptionResponseMessage(null, rawMsg, e));
     }
 
-    private void flush(ResponseMessage<?> message) {
-        server.flush(message);
+    private void flush(WsClientReaderWriter client, ResponseMessage<?> message) {
+        server.send(client, message);
+    }
+
+    /**
+     * Commands from one client which are waiting to be executed. At most one task per client is
+     * submitted to the pool at a time, which keeps the client's commands in order and keeps one
+     * busy client from occupying every pool thread.
+     */
+    private class ClientQueue implements Runnable {
+        private final WsClientReaderWriter client;
+        private final Deque<ClientMessage> pending = new ArrayDeque<>();
+        private boolean scheduled;
+
+        ClientQueue(WsClientReaderWriter client) {
+            this.client = client;
+        }
+
+        // called while holding the clientQueues lock
+        boolean offer(ClientMessage clientMessage) {
+            if (pending.size() >= maxQueuedPerClient) {
+                return false;
+            }
+            pending.add(clientMessage);
+            queuedCommands.incrementAndGet();
+            if (!scheduled) {
+                scheduled = true;
+                submit();
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            ClientMessage next;
+            synchronized (clientQueues) {
+                next = pending.poll();
+                if (next != null) {
+                    queuedCommands.decrementAndGet();
+                }
+            }
+            try {
+                if (next != null) {
+                    execute(next);
+                }
+            } finally {
+                synchronized (clientQueues) {
+                    if (pending.isEmpty()) {
+                        scheduled = false;
+                        clientQueues.remove(client);
+                    } else {
+                        submit();
+                    }
+                }
+            }
+        }
+
+        // called while holding the clientQueues lock
+        private void submit() {
+            try {
+                commandPool.execute(this);
+            } catch (RejectedExecutionException e) {
+                // the pool has been shut down
+                logger.warn(e);
+                queuedCommands.addAndGet(-pending.size());
+                pending.clear();
+                scheduled = false;
+                clientQueues.remove(client);
+            }
+        }
     }
 }
@@ -41,6 +41,11 @@
  */
 package com.redhat.rhjmc.containerjfr.tui.ws;
 
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.inject.Singleton;
 
 import com.google.gson.Gson;
@@ -51,6 +56,7 @@ import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
 import com.redhat.rhjmc.containerjfr.core.tui.ClientReader;
 import com.redhat.rhjmc.containerjfr.core.tui.ClientWriter;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
 import com.redhat.rhjmc.containerjfr.net.HttpServer;
 import com.redhat.rhjmc.containerjfr.tui.CommandExecutor;
@@ -70,8 +76,77 @@ public class WsModule {
             MessagingServer server,
             ClientReader cr,
             Lazy<SerializableCommandRegistry> commandRegistry,
-            Gson gson) {
-        return new WsCommandExecutor(logger, server, cr, commandRegistry, gson);
+            Gson gson,
+            Environment env,
+            MetricsRegistry metrics) {
+        int threads =
+                getInt(
+                        env,
+                        logger,
+                        WsCommandExecutor.COMMAND_THREADS_ENV,
+                        WsCommandExecutor.DEFAULT_COMMAND_THREADS);
+        int maxQueued =
+                getInt(
+                        env,
+                        logger,
+                        WsCommandExecutor.MAX_QUEUED_COMMANDS_ENV,
+                        WsCommandExecutor.DEFAULT_MAX_QUEUED_COMMANDS);
+        int maxQueuedTotal =
+                getInt(
+                        env,
+                        logger,
+                        WsCommandExecutor.MAX_QUEUED_COMMANDS_TOTAL_ENV,
+                        WsCommandExecutor.DEFAULT_MAX_QUEUED_COMMANDS_TOTAL);
+        logger.info(
+                String.format(
+                        "WebSocket command pool: %d threads, %d queued per client, %d queued"
+                                + " in total",
+                        threads, maxQueued, maxQueuedTotal));
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor pool =
+                new ThreadPoolExecutor(
+                        threads,
+                        threads,
+                        0L,
+                        TimeUnit.MILLISECONDS,
+                        // holds at most one task per client with queued commands, and every
+                        // queued task has at least one queued command
+                        new LinkedBlockingQueue<>(maxQueuedTotal),
+                        r -> {
+                            Thread t =
+                                    new Thread(
+                                            r,
+                                            "container-jfr-ws-command-"
+                                                    + threadCount.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        });
+        metrics.gauge(
+                        "containerjfr_websocket_commands_running",
+                        "WebSocket commands currently being executed")
+                .register(pool::getActiveCount);
+        WsCommandExecutor executor =
+                new WsCommandExecutor(
+                        logger, server, cr, commandRegistry, gson, pool, maxQueued, maxQueuedTotal);
+        metrics.gauge(
+                        "containerjfr_websocket_command_queue_depth",
+                        "WebSocket commands waiting to be executed")
+                .register(executor::getQueuedCommands);
+        return executor;
+    }
+
+    private static int getInt(Environment env, Logger logger, String name, int defaultValue) {
+        try {
+            int value = Integer.parseInt(env.getEnv(name, String.valueOf(defaultValue)).trim());
+            if (value < 1) {
+                logger.warn(String.format("%s must be at least 1, using %d", name, defaultValue));
+                return defaultValue;
+            }
+            return value;
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+            return defaultValue;
+        }
     }
 
     @Provides
@@ -91,7 +166,12 @@ public class WsModule {
     @Provides
     @Singleton
     static MessagingServer provideWebSocketMessagingServer(
-            HttpServer server, Environment env, AuthManager authManager, Logger logger, Gson gson) {
-        return new MessagingServer(server, env, authManager, logger, gson);
+            HttpServer server,
+            Environment env,
+            AuthManager authManager,
+            MetricsRegistry metrics,
+            Logger logger,
+            Gson gson) {
+        return new MessagingServer(server, env, authManager, metrics, logger, gson);
     }
 }
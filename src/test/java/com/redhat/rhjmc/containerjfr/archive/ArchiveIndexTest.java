@@ -0,0 +1,420 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import com.google.gson.Gson;
+
+import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+
+@ExtendWith(MockitoExtension.class)
+class ArchiveIndexTest {
+
+    static final String NAME = "some-host_foo_20191219T213834Z.jfr";
+    static final long START_MS = 1576791000000L;
+
+    ArchiveIndex index;
+    @TempDir Path archivePath;
+    @Mock FileSystem fs;
+    @Mock ScheduledExecutorService executor;
+    @Mock Logger logger;
+    Gson gson = MainModule.provideGson(logger);
+
+    @BeforeEach
+    void setup() throws Exception {
+        Mockito.lenient()
+                .when(fs.isRegularFile(Mockito.any(Path.class)))
+                .thenAnswer(invocation -> Files.isRegularFile(invocation.getArgument(0)));
+        Mockito.lenient()
+                .when(fs.newInputStream(Mockito.any(Path.class)))
+                .thenAnswer(invocation -> Files.newInputStream(invocation.getArgument(0)));
+        this.index = new ArchiveIndex(storage(), gson, executor, logger);
+    }
+
+    ArchiveStorage storage() {
+        return new FileSystemArchiveStorage(
+                new ArchiveLayout(archivePath, ArchiveLayout.Strategy.FLAT, fs, logger), fs);
+    }
+
+    void writeRecording(String name) throws Exception {
+        Files.write(
+                archivePath.resolve(name),
+                JfrChunkHeaderTest.concat(
+                        JfrChunkHeaderTest.chunk(
+                                TimeUnit.MILLISECONDS.toNanos(START_MS),
+                                TimeUnit.SECONDS.toNanos(10),
+                                100),
+                        JfrChunkHeaderTest.chunk(
+                                TimeUnit.MILLISECONDS.toNanos(START_MS + 10_000),
+                                TimeUnit.SECONDS.toNanos(5),
+                                100)));
+    }
+
+    void mockArchiveContents(String... names) throws Exception {
+        Mockito.when(fs.isDirectory(archivePath)).thenReturn(true);
+        Mockito.when(fs.listDirectoryChildren(archivePath)).thenReturn(List.of(names));
+    }
+
+    @Test
+    void shouldIndexRecordingMetadata() throws Exception {
+        writeRecording(NAME);
+
+        ArchivedRecordingInfo info = index.index(NAME);
+
+        MatcherAssert.assertThat(info.getName(), Matchers.equalTo(NAME));
+        MatcherAssert.assertThat(info.getTargetName(), Matchers.equalTo("some-host"));
+        MatcherAssert.assertThat(info.getRecordingName(), Matchers.equalTo("foo"));
+        MatcherAssert.assertThat(info.getArchivedTime(), Matchers.equalTo(1576791514000L));
+        MatcherAssert.assertThat(info.getSize(), Matchers.equalTo(200L));
+        MatcherAssert.assertThat(info.getChunkCount(), Matchers.equalTo(2));
+        MatcherAssert.assertThat(info.getStartTime(), Matchers.equalTo(START_MS));
+        MatcherAssert.assertThat(info.getEndTime(), Matchers.equalTo(START_MS + 15_000));
+        MatcherAssert.assertThat(index.get(NAME).get(), Matchers.equalTo(info));
+    }
+
+    @Test
+    void shouldIndexUnrecognizedFiles() throws Exception {
+        Files.write(archivePath.resolve("other.jfr"), new byte[10]);
+
+        ArchivedRecordingInfo info = index.index("other.jfr");
+
+        MatcherAssert.assertThat(info.getSize(), Matchers.equalTo(10L));
+        MatcherAssert.assertThat(info.getTargetName(), Matchers.nullValue());
+        MatcherAssert.assertThat(info.getArchivedTime(), Matchers.nullValue());
+        MatcherAssert.assertThat(info.getChunkCount(), Matchers.equalTo(0));
+        MatcherAssert.assertThat(info.getStartTime(), Matchers.nullValue());
+    }
+
+    @Test
+    void shouldFindAndIndexRecordingsNotYetIndexed() throws Exception {
+        writeRecording(NAME);
+
+        ArchivedRecordingInfo info = index.find(NAME);
+
+        MatcherAssert.assertThat(info.getName(), Matchers.equalTo(NAME));
+        MatcherAssert.assertThat(index.get(NAME).get(), Matchers.equalTo(info));
+        MatcherAssert.assertThat(index.find(NAME), Matchers.equalTo(info));
+    }
+
+    @Test
+    void shouldThrowIfFoundRecordingMissingOrInvalid() throws Exception {
+        Assertions.assertThrows(NoSuchFileException.class, () -> index.find("missing.jfr"));
+        Assertions.assertThrows(NoSuchFileException.class, () -> index.find("../foo.jfr"));
+    }
+
+    @Test
+    void shouldListByName() throws Exception {
+        writeRecording("b.jfr");
+        writeRecording("a.jfr");
+        index.index("b.jfr");
+        index.index("a.jfr");
+
+        List<ArchivedRecordingInfo> list = index.list();
+
+        MatcherAssert.assertThat(list, Matchers.hasSize(2));
+        MatcherAssert.assertThat(list.get(0).getName(), Matchers.equalTo("a.jfr"));
+        MatcherAssert.assertThat(list.get(1).getName(), Matchers.equalTo("b.jfr"));
+    }
+
+    @Test
+    void shouldRemoveEntries() throws Exception {
+        writeRecording(NAME);
+        index.index(NAME);
+
+        MatcherAssert.assertThat(index.remove(NAME).isPresent(), Matchers.is(true));
+        MatcherAssert.assertThat(index.remove(NAME).isPresent(), Matchers.is(false));
+        MatcherAssert.assertThat(index.list(), Matchers.empty());
+    }
+
+    @Test
+    void shouldBatchPersistence() throws Exception {
+        writeRecording("a.jfr");
+        writeRecording("b.jfr");
+        index.index("a.jfr");
+        index.index("b.jfr");
+        index.remove("a.jfr");
+
+        Mockito.verify(executor)
+                .schedule(
+                        Mockito.any(Runnable.class),
+                        Mockito.eq(ArchiveIndex.PERSIST_DELAY_MS),
+                        Mockito.eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void shouldDoNothingIfArchiveMissing() throws Exception {
+        Mockito.when(fs.isDirectory(archivePath)).thenReturn(false);
+
+        index.load();
+
+        MatcherAssert.assertThat(index.list(), Matchers.empty());
+        Mockito.verify(fs, Mockito.never()).listDirectoryChildren(Mockito.any());
+    }
+
+    @Test
+    void shouldBuildIndexFromDirectoryAndSkipHiddenFiles() throws Exception {
+        writeRecording(NAME);
+        mockArchiveContents(NAME, ArchiveIndex.INDEX_FILE_NAME);
+
+        index.load();
+
+        MatcherAssert.assertThat(index.list(), Matchers.hasSize(1));
+        MatcherAssert.assertThat(index.list().get(0).getName(), Matchers.equalTo(NAME));
+        Mockito.verify(executor)
+                .schedule(Mockito.any(Runnable.class), Mockito.anyLong(), Mockito.any());
+    }
+
+    @Test
+    void shouldPersistAndReload() throws Exception {
+        writeRecording(NAME);
+        mockArchiveContents(NAME);
+        index.load();
+        index.persist();
+
+        Path indexFile = archivePath.resolve(ArchiveIndex.INDEX_FILE_NAME);
+        MatcherAssert.assertThat(Files.exists(indexFile), Matchers.is(true));
+
+        ScheduledExecutorService reloadExecutor = Mockito.mock(ScheduledExecutorService.class);
+        ArchiveIndex reloaded = new ArchiveIndex(storage(), gson, reloadExecutor, logger);
+        reloaded.load();
+
+        MatcherAssert.assertThat(reloaded.list(), Matchers.equalTo(index.list()));
+        Mockito.verifyNoInteractions(reloadExecutor);
+    }
+
+    @Test
+    void shouldReconcileStaleAndMissingEntries() throws Exception {
+        writeRecording(NAME);
+        mockArchiveContents(NAME);
+        Path indexFile = archivePath.resolve(ArchiveIndex.INDEX_FILE_NAME);
+        List<ArchivedRecordingInfo> persisted =
+                List.of(
+                        new ArchivedRecordingInfo(NAME, 1, 1, 0, null, null),
+                        new ArchivedRecordingInfo("gone.jfr", 1, 1, 0, null, null));
+        Files.writeString(indexFile, gson.toJson(persisted));
+
+        index.load();
+
+        List<ArchivedRecordingInfo> list = index.list();
+        MatcherAssert.assertThat(list, Matchers.hasSize(1));
+        MatcherAssert.assertThat(list.get(0).getSize(), Matchers.equalTo(200L));
+        MatcherAssert.assertThat(list.get(0).getChunkCount(), Matchers.equalTo(2));
+    }
+
+    @Test
+    void shouldRebuildIfPersistedIndexIsCorrupt() throws Exception {
+        writeRecording(NAME);
+        mockArchiveContents(NAME);
+        Files.writeString(archivePath.resolve(ArchiveIndex.INDEX_FILE_NAME), "{not json");
+
+        index.load();
+
+        MatcherAssert.assertThat(index.list(), Matchers.hasSize(1));
+    }
+
+    void writeRecording(String name, int size) throws Exception {
+        Files.write(archivePath.resolve(name), new byte[size]);
+        index.index(name);
+    }
+
+    List<String> names(ArchivePage page) {
+        return page.getRecordings().stream()
+                .map(ArchivedRecordingInfo::getName)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void shouldReturnChangedAndRemovedEntriesWhenReconciling() throws Exception {
+        writeRecording("a_foo_20200101T000001Z.jfr", 10);
+        writeRecording("b_foo_20200101T000002Z.jfr", 10);
+        writeRecording("c_foo_20200101T000003Z.jfr", 10);
+        Files.write(archivePath.resolve("a_foo_20200101T000001Z.jfr"), new byte[20]);
+        Files.delete(archivePath.resolve("b_foo_20200101T000002Z.jfr"));
+        Files.write(archivePath.resolve("d_foo_20200101T000004Z.jfr"), new byte[10]);
+        mockArchiveContents(
+                "a_foo_20200101T000001Z.jfr",
+                "c_foo_20200101T000003Z.jfr",
+                "d_foo_20200101T000004Z.jfr");
+
+        MatcherAssert.assertThat(
+                index.reconcile(),
+                Matchers.containsInAnyOrder(
+                        "a_foo_20200101T000001Z.jfr", "b_foo_20200101T000002Z.jfr"));
+        MatcherAssert.assertThat(index.size(), Matchers.equalTo(3));
+    }
+
+    @Test
+    void shouldQueryByTimeAndTarget() throws Exception {
+        writeRecording("a_foo_20200101T000003Z.jfr", 10);
+        writeRecording("b_foo_20200101T000001Z.jfr", 30);
+        writeRecording("a_bar_20200101T000002Z.jfr", 20);
+
+        ArchivePage all = index.query(new ArchiveQuery().sort(ArchiveQuery.Sort.TIME));
+        MatcherAssert.assertThat(
+                names(all),
+                Matchers.contains(
+                        "b_foo_20200101T000001Z.jfr",
+                        "a_bar_20200101T000002Z.jfr",
+                        "a_foo_20200101T000003Z.jfr"));
+        MatcherAssert.assertThat(all.getNextCursor(), Matchers.nullValue());
+
+        ArchivePage target =
+                index.query(
+                        new ArchiveQuery()
+                                .sort(ArchiveQuery.Sort.TIME)
+                                .descending(true)
+                                .targetName("a"));
+        MatcherAssert.assertThat(
+                names(target),
+                Matchers.contains("a_foo_20200101T000003Z.jfr", "a_bar_20200101T000002Z.jfr"));
+
+        ArchivePage recording = index.query(new ArchiveQuery().recordingName("foo"));
+        MatcherAssert.assertThat(
+                names(recording),
+                Matchers.contains("a_foo_20200101T000003Z.jfr", "b_foo_20200101T000001Z.jfr"));
+    }
+
+    @Test
+    void shouldQueryByTimeRange() throws Exception {
+        writeRecording("a_foo_20200101T000001Z.jfr", 10);
+        writeRecording("a_foo_20200101T000002Z.jfr", 10);
+        writeRecording("a_foo_20200101T000003Z.jfr", 10);
+        long t2 = ArchivedRecordingInfo.parseTimestamp("20200101T000002Z");
+
+        for (ArchiveQuery.Sort sort : ArchiveQuery.Sort.values()) {
+            ArchivePage page = index.query(new ArchiveQuery().sort(sort).from(t2).to(t2));
+            MatcherAssert.assertThat(names(page), Matchers.contains("a_foo_20200101T000002Z.jfr"));
+        }
+    }
+
+    @Test
+    void shouldQueryBySizeWithMinimum() throws Exception {
+        writeRecording("a.jfr", 30);
+        writeRecording("b.jfr", 10);
+        writeRecording("c.jfr", 20);
+
+        ArchivePage page =
+                index.query(
+                        new ArchiveQuery()
+                                .sort(ArchiveQuery.Sort.SIZE)
+                                .descending(true)
+                                .minSize(20L));
+
+        MatcherAssert.assertThat(names(page), Matchers.contains("a.jfr", "c.jfr"));
+    }
+
+    @Test
+    void shouldPaginateWithCursor() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            writeRecording(String.format("r%d.jfr", i), 10);
+        }
+        writeRecording("big.jfr", 100);
+
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            ArchivePage page =
+                    index.query(
+                            new ArchiveQuery()
+                                    .sort(ArchiveQuery.Sort.SIZE)
+                                    .limit(2)
+                                    .cursor(cursor));
+            MatcherAssert.assertThat(page.getRecordings().size(), Matchers.lessThanOrEqualTo(2));
+            seen.addAll(names(page));
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        MatcherAssert.assertThat(pages, Matchers.equalTo(3));
+        MatcherAssert.assertThat(
+                seen,
+                Matchers.contains("r0.jfr", "r1.jfr", "r2.jfr", "r3.jfr", "r4.jfr", "big.jfr"));
+    }
+
+    @Test
+    void shouldRejectCursorForDifferentSort() throws Exception {
+        writeRecording("a.jfr", 10);
+        writeRecording("b.jfr", 10);
+        String cursor = index.query(new ArchiveQuery().limit(1)).getNextCursor();
+
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> index.query(new ArchiveQuery().sort(ArchiveQuery.Sort.SIZE).cursor(cursor)));
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> index.query(new ArchiveQuery().cursor("not a cursor")));
+    }
+
+    @Test
+    void shouldReflectUpdatesInSortedViews() throws Exception {
+        writeRecording("a.jfr", 10);
+        writeRecording("b.jfr", 20);
+        writeRecording("a.jfr", 30);
+        index.remove("b.jfr");
+
+        ArchivePage page = index.query(new ArchiveQuery().sort(ArchiveQuery.Sort.SIZE));
+
+        MatcherAssert.assertThat(names(page), Matchers.contains("a.jfr"));
+        MatcherAssert.assertThat(page.getRecordings().get(0).getSize(), Matchers.equalTo(30L));
+    }
+}
@@ -0,0 +1,205 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+
+@ExtendWith(MockitoExtension.class)
+class ArchiveLayoutTest {
+
+    static final String NAME = "some-host_foo_20191219T213834Z.jfr";
+
+    @TempDir Path root;
+    @Mock FileSystem fs;
+    @Mock Environment env;
+    @Mock Logger logger;
+
+    @BeforeEach
+    void setup() throws Exception {
+        Mockito.lenient()
+                .when(fs.isDirectory(Mockito.any()))
+                .thenAnswer(i -> Files.isDirectory(i.getArgument(0)));
+        Mockito.lenient()
+                .when(fs.isRegularFile(Mockito.any()))
+                .thenAnswer(i -> Files.isRegularFile(i.getArgument(0)));
+        Mockito.lenient()
+                .when(fs.exists(Mockito.any()))
+                .thenAnswer(i -> Files.exists(i.getArgument(0)));
+        Mockito.lenient()
+                .when(fs.deleteIfExists(Mockito.any()))
+                .thenAnswer(i -> Files.deleteIfExists(i.getArgument(0)));
+        Mockito.lenient()
+                .when(fs.listDirectoryChildren(Mockito.any()))
+                .thenAnswer(
+                        i ->
+                                Files.list((Path) i.getArgument(0))
+                                        .map(p -> p.getFileName().toString())
+                                        .collect(Collectors.toList()));
+    }
+
+    ArchiveLayout layout(ArchiveLayout.Strategy strategy) {
+        return new ArchiveLayout(root, strategy, fs, logger);
+    }
+
+    @Test
+    void shouldDefaultToFlatStrategy() {
+        Mockito.when(env.getEnv(ArchiveLayout.LAYOUT_ENV, "FLAT")).thenReturn("FLAT");
+        MatcherAssert.assertThat(
+                ArchiveLayout.strategyFromEnvironment(env, logger),
+                Matchers.equalTo(ArchiveLayout.Strategy.FLAT));
+    }
+
+    @Test
+    void shouldReadStrategyFromEnvironment() {
+        Mockito.when(env.getEnv(ArchiveLayout.LAYOUT_ENV, "FLAT")).thenReturn("hashed");
+        MatcherAssert.assertThat(
+                ArchiveLayout.strategyFromEnvironment(env, logger),
+                Matchers.equalTo(ArchiveLayout.Strategy.HASHED));
+    }
+
+    @Test
+    void shouldFallBackToFlatForUnknownStrategy() {
+        Mockito.when(env.getEnv(ArchiveLayout.LAYOUT_ENV, "FLAT")).thenReturn("bogus");
+        MatcherAssert.assertThat(
+                ArchiveLayout.strategyFromEnvironment(env, logger),
+                Matchers.equalTo(ArchiveLayout.Strategy.FLAT));
+        Mockito.verify(logger).warn(Mockito.anyString());
+    }
+
+    @Test
+    void shouldResolveFlat() {
+        MatcherAssert.assertThat(
+                layout(ArchiveLayout.Strategy.FLAT).resolve(NAME),
+                Matchers.equalTo(root.resolve(NAME)));
+    }
+
+    @Test
+    void shouldResolveByTarget() {
+        ArchiveLayout layout = layout(ArchiveLayout.Strategy.TARGET);
+        MatcherAssert.assertThat(
+                layout.resolve(NAME), Matchers.equalTo(root.resolve("some-host").resolve(NAME)));
+        MatcherAssert.assertThat(
+                layout.resolve("other.jfr"), Matchers.equalTo(root.resolve("other.jfr")));
+    }
+
+    @Test
+    void shouldResolveByHash() {
+        Path path = layout(ArchiveLayout.Strategy.HASHED).resolve(NAME);
+        MatcherAssert.assertThat(path.getFileName().toString(), Matchers.equalTo(NAME));
+        MatcherAssert.assertThat(path.getParent().getParent(), Matchers.equalTo(root));
+        MatcherAssert.assertThat(
+                path.getParent().getFileName().toString(), Matchers.matchesPattern("[0-9a-f]{2}"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "..", "../foo.jfr", "sub/foo.jfr"})
+    void shouldRejectNonPlainNames(String name) {
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> layout(ArchiveLayout.Strategy.FLAT).resolve(name));
+    }
+
+    @Test
+    void shouldCreateShardDirectoryForWrite() throws Exception {
+        Path path = layout(ArchiveLayout.Strategy.TARGET).resolveForWrite(NAME);
+        Assertions.assertTrue(Files.isDirectory(path.getParent()));
+    }
+
+    @Test
+    void shouldListRecordingsAcrossShards() throws Exception {
+        Files.createFile(root.resolve("a.jfr"));
+        Files.createFile(root.resolve(".hidden"));
+        Files.createDirectory(root.resolve("sub"));
+        Files.createFile(root.resolve("sub").resolve("b.jfr"));
+
+        MatcherAssert.assertThat(
+                layout(ArchiveLayout.Strategy.FLAT).listRecordings(),
+                Matchers.equalTo(
+                        Map.of(
+                                "a.jfr",
+                                root.resolve("a.jfr"),
+                                "b.jfr",
+                                root.resolve("sub").resolve("b.jfr"))));
+    }
+
+    @ParameterizedTest
+    @EnumSource(ArchiveLayout.Strategy.class)
+    void shouldMigrateToLayout(ArchiveLayout.Strategy strategy) throws Exception {
+        List<String> names = List.of(NAME, "other-host_bar_20191219T213834Z.jfr", "other.jfr");
+        Files.createDirectory(root.resolve("old"));
+        for (String name : names) {
+            Files.write(root.resolve("old").resolve(name), name.getBytes());
+        }
+        ArchiveLayout layout = layout(strategy);
+
+        MatcherAssert.assertThat(layout.migrate(), Matchers.equalTo(names.size()));
+
+        for (String name : names) {
+            Path path = layout.resolve(name);
+            MatcherAssert.assertThat(new String(Files.readAllBytes(path)), Matchers.equalTo(name));
+        }
+        Assertions.assertFalse(Files.exists(root.resolve("old")));
+        MatcherAssert.assertThat(layout.migrate(), Matchers.equalTo(0));
+    }
+}
@@ -0,0 +1,264 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class ArchiveMergerTest {
+
+    @TempDir Path tempDir;
+    @Mock ArchiveStorage storage;
+    @Mock ArchiveIndex archiveIndex;
+    ArchiveMerger merger;
+
+    @BeforeEach
+    void setup() {
+        this.merger = new ArchiveMerger(storage, archiveIndex);
+    }
+
+    ArchivedRecordingInfo archive(String name, byte[] content) throws Exception {
+        Path file = tempDir.resolve(name);
+        Files.write(file, content);
+        Mockito.lenient().when(storage.localPath(name)).thenReturn(Optional.of(file));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Mockito.lenient()
+                    .when(storage.readChunkHeaders(name, content.length))
+                    .thenReturn(JfrChunkHeader.readAll(channel));
+        }
+        ArchivedRecordingInfo info =
+                ArchiveIndex.describe(storage, new StoredRecording(name, content.length, 0));
+        Mockito.lenient().when(archiveIndex.find(name)).thenReturn(info);
+        return info;
+    }
+
+    @Test
+    void shouldOrderSourcesByStartTime() throws Exception {
+        archive(
+                "foo_bar_20200101T010000Z.jfr",
+                JfrChunkHeaderTest.chunk(2_000_000_000L, 1_000_000L, 100));
+        archive(
+                "foo_bar_20200101T000000Z.jfr",
+                JfrChunkHeaderTest.chunk(1_000_000_000L, 1_000_000L, 100));
+
+        List<ArchivedRecordingInfo> plan =
+                merger.plan(
+                        List.of("foo_bar_20200101T010000Z.jfr", "foo_bar_20200101T000000Z.jfr"));
+
+        MatcherAssert.assertThat(
+                plan.get(0).getName(), Matchers.equalTo("foo_bar_20200101T000000Z.jfr"));
+        MatcherAssert.assertThat(
+                plan.get(1).getName(), Matchers.equalTo("foo_bar_20200101T010000Z.jfr"));
+    }
+
+    @Test
+    void shouldRejectRecordingsOfDifferentTargets() throws Exception {
+        archive("foo_bar_20200101T000000Z.jfr", JfrChunkHeaderTest.chunk(1, 1, 100));
+        archive("baz_bar_20200101T000000Z.jfr", JfrChunkHeaderTest.chunk(2, 1, 100));
+
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () ->
+                        merger.plan(
+                                List.of(
+                                        "foo_bar_20200101T000000Z.jfr",
+                                        "baz_bar_20200101T000000Z.jfr")));
+    }
+
+    @Test
+    void shouldRejectDuplicateAndEmptyRequests() throws Exception {
+        archive("foo_bar_20200101T000000Z.jfr", JfrChunkHeaderTest.chunk(1, 1, 100));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> merger.plan(List.of()));
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () ->
+                        merger.plan(
+                                List.of(
+                                        "foo_bar_20200101T000000Z.jfr",
+                                        "foo_bar_20200101T000000Z.jfr")));
+    }
+
+    @Test
+    void shouldRejectRecordingsWithoutChunks() throws Exception {
+        archive("foo_bar_20200101T000000Z.jfr", new byte[] {1, 2, 3});
+
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> merger.plan(List.of("foo_bar_20200101T000000Z.jfr")));
+    }
+
+    @Test
+    void shouldThrowIfRecordingMissing() throws Exception {
+        Mockito.when(archiveIndex.find("missing.jfr"))
+                .thenThrow(new NoSuchFileException("missing.jfr"));
+
+        Assertions.assertThrows(
+                NoSuchFileException.class, () -> merger.plan(List.of("missing.jfr")));
+    }
+
+    @Test
+    void shouldConcatenateCompleteChunks() throws Exception {
+        byte[] first = JfrChunkHeaderTest.chunk(1_000_000_000L, 1_000_000L, 100);
+        byte[] second = JfrChunkHeaderTest.chunk(2_000_000_000L, 1_000_000L, 120);
+        byte[] third = JfrChunkHeaderTest.chunk(3_000_000_000L, 1_000_000L, 80);
+        // the second file also has a trailing partial chunk, which must be left out
+        byte[] partial = new byte[] {'F', 'L', 'R', 0, 0, 2};
+        ArchivedRecordingInfo a = archive("foo_bar_20200101T000000Z.jfr", first);
+        ArchivedRecordingInfo b =
+                archive(
+                        "foo_bar_20200101T010000Z.jfr",
+                        JfrChunkHeaderTest.concat(second, third, partial));
+        Path destination = tempDir.resolve("merged.jfr");
+
+        long written = merger.merge(List.of(a, b), destination);
+
+        MatcherAssert.assertThat(written, Matchers.equalTo(300L));
+        MatcherAssert.assertThat(
+                Files.readAllBytes(destination),
+                Matchers.equalTo(JfrChunkHeaderTest.concat(first, second, third)));
+        try (FileChannel channel = FileChannel.open(destination, StandardOpenOption.READ)) {
+            MatcherAssert.assertThat(JfrChunkHeader.readAll(channel), Matchers.hasSize(3));
+        }
+    }
+
+    @Test
+    void shouldStreamChunksFromRemoteStorage() throws Exception {
+        byte[] first = JfrChunkHeaderTest.chunk(1_000_000_000L, 1_000_000L, 100);
+        byte[] second = JfrChunkHeaderTest.chunk(2_000_000_000L, 1_000_000L, 120);
+        byte[] partial = new byte[] {'F', 'L', 'R', 0, 0, 2};
+        byte[] content = JfrChunkHeaderTest.concat(first, second, partial);
+        ArchivedRecordingInfo a = archive("foo_bar_20200101T000000Z.jfr", content);
+        Mockito.when(storage.localPath(a.getName())).thenReturn(Optional.empty());
+        Mockito.when(storage.read(a.getName(), 0, 220))
+                .thenReturn(new ByteArrayInputStream(content, 0, 220));
+        Path destination = tempDir.resolve("merged.jfr");
+
+        long written = merger.merge(List.of(a), destination);
+
+        MatcherAssert.assertThat(written, Matchers.equalTo(220L));
+        MatcherAssert.assertThat(
+                Files.readAllBytes(destination),
+                Matchers.equalTo(JfrChunkHeaderTest.concat(first, second)));
+    }
+
+    @Test
+    void shouldMergeToChannel() throws Exception {
+        byte[] first = JfrChunkHeaderTest.chunk(1_000_000_000L, 1_000_000L, 100);
+        byte[] second = JfrChunkHeaderTest.chunk(2_000_000_000L, 1_000_000L, 120);
+        byte[] partial = new byte[] {'F', 'L', 'R', 0, 0, 2};
+        ArchivedRecordingInfo a = archive("foo_bar_20200101T000000Z.jfr", first);
+        byte[] content = JfrChunkHeaderTest.concat(second, partial);
+        ArchivedRecordingInfo b = archive("foo_bar_20200101T010000Z.jfr", content);
+        Mockito.when(storage.localPath(b.getName())).thenReturn(Optional.empty());
+        Mockito.when(storage.read(b.getName(), 0, 120))
+                .thenReturn(new ByteArrayInputStream(content, 0, 120));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long written = merger.merge(List.of(a, b), Channels.newChannel(out));
+
+        MatcherAssert.assertThat(written, Matchers.equalTo(220L));
+        MatcherAssert.assertThat(
+                out.toByteArray(), Matchers.equalTo(JfrChunkHeaderTest.concat(first, second)));
+    }
+
+    @Test
+    void shouldFailIfStoredRecordingEndsEarly() throws Exception {
+        byte[] content = JfrChunkHeaderTest.chunk(1_000_000_000L, 1_000_000L, 100);
+        ArchivedRecordingInfo a = archive("foo_bar_20200101T000000Z.jfr", content);
+        Mockito.when(storage.localPath(a.getName())).thenReturn(Optional.empty());
+        Mockito.when(storage.read(a.getName(), 0, 100))
+                .thenReturn(new ByteArrayInputStream(content, 0, 60));
+
+        Assertions.assertThrows(
+                IOException.class,
+                () -> merger.merge(List.of(a), Channels.newChannel(new ByteArrayOutputStream())));
+    }
+
+    @Test
+    void shouldNameMergeOfSameRecording() throws Exception {
+        ArchivedRecordingInfo a =
+                archive("foo_bar_20200101T000000Z.jfr", JfrChunkHeaderTest.chunk(1, 1, 100));
+        ArchivedRecordingInfo b =
+                archive("foo_bar_20200101T010000Z.jfr", JfrChunkHeaderTest.chunk(2, 1, 100));
+        Instant now = Instant.now();
+        Mockito.when(storage.uniqueName("foo", "bar-merged", now)).thenReturn("merged.jfr");
+
+        MatcherAssert.assertThat(
+                merger.nameFor(List.of(a, b), now), Matchers.equalTo("merged.jfr"));
+    }
+
+    @Test
+    void shouldNameMergeOfDifferentRecordings() throws Exception {
+        ArchivedRecordingInfo a =
+                archive("foo_bar_20200101T000000Z.jfr", JfrChunkHeaderTest.chunk(1, 1, 100));
+        ArchivedRecordingInfo b =
+                archive("foo_baz_20200101T010000Z.jfr", JfrChunkHeaderTest.chunk(2, 1, 100));
+        Instant now = Instant.now();
+        Mockito.when(storage.uniqueName("foo", "merged", now)).thenReturn("merged.jfr");
+
+        MatcherAssert.assertThat(
+                merger.nameFor(List.of(a, b), now), Matchers.equalTo("merged.jfr"));
+    }
+}
@@ -0,0 +1,104 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+
+@ExtendWith(MockitoExtension.class)
+class ArchiveRetentionPolicyTest {
+
+    @Mock Environment env;
+    @Mock Logger logger;
+
+    @Test
+    void shouldBeDisabledByDefault() {
+        ArchiveRetentionPolicy policy = ArchiveRetentionPolicy.fromEnvironment(env, logger);
+
+        MatcherAssert.assertThat(policy.isEnabled(), Matchers.is(false));
+        MatcherAssert.assertThat(
+                policy.getPeriodSeconds(),
+                Matchers.equalTo(ArchiveRetentionPolicy.DEFAULT_PERIOD_SECONDS));
+    }
+
+    @Test
+    void shouldReadLimitsFromEnvironment() {
+        Mockito.when(env.hasEnv(Mockito.anyString())).thenReturn(true);
+        Mockito.when(env.getEnv(ArchiveRetentionPolicy.MAX_BYTES_ENV)).thenReturn("1000");
+        Mockito.when(env.getEnv(ArchiveRetentionPolicy.MAX_BYTES_PER_TARGET_ENV)).thenReturn("500");
+        Mockito.when(env.getEnv(ArchiveRetentionPolicy.MAX_AGE_SECONDS_ENV)).thenReturn("3600");
+        Mockito.when(env.getEnv(ArchiveRetentionPolicy.MAX_COUNT_ENV)).thenReturn(" 10 ");
+        Mockito.when(env.getEnv(ArchiveRetentionPolicy.PERIOD_SECONDS_ENV)).thenReturn("5");
+
+        ArchiveRetentionPolicy policy = ArchiveRetentionPolicy.fromEnvironment(env, logger);
+
+        MatcherAssert.assertThat(policy.isEnabled(), Matchers.is(true));
+        MatcherAssert.assertThat(policy.getMaxBytes(), Matchers.equalTo(1000L));
+        MatcherAssert.assertThat(policy.getMaxBytesPerTarget(), Matchers.equalTo(500L));
+        MatcherAssert.assertThat(policy.getMaxAgeSeconds(), Matchers.equalTo(3600L));
+        MatcherAssert.assertThat(policy.getMaxCount(), Matchers.equalTo(10L));
+        MatcherAssert.assertThat(policy.getPeriodSeconds(), Matchers.equalTo(5L));
+    }
+
+    @Test
+    void shouldIgnoreInvalidLimits() {
+        Mockito.when(env.hasEnv(Mockito.anyString())).thenReturn(false);
+        Mockito.when(env.hasEnv(ArchiveRetentionPolicy.MAX_BYTES_ENV)).thenReturn(true);
+        Mockito.when(env.getEnv(ArchiveRetentionPolicy.MAX_BYTES_ENV)).thenReturn("lots");
+        Mockito.when(env.hasEnv(ArchiveRetentionPolicy.MAX_COUNT_ENV)).thenReturn(true);
+        Mockito.when(env.getEnv(ArchiveRetentionPolicy.MAX_COUNT_ENV)).thenReturn("-1");
+
+        ArchiveRetentionPolicy policy = ArchiveRetentionPolicy.fromEnvironment(env, logger);
+
+        MatcherAssert.assertThat(policy.isEnabled(), Matchers.is(false));
+        Mockito.verify(logger).warn(Mockito.any(NumberFormatException.class));
+        Mockito.verify(logger).warn(Mockito.anyString());
+    }
+}
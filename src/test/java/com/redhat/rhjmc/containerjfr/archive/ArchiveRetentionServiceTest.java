@@ -0,0 +1,231 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.net.internal.reports.ReportService;
+
+@ExtendWith(MockitoExtension.class)
+class ArchiveRetentionServiceTest {
+
+    static final String OLDEST = "host-a_foo_20191219T213834Z.jfr";
+    static final String MIDDLE = "host-a_foo_20191220T213834Z.jfr";
+    static final String NEWEST = "host-b_bar_20191221T213834Z.jfr";
+
+    @TempDir Path archivePath;
+    @Mock FileSystem fs;
+    @Mock ArchiveStorage storage;
+    @Mock ReportService reportService;
+    @Mock ScheduledExecutorService executor;
+    @Mock ScheduledExecutorService indexExecutor;
+    @Mock Clock clock;
+    @Mock Logger logger;
+    ArchiveIndex index;
+
+    @BeforeEach
+    void setup() throws Exception {
+        Mockito.lenient()
+                .when(fs.isRegularFile(Mockito.any()))
+                .thenAnswer(i -> Files.isRegularFile(i.getArgument(0)));
+        Mockito.lenient().when(storage.getUsableSpace()).thenReturn(Long.MAX_VALUE);
+        index =
+                new ArchiveIndex(
+                        new FileSystemArchiveStorage(
+                                new ArchiveLayout(
+                                        archivePath, ArchiveLayout.Strategy.FLAT, fs, logger),
+                                fs),
+                        MainModule.provideGson(logger),
+                        indexExecutor,
+                        logger);
+        for (String name : new String[] {OLDEST, MIDDLE, NEWEST}) {
+            Files.write(
+                    archivePath.resolve(name),
+                    JfrChunkHeaderTest.chunk(
+                            TimeUnit.MILLISECONDS.toNanos(ArchiveIndexTest.START_MS),
+                            TimeUnit.SECONDS.toNanos(10),
+                            200));
+            index.index(name);
+        }
+    }
+
+    ArchiveRetentionService service(
+            Long maxBytes, Long maxBytesPerTarget, Long maxAgeSeconds, Long maxCount) {
+        return new ArchiveRetentionService(
+                storage,
+                index,
+                reportService,
+                new ArchiveRetentionPolicy(
+                        maxBytes, maxBytesPerTarget, maxAgeSeconds, maxCount, 60),
+                executor,
+                clock,
+                logger);
+    }
+
+    void verifyEvicted(String name) throws Exception {
+        Mockito.verify(storage).delete(name);
+        Mockito.verify(reportService).delete(name);
+        MatcherAssert.assertThat(index.get(name).isPresent(), Matchers.is(false));
+    }
+
+    @Test
+    void shouldNotScheduleOrEvictWithoutLimits() throws Exception {
+        ArchiveRetentionService service = service(null, null, null, null);
+
+        service.start();
+        service.enforce();
+
+        Mockito.verifyNoInteractions(executor, reportService);
+        Mockito.verify(storage, Mockito.never()).delete(Mockito.any());
+        MatcherAssert.assertThat(index.size(), Matchers.equalTo(3));
+    }
+
+    @Test
+    void shouldScheduleEnforcementWhenEnabled() {
+        service(null, null, null, 1L).start();
+
+        Mockito.verify(executor)
+                .scheduleWithFixedDelay(
+                        Mockito.any(Runnable.class),
+                        Mockito.eq(0L),
+                        Mockito.eq(60L),
+                        Mockito.eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    void shouldEvictOldestBeyondMaxCount() throws Exception {
+        service(null, null, null, 2L).enforce();
+
+        verifyEvicted(OLDEST);
+        MatcherAssert.assertThat(index.size(), Matchers.equalTo(2));
+    }
+
+    @Test
+    void shouldEvictOldestBeyondMaxBytes() throws Exception {
+        service(300L, null, null, null).enforce();
+
+        verifyEvicted(OLDEST);
+        verifyEvicted(MIDDLE);
+        MatcherAssert.assertThat(index.getTotalSize(), Matchers.equalTo(200L));
+    }
+
+    @Test
+    void shouldEvictOnlyOverQuotaTarget() throws Exception {
+        service(null, 300L, null, null).enforce();
+
+        verifyEvicted(OLDEST);
+        MatcherAssert.assertThat(index.get(MIDDLE).isPresent(), Matchers.is(true));
+        MatcherAssert.assertThat(index.get(NEWEST).isPresent(), Matchers.is(true));
+    }
+
+    @Test
+    void shouldEvictExpired() throws Exception {
+        // one day after MIDDLE was archived
+        Mockito.when(clock.getWallTime()).thenReturn(1576877914000L + 86_400_000L);
+
+        service(null, null, TimeUnit.DAYS.toSeconds(1) + 60, null).enforce();
+
+        verifyEvicted(OLDEST);
+        MatcherAssert.assertThat(index.size(), Matchers.equalTo(2));
+    }
+
+    @Test
+    void shouldRejectReservationLargerThanLimit() throws Exception {
+        ArchiveRetentionService service = service(1000L, 500L, null, null);
+
+        Assertions.assertThrows(
+                ArchiveSpaceException.class, () -> service.reserve("host-c", "baz", 600));
+
+        Mockito.verify(storage, Mockito.never()).delete(Mockito.any());
+    }
+
+    @Test
+    void shouldRejectReservationLargerThanUsableSpace() throws Exception {
+        Mockito.when(storage.getUsableSpace()).thenReturn(100L);
+        ArchiveRetentionService service = service(null, null, null, null);
+
+        Assertions.assertThrows(
+                ArchiveSpaceException.class, () -> service.reserve("host-c", "baz", 200));
+    }
+
+    @Test
+    void shouldEvictToMakeRoomForReservation() throws Exception {
+        ArchiveRetentionService service = service(600L, null, null, null);
+
+        ArchiveRetentionService.Reservation reservation = service.reserve("host-c", "baz", 200);
+
+        verifyEvicted(OLDEST);
+        MatcherAssert.assertThat(index.size(), Matchers.equalTo(2));
+
+        reservation.close();
+        reservation.close();
+        Mockito.verify(executor, Mockito.times(1)).execute(Mockito.any(Runnable.class));
+    }
+
+    @Test
+    void shouldEstimateReservationFromPreviousCopy() throws Exception {
+        ArchiveRetentionService service = service(null, 300L, null, null);
+
+        MatcherAssert.assertThat(
+                service.reserve("host-b", "bar", 0).getBytes(), Matchers.equalTo(200L));
+        MatcherAssert.assertThat(
+                service.reserve("host-c", "baz", 0).getBytes(), Matchers.equalTo(0L));
+    }
+}
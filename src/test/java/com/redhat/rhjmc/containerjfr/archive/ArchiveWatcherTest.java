@@ -0,0 +1,314 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.net.internal.reports.ReportService;
+import com.redhat.rhjmc.containerjfr.tui.ws.MessagingServer;
+
+@ExtendWith(MockitoExtension.class)
+class ArchiveWatcherTest {
+
+    static final String NAME = "some-host_foo_20191219T213834Z.jfr";
+
+    @TempDir Path root;
+    @Mock FileSystem fs;
+    @Mock ArchiveIndex archiveIndex;
+    @Mock ReportService reportService;
+    @Mock MessagingServer messagingServer;
+    @Mock Clock clock;
+    @Mock Logger logger;
+    AtomicLong elapsed = new AtomicLong();
+    ArchiveWatcher watcher;
+
+    @BeforeEach
+    void setup() throws Exception {
+        Mockito.lenient()
+                .when(clock.getMonotonicTime())
+                .thenAnswer(i -> System.nanoTime() + elapsed.get());
+        Mockito.lenient()
+                .when(fs.isDirectory(Mockito.any()))
+                .thenAnswer(i -> Files.isDirectory(i.getArgument(0)));
+        Mockito.lenient()
+                .when(fs.isRegularFile(Mockito.any()))
+                .thenAnswer(i -> Files.isRegularFile(i.getArgument(0)));
+        Mockito.lenient()
+                .when(fs.listDirectoryChildren(Mockito.any()))
+                .thenAnswer(
+                        i ->
+                                Files.list((Path) i.getArgument(0))
+                                        .map(p -> p.getFileName().toString())
+                                        .collect(Collectors.toList()));
+        ArchiveLayout layout = new ArchiveLayout(root, ArchiveLayout.Strategy.FLAT, fs, logger);
+        watcher =
+                new ArchiveWatcher(
+                        new FileSystemArchiveStorage(layout, fs),
+                        layout,
+                        fs,
+                        archiveIndex,
+                        reportService,
+                        messagingServer,
+                        clock,
+                        logger);
+    }
+
+    ArchivedRecordingInfo info(long size) {
+        return new ArchivedRecordingInfo(NAME, size, 0, 0, null, null);
+    }
+
+    void settle() {
+        elapsed.addAndGet(TimeUnit.MILLISECONDS.toNanos(ArchiveWatcher.QUIET_PERIOD_MS));
+        watcher.processPending();
+    }
+
+    ArchiveWatcher.Change verifyNotified() {
+        ArgumentCaptor<ArchiveWatcher.Change> captor =
+                ArgumentCaptor.forClass(ArchiveWatcher.Change.class);
+        Mockito.verify(messagingServer)
+                .notifyClients(Mockito.eq(ArchiveWatcher.NOTIFICATION_CATEGORY), captor.capture());
+        return captor.getValue();
+    }
+
+    @Test
+    void shouldIndexAndNotifyNewRecording() throws Exception {
+        Files.createFile(root.resolve(NAME));
+        ArchivedRecordingInfo info = info(1);
+        Mockito.when(archiveIndex.get(NAME)).thenReturn(Optional.empty());
+        Mockito.when(archiveIndex.index(NAME)).thenReturn(info);
+
+        watcher.changed(NAME, StandardWatchEventKinds.ENTRY_CREATE);
+        watcher.changed(NAME, StandardWatchEventKinds.ENTRY_MODIFY);
+        settle();
+
+        ArchiveWatcher.Change change = verifyNotified();
+        MatcherAssert.assertThat(change.getName(), Matchers.equalTo(NAME));
+        MatcherAssert.assertThat(
+                change.getType(), Matchers.equalTo(ArchiveWatcher.ChangeType.CREATED));
+        MatcherAssert.assertThat(change.getRecording(), Matchers.sameInstance(info));
+        Mockito.verifyNoInteractions(reportService);
+    }
+
+    @Test
+    void shouldInvalidateReportOfModifiedRecording() throws Exception {
+        Files.createFile(root.resolve(NAME));
+        ArchivedRecordingInfo previous = info(1);
+        ArchivedRecordingInfo current = info(2);
+        Mockito.when(archiveIndex.get(NAME)).thenReturn(Optional.of(previous));
+        Mockito.when(archiveIndex.index(NAME)).thenReturn(current);
+
+        watcher.changed(NAME, StandardWatchEventKinds.ENTRY_MODIFY);
+        settle();
+
+        Mockito.verify(reportService).delete(NAME);
+        MatcherAssert.assertThat(
+                verifyNotified().getType(), Matchers.equalTo(ArchiveWatcher.ChangeType.MODIFIED));
+    }
+
+    @Test
+    void shouldInvalidateReportsOfRecordingsChangedBeforeRescan() throws Exception {
+        String other = "other.jfr";
+        Mockito.when(archiveIndex.reconcile()).thenReturn(Set.of(NAME, other));
+
+        watcher.rescan();
+
+        Mockito.verify(reportService).delete(NAME);
+        Mockito.verify(reportService).delete(other);
+        MatcherAssert.assertThat(
+                verifyNotified().getType(), Matchers.equalTo(ArchiveWatcher.ChangeType.RESCANNED));
+    }
+
+    @Test
+    void shouldIgnoreModificationThatDoesNotChangeRecording() throws Exception {
+        Files.createFile(root.resolve(NAME));
+        Mockito.when(archiveIndex.get(NAME)).thenReturn(Optional.of(info(1)));
+        Mockito.when(archiveIndex.index(NAME)).thenReturn(info(1));
+
+        watcher.changed(NAME, StandardWatchEventKinds.ENTRY_MODIFY);
+        settle();
+
+        Mockito.verifyNoInteractions(reportService, messagingServer);
+    }
+
+    @Test
+    void shouldRemoveDeletedRecording() throws Exception {
+        Mockito.when(archiveIndex.remove(NAME)).thenReturn(Optional.of(info(1)));
+
+        watcher.changed(NAME, StandardWatchEventKinds.ENTRY_DELETE);
+        settle();
+
+        Mockito.verify(reportService).delete(NAME);
+        ArchiveWatcher.Change change = verifyNotified();
+        MatcherAssert.assertThat(
+                change.getType(), Matchers.equalTo(ArchiveWatcher.ChangeType.DELETED));
+        MatcherAssert.assertThat(change.getRecording(), Matchers.nullValue());
+    }
+
+    @Test
+    void shouldApplyEachChangeOnce() throws Exception {
+        Mockito.when(archiveIndex.remove(NAME)).thenReturn(Optional.of(info(1)));
+
+        watcher.changed(NAME, StandardWatchEventKinds.ENTRY_DELETE);
+        settle();
+        settle();
+
+        Mockito.verify(archiveIndex).remove(NAME);
+    }
+
+    @Test
+    void shouldNotApplyChangesBeforeQuietPeriod() throws Exception {
+        watcher.changed(NAME, StandardWatchEventKinds.ENTRY_DELETE);
+        watcher.processPending();
+
+        Mockito.verifyNoInteractions(archiveIndex, messagingServer);
+    }
+
+    @Test
+    void shouldApplySettledChangesWhileOtherFilesKeepChanging() throws Exception {
+        String other = "some-host_bar_20191219T213834Z.jfr";
+        Mockito.when(archiveIndex.remove(NAME)).thenReturn(Optional.of(info(1)));
+        long step = TimeUnit.MILLISECONDS.toNanos(ArchiveWatcher.QUIET_PERIOD_MS / 4);
+
+        watcher.changed(NAME, StandardWatchEventKinds.ENTRY_DELETE);
+        for (int i = 0; i < 8; i++) {
+            elapsed.addAndGet(step);
+            watcher.changed(other, StandardWatchEventKinds.ENTRY_MODIFY);
+            watcher.processPending();
+        }
+
+        Mockito.verify(archiveIndex).remove(NAME);
+        Mockito.verify(archiveIndex, Mockito.never()).remove(other);
+        MatcherAssert.assertThat(
+                verifyNotified().getType(), Matchers.equalTo(ArchiveWatcher.ChangeType.DELETED));
+    }
+
+    @Test
+    void shouldKeepWatchingAfterDirectoryErrors() throws Exception {
+        ArchivedRecordingInfo info = info(1);
+        Mockito.when(archiveIndex.get(NAME)).thenReturn(Optional.empty());
+        Mockito.when(archiveIndex.index(NAME)).thenReturn(info);
+        Path shard = root.resolve("ab");
+        Mockito.doThrow(new IOException("removed")).when(fs).listDirectoryChildren(shard);
+
+        watcher.start();
+        try {
+            Files.createDirectory(shard);
+            // reconcile() is synchronized, so wait for the rescan notification instead
+            Mockito.verify(messagingServer, Mockito.timeout(10_000))
+                    .notifyClients(
+                            Mockito.eq(ArchiveWatcher.NOTIFICATION_CATEGORY),
+                            Mockito.argThat(
+                                    c ->
+                                            ((ArchiveWatcher.Change) c).getType()
+                                                    == ArchiveWatcher.ChangeType.RESCANNED));
+            Files.write(root.resolve(NAME), new byte[] {1});
+
+            Mockito.verify(archiveIndex, Mockito.timeout(10_000).atLeastOnce()).index(NAME);
+            Mockito.verify(archiveIndex, Mockito.times(2)).reconcile();
+            Mockito.verify(logger).warn(Mockito.any(IOException.class));
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void shouldPickUpFilesWrittenToWatchedDirectory() throws Exception {
+        ArchivedRecordingInfo info = info(1);
+        Mockito.when(archiveIndex.get(NAME)).thenReturn(Optional.empty());
+        Mockito.when(archiveIndex.index(NAME)).thenReturn(info);
+
+        watcher.start();
+        try {
+            Files.write(root.resolve(NAME), new byte[] {1});
+
+            Mockito.verify(messagingServer, Mockito.timeout(10_000))
+                    .notifyClients(Mockito.eq(ArchiveWatcher.NOTIFICATION_CATEGORY), Mockito.any());
+            Mockito.verify(archiveIndex).reconcile();
+            Mockito.verify(archiveIndex, Mockito.atLeastOnce()).index(NAME);
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    void shouldNotWatchRemoteStorage() throws Exception {
+        ArchiveStorage storage = Mockito.mock(ArchiveStorage.class);
+        Mockito.when(storage.getLocalRoot()).thenReturn(Optional.empty());
+        ArchiveWatcher remote =
+                new ArchiveWatcher(
+                        storage,
+                        new ArchiveLayout(root, ArchiveLayout.Strategy.FLAT, fs, logger),
+                        fs,
+                        archiveIndex,
+                        reportService,
+                        messagingServer,
+                        clock,
+                        logger);
+
+        remote.start();
+        remote.stop();
+
+        Mockito.verifyNoInteractions(archiveIndex, messagingServer);
+    }
+}
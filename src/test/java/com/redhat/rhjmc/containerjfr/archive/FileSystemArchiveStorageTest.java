@@ -0,0 +1,214 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+
+@ExtendWith(MockitoExtension.class)
+class FileSystemArchiveStorageTest {
+
+    static final String NAME = "some-host_foo_20191219T213834Z.jfr";
+
+    @TempDir Path root;
+    @Mock FileSystem fs;
+    @Mock Logger logger;
+    FileSystemArchiveStorage storage;
+
+    @BeforeEach
+    void setup() throws Exception {
+        Mockito.lenient()
+                .when(fs.isDirectory(Mockito.any()))
+                .thenAnswer(i -> Files.isDirectory(i.getArgument(0)));
+        Mockito.lenient()
+                .when(fs.isRegularFile(Mockito.any()))
+                .thenAnswer(i -> Files.isRegularFile(i.getArgument(0)));
+        Mockito.lenient()
+                .when(fs.exists(Mockito.any()))
+                .thenAnswer(i -> Files.exists(i.getArgument(0)));
+        Mockito.lenient()
+                .when(fs.deleteIfExists(Mockito.any()))
+                .thenAnswer(i -> Files.deleteIfExists(i.getArgument(0)));
+        Mockito.lenient()
+                .when(fs.newInputStream(Mockito.any()))
+                .thenAnswer(i -> Files.newInputStream(i.getArgument(0)));
+        Mockito.lenient()
+                .when(fs.listDirectoryChildren(Mockito.any()))
+                .thenAnswer(
+                        i ->
+                                Files.list((Path) i.getArgument(0))
+                                        .map(p -> p.getFileName().toString())
+                                        .collect(Collectors.toList()));
+        this.storage =
+                new FileSystemArchiveStorage(
+                        new ArchiveLayout(root, ArchiveLayout.Strategy.TARGET, fs, logger), fs);
+    }
+
+    @Test
+    void shouldWriteIntoLayoutDirectory() throws Exception {
+        long written = storage.write(NAME, new ByteArrayInputStream(new byte[] {1, 2, 3}));
+
+        MatcherAssert.assertThat(written, Matchers.equalTo(3L));
+        Path expected = root.resolve("some-host").resolve(NAME);
+        MatcherAssert.assertThat(
+                Files.readAllBytes(expected), Matchers.equalTo(new byte[] {1, 2, 3}));
+        MatcherAssert.assertThat(storage.localPath(NAME).get(), Matchers.equalTo(expected));
+        MatcherAssert.assertThat(
+                Files.list(root).map(p -> p.getFileName().toString()).collect(Collectors.toList()),
+                Matchers.contains("some-host"));
+    }
+
+    @Test
+    void shouldKeepBookkeepingFilesAtRoot() throws Exception {
+        storage.write(ArchiveIndex.INDEX_FILE_NAME, new ByteArrayInputStream(new byte[] {1}));
+
+        MatcherAssert.assertThat(
+                Files.exists(root.resolve(ArchiveIndex.INDEX_FILE_NAME)), Matchers.is(true));
+        MatcherAssert.assertThat(storage.list(), Matchers.empty());
+    }
+
+    @Test
+    void shouldListAndStatRecordings() throws Exception {
+        storage.write(NAME, new ByteArrayInputStream(new byte[10]));
+        long lastModified =
+                Files.getLastModifiedTime(root.resolve("some-host").resolve(NAME)).toMillis();
+
+        StoredRecording expected = new StoredRecording(NAME, 10, lastModified);
+        MatcherAssert.assertThat(storage.list(), Matchers.equalTo(List.of(expected)));
+        MatcherAssert.assertThat(storage.stat(NAME).get(), Matchers.equalTo(expected));
+        MatcherAssert.assertThat(storage.stat("other.jfr").isPresent(), Matchers.is(false));
+        MatcherAssert.assertThat(storage.exists(NAME), Matchers.is(true));
+    }
+
+    @Test
+    void shouldReadRanges() throws Exception {
+        storage.write(NAME, new ByteArrayInputStream(new byte[] {0, 1, 2, 3, 4, 5}));
+
+        try (InputStream in = storage.read(NAME, 2, 3)) {
+            MatcherAssert.assertThat(in.readAllBytes(), Matchers.equalTo(new byte[] {2, 3, 4}));
+        }
+        try (InputStream in = storage.read(NAME, 4, 10)) {
+            MatcherAssert.assertThat(in.readAllBytes(), Matchers.equalTo(new byte[] {4, 5}));
+        }
+        Assertions.assertThrows(NoSuchFileException.class, () -> storage.read("other.jfr"));
+    }
+
+    @Test
+    void shouldMoveStagedFilesIntoPlace() throws Exception {
+        Path staging = storage.createStagingFile(NAME);
+        MatcherAssert.assertThat(staging.getParent(), Matchers.equalTo(root));
+        MatcherAssert.assertThat(staging.getFileName().toString(), Matchers.startsWith("."));
+        Files.write(staging, new byte[] {1});
+
+        storage.store(staging, NAME);
+
+        MatcherAssert.assertThat(Files.exists(staging), Matchers.is(false));
+        MatcherAssert.assertThat(storage.exists(NAME), Matchers.is(true));
+    }
+
+    @Test
+    void shouldDeleteRecordings() throws Exception {
+        storage.write(NAME, new ByteArrayInputStream(new byte[] {1}));
+
+        MatcherAssert.assertThat(storage.delete(NAME), Matchers.is(true));
+        MatcherAssert.assertThat(storage.delete(NAME), Matchers.is(false));
+    }
+
+    @Test
+    void shouldRejectInvalidNames() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> storage.stat("../foo.jfr"));
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> storage.write("a/b.jfr", new ByteArrayInputStream(new byte[0])));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> storage.delete(".."));
+    }
+
+    @Test
+    void shouldReadChunkHeaders() throws Exception {
+        storage.write(
+                NAME,
+                new ByteArrayInputStream(
+                        JfrChunkHeaderTest.concat(
+                                JfrChunkHeaderTest.chunk(1, 2, 100),
+                                JfrChunkHeaderTest.chunk(3, 4, 100))));
+
+        List<JfrChunkHeader> chunks = storage.readChunkHeaders(NAME, 200);
+
+        MatcherAssert.assertThat(chunks, Matchers.hasSize(2));
+        MatcherAssert.assertThat(chunks.get(1).getOffset(), Matchers.equalTo(100L));
+    }
+
+    @Test
+    void shouldChooseUnusedName() throws Exception {
+        Instant now = Instant.parse("2019-12-19T21:38:34.567Z");
+        storage.write(NAME, new ByteArrayInputStream(new byte[0]));
+        storage.write(
+                "some-host_foo_20191219T213834Z.1.jfr", new ByteArrayInputStream(new byte[0]));
+
+        MatcherAssert.assertThat(
+                storage.uniqueName("some-host", "foo", now),
+                Matchers.equalTo("some-host_foo_20191219T213834Z.2.jfr"));
+        MatcherAssert.assertThat(
+                storage.uniqueName("some-host", "bar", now),
+                Matchers.equalTo("some-host_bar_20191219T213834Z.jfr"));
+    }
+}
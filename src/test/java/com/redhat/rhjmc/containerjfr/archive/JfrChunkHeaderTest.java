@@ -0,0 +1,135 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class JfrChunkHeaderTest {
+
+    @TempDir Path tempDir;
+
+    public static byte[] chunk(long startNanos, long durationNanos, int size) {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put(JfrChunkHeader.MAGIC);
+        buf.putShort((short) 2);
+        buf.putShort((short) 0);
+        buf.putLong(size);
+        buf.putLong(JfrChunkHeader.HEADER_SIZE); // constant pool offset
+        buf.putLong(JfrChunkHeader.HEADER_SIZE); // metadata offset
+        buf.putLong(startNanos);
+        buf.putLong(durationNanos);
+        return buf.array();
+    }
+
+    public static byte[] concat(byte[]... parts) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            baos.write(part);
+        }
+        return baos.toByteArray();
+    }
+
+    List<JfrChunkHeader> read(byte[] contents) throws Exception {
+        Path file = Files.write(tempDir.resolve("test.jfr"), contents);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return JfrChunkHeader.readAll(channel);
+        }
+    }
+
+    @Test
+    void shouldReadSingleChunk() throws Exception {
+        List<JfrChunkHeader> headers = read(chunk(1_000, 500, 128));
+
+        MatcherAssert.assertThat(headers, Matchers.hasSize(1));
+        JfrChunkHeader header = headers.get(0);
+        MatcherAssert.assertThat(header.getOffset(), Matchers.equalTo(0L));
+        MatcherAssert.assertThat(header.getMajorVersion(), Matchers.equalTo((short) 2));
+        MatcherAssert.assertThat(header.getMinorVersion(), Matchers.equalTo((short) 0));
+        MatcherAssert.assertThat(header.getSize(), Matchers.equalTo(128L));
+        MatcherAssert.assertThat(header.getStartNanos(), Matchers.equalTo(1_000L));
+        MatcherAssert.assertThat(header.getDurationNanos(), Matchers.equalTo(500L));
+        MatcherAssert.assertThat(header.getEndNanos(), Matchers.equalTo(1_500L));
+    }
+
+    @Test
+    void shouldReadConcatenatedChunks() throws Exception {
+        List<JfrChunkHeader> headers = read(concat(chunk(1_000, 500, 100), chunk(2_000, 700, 200)));
+
+        MatcherAssert.assertThat(headers, Matchers.hasSize(2));
+        MatcherAssert.assertThat(headers.get(1).getOffset(), Matchers.equalTo(100L));
+        MatcherAssert.assertThat(headers.get(1).getStartNanos(), Matchers.equalTo(2_000L));
+    }
+
+    @Test
+    void shouldIgnoreTruncatedTrailingChunk() throws Exception {
+        byte[] second = chunk(2_000, 700, 200);
+        List<JfrChunkHeader> headers =
+                read(concat(chunk(1_000, 500, 100), Arrays.copyOf(second, 150)));
+
+        MatcherAssert.assertThat(headers, Matchers.hasSize(1));
+    }
+
+    @Test
+    void shouldIgnoreInProgressChunk() throws Exception {
+        byte[] inProgress = chunk(2_000, 0, 100);
+        ByteBuffer.wrap(inProgress).putLong(8, 0);
+
+        MatcherAssert.assertThat(read(inProgress), Matchers.empty());
+    }
+
+    @Test
+    void shouldReturnEmptyForNonJfrContent() throws Exception {
+        MatcherAssert.assertThat(read(new byte[256]), Matchers.empty());
+    }
+}
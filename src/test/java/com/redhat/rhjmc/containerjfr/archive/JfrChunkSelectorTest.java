@@ -0,0 +1,237 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JfrChunkSelectorTest {
+
+    static final long SECOND = 1_000_000_000L;
+
+    @TempDir Path tempDir;
+    byte[] first;
+    byte[] second;
+    byte[] third;
+
+    @BeforeEach
+    void setup() {
+        // chunks covering seconds 10-20, 20-30 and 30-40 since the epoch
+        first = JfrChunkHeaderTest.chunk(10 * SECOND, 10 * SECOND, 100);
+        second = JfrChunkHeaderTest.chunk(20 * SECOND, 10 * SECOND, 120);
+        // larger than the copy buffer, to exercise reading the stream in several parts
+        third =
+                JfrChunkHeaderTest.chunk(
+                        30 * SECOND, 10 * SECOND, JfrChunkSelector.BUFFER_SIZE * 2 + 10);
+    }
+
+    byte[] copyFile(JfrChunkSelector selector, byte[] contents) throws Exception {
+        Path source = Files.write(tempDir.resolve("source.jfr"), contents);
+        Path destination = tempDir.resolve("destination.jfr");
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out =
+                        FileChannel.open(
+                                destination,
+                                StandardOpenOption.WRITE,
+                                StandardOpenOption.CREATE,
+                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long written = selector.copy(in, out);
+            MatcherAssert.assertThat(written, Matchers.equalTo(Files.size(destination)));
+        }
+        return Files.readAllBytes(destination);
+    }
+
+    byte[] copyStream(JfrChunkSelector selector, byte[] contents) throws Exception {
+        Path destination = tempDir.resolve("destination.jfr");
+        try (InputStream in = new ByteArrayInputStream(contents);
+                FileChannel out =
+                        FileChannel.open(
+                                destination,
+                                StandardOpenOption.WRITE,
+                                StandardOpenOption.CREATE,
+                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long written = selector.copy(in, out);
+            MatcherAssert.assertThat(written, Matchers.equalTo(out.size()));
+        }
+        return Files.readAllBytes(destination);
+    }
+
+    @Test
+    void shouldRejectRangeEndingBeforeStart() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class, () -> new JfrChunkSelector(2000L, 1000L));
+    }
+
+    @Test
+    void shouldIncludeOverlappingChunks() {
+        JfrChunkSelector selector = new JfrChunkSelector(25_000L, 30_000L);
+        MatcherAssert.assertThat(
+                selector.includes(JfrChunkHeader.parse(ByteBuffer.wrap(first), 0)),
+                Matchers.is(false));
+        MatcherAssert.assertThat(
+                selector.includes(JfrChunkHeader.parse(ByteBuffer.wrap(second), 0)),
+                Matchers.is(true));
+        MatcherAssert.assertThat(
+                selector.includes(JfrChunkHeader.parse(ByteBuffer.wrap(third), 0)),
+                Matchers.is(true));
+    }
+
+    @Test
+    void shouldCopyChunksInRangeFromFile() throws Exception {
+        byte[] result =
+                copyFile(
+                        new JfrChunkSelector(21_000L, 29_000L),
+                        JfrChunkHeaderTest.concat(first, second, third));
+        MatcherAssert.assertThat(result, Matchers.equalTo(second));
+    }
+
+    @Test
+    void shouldSupportOpenEndedRanges() throws Exception {
+        byte[] contents = JfrChunkHeaderTest.concat(first, second, third);
+        MatcherAssert.assertThat(
+                copyFile(new JfrChunkSelector(null, 15_000L), contents), Matchers.equalTo(first));
+        MatcherAssert.assertThat(
+                copyFile(new JfrChunkSelector(25_000L, null), contents),
+                Matchers.equalTo(JfrChunkHeaderTest.concat(second, third)));
+    }
+
+    @Test
+    void shouldWriteNothingIfNoChunkInRange() throws Exception {
+        byte[] result =
+                copyFile(
+                        new JfrChunkSelector(50_000L, 60_000L),
+                        JfrChunkHeaderTest.concat(first, second, third));
+        MatcherAssert.assertThat(result.length, Matchers.equalTo(0));
+    }
+
+    @Test
+    void shouldCopyChunksInRangeFromStream() throws Exception {
+        byte[] result =
+                copyStream(
+                        new JfrChunkSelector(15_000L, 35_000L),
+                        JfrChunkHeaderTest.concat(first, second, third));
+        MatcherAssert.assertThat(
+                result, Matchers.equalTo(JfrChunkHeaderTest.concat(first, second, third)));
+
+        result =
+                copyStream(
+                        new JfrChunkSelector(31_000L, 35_000L),
+                        JfrChunkHeaderTest.concat(first, second, third));
+        MatcherAssert.assertThat(result, Matchers.equalTo(third));
+    }
+
+    @Test
+    void shouldDropTrailingPartialChunkFromStream() throws Exception {
+        byte[] partial = new byte[third.length / 2];
+        System.arraycopy(third, 0, partial, 0, partial.length);
+
+        byte[] result =
+                copyStream(
+                        new JfrChunkSelector(15_000L, null),
+                        JfrChunkHeaderTest.concat(first, second, partial));
+
+        MatcherAssert.assertThat(
+                result, Matchers.equalTo(JfrChunkHeaderTest.concat(first, second)));
+    }
+
+    @Test
+    void shouldFailIfStreamEndsWithinChunkWrittenToChannel() throws Exception {
+        byte[] partial = new byte[third.length / 2];
+        System.arraycopy(third, 0, partial, 0, partial.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        JfrChunkSelector.PartialChunkException ex =
+                Assertions.assertThrows(
+                        JfrChunkSelector.PartialChunkException.class,
+                        () ->
+                                new JfrChunkSelector(15_000L, null)
+                                        .copy(
+                                                new ByteArrayInputStream(
+                                                        JfrChunkHeaderTest.concat(
+                                                                first, second, partial)),
+                                                Channels.newChannel(out)));
+
+        MatcherAssert.assertThat(ex.getWritten(), Matchers.equalTo(220L));
+    }
+
+    @Test
+    void shouldStreamChunksInRangeToChannel() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long written =
+                new JfrChunkSelector(15_000L, 25_000L)
+                        .copy(
+                                new ByteArrayInputStream(
+                                        JfrChunkHeaderTest.concat(first, second, third)),
+                                Channels.newChannel(out));
+
+        MatcherAssert.assertThat(written, Matchers.equalTo(220L));
+        MatcherAssert.assertThat(
+                out.toByteArray(), Matchers.equalTo(JfrChunkHeaderTest.concat(first, second)));
+    }
+
+    @Test
+    void shouldStopAtDataWhichIsNotAChunk() throws Exception {
+        byte[] garbage = new byte[JfrChunkHeader.HEADER_SIZE + 10];
+
+        byte[] result =
+                copyStream(
+                        new JfrChunkSelector(0L, null),
+                        JfrChunkHeaderTest.concat(first, garbage, second));
+
+        MatcherAssert.assertThat(result, Matchers.equalTo(first));
+    }
+}
@@ -0,0 +1,230 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Event;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class JfrEventFilterTest {
+
+    public static final String SAMPLE = "com.redhat.rhjmc.containerjfr.test.Sample";
+    public static final String NOISE = "com.redhat.rhjmc.containerjfr.test.Noise";
+    public static final int COUNT = 500;
+
+    @Name(SAMPLE)
+    static class SampleEvent extends Event {
+        int value;
+        String label;
+    }
+
+    @Name(NOISE)
+    static class NoiseEvent extends Event {
+        String text;
+    }
+
+    @TempDir Path tempDir;
+    Path recording;
+
+    @BeforeEach
+    void setup() throws Exception {
+        this.recording = record(tempDir.resolve("recording.jfr"));
+    }
+
+    /** Records real JFR chunks, so that the result can be checked with the JDK's own parser */
+    public static Path record(Path file) throws Exception {
+        try (Recording r = new Recording()) {
+            r.enable(SampleEvent.class);
+            r.enable(NoiseEvent.class);
+            r.start();
+            for (int i = 0; i < COUNT; i++) {
+                SampleEvent sample = new SampleEvent();
+                sample.value = i;
+                sample.label = "sample-" + (i % 10);
+                sample.commit();
+                NoiseEvent noise = new NoiseEvent();
+                noise.text = "noise-" + i;
+                noise.commit();
+            }
+            r.stop();
+            r.dump(file);
+        }
+        return file;
+    }
+
+    Path copy(JfrChunkSelector selector, Path source) throws Exception {
+        Path destination = tempDir.resolve("filtered.jfr");
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out =
+                        FileChannel.open(
+                                destination,
+                                StandardOpenOption.WRITE,
+                                StandardOpenOption.CREATE,
+                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long written = selector.copy(in, out);
+            MatcherAssert.assertThat(written, Matchers.equalTo(out.size()));
+        }
+        return destination;
+    }
+
+    public static List<RecordedEvent> events(Path file, String type) throws Exception {
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(e -> e.getEventType().getName().equals(type))
+                .collect(Collectors.toList());
+    }
+
+    public static Set<String> types(Path file) throws Exception {
+        return RecordingFile.readAllEvents(file).stream()
+                .map(e -> e.getEventType().getName())
+                .collect(Collectors.toSet());
+    }
+
+    @Test
+    void shouldKeepOnlySelectedEventTypes() throws Exception {
+        Path result = copy(new JfrChunkSelector(null, null, Set.of(SAMPLE)), recording);
+
+        MatcherAssert.assertThat(types(result), Matchers.equalTo(Set.of(SAMPLE)));
+        List<RecordedEvent> samples = events(result, SAMPLE);
+        MatcherAssert.assertThat(samples, Matchers.hasSize(COUNT));
+        // fields, and strings and threads held in the constant pools, must still resolve
+        RecordedEvent seventh =
+                samples.stream().filter(e -> e.getInt("value") == 7).findFirst().orElseThrow();
+        MatcherAssert.assertThat(seventh.getString("label"), Matchers.equalTo("sample-7"));
+        MatcherAssert.assertThat(seventh.getThread(), Matchers.notNullValue());
+        MatcherAssert.assertThat(Files.size(result), Matchers.lessThan(Files.size(recording)));
+    }
+
+    @Test
+    void shouldKeepSeveralEventTypes() throws Exception {
+        Path result = copy(new JfrChunkSelector(null, null, Set.of(SAMPLE, NOISE)), recording);
+
+        MatcherAssert.assertThat(types(result), Matchers.equalTo(Set.of(SAMPLE, NOISE)));
+        MatcherAssert.assertThat(events(result, NOISE), Matchers.hasSize(COUNT));
+    }
+
+    @Test
+    void shouldFilterEveryChunk() throws Exception {
+        Path second = record(tempDir.resolve("second.jfr"));
+        Path both = tempDir.resolve("both.jfr");
+        Files.write(
+                both,
+                JfrChunkHeaderTest.concat(
+                        Files.readAllBytes(recording), Files.readAllBytes(second)));
+
+        Path result = copy(new JfrChunkSelector(null, null, Set.of(NOISE)), both);
+
+        MatcherAssert.assertThat(types(result), Matchers.equalTo(Set.of(NOISE)));
+        MatcherAssert.assertThat(events(result, NOISE), Matchers.hasSize(2 * COUNT));
+    }
+
+    @Test
+    void shouldDropChunksWithoutSelectedEvents() throws Exception {
+        Path result = copy(new JfrChunkSelector(null, null, Set.of("jdk.NoSuchEvent")), recording);
+
+        MatcherAssert.assertThat(Files.size(result), Matchers.equalTo(0L));
+    }
+
+    @Test
+    void shouldFilterStreamedChunksThroughScratchFile() throws Exception {
+        Path scratch = tempDir.resolve("scratch.jfr");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] content = Files.readAllBytes(recording);
+        long written;
+        try (FileChannel channel =
+                FileChannel.open(
+                        scratch,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE)) {
+            written =
+                    new JfrChunkSelector(null, null, Set.of(SAMPLE))
+                            .copy(
+                                    new ByteArrayInputStream(content),
+                                    Channels.newChannel(out),
+                                    channel);
+        }
+
+        MatcherAssert.assertThat(written, Matchers.equalTo((long) out.size()));
+        Path result = Files.write(tempDir.resolve("streamed.jfr"), out.toByteArray());
+        MatcherAssert.assertThat(types(result), Matchers.equalTo(Set.of(SAMPLE)));
+        MatcherAssert.assertThat(events(result, SAMPLE), Matchers.hasSize(COUNT));
+    }
+
+    @Test
+    void shouldLeaveOutTrailingPartialChunkOfStream() throws Exception {
+        byte[] content = Files.readAllBytes(recording);
+        byte[] truncated =
+                JfrChunkHeaderTest.concat(content, Arrays.copyOf(content, content.length / 2));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FileChannel channel =
+                FileChannel.open(
+                        tempDir.resolve("scratch.jfr"),
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE)) {
+            new JfrChunkSelector(null, null, Set.of(SAMPLE))
+                    .copy(new ByteArrayInputStream(truncated), Channels.newChannel(out), channel);
+        }
+
+        Path result = Files.write(tempDir.resolve("streamed.jfr"), out.toByteArray());
+        MatcherAssert.assertThat(events(result, SAMPLE), Matchers.hasSize(COUNT));
+    }
+}
@@ -0,0 +1,545 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+import com.redhat.rhjmc.containerjfr.sys.FileSystem;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.vertx.core.Vertx;
+import io.vertx.ext.web.client.WebClient;
+
+@ExtendWith(MockitoExtension.class)
+class S3ArchiveStorageTest {
+
+    static final String BUCKET = "recordings";
+    static final String PREFIX = "cjfr/";
+    static final String NAME = "some-host_foo_20191219T213834Z.jfr";
+    static final int PART_SIZE = 16;
+
+    @Mock Clock clock;
+    @Mock Logger logger;
+    FakeS3 s3;
+    Vertx vertx;
+    S3ArchiveStorage storage;
+
+    @BeforeEach
+    void setup() throws Exception {
+        Mockito.lenient().when(clock.now()).thenAnswer(i -> Instant.now());
+        s3 = new FakeS3();
+        vertx = Vertx.vertx();
+        storage = storage(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    S3ArchiveStorage storage(long requestTimeoutMs) {
+        return new S3ArchiveStorage(
+                s3.endpoint(),
+                BUCKET,
+                PREFIX,
+                PART_SIZE,
+                requestTimeoutMs,
+                new S3RequestSigner("us-east-1", "access", "secret"),
+                WebClient.create(vertx),
+                new FileSystem(),
+                clock,
+                logger);
+    }
+
+    @AfterEach
+    void teardown() {
+        s3.stop();
+        vertx.close();
+    }
+
+    static byte[] bytes(int length) {
+        byte[] b = new byte[length];
+        for (int i = 0; i < length; i++) {
+            b[i] = (byte) i;
+        }
+        return b;
+    }
+
+    @Test
+    void shouldWriteSmallRecordingWithSinglePut() throws Exception {
+        long written = storage.write(NAME, new ByteArrayInputStream(bytes(10)));
+
+        MatcherAssert.assertThat(written, Matchers.equalTo(10L));
+        MatcherAssert.assertThat(s3.objects.get(PREFIX + NAME), Matchers.equalTo(bytes(10)));
+        MatcherAssert.assertThat(
+                s3.requests, Matchers.contains("PUT /" + BUCKET + "/cjfr/" + NAME));
+    }
+
+    @Test
+    void shouldWriteLargeRecordingWithMultipartUpload() throws Exception {
+        long written = storage.write(NAME, new ByteArrayInputStream(bytes(40)));
+
+        MatcherAssert.assertThat(written, Matchers.equalTo(40L));
+        MatcherAssert.assertThat(s3.objects.get(PREFIX + NAME), Matchers.equalTo(bytes(40)));
+        MatcherAssert.assertThat(
+                s3.requests,
+                Matchers.contains(
+                        "POST /" + BUCKET + "/cjfr/" + NAME + "?uploads=",
+                        "PUT /" + BUCKET + "/cjfr/" + NAME + "?partNumber=1&uploadId=upload-1",
+                        "PUT /" + BUCKET + "/cjfr/" + NAME + "?partNumber=2&uploadId=upload-1",
+                        "PUT /" + BUCKET + "/cjfr/" + NAME + "?partNumber=3&uploadId=upload-1",
+                        "POST /" + BUCKET + "/cjfr/" + NAME + "?uploadId=upload-1"));
+        MatcherAssert.assertThat(s3.uploads, Matchers.anEmptyMap());
+    }
+
+    @Test
+    void shouldAbortFailedMultipartUpload() throws Exception {
+        s3.failingPart = 2;
+
+        IOException e =
+                Assertions.assertThrows(
+                        IOException.class,
+                        () -> storage.write(NAME, new ByteArrayInputStream(bytes(40))));
+
+        MatcherAssert.assertThat(
+                e.getMessage(), Matchers.equalTo("S3 Write failed: 500 InternalError"));
+        MatcherAssert.assertThat(
+                s3.requests,
+                Matchers.hasItem("DELETE /" + BUCKET + "/cjfr/" + NAME + "?uploadId=upload-1"));
+        MatcherAssert.assertThat(s3.uploads, Matchers.anEmptyMap());
+        MatcherAssert.assertThat(s3.objects, Matchers.anEmptyMap());
+    }
+
+    @Test
+    void shouldReadWholeRecordingInParts() throws Exception {
+        s3.objects.put(PREFIX + NAME, bytes(40));
+
+        try (InputStream in = storage.read(NAME)) {
+            MatcherAssert.assertThat(in.readAllBytes(), Matchers.equalTo(bytes(40)));
+        }
+        MatcherAssert.assertThat(
+                s3.ranges, Matchers.contains("bytes=0-15", "bytes=16-31", "bytes=32-39"));
+    }
+
+    @Test
+    void shouldReadRanges() throws Exception {
+        s3.objects.put(PREFIX + NAME, bytes(10));
+
+        try (InputStream in = storage.read(NAME, 2, 3)) {
+            MatcherAssert.assertThat(in.readAllBytes(), Matchers.equalTo(new byte[] {2, 3, 4}));
+        }
+        try (InputStream in = storage.read(NAME, 8, 10)) {
+            MatcherAssert.assertThat(in.readAllBytes(), Matchers.equalTo(new byte[] {8, 9}));
+        }
+        try (InputStream in = storage.read(NAME, 20, 10)) {
+            MatcherAssert.assertThat(in.readAllBytes(), Matchers.equalTo(new byte[0]));
+        }
+        Assertions.assertThrows(NoSuchFileException.class, () -> storage.read("other.jfr", 0, 1));
+        Assertions.assertThrows(NoSuchFileException.class, () -> storage.read("other.jfr"));
+    }
+
+    @Test
+    void shouldReadLongRangesInParts() throws Exception {
+        s3.objects.put(PREFIX + NAME, bytes(40));
+
+        try (InputStream in = storage.read(NAME, 4, 100)) {
+            MatcherAssert.assertThat(
+                    in.readAllBytes(), Matchers.equalTo(Arrays.copyOfRange(bytes(40), 4, 40)));
+        }
+        MatcherAssert.assertThat(
+                s3.ranges, Matchers.contains("bytes=4-19", "bytes=20-35", "bytes=36-51"));
+    }
+
+    @Test
+    void shouldReadChunkHeadersWithRangedReads() throws Exception {
+        s3.objects.put(
+                PREFIX + NAME,
+                JfrChunkHeaderTest.concat(
+                        JfrChunkHeaderTest.chunk(1, 2, 100), JfrChunkHeaderTest.chunk(3, 4, 100)));
+
+        List<JfrChunkHeader> chunks = storage.readChunkHeaders(NAME, 200);
+
+        MatcherAssert.assertThat(chunks, Matchers.hasSize(2));
+        MatcherAssert.assertThat(chunks.get(1).getStartNanos(), Matchers.equalTo(3L));
+        MatcherAssert.assertThat(s3.requests, Matchers.everyItem(Matchers.startsWith("GET ")));
+    }
+
+    @Test
+    void shouldListRecordingsUnderPrefix() throws Exception {
+        s3.listPageSize = 2;
+        s3.objects.put(PREFIX + "a.jfr", bytes(1));
+        s3.objects.put(PREFIX + "b.jfr", bytes(2));
+        s3.objects.put(PREFIX + "c.jfr", bytes(3));
+        s3.objects.put(PREFIX + ArchiveIndex.INDEX_FILE_NAME, bytes(4));
+        s3.objects.put("other/d.jfr", bytes(5));
+
+        List<StoredRecording> recordings = storage.list();
+
+        MatcherAssert.assertThat(
+                recordings.stream().map(StoredRecording::getName).collect(Collectors.toList()),
+                Matchers.contains("a.jfr", "b.jfr", "c.jfr"));
+        MatcherAssert.assertThat(recordings.get(2).getSize(), Matchers.equalTo(3L));
+        MatcherAssert.assertThat(
+                recordings.get(2).getLastModified(), Matchers.equalTo(FakeS3.LAST_MODIFIED));
+        MatcherAssert.assertThat(s3.requests, Matchers.hasSize(2));
+    }
+
+    @Test
+    void shouldStatAndDeleteRecordings() throws Exception {
+        s3.objects.put(PREFIX + NAME, bytes(10));
+
+        MatcherAssert.assertThat(
+                storage.stat(NAME).get(),
+                Matchers.equalTo(new StoredRecording(NAME, 10, FakeS3.LAST_MODIFIED)));
+        MatcherAssert.assertThat(storage.stat("other.jfr").isPresent(), Matchers.is(false));
+        MatcherAssert.assertThat(storage.delete(NAME), Matchers.is(true));
+        MatcherAssert.assertThat(storage.delete(NAME), Matchers.is(false));
+        MatcherAssert.assertThat(s3.objects, Matchers.anEmptyMap());
+    }
+
+    @Test
+    void shouldReportS3ErrorCode() {
+        s3.denied = true;
+
+        IOException e = Assertions.assertThrows(IOException.class, () -> storage.list());
+
+        MatcherAssert.assertThat(
+                e.getMessage(), Matchers.equalTo("S3 List failed: 403 AccessDenied"));
+    }
+
+    @Test
+    void shouldTimeOutUnresponsiveEndpoint() {
+        s3.stalled = true;
+        storage = storage(200);
+
+        IOException e = Assertions.assertThrows(IOException.class, () -> storage.list());
+
+        MatcherAssert.assertThat(e.getCause(), Matchers.instanceOf(TimeoutException.class));
+    }
+
+    @Test
+    void shouldRejectInvalidNames() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> storage.stat("../foo.jfr"));
+        MatcherAssert.assertThat(s3.requests, Matchers.empty());
+    }
+
+    @Test
+    void shouldRequireEndpointBucketAndCredentials() {
+        Environment env = Mockito.mock(Environment.class);
+        Mockito.when(env.getEnv(Mockito.anyString(), Mockito.anyString()))
+                .thenAnswer(i -> i.getArgument(1));
+        Mockito.when(env.getEnv(S3ArchiveStorage.ENDPOINT_ENV, ""))
+                .thenReturn("http://localhost:9000");
+
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () ->
+                        S3ArchiveStorage.fromEnvironment(
+                                env,
+                                Mockito.mock(WebClient.class),
+                                Mockito.mock(FileSystem.class),
+                                clock,
+                                logger));
+    }
+
+    /** Just enough of the S3 REST API, kept in memory, to exercise the storage against. */
+    static class FakeS3 {
+        static final long LAST_MODIFIED = Instant.parse("2020-01-01T00:00:00Z").toEpochMilli();
+        static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+        final HttpServer server;
+        final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+        final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+        final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        final List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+        volatile int listPageSize = 1000;
+        volatile int failingPart = -1;
+        volatile boolean denied;
+        volatile boolean stalled;
+        final CountDownLatch released = new CountDownLatch(1);
+        int uploadCount;
+
+        FakeS3() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/", this::handle);
+            server.start();
+        }
+
+        URI endpoint() {
+            return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+        }
+
+        void stop() {
+            released.countDown();
+            server.stop(0);
+        }
+
+        void handle(HttpExchange exchange) throws IOException {
+            try {
+                URI uri = exchange.getRequestURI();
+                String method = exchange.getRequestMethod();
+                requests.add(
+                        method
+                                + " "
+                                + uri.getRawPath()
+                                + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery()));
+                byte[] body = exchange.getRequestBody().readAllBytes();
+                if (!exchange.getRequestHeaders()
+                                .getFirst("Authorization")
+                                .startsWith("AWS4-HMAC-SHA256 Credential=access/")
+                        || !exchange.getRequestHeaders()
+                                .getFirst("Host")
+                                .equals(endpoint().getAuthority())
+                        || !DigestUtils.sha256Hex(body)
+                                .equals(
+                                        exchange.getRequestHeaders()
+                                                .getFirst("x-amz-content-sha256"))) {
+                    error(exchange, 400, "BadDigest");
+                    return;
+                }
+                if (denied) {
+                    error(exchange, 403, "AccessDenied");
+                    return;
+                }
+                if (stalled) {
+                    try {
+                        released.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                Map<String, String> query = new HashMap<>();
+                if (uri.getRawQuery() != null) {
+                    for (String param : uri.getRawQuery().split("&")) {
+                        String[] kv = param.split("=", 2);
+                        query.put(
+                                URLDecoder.decode(kv[0], StandardCharsets.UTF_8),
+                                kv.length < 2
+                                        ? ""
+                                        : URLDecoder.decode(kv[1], StandardCharsets.UTF_8));
+                    }
+                }
+                String key =
+                        uri.getPath().substring(BUCKET.length() + 2).isEmpty()
+                                ? null
+                                : uri.getPath().substring(BUCKET.length() + 2);
+
+                if (key == null && "GET".equals(method)) {
+                    list(exchange, query);
+                } else if ("POST".equals(method) && query.containsKey("uploads")) {
+                    String uploadId = "upload-" + (++uploadCount);
+                    uploads.put(uploadId, new TreeMap<>());
+                    respond(
+                            exchange,
+                            200,
+                            "<InitiateMultipartUploadResult><UploadId>"
+                                    + uploadId
+                                    + "</UploadId></InitiateMultipartUploadResult>");
+                } else if ("PUT".equals(method) && query.containsKey("partNumber")) {
+                    int partNumber = Integer.parseInt(query.get("partNumber"));
+                    if (partNumber == failingPart) {
+                        error(exchange, 500, "InternalError");
+                        return;
+                    }
+                    uploads.get(query.get("uploadId")).put(partNumber, body);
+                    exchange.getResponseHeaders()
+                            .set("ETag", "\"" + DigestUtils.md5Hex(body) + "\"");
+                    exchange.sendResponseHeaders(200, -1);
+                } else if ("POST".equals(method) && query.containsKey("uploadId")) {
+                    Map<Integer, byte[]> parts = uploads.remove(query.get("uploadId"));
+                    String manifest = new String(body, StandardCharsets.UTF_8);
+                    byte[] object = new byte[0];
+                    for (Map.Entry<Integer, byte[]> part : parts.entrySet()) {
+                        String etag = "&quot;" + DigestUtils.md5Hex(part.getValue()) + "&quot;";
+                        if (!manifest.contains(
+                                "<PartNumber>" + part.getKey() + "</PartNumber><ETag>" + etag)) {
+                            error(exchange, 400, "InvalidPart");
+                            return;
+                        }
+                        byte[] joined =
+                                Arrays.copyOf(object, object.length + part.getValue().length);
+                        System.arraycopy(
+                                part.getValue(), 0, joined, object.length, part.getValue().length);
+                        object = joined;
+                    }
+                    objects.put(key, object);
+                    respond(exchange, 200, "<CompleteMultipartUploadResult/>");
+                } else if ("DELETE".equals(method) && query.containsKey("uploadId")) {
+                    uploads.remove(query.get("uploadId"));
+                    exchange.sendResponseHeaders(204, -1);
+                } else if ("PUT".equals(method)) {
+                    objects.put(key, body);
+                    exchange.getResponseHeaders()
+                            .set("ETag", "\"" + DigestUtils.md5Hex(body) + "\"");
+                    exchange.sendResponseHeaders(200, -1);
+                } else if ("HEAD".equals(method)) {
+                    byte[] object = objects.get(key);
+                    if (object == null) {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    exchange.getResponseHeaders()
+                            .set("Content-Length", Integer.toString(object.length));
+                    exchange.getResponseHeaders()
+                            .set(
+                                    "Last-Modified",
+                                    DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                                            Instant.ofEpochMilli(LAST_MODIFIED)
+                                                    .atZone(ZoneOffset.UTC)));
+                    exchange.sendResponseHeaders(200, -1);
+                } else if ("GET".equals(method)) {
+                    get(exchange, key);
+                } else if ("DELETE".equals(method)) {
+                    objects.remove(key);
+                    exchange.sendResponseHeaders(204, -1);
+                } else {
+                    error(exchange, 405, "MethodNotAllowed");
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        void get(HttpExchange exchange, String key) throws IOException {
+            byte[] object = objects.get(key);
+            if (object == null) {
+                error(exchange, 404, "NoSuchKey");
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            ranges.add(range);
+            Matcher m = RANGE.matcher(range);
+            if (!m.matches()) {
+                error(exchange, 400, "InvalidRange");
+                return;
+            }
+            int start = Integer.parseInt(m.group(1));
+            int end = Math.min(object.length - 1, Integer.parseInt(m.group(2)));
+            if (start >= object.length) {
+                error(exchange, 416, "InvalidRange");
+                return;
+            }
+            byte[] slice = Arrays.copyOfRange(object, start, end + 1);
+            exchange.sendResponseHeaders(206, slice.length);
+            exchange.getResponseBody().write(slice);
+        }
+
+        void list(HttpExchange exchange, Map<String, String> query) throws IOException {
+            String prefix = query.getOrDefault("prefix", "");
+            List<String> keys =
+                    new TreeMap<>(objects)
+                            .keySet().stream()
+                                    .filter(k -> k.startsWith(prefix))
+                                    .filter(k -> k.indexOf('/', prefix.length()) < 0)
+                                    .collect(Collectors.toList());
+            int start = Integer.parseInt(query.getOrDefault("continuation-token", "0"));
+            int end = Math.min(keys.size(), start + listPageSize);
+            StringBuilder xml = new StringBuilder("<ListBucketResult>");
+            xml.append("<IsTruncated>").append(end < keys.size()).append("</IsTruncated>");
+            if (end < keys.size()) {
+                xml.append("<NextContinuationToken>")
+                        .append(end)
+                        .append("</NextContinuationToken>");
+            }
+            for (String key : keys.subList(start, end)) {
+                xml.append("<Contents><Key>")
+                        .append(key)
+                        .append("</Key><LastModified>")
+                        .append(Instant.ofEpochMilli(LAST_MODIFIED))
+                        .append("</LastModified><Size>")
+                        .append(objects.get(key).length)
+                        .append("</Size></Contents>");
+            }
+            xml.append("</ListBucketResult>");
+            respond(exchange, 200, xml.toString());
+        }
+
+        static void error(HttpExchange exchange, int status, String code) throws IOException {
+            respond(exchange, status, "<Error><Code>" + code + "</Code></Error>");
+        }
+
+        static void respond(HttpExchange exchange, int status, String xml) throws IOException {
+            byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/xml");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
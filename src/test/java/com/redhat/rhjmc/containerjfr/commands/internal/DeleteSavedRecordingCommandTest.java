@@ -41,12 +41,10 @@
  */
 package com.redhat.rhjmc.containerjfr.commands.internal;
 
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
-import java.nio.file.Path;
 import java.util.List;
 
 import org.hamcrest.MatcherAssert;
@@ -61,9 +59,10 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.commands.Command;
 import com.redhat.rhjmc.containerjfr.commands.SerializableCommand;
-import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
 import com.redhat.rhjmc.containerjfr.core.tui.ClientWriter;
 import com.redhat.rhjmc.containerjfr.net.internal.reports.ReportService;
 
@@ -72,9 +71,9 @@ class DeleteSavedRecordingCommandTest implements ValidatesRecordingName {
 
     DeleteSavedRecordingCommand command;
     @Mock ClientWriter cw;
-    @Mock FileSystem fs;
-    @Mock Path recordingsPath;
+    @Mock ArchiveStorage archiveStorage;
     @Mock ReportService reportService;
+    @Mock ArchiveIndex archiveIndex;
 
     @Override
     public Command commandForValidationTesting() {
@@ -88,7 +87,7 @@ class DeleteSavedRecordingCommandTest implements ValidatesRecordingName {
 
     @BeforeEach
     void setup() {
-        command = new DeleteSavedRecordingCommand(cw, fs, recordingsPath, reportService);
+        command = new DeleteSavedRecordingCommand(cw, archiveStorage, reportService, archiveIndex);
     }
 
     @Test
@@ -115,70 +114,61 @@ class DeleteSavedRecordingCommandTest implements ValidatesRecordingName {
     }
 
     @Test
-    void shouldBeAvailableIfRecordingsPathIsDirectory() {
-        when(fs.isDirectory(Mockito.any())).thenReturn(true);
+    void shouldBeAvailableIfArchiveIsAvailable() {
+        when(archiveStorage.isAvailable()).thenReturn(true);
 
         Assertions.assertTrue(command.isAvailable());
 
-        verify(fs).isDirectory(recordingsPath);
+        verify(archiveStorage).isAvailable();
     }
 
     @Test
-    void shouldNotBeAvailableIfRecordingsPathIsNotDirectory() {
-        when(fs.isDirectory(Mockito.any())).thenReturn(false);
+    void shouldNotBeAvailableIfArchiveIsNotAvailable() {
+        when(archiveStorage.isAvailable()).thenReturn(false);
 
         Assertions.assertFalse(command.isAvailable());
 
-        verify(fs).isDirectory(recordingsPath);
+        verify(archiveStorage).isAvailable();
     }
 
     @Test
     void shouldExecuteAndPrintMessageOnSuccess() throws Exception {
-        when(fs.deleteIfExists(Mockito.any())).thenReturn(true);
-        Path filePath = mock(Path.class);
-        when(recordingsPath.resolve(Mockito.anyString())).thenReturn(filePath);
+        when(archiveStorage.delete(Mockito.anyString())).thenReturn(true);
 
         command.execute(new String[] {"foo"});
 
-        verify(recordingsPath).resolve("foo");
-        verify(fs).deleteIfExists(filePath);
+        verify(archiveStorage).delete("foo");
+        verify(archiveIndex).remove("foo");
         verify(reportService).delete("foo");
         verify(cw).println("\"foo\" deleted");
     }
 
     @Test
     void shouldExecuteAndPrintMessageOnFailure() throws Exception {
-        when(fs.deleteIfExists(Mockito.any())).thenReturn(false);
-        Path filePath = mock(Path.class);
-        when(recordingsPath.resolve(Mockito.anyString())).thenReturn(filePath);
+        when(archiveStorage.delete(Mockito.anyString())).thenReturn(false);
 
         command.execute(new String[] {"foo"});
 
-        verify(recordingsPath).resolve("foo");
-        verify(fs).deleteIfExists(filePath);
+        verify(archiveStorage).delete("foo");
         verify(cw).println("Could not delete saved recording \"foo\"");
     }
 
     @Test
     void shouldExecuteAndReturnSerializedSuccess() throws Exception {
-        when(fs.deleteIfExists(Mockito.any())).thenReturn(true);
-        Path filePath = mock(Path.class);
-        when(recordingsPath.resolve(Mockito.anyString())).thenReturn(filePath);
+        when(archiveStorage.delete(Mockito.anyString())).thenReturn(true);
 
         SerializableCommand.Output<?> out = command.serializableExecute(new String[] {"foo"});
 
         MatcherAssert.assertThat(out, Matchers.instanceOf(SerializableCommand.SuccessOutput.class));
 
-        verify(recordingsPath).resolve("foo");
-        verify(fs).deleteIfExists(filePath);
+        verify(archiveStorage).delete("foo");
+        verify(archiveIndex).remove("foo");
         verify(reportService).delete("foo");
     }
 
     @Test
     void shouldExecuteAndReturnSerializedFailure() throws Exception {
-        when(fs.deleteIfExists(Mockito.any())).thenReturn(false);
-        Path filePath = mock(Path.class);
-        when(recordingsPath.resolve(Mockito.anyString())).thenReturn(filePath);
+        when(archiveStorage.delete(Mockito.anyString())).thenReturn(false);
 
         SerializableCommand.Output<?> out = command.serializableExecute(new String[] {"foo"});
 
@@ -187,22 +177,18 @@ class DeleteSavedRecordingCommandTest implements ValidatesRecordingName {
                 ((SerializableCommand.FailureOutput) out).getPayload(),
                 Matchers.equalTo("Could not delete saved recording \"foo\""));
 
-        verify(recordingsPath).resolve("foo");
-        verify(fs).deleteIfExists(filePath);
+        verify(archiveStorage).delete("foo");
     }
 
     @Test
     void shouldExecuteAndReturnSerializedException() throws Exception {
-        when(fs.deleteIfExists(Mockito.any())).thenThrow(IOException.class);
-        Path filePath = mock(Path.class);
-        when(recordingsPath.resolve(Mockito.anyString())).thenReturn(filePath);
+        when(archiveStorage.delete(Mockito.anyString())).thenThrow(IOException.class);
 
         SerializableCommand.Output<?> out = command.serializableExecute(new String[] {"foo"});
 
         MatcherAssert.assertThat(
                 out, Matchers.instanceOf(SerializableCommand.ExceptionOutput.class));
 
-        verify(recordingsPath).resolve("foo");
-        verify(fs).deleteIfExists(filePath);
+        verify(archiveStorage).delete("foo");
     }
 }
@@ -46,10 +46,10 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
-import java.io.IOException;
-import java.nio.file.Path;
+import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
@@ -66,8 +66,10 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.stubbing.Answer;
 
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
+import com.redhat.rhjmc.containerjfr.archive.ArchivedRecordingInfo;
 import com.redhat.rhjmc.containerjfr.commands.SerializableCommand;
-import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
 import com.redhat.rhjmc.containerjfr.core.tui.ClientWriter;
 import com.redhat.rhjmc.containerjfr.jmc.serialization.SavedRecordingDescriptor;
 import com.redhat.rhjmc.containerjfr.net.web.WebServer;
@@ -76,14 +78,14 @@ import com.redhat.rhjmc.containerjfr.net.web.WebServer;
 class ListSavedRecordingsCommandTest {
 
     @Mock ClientWriter cw;
-    @Mock FileSystem fs;
-    @Mock Path recordingsPath;
+    @Mock ArchiveStorage archiveStorage;
+    @Mock ArchiveIndex archiveIndex;
     @Mock WebServer exporter;
     ListSavedRecordingsCommand command;
 
     @BeforeEach
     void setup() {
-        command = new ListSavedRecordingsCommand(cw, fs, recordingsPath, exporter);
+        command = new ListSavedRecordingsCommand(cw, archiveStorage, archiveIndex, exporter);
     }
 
     @Test
@@ -109,22 +111,22 @@ class ListSavedRecordingsCommandTest {
     }
 
     @Test
-    void shouldBeAvailableIfRecordingsPathIsDirectory() {
-        when(fs.isDirectory(Mockito.any())).thenReturn(true);
+    void shouldBeAvailableIfArchiveIsAvailable() {
+        when(archiveStorage.isAvailable()).thenReturn(true);
         Assertions.assertTrue(command.isAvailable());
-        verify(fs).isDirectory(recordingsPath);
+        verify(archiveStorage).isAvailable();
     }
 
     @Test
-    void shouldBeUnavailableIfRecordingsPathIsNotDirectory() {
-        when(fs.isDirectory(Mockito.any())).thenReturn(false);
+    void shouldBeUnavailableIfArchiveIsNotAvailable() {
+        when(archiveStorage.isAvailable()).thenReturn(false);
         Assertions.assertFalse(command.isAvailable());
-        verify(fs).isDirectory(recordingsPath);
+        verify(archiveStorage).isAvailable();
     }
 
     @Test
     void shouldExecuteAndPrintMessageIfNoSavedRecordingsFound() throws Exception {
-        when(fs.listDirectoryChildren(recordingsPath)).thenReturn(Collections.emptyList());
+        when(archiveIndex.list()).thenReturn(Collections.emptyList());
 
         command.execute(new String[0]);
 
@@ -135,7 +137,8 @@ class ListSavedRecordingsCommandTest {
 
     @Test
     void shouldExecuteAndPrintSavedRecordings() throws Exception {
-        when(fs.listDirectoryChildren(recordingsPath)).thenReturn(Arrays.asList("foo", "bar"));
+        List<ArchivedRecordingInfo> saved = Arrays.asList(info("foo"), info("bar"));
+        when(archiveIndex.list()).thenReturn(saved);
 
         command.execute(new String[0]);
 
@@ -147,7 +150,8 @@ class ListSavedRecordingsCommandTest {
 
     @Test
     void shouldPrintDownloadURL() throws Exception {
-        when(fs.listDirectoryChildren(recordingsPath)).thenReturn(Arrays.asList("foo", "bar"));
+        List<ArchivedRecordingInfo> saved = Arrays.asList(info("foo"), info("bar"));
+        when(archiveIndex.list()).thenReturn(saved);
         when(exporter.getArchivedDownloadURL(Mockito.anyString()))
                 .thenAnswer(
                         new Answer<String>() {
@@ -175,7 +179,8 @@ class ListSavedRecordingsCommandTest {
 
     @Test
     void shouldPrintReportURL() throws Exception {
-        when(fs.listDirectoryChildren(recordingsPath)).thenReturn(Arrays.asList("foo", "bar"));
+        List<ArchivedRecordingInfo> saved = Arrays.asList(info("foo"), info("bar"));
+        when(archiveIndex.list()).thenReturn(saved);
         when(exporter.getArchivedReportURL(Mockito.anyString()))
                 .thenAnswer(
                         new Answer<String>() {
@@ -203,7 +208,7 @@ class ListSavedRecordingsCommandTest {
 
     @Test
     void shouldExecuteAndReturnSerializedMessageIfNoSavedRecordingsFound() throws Exception {
-        when(fs.listDirectoryChildren(recordingsPath)).thenReturn(Collections.emptyList());
+        when(archiveIndex.list()).thenReturn(Collections.emptyList());
 
         SerializableCommand.Output<?> out = command.serializableExecute(new String[0]);
 
@@ -217,7 +222,10 @@ class ListSavedRecordingsCommandTest {
 
     @Test
     void shouldExecuteAndReturnSerializedExceptionMessageIfThrows() throws Exception {
-        when(fs.listDirectoryChildren(recordingsPath)).thenThrow(IOException.class);
+        List<ArchivedRecordingInfo> saved = Arrays.asList(info("foo"));
+        when(archiveIndex.list()).thenReturn(saved);
+        when(exporter.getArchivedDownloadURL(Mockito.anyString()))
+                .thenThrow(URISyntaxException.class);
 
         SerializableCommand.Output<?> out = command.serializableExecute(new String[0]);
 
@@ -229,7 +237,9 @@ class ListSavedRecordingsCommandTest {
 
     @Test
     void shouldExecuteAndReturnSerializedRecordingInfo() throws Exception {
-        when(fs.listDirectoryChildren(recordingsPath)).thenReturn(Arrays.asList("foo", "bar"));
+        ArchivedRecordingInfo foo = info("foo");
+        ArchivedRecordingInfo bar = info("bar");
+        when(archiveIndex.list()).thenReturn(Arrays.asList(foo, bar));
         when(exporter.getArchivedDownloadURL(Mockito.anyString()))
                 .thenAnswer(
                         new Answer<String>() {
@@ -254,10 +264,15 @@ class ListSavedRecordingsCommandTest {
                 ((SerializableCommand.ListOutput) out).getPayload(),
                 Matchers.equalTo(
                         Arrays.asList(
-                                new SavedRecordingDescriptor("foo", "foo.jfr", "/reports/foo.jfr"),
-                                new SavedRecordingDescriptor(
-                                        "bar", "bar.jfr", "/reports/bar.jfr"))));
+                                new SavedRecordingDescriptor(foo, "foo.jfr", "/reports/foo.jfr"),
+                                new SavedRecordingDescriptor(bar, "bar.jfr", "/reports/bar.jfr"))));
 
         verifyZeroInteractions(cw);
     }
+
+    private static ArchivedRecordingInfo info(String name) {
+        ArchivedRecordingInfo info = Mockito.mock(ArchivedRecordingInfo.class);
+        when(info.getName()).thenReturn(name);
+        return info;
+    }
 }
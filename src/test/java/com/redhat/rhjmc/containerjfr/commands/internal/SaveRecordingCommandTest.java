@@ -46,14 +46,20 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
-import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Path;
 import java.time.Instant;
 import java.time.temporal.TemporalUnit;
 import java.util.Collections;
 import java.util.List;
 
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Assertions;
@@ -67,18 +73,24 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import org.openjdk.jmc.rjmx.IConnectionHandle;
 import org.openjdk.jmc.rjmx.services.jfr.IFlightRecorderService;
 import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
 
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveRetentionService;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.commands.Command;
 import com.redhat.rhjmc.containerjfr.commands.SerializableCommand;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
 import com.redhat.rhjmc.containerjfr.core.sys.Clock;
-import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
 import com.redhat.rhjmc.containerjfr.core.tui.ClientWriter;
+import com.redhat.rhjmc.containerjfr.jobs.JobManager;
 import com.redhat.rhjmc.containerjfr.net.ConnectionDescriptor;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager.ConnectedTask;
+import com.redhat.rhjmc.containerjfr.tui.ws.MessagingServer;
 
 @ExtendWith(MockitoExtension.class)
 class SaveRecordingCommandTest implements ValidatesTargetId, ValidatesRecordingName {
@@ -86,8 +98,11 @@ class SaveRecordingCommandTest implements ValidatesTargetId, ValidatesRecordingN
     @Mock TargetConnectionManager targetConnectionManager;
     @Mock ClientWriter cw;
     @Mock Clock clock;
-    @Mock FileSystem fs;
-    @Mock Path recordingsPath;
+    @Mock ArchiveStorage archiveStorage;
+    @Mock ArchiveIndex archiveIndex;
+    @Mock ArchiveRetentionService retentionService;
+    @Mock MessagingServer messagingServer;
+    @Mock Logger logger;
     @Mock JFRConnection connection;
     @Mock IFlightRecorderService service;
     SaveRecordingCommand command;
@@ -103,8 +118,21 @@ class SaveRecordingCommandTest implements ValidatesTargetId, ValidatesRecordingN
     }
 
     @BeforeEach
-    void setup() {
-        command = new SaveRecordingCommand(cw, targetConnectionManager, clock, fs, recordingsPath);
+    void setup() throws Exception {
+        Mockito.lenient()
+                .when(
+                        archiveStorage.uniqueName(
+                                Mockito.anyString(), Mockito.anyString(), Mockito.any()))
+                .thenCallRealMethod();
+        command =
+                new SaveRecordingCommand(
+                        cw,
+                        targetConnectionManager,
+                        clock,
+                        archiveStorage,
+                        archiveIndex,
+                        retentionService,
+                        new JobManager(Runnable::run, 1, 1, messagingServer, clock, logger));
     }
 
     @Test
@@ -138,14 +166,14 @@ class SaveRecordingCommandTest implements ValidatesTargetId, ValidatesRecordingN
     }
 
     @Test
-    void shouldNotBeAvailableWhenRecordingsPathNotDirectory() {
-        when(fs.isDirectory(Mockito.any())).thenReturn(false);
+    void shouldNotBeAvailableWhenArchiveNotAvailable() {
+        when(archiveStorage.isAvailable()).thenReturn(false);
         Assertions.assertFalse(command.isAvailable());
     }
 
     @Test
-    void shouldBeAvailableWhenConnectedAndRecordingsPathIsDirectory() {
-        when(fs.isDirectory(Mockito.any())).thenReturn(true);
+    void shouldBeAvailableWhenConnectedAndArchiveIsAvailable() {
+        when(archiveStorage.isAvailable()).thenReturn(true);
         Assertions.assertTrue(command.isAvailable());
     }
 
@@ -179,8 +207,6 @@ class SaveRecordingCommandTest implements ValidatesTargetId, ValidatesRecordingN
         when(service.getAvailableRecordings()).thenReturn(Collections.singletonList(recording));
         InputStream recordingStream = mock(InputStream.class);
         when(service.openStream(recording, false)).thenReturn(recordingStream);
-        Path savePath = mock(Path.class);
-        when(recordingsPath.resolve(Mockito.anyString())).thenReturn(savePath);
         Instant now = mock(Instant.class);
         when(clock.now()).thenReturn(now);
         when(now.truncatedTo(Mockito.any(TemporalUnit.class))).thenReturn(now);
@@ -189,9 +215,11 @@ class SaveRecordingCommandTest implements ValidatesTargetId, ValidatesRecordingN
         command.execute(new String[] {"fooHost:9091", "foo"});
 
         verify(service).getAvailableRecordings();
-        verify(fs).copy(recordingStream, savePath);
-        verify(recordingsPath, Mockito.atLeastOnce())
-                .resolve("some-host-svc-local_foo_20191129T112233Z.jfr");
+        verify(archiveStorage)
+                .write(
+                        Mockito.eq("some-host-svc-local_foo_20191129T112233Z.jfr"),
+                        Mockito.any(InputStream.class));
+        verify(archiveIndex).index("some-host-svc-local_foo_20191129T112233Z.jfr");
         verify(cw).println("Recording saved as \"some-host-svc-local_foo_20191129T112233Z.jfr\"");
         verifyNoMoreInteractions(service);
     }
@@ -209,23 +237,27 @@ class SaveRecordingCommandTest implements ValidatesTargetId, ValidatesRecordingN
         when(service.getAvailableRecordings()).thenReturn(Collections.singletonList(recording));
         InputStream recordingStream = mock(InputStream.class);
         when(service.openStream(recording, false)).thenReturn(recordingStream);
-        Path savePath = mock(Path.class);
-        when(recordingsPath.resolve(Mockito.anyString())).thenReturn(savePath);
         Instant now = mock(Instant.class);
         when(clock.now()).thenReturn(now);
         when(now.truncatedTo(Mockito.any(TemporalUnit.class))).thenReturn(now);
         when(now.toString()).thenReturn("2019-11-29T11:22:33Z");
-        when(fs.exists(savePath)).thenReturn(false).thenReturn(true).thenReturn(false);
+        when(archiveStorage.exists(Mockito.anyString()))
+                .thenReturn(false)
+                .thenReturn(true)
+                .thenReturn(false);
 
         command.execute(new String[] {"fooHost:9091", "foo"});
         command.execute(new String[] {"fooHost:9091", "foo"});
 
         verify(service, Mockito.times(2)).getAvailableRecordings();
-        verify(fs, Mockito.times(2)).copy(recordingStream, savePath);
-        verify(recordingsPath, Mockito.atLeastOnce())
-                .resolve("some-host-svc-local_foo_20191129T112233Z.jfr");
-        verify(recordingsPath, Mockito.atLeastOnce())
-                .resolve("some-host-svc-local_foo_20191129T112233Z.1.jfr");
+        verify(archiveStorage)
+                .write(
+                        Mockito.eq("some-host-svc-local_foo_20191129T112233Z.jfr"),
+                        Mockito.any(InputStream.class));
+        verify(archiveStorage)
+                .write(
+                        Mockito.eq("some-host-svc-local_foo_20191129T112233Z.1.jfr"),
+                        Mockito.any(InputStream.class));
         InOrder inOrder = Mockito.inOrder(cw);
         inOrder.verify(cw)
                 .println("Recording saved as \"some-host-svc-local_foo_20191129T112233Z.jfr\"");
@@ -235,38 +267,44 @@ class SaveRecordingCommandTest implements ValidatesTargetId, ValidatesRecordingN
     }
 
     @Test
-    void shouldExecuteAndThrowWhenDuplicateRenamingExhausted() throws Exception {
+    void shouldReserveArchiveSpaceForSizeReportedByTarget() throws Exception {
         when(targetConnectionManager.executeConnectedTask(
                         Mockito.any(ConnectionDescriptor.class), Mockito.any()))
                 .thenAnswer(
                         arg0 -> ((ConnectedTask<Object>) arg0.getArgument(1)).execute(connection));
         IRecordingDescriptor recording = mock(IRecordingDescriptor.class);
         when(recording.getName()).thenReturn("foo");
+        when(recording.getId()).thenReturn(1L);
         when(connection.getService()).thenReturn(service);
         when(connection.getHost()).thenReturn("some-host.svc.local");
+        IConnectionHandle handle = mock(IConnectionHandle.class);
+        MBeanServerConnection mbsc = mock(MBeanServerConnection.class);
+        when(connection.getHandle()).thenReturn(handle);
+        when(handle.getServiceOrThrow(MBeanServerConnection.class)).thenReturn(mbsc);
+        CompositeType type =
+                new CompositeType(
+                        "RecordingInfo",
+                        "RecordingInfo",
+                        new String[] {"id", "size"},
+                        new String[] {"id", "size"},
+                        new OpenType<?>[] {SimpleType.LONG, SimpleType.LONG});
+        when(mbsc.getAttribute(Mockito.any(ObjectName.class), Mockito.eq("Recordings")))
+                .thenReturn(
+                        new CompositeData[] {
+                            new CompositeDataSupport(
+                                    type, new String[] {"id", "size"}, new Object[] {1L, 1234L})
+                        });
         when(service.getAvailableRecordings()).thenReturn(Collections.singletonList(recording));
-        Path savePath = mock(Path.class);
-        when(recordingsPath.resolve(Mockito.anyString())).thenReturn(savePath);
-        Instant now = mock(Instant.class);
-        when(clock.now()).thenReturn(now);
-        when(now.truncatedTo(Mockito.any(TemporalUnit.class))).thenReturn(now);
-        when(now.toString()).thenReturn("2019-11-29T11:22:33Z");
-        when(fs.exists(savePath)).thenReturn(true);
-
-        Assertions.assertThrows(
-                IOException.class,
-                () -> {
-                    command.execute(new String[] {"fooHost:9091", "foo"});
-                });
-
-        verify(recordingsPath, Mockito.atLeastOnce())
-                .resolve("some-host-svc-local_foo_20191129T112233Z.jfr");
-        for (int i = 1; i < Byte.MAX_VALUE - 1; i++) {
-            verify(recordingsPath, Mockito.atLeastOnce())
-                    .resolve("some-host-svc-local_foo_20191129T112233Z." + i + ".jfr");
-        }
-        verifyNoMoreInteractions(service);
-        verifyNoMoreInteractions(fs);
+        when(service.openStream(recording, false)).thenReturn(mock(InputStream.class));
+        when(clock.now()).thenReturn(Instant.parse("2019-11-29T11:22:33Z"));
+
+        command.execute(new String[] {"fooHost:9091", "foo"});
+
+        verify(retentionService).reserve("some-host-svc-local", "foo", 1234L);
+        verify(archiveStorage)
+                .write(
+                        Mockito.eq("some-host-svc-local_foo_20191129T112233Z.jfr"),
+                        Mockito.any(InputStream.class));
     }
 
     @Test
@@ -282,8 +320,6 @@ class SaveRecordingCommandTest implements ValidatesTargetId, ValidatesRecordingN
         when(service.getAvailableRecordings()).thenReturn(Collections.singletonList(recording));
         InputStream recordingStream = mock(InputStream.class);
         when(service.openStream(recording, false)).thenReturn(recordingStream);
-        Path savePath = mock(Path.class);
-        when(recordingsPath.resolve(Mockito.anyString())).thenReturn(savePath);
         Instant now = mock(Instant.class);
         when(clock.now()).thenReturn(now);
         when(now.truncatedTo(Mockito.any(TemporalUnit.class))).thenReturn(now);
@@ -292,9 +328,10 @@ class SaveRecordingCommandTest implements ValidatesTargetId, ValidatesRecordingN
         command.execute(new String[] {"fooHost:9091", "foo.jfr"});
 
         verify(service).getAvailableRecordings();
-        verify(fs).copy(recordingStream, savePath);
-        verify(recordingsPath, Mockito.atLeastOnce())
-                .resolve("some-host-svc-local_foo_20191129T112233Z.jfr");
+        verify(archiveStorage)
+                .write(
+                        Mockito.eq("some-host-svc-local_foo_20191129T112233Z.jfr"),
+                        Mockito.any(InputStream.class));
         verify(cw).println("Recording saved as \"some-host-svc-local_foo_20191129T112233Z.jfr\"");
         verifyNoMoreInteractions(service);
     }
@@ -350,8 +387,6 @@ class SaveRecordingCommandTest implements ValidatesTargetId, ValidatesRecordingN
         when(service.getAvailableRecordings()).thenReturn(Collections.singletonList(recording));
         InputStream recordingStream = mock(InputStream.class);
         when(service.openStream(recording, false)).thenReturn(recordingStream);
-        Path savePath = mock(Path.class);
-        when(recordingsPath.resolve(Mockito.anyString())).thenReturn(savePath);
         Instant now = mock(Instant.class);
         when(clock.now()).thenReturn(now);
         when(now.truncatedTo(Mockito.any(TemporalUnit.class))).thenReturn(now);
@@ -366,9 +401,10 @@ class SaveRecordingCommandTest implements ValidatesTargetId, ValidatesRecordingN
                 Matchers.equalTo("some-host-svc-local_foo_20191129T112233Z.jfr"));
 
         verify(service).getAvailableRecordings();
-        verify(fs).copy(recordingStream, savePath);
-        verify(recordingsPath, Mockito.atLeastOnce())
-                .resolve("some-host-svc-local_foo_20191129T112233Z.jfr");
+        verify(archiveStorage)
+                .write(
+                        Mockito.eq("some-host-svc-local_foo_20191129T112233Z.jfr"),
+                        Mockito.any(InputStream.class));
         verifyNoMoreInteractions(service);
     }
 }
@@ -43,12 +43,10 @@ package com.redhat.rhjmc.containerjfr.commands.internal;
 
 import java.io.InputStream;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
-import org.apache.commons.lang3.tuple.Pair;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Assertions;
@@ -69,18 +67,23 @@ import org.mockito.stubbing.Answer;
 import org.openjdk.jmc.rjmx.services.jfr.IFlightRecorderService;
 import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
 
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.commands.SerializableCommand.ExceptionOutput;
 import com.redhat.rhjmc.containerjfr.commands.SerializableCommand.FailureOutput;
 import com.redhat.rhjmc.containerjfr.commands.SerializableCommand.MapOutput;
 import com.redhat.rhjmc.containerjfr.commands.SerializableCommand.Output;
 import com.redhat.rhjmc.containerjfr.commands.internal.UploadRecordingCommand.RecordingNotFoundException;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
 import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
 import com.redhat.rhjmc.containerjfr.core.tui.ClientWriter;
+import com.redhat.rhjmc.containerjfr.jobs.JobManager;
 import com.redhat.rhjmc.containerjfr.net.ConnectionDescriptor;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager.ConnectedTask;
+import com.redhat.rhjmc.containerjfr.tui.ws.MessagingServer;
 
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
@@ -103,14 +106,24 @@ class UploadRecordingCommandTest {
     @Mock TargetConnectionManager targetConnectionManager;
     @Mock FileSystem fs;
     @Mock Environment env;
-    @Mock Path path;
+    @Mock ArchiveStorage archiveStorage;
     @Mock WebClient webClient;
     @Mock JFRConnection conn;
+    @Mock MessagingServer messagingServer;
+    @Mock Clock clock;
+    @Mock Logger logger;
 
     @BeforeEach
     void setup() {
         this.command =
-                new UploadRecordingCommand(cw, targetConnectionManager, fs, env, path, webClient);
+                new UploadRecordingCommand(
+                        cw,
+                        targetConnectionManager,
+                        fs,
+                        env,
+                        archiveStorage,
+                        webClient,
+                        new JobManager(Runnable::run, 1, 1, messagingServer, clock, logger));
     }
 
     @Test
@@ -293,97 +306,40 @@ class UploadRecordingCommandTest {
     class RecordingSelection {
 
         @Test
-        void shouldSelectInMemoryIfAvailable() throws Exception {
-            IFlightRecorderService svc = Mockito.mock(IFlightRecorderService.class);
-            IRecordingDescriptor rec = Mockito.mock(IRecordingDescriptor.class);
-            InputStream stream = Mockito.mock(InputStream.class);
-
-            Mockito.when(
-                            targetConnectionManager.executeConnectedTask(
-                                    Mockito.any(ConnectionDescriptor.class), Mockito.any()))
-                    .thenAnswer(
-                            arg0 -> ((ConnectedTask<Object>) arg0.getArgument(1)).execute(conn));
-            Mockito.when(conn.getService()).thenReturn(svc);
-            Mockito.when(svc.getAvailableRecordings()).thenReturn(List.of(rec));
-            Mockito.when(rec.getName()).thenReturn("foo");
-            Mockito.when(svc.openStream(Mockito.any(), Mockito.anyBoolean())).thenReturn(stream);
-
-            Optional<Pair<Path, Boolean>> res =
-                    command.getBestRecordingForName(HOST_ID, rec.getName());
-
-            Assertions.assertTrue(res.isPresent());
-            Assertions.assertNotNull(res.get().getLeft());
-            Assertions.assertTrue(res.get().getRight());
-            Mockito.verify(fs)
-                    .copy(
-                            Mockito.same(stream),
-                            Mockito.any(Path.class),
-                            Mockito.eq(StandardCopyOption.REPLACE_EXISTING));
-            Mockito.verify(svc).openStream(rec, false);
-        }
-
-        @Test
-        void shouldReadFromDiskIfNotInMemory() throws Exception {
-            InputStream stream = Mockito.mock(InputStream.class);
-            IFlightRecorderService svc = Mockito.mock(IFlightRecorderService.class);
+        void shouldReadFromDisk() throws Exception {
             Path rec = Mockito.mock(Path.class);
-
-            Mockito.when(
-                            targetConnectionManager.executeConnectedTask(
-                                    Mockito.any(ConnectionDescriptor.class), Mockito.any()))
-                    .thenAnswer(
-                            arg0 -> ((ConnectedTask<Object>) arg0.getArgument(1)).execute(conn));
-            Mockito.when(conn.getService()).thenReturn(svc);
-            Mockito.when(svc.getAvailableRecordings()).thenReturn(Collections.emptyList());
-            Mockito.when(path.resolve(Mockito.anyString())).thenReturn(rec);
+            Mockito.when(archiveStorage.localPath(Mockito.anyString()))
+                    .thenReturn(Optional.of(rec));
             Mockito.when(fs.isRegularFile(rec)).thenReturn(true);
             Mockito.when(fs.isReadable(rec)).thenReturn(true);
 
-            Optional<Pair<Path, Boolean>> res = command.getBestRecordingForName(HOST_ID, "foo");
+            Optional<Path> res = command.getArchivedRecordingPath("foo");
 
             Assertions.assertTrue(res.isPresent());
-            Assertions.assertNotNull(res.get().getLeft());
-            Assertions.assertFalse(res.get().getRight());
-            MatcherAssert.assertThat(res.get().getLeft(), Matchers.sameInstance(rec));
+            MatcherAssert.assertThat(res.get(), Matchers.sameInstance(rec));
         }
 
         @Test
-        void shouldReturnEmptyIfNotInMemoryAndNotFile() throws Exception {
-            IFlightRecorderService svc = Mockito.mock(IFlightRecorderService.class);
+        void shouldReturnEmptyIfNotFile() throws Exception {
             Path rec = Mockito.mock(Path.class);
-
-            Mockito.when(
-                            targetConnectionManager.executeConnectedTask(
-                                    Mockito.any(ConnectionDescriptor.class), Mockito.any()))
-                    .thenAnswer(
-                            arg0 -> ((ConnectedTask<Object>) arg0.getArgument(1)).execute(conn));
-            Mockito.when(conn.getService()).thenReturn(svc);
-            Mockito.when(svc.getAvailableRecordings()).thenReturn(Collections.emptyList());
-            Mockito.when(path.resolve(Mockito.anyString())).thenReturn(rec);
+            Mockito.when(archiveStorage.localPath(Mockito.anyString()))
+                    .thenReturn(Optional.of(rec));
             Mockito.when(fs.isRegularFile(rec)).thenReturn(false);
 
-            Optional<Pair<Path, Boolean>> res = command.getBestRecordingForName(HOST_ID, "foo");
+            Optional<Path> res = command.getArchivedRecordingPath("foo");
 
             Assertions.assertFalse(res.isPresent());
         }
 
         @Test
-        void shouldReturnEmptyIfNotInMemoryAndNotReadable() throws Exception {
-            IFlightRecorderService svc = Mockito.mock(IFlightRecorderService.class);
+        void shouldReturnEmptyIfNotReadable() throws Exception {
             Path rec = Mockito.mock(Path.class);
-
-            Mockito.when(conn.getService()).thenReturn(svc);
-            Mockito.when(
-                            targetConnectionManager.executeConnectedTask(
-                                    Mockito.any(ConnectionDescriptor.class), Mockito.any()))
-                    .thenAnswer(
-                            arg0 -> ((ConnectedTask<Object>) arg0.getArgument(1)).execute(conn));
-            Mockito.when(svc.getAvailableRecordings()).thenReturn(Collections.emptyList());
-            Mockito.when(path.resolve(Mockito.anyString())).thenReturn(rec);
+            Mockito.when(archiveStorage.localPath(Mockito.anyString()))
+                    .thenReturn(Optional.of(rec));
             Mockito.when(fs.isRegularFile(rec)).thenReturn(true);
             Mockito.when(fs.isReadable(rec)).thenReturn(false);
 
-            Optional<Pair<Path, Boolean>> res = command.getBestRecordingForName(HOST_ID, "foo");
+            Optional<Path> res = command.getArchivedRecordingPath("foo");
 
             Assertions.assertFalse(res.isPresent());
         }
@@ -430,6 +386,7 @@ class UploadRecordingCommandTest {
             HttpRequest<Buffer> req = Mockito.mock(HttpRequest.class);
             HttpResponse<Buffer> resp = Mockito.mock(HttpResponse.class);
             Mockito.when(webClient.postAbs(Mockito.anyString())).thenReturn(req);
+            Mockito.when(req.putHeader(Mockito.anyString(), Mockito.anyString())).thenReturn(req);
             Mockito.doAnswer(
                             new Answer<Void>() {
                                 @Override
@@ -447,7 +404,7 @@ class UploadRecordingCommandTest {
                                 }
                             })
                     .when(req)
-                    .sendMultipartForm(Mockito.any(), Mockito.any());
+                    .sendStream(Mockito.any(), Mockito.any());
 
             command.execute(new String[] {HOST_ID, "foo"});
 
@@ -456,6 +413,99 @@ class UploadRecordingCommandTest {
             MatcherAssert.assertThat(
                     urlCaptor.getValue(), Matchers.equalTo(DATASOURCE_URL.concat("/load")));
             Mockito.verify(cw).println("[200 OK] HELLO");
+            // streamed from the target rather than copied to disk first
+            Mockito.verifyNoInteractions(fs);
+            Mockito.verify(stream).close();
+        }
+
+        @Test
+        void shouldUploadArchivedRecordingIfNotInMemory() throws Exception {
+            Mockito.when(
+                            targetConnectionManager.executeConnectedTask(
+                                    Mockito.any(ConnectionDescriptor.class), Mockito.any()))
+                    .thenAnswer(
+                            arg0 -> ((ConnectedTask<Object>) arg0.getArgument(1)).execute(conn));
+            IFlightRecorderService svc = Mockito.mock(IFlightRecorderService.class);
+            Mockito.when(conn.getService()).thenReturn(svc);
+            Mockito.when(svc.getAvailableRecordings()).thenReturn(Collections.emptyList());
+            Mockito.when(env.getEnv(GRAFANA_DATASOURCE_ENV)).thenReturn(DATASOURCE_URL);
+            Path rec = Path.of("/archive/foo.jfr");
+            Mockito.when(archiveStorage.localPath("foo.jfr")).thenReturn(Optional.of(rec));
+            Mockito.when(fs.isRegularFile(rec)).thenReturn(true);
+            Mockito.when(fs.isReadable(rec)).thenReturn(true);
+
+            HttpRequest<Buffer> req = Mockito.mock(HttpRequest.class);
+            HttpResponse<Buffer> resp = Mockito.mock(HttpResponse.class);
+            Mockito.when(webClient.postAbs(Mockito.anyString())).thenReturn(req);
+            Mockito.doAnswer(
+                            new Answer<Void>() {
+                                @Override
+                                public Void answer(InvocationOnMock args) throws Throwable {
+                                    AsyncResult<HttpResponse<Buffer>> asyncResult =
+                                            Mockito.mock(AsyncResult.class);
+                                    Mockito.when(asyncResult.result()).thenReturn(resp);
+                                    Mockito.when(resp.statusCode()).thenReturn(200);
+                                    Mockito.when(resp.statusMessage()).thenReturn("OK");
+                                    Mockito.when(resp.bodyAsString()).thenReturn("HELLO");
+                                    ((Handler<AsyncResult<HttpResponse<Buffer>>>)
+                                                    args.getArgument(1))
+                                            .handle(asyncResult);
+                                    return null;
+                                }
+                            })
+                    .when(req)
+                    .sendMultipartForm(Mockito.any(), Mockito.any());
+
+            command.execute(new String[] {HOST_ID, "foo.jfr"});
+
+            Mockito.verify(cw).println("[200 OK] HELLO");
+            Mockito.verify(req, Mockito.never()).sendStream(Mockito.any(), Mockito.any());
+        }
+
+        @Test
+        void shouldStreamArchivedRecordingFromRemoteStorage() throws Exception {
+            Mockito.when(
+                            targetConnectionManager.executeConnectedTask(
+                                    Mockito.any(ConnectionDescriptor.class), Mockito.any()))
+                    .thenAnswer(
+                            arg0 -> ((ConnectedTask<Object>) arg0.getArgument(1)).execute(conn));
+            IFlightRecorderService svc = Mockito.mock(IFlightRecorderService.class);
+            Mockito.when(conn.getService()).thenReturn(svc);
+            Mockito.when(svc.getAvailableRecordings()).thenReturn(Collections.emptyList());
+            Mockito.when(env.getEnv(GRAFANA_DATASOURCE_ENV)).thenReturn(DATASOURCE_URL);
+            InputStream stream = Mockito.mock(InputStream.class);
+            Mockito.when(archiveStorage.localPath("foo.jfr")).thenReturn(Optional.empty());
+            Mockito.when(archiveStorage.exists("foo.jfr")).thenReturn(true);
+            Mockito.when(archiveStorage.read("foo.jfr")).thenReturn(stream);
+
+            HttpRequest<Buffer> req = Mockito.mock(HttpRequest.class);
+            HttpResponse<Buffer> resp = Mockito.mock(HttpResponse.class);
+            Mockito.when(webClient.postAbs(Mockito.anyString())).thenReturn(req);
+            Mockito.when(req.putHeader(Mockito.anyString(), Mockito.anyString())).thenReturn(req);
+            Mockito.doAnswer(
+                            new Answer<Void>() {
+                                @Override
+                                public Void answer(InvocationOnMock args) throws Throwable {
+                                    AsyncResult<HttpResponse<Buffer>> asyncResult =
+                                            Mockito.mock(AsyncResult.class);
+                                    Mockito.when(asyncResult.result()).thenReturn(resp);
+                                    Mockito.when(resp.statusCode()).thenReturn(200);
+                                    Mockito.when(resp.statusMessage()).thenReturn("OK");
+                                    Mockito.when(resp.bodyAsString()).thenReturn("HELLO");
+                                    ((Handler<AsyncResult<HttpResponse<Buffer>>>)
+                                                    args.getArgument(1))
+                                            .handle(asyncResult);
+                                    return null;
+                                }
+                            })
+                    .when(req)
+                    .sendStream(Mockito.any(), Mockito.any());
+
+            command.execute(new String[] {HOST_ID, "foo.jfr"});
+
+            Mockito.verify(cw).println("[200 OK] HELLO");
+            Mockito.verify(req, Mockito.never()).sendMultipartForm(Mockito.any(), Mockito.any());
+            Mockito.verify(stream).close();
         }
 
         @Test
@@ -477,6 +527,7 @@ class UploadRecordingCommandTest {
             HttpRequest<Buffer> req = Mockito.mock(HttpRequest.class);
             HttpResponse<Buffer> resp = Mockito.mock(HttpResponse.class);
             Mockito.when(webClient.postAbs(Mockito.anyString())).thenReturn(req);
+            Mockito.when(req.putHeader(Mockito.anyString(), Mockito.anyString())).thenReturn(req);
             Mockito.doAnswer(
                             new Answer<Void>() {
                                 @Override
@@ -494,7 +545,7 @@ class UploadRecordingCommandTest {
                                 }
                             })
                     .when(req)
-                    .sendMultipartForm(Mockito.any(), Mockito.any());
+                    .sendStream(Mockito.any(), Mockito.any());
 
             command.execute(new String[] {HOST_ID, "foo"});
 
@@ -526,6 +577,7 @@ class UploadRecordingCommandTest {
             HttpRequest<Buffer> req = Mockito.mock(HttpRequest.class);
             HttpResponse<Buffer> resp = Mockito.mock(HttpResponse.class);
             Mockito.when(webClient.postAbs(Mockito.anyString())).thenReturn(req);
+            Mockito.when(req.putHeader(Mockito.anyString(), Mockito.anyString())).thenReturn(req);
             Mockito.doAnswer(
                             new Answer<Void>() {
                                 @Override
@@ -543,7 +595,7 @@ class UploadRecordingCommandTest {
                                 }
                             })
                     .when(req)
-                    .sendMultipartForm(Mockito.any(), Mockito.any());
+                    .sendStream(Mockito.any(), Mockito.any());
 
             command.execute(new String[] {HOST_ID, "foo"});
 
@@ -597,6 +649,7 @@ class UploadRecordingCommandTest {
             HttpRequest<Buffer> req = Mockito.mock(HttpRequest.class);
             HttpResponse<Buffer> resp = Mockito.mock(HttpResponse.class);
             Mockito.when(webClient.postAbs(Mockito.anyString())).thenReturn(req);
+            Mockito.when(req.putHeader(Mockito.anyString(), Mockito.anyString())).thenReturn(req);
             Mockito.doAnswer(
                             new Answer<Void>() {
                                 @Override
@@ -614,7 +667,7 @@ class UploadRecordingCommandTest {
                                 }
                             })
                     .when(req)
-                    .sendMultipartForm(Mockito.any(), Mockito.any());
+                    .sendStream(Mockito.any(), Mockito.any());
 
             Output<?> out = command.serializableExecute(new String[] {HOST_ID, rec.getName()});
 
@@ -652,6 +705,7 @@ class UploadRecordingCommandTest {
             HttpRequest<Buffer> req = Mockito.mock(HttpRequest.class);
             HttpResponse<Buffer> resp = Mockito.mock(HttpResponse.class);
             Mockito.when(webClient.postAbs(Mockito.anyString())).thenReturn(req);
+            Mockito.when(req.putHeader(Mockito.anyString(), Mockito.anyString())).thenReturn(req);
             Mockito.doAnswer(
                             new Answer<Void>() {
                                 @Override
@@ -669,7 +723,7 @@ class UploadRecordingCommandTest {
                                 }
                             })
                     .when(req)
-                    .sendMultipartForm(Mockito.any(), Mockito.any());
+                    .sendStream(Mockito.any(), Mockito.any());
 
             Output<?> out = command.serializableExecute(new String[] {HOST_ID, rec.getName()});
 
@@ -704,6 +758,7 @@ class UploadRecordingCommandTest {
             HttpRequest<Buffer> req = Mockito.mock(HttpRequest.class);
             HttpResponse<Buffer> resp = Mockito.mock(HttpResponse.class);
             Mockito.when(webClient.postAbs(Mockito.anyString())).thenReturn(req);
+            Mockito.when(req.putHeader(Mockito.anyString(), Mockito.anyString())).thenReturn(req);
             Mockito.doAnswer(
                             new Answer<Void>() {
                                 @Override
@@ -721,7 +776,7 @@ class UploadRecordingCommandTest {
                                 }
                             })
                     .when(req)
-                    .sendMultipartForm(Mockito.any(), Mockito.any());
+                    .sendStream(Mockito.any(), Mockito.any());
 
             Output<?> out = command.serializableExecute(new String[] {HOST_ID, rec.getName()});
 
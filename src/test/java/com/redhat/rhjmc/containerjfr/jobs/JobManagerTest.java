@@ -0,0 +1,285 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.jobs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.tui.ws.MessagingServer;
+
+@ExtendWith(MockitoExtension.class)
+class JobManagerTest {
+
+    @Mock MessagingServer messagingServer;
+    @Mock Clock clock;
+    @Mock Logger logger;
+    // runnables handed to the executor are held until the test runs them
+    List<Runnable> pending;
+    JobManager jobManager;
+
+    @BeforeEach
+    void setup() {
+        this.pending = new ArrayList<>();
+        this.jobManager = new JobManager(pending::add, 1, 2, messagingServer, clock, logger);
+    }
+
+    void runPending() {
+        while (!pending.isEmpty()) {
+            pending.remove(0).run();
+        }
+    }
+
+    @Test
+    void shouldRunSubmittedJob() throws Exception {
+        Job job = jobManager.submit(Job.TYPE_SAVE, "fooTarget", "foo", j -> "saved");
+
+        MatcherAssert.assertThat(job.getState(), Matchers.equalTo(Job.State.QUEUED));
+        MatcherAssert.assertThat(pending, Matchers.hasSize(1));
+
+        runPending();
+
+        MatcherAssert.assertThat(job.getState(), Matchers.equalTo(Job.State.COMPLETED));
+        MatcherAssert.assertThat(job.getResult(), Matchers.equalTo("saved"));
+        MatcherAssert.assertThat(job.await(), Matchers.equalTo("saved"));
+        MatcherAssert.assertThat(jobManager.get(job.getId()).get(), Matchers.sameInstance(job));
+        MatcherAssert.assertThat(jobManager.list(), Matchers.contains(job));
+    }
+
+    @Test
+    void shouldRecordFailure() throws Exception {
+        Job job =
+                jobManager.submit(
+                        Job.TYPE_SAVE,
+                        "fooTarget",
+                        "foo",
+                        j -> {
+                            throw new IOException("disk full");
+                        });
+
+        runPending();
+
+        MatcherAssert.assertThat(job.getState(), Matchers.equalTo(Job.State.FAILED));
+        MatcherAssert.assertThat(job.getError(), Matchers.equalTo("disk full"));
+        IOException ex = Assertions.assertThrows(IOException.class, job::await);
+        MatcherAssert.assertThat(ex.getMessage(), Matchers.equalTo("disk full"));
+    }
+
+    @Test
+    void shouldLimitConcurrentJobsPerTarget() throws Exception {
+        Job first = jobManager.submit(Job.TYPE_SAVE, "fooTarget", "foo", j -> "first");
+        Job second = jobManager.submit(Job.TYPE_UPLOAD, "fooTarget", "foo", j -> "second");
+        Job other = jobManager.submit(Job.TYPE_SAVE, "barTarget", "bar", j -> "other");
+
+        // only one job per target is handed to the executor at a time
+        MatcherAssert.assertThat(pending, Matchers.hasSize(2));
+        MatcherAssert.assertThat(second.getState(), Matchers.equalTo(Job.State.QUEUED));
+
+        pending.remove(0).run();
+
+        MatcherAssert.assertThat(first.getState(), Matchers.equalTo(Job.State.COMPLETED));
+        MatcherAssert.assertThat(pending, Matchers.hasSize(2));
+
+        runPending();
+
+        MatcherAssert.assertThat(second.getState(), Matchers.equalTo(Job.State.COMPLETED));
+        MatcherAssert.assertThat(other.getState(), Matchers.equalTo(Job.State.COMPLETED));
+    }
+
+    @Test
+    void shouldRejectJobsWhenQueueFull() {
+        jobManager.submit(Job.TYPE_SAVE, "fooTarget", "foo", j -> "first");
+        jobManager.submit(Job.TYPE_SAVE, "fooTarget", "foo", j -> "second");
+        jobManager.submit(Job.TYPE_SAVE, "fooTarget", "foo", j -> "third");
+
+        // the first job has been handed to the executor, the others are queued
+        Assertions.assertThrows(
+                RejectedExecutionException.class,
+                () -> jobManager.submit(Job.TYPE_SAVE, "fooTarget", "foo", j -> "fourth"));
+    }
+
+    @Test
+    void shouldCancelQueuedJob() {
+        jobManager.submit(Job.TYPE_SAVE, "fooTarget", "foo", j -> "first");
+        Job second = jobManager.submit(Job.TYPE_SAVE, "fooTarget", "foo", j -> "second");
+
+        Assertions.assertTrue(jobManager.cancel(second.getId()));
+
+        MatcherAssert.assertThat(second.getState(), Matchers.equalTo(Job.State.CANCELLED));
+        Assertions.assertThrows(CancellationException.class, second::await);
+
+        runPending();
+
+        MatcherAssert.assertThat(second.getState(), Matchers.equalTo(Job.State.CANCELLED));
+        MatcherAssert.assertThat(second.getResult(), Matchers.nullValue());
+    }
+
+    @Test
+    void shouldCancelRunningJobAtNextRead() throws Exception {
+        List<String> jobIds = new ArrayList<>();
+        Job job =
+                jobManager.submit(
+                        Job.TYPE_SAVE,
+                        "fooTarget",
+                        "foo",
+                        j -> {
+                            try (InputStream stream =
+                                    j.track(new ByteArrayInputStream(new byte[] {1, 2, 3}))) {
+                                stream.read();
+                                jobManager.cancel(jobIds.get(0));
+                                stream.read();
+                            }
+                            return "saved";
+                        });
+        jobIds.add(job.getId());
+
+        runPending();
+
+        MatcherAssert.assertThat(job.getState(), Matchers.equalTo(Job.State.CANCELLED));
+        MatcherAssert.assertThat(job.getBytesTransferred(), Matchers.equalTo(1L));
+        Assertions.assertThrows(CancellationException.class, job::await);
+        Assertions.assertFalse(Thread.interrupted());
+    }
+
+    @Test
+    void shouldNotCancelFinishedOrUnknownJobs() {
+        Job job = jobManager.submit(Job.TYPE_SAVE, "fooTarget", "foo", j -> "saved");
+        runPending();
+
+        Assertions.assertFalse(jobManager.cancel(job.getId()));
+        Assertions.assertFalse(jobManager.cancel("unknown"));
+    }
+
+    @Test
+    void shouldFailAtCancellationCheck() {
+        Job job = jobManager.submit(Job.TYPE_SAVE, "fooTarget", "foo", j -> "saved");
+        jobManager.cancel(job.getId());
+        Assertions.assertThrows(InterruptedIOException.class, job::checkCancelled);
+    }
+
+    @Test
+    void shouldTrackProgress() throws Exception {
+        Job job =
+                jobManager.submit(
+                        Job.TYPE_SAVE,
+                        "fooTarget",
+                        "foo",
+                        j -> {
+                            j.setTotalBytes(4L);
+                            j.addBytesTransferred(1);
+                            j.addBytesTransferred(1);
+                            return "saved";
+                        });
+        runPending();
+
+        MatcherAssert.assertThat(job.getBytesTransferred(), Matchers.equalTo(2L));
+        MatcherAssert.assertThat(job.getTotalBytes(), Matchers.equalTo(4L));
+        MatcherAssert.assertThat(job.getEtaMillis(), Matchers.equalTo(0L));
+    }
+
+    @Test
+    void shouldEstimateRemainingTimeWhileRunning() {
+        Job job = new Job(Job.TYPE_SAVE, "fooTarget", "foo", j -> null, 0);
+        job.started(Thread.currentThread(), 1_000L);
+        job.setTotalBytes(100L);
+        job.addBytesTransferred(25);
+
+        job.updateEstimate(2_000L);
+
+        MatcherAssert.assertThat(job.getEtaMillis(), Matchers.equalTo(3_000L));
+    }
+
+    @Test
+    void shouldNotifyClientsOfStateChangesAndThrottledProgress() throws Exception {
+        Mockito.when(clock.getWallTime()).thenReturn(0L);
+        Job job =
+                jobManager.submit(
+                        Job.TYPE_SAVE,
+                        "fooTarget",
+                        "foo",
+                        j -> {
+                            for (int i = 0; i < 10; i++) {
+                                j.addBytesTransferred(1);
+                            }
+                            return "saved";
+                        });
+
+        runPending();
+
+        ArgumentCaptor<Job> captor = ArgumentCaptor.forClass(Job.class);
+        // QUEUED, RUNNING, a single progress update, then COMPLETED
+        Mockito.verify(messagingServer, Mockito.times(4))
+                .notifyClients(Mockito.eq(JobManager.NOTIFICATION_CATEGORY), captor.capture());
+        MatcherAssert.assertThat(captor.getAllValues(), Matchers.everyItem(Matchers.is(job)));
+    }
+
+    @Test
+    void shouldForgetOldestFinishedJobs() {
+        JobManager jobManager = new JobManager(Runnable::run, 1, 1, messagingServer, clock, logger);
+        Job first = jobManager.submit(Job.TYPE_SAVE, "fooTarget", "foo", j -> "saved");
+        for (int i = 0; i < JobManager.RETAINED_FINISHED_JOBS; i++) {
+            jobManager.submit(Job.TYPE_SAVE, "fooTarget", "foo", j -> "saved");
+        }
+
+        MatcherAssert.assertThat(
+                jobManager.list(), Matchers.hasSize(JobManager.RETAINED_FINISHED_JOBS));
+        Assertions.assertTrue(jobManager.get(first.getId()).isEmpty());
+    }
+}
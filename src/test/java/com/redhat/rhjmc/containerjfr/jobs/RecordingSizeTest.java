@@ -0,0 +1,126 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.jobs;
+
+import java.util.Optional;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import org.openjdk.jmc.rjmx.IConnectionHandle;
+import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
+
+import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
+
+@ExtendWith(MockitoExtension.class)
+class RecordingSizeTest {
+
+    @Mock JFRConnection connection;
+    @Mock IConnectionHandle handle;
+    @Mock MBeanServerConnection mbsc;
+    @Mock IRecordingDescriptor descriptor;
+
+    @BeforeEach
+    void setup() throws Exception {
+        Mockito.when(connection.getHandle()).thenReturn(handle);
+        Mockito.when(handle.getServiceOrThrow(MBeanServerConnection.class)).thenReturn(mbsc);
+    }
+
+    static CompositeData recordingInfo(long id, long size) throws Exception {
+        CompositeType type =
+                new CompositeType(
+                        "RecordingInfo",
+                        "RecordingInfo",
+                        new String[] {"id", "size"},
+                        new String[] {"id", "size"},
+                        new OpenType<?>[] {SimpleType.LONG, SimpleType.LONG});
+        return new CompositeDataSupport(type, new String[] {"id", "size"}, new Object[] {id, size});
+    }
+
+    @Test
+    void shouldReturnSizeReportedByTarget() throws Exception {
+        Mockito.when(descriptor.getId()).thenReturn(2L);
+        Mockito.when(
+                        mbsc.getAttribute(
+                                new ObjectName(RecordingSize.FLIGHT_RECORDER_MBEAN), "Recordings"))
+                .thenReturn(new CompositeData[] {recordingInfo(1, 100), recordingInfo(2, 200)});
+
+        MatcherAssert.assertThat(
+                RecordingSize.lookup(connection, descriptor), Matchers.equalTo(Optional.of(200L)));
+    }
+
+    @Test
+    void shouldReturnEmptyIfRecordingNotListed() throws Exception {
+        Mockito.when(descriptor.getId()).thenReturn(3L);
+        Mockito.when(
+                        mbsc.getAttribute(
+                                new ObjectName(RecordingSize.FLIGHT_RECORDER_MBEAN), "Recordings"))
+                .thenReturn(new CompositeData[] {recordingInfo(1, 100)});
+
+        MatcherAssert.assertThat(
+                RecordingSize.lookup(connection, descriptor), Matchers.equalTo(Optional.empty()));
+    }
+
+    @Test
+    void shouldReturnEmptyIfTargetHasNoFlightRecorderMBean() throws Exception {
+        Mockito.when(mbsc.getAttribute(Mockito.any(ObjectName.class), Mockito.anyString()))
+                .thenThrow(new InstanceNotFoundException());
+
+        MatcherAssert.assertThat(
+                RecordingSize.lookup(connection, descriptor), Matchers.equalTo(Optional.empty()));
+    }
+}
@@ -0,0 +1,182 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MetricsRegistryTest {
+
+    MetricsRegistry registry;
+
+    @BeforeEach
+    void setup() {
+        this.registry = new MetricsRegistry();
+    }
+
+    @Test
+    void shouldBeEmptyWithoutMetrics() {
+        MatcherAssert.assertThat(registry.scrape(), Matchers.emptyString());
+    }
+
+    @Test
+    void shouldWriteCounters() {
+        Counter counter = registry.counter("foo_total", "Some foos", "kind");
+        counter.labels("a").inc();
+        counter.labels("a").inc(2);
+        counter.labels("b").inc();
+        counter.register(() -> 42, "c");
+
+        MatcherAssert.assertThat(
+                registry.scrape(),
+                Matchers.equalTo(
+                        "# HELP foo_total Some foos\n"
+                                + "# TYPE foo_total counter\n"
+                                + "foo_total{kind=\"a\"} 3\n"
+                                + "foo_total{kind=\"b\"} 1\n"
+                                + "foo_total{kind=\"c\"} 42\n"));
+    }
+
+    @Test
+    void shouldWriteGaugesFromSuppliers() {
+        AtomicInteger value = new AtomicInteger(3);
+        registry.gauge("bar", "A bar").register(value::get);
+        registry.gauge("ratio", "A ratio").register(() -> 0.25);
+
+        MatcherAssert.assertThat(registry.scrape(), Matchers.containsString("\nbar 3\n"));
+        value.set(5);
+        MatcherAssert.assertThat(registry.scrape(), Matchers.containsString("\nbar 5\n"));
+        MatcherAssert.assertThat(registry.scrape(), Matchers.containsString("\nratio 0.25\n"));
+    }
+
+    @Test
+    void shouldWriteCumulativeHistogramBuckets() {
+        Histogram histogram =
+                registry.histogram("latency_seconds", "Latency", new double[] {1, 0.1}, "route");
+        Histogram.Child child = histogram.labels("/a");
+        child.observe(0.05);
+        child.observe(0.1);
+        child.observe(0.5);
+        child.observe(3);
+
+        MatcherAssert.assertThat(
+                registry.scrape(),
+                Matchers.equalTo(
+                        "# HELP latency_seconds Latency\n"
+                                + "# TYPE latency_seconds histogram\n"
+                                + "latency_seconds_bucket{route=\"/a\",le=\"0.1\"} 2\n"
+                                + "latency_seconds_bucket{route=\"/a\",le=\"1\"} 3\n"
+                                + "latency_seconds_bucket{route=\"/a\",le=\"+Inf\"} 4\n"
+                                + "latency_seconds_sum{route=\"/a\"} 3.65\n"
+                                + "latency_seconds_count{route=\"/a\"} 4\n"));
+    }
+
+    @Test
+    void shouldWriteUnlabelledHistogram() {
+        registry.histogram("op_seconds", "Op", new double[] {1}).labels().observe(2);
+
+        MatcherAssert.assertThat(
+                registry.scrape(),
+                Matchers.allOf(
+                        Matchers.containsString("op_seconds_bucket{le=\"1\"} 0\n"),
+                        Matchers.containsString("op_seconds_bucket{le=\"+Inf\"} 1\n"),
+                        Matchers.containsString("op_seconds_sum 2\n"),
+                        Matchers.containsString("op_seconds_count 1\n")));
+    }
+
+    @Test
+    void shouldEscapeLabelValues() {
+        registry.counter("esc_total", "Escaping", "v").labels("a\"b\\c\nd").inc();
+
+        MatcherAssert.assertThat(
+                registry.scrape(), Matchers.containsString("esc_total{v=\"a\\\"b\\\\c\\nd\"} 1\n"));
+    }
+
+    @Test
+    void shouldReturnExistingMetricOnReregistration() {
+        Counter a = registry.counter("dup_total", "Dup", "x");
+        Counter b = registry.counter("dup_total", "Dup", "x");
+
+        Assertions.assertSame(a, b);
+        Assertions.assertSame(a.labels("1"), b.labels("1"));
+    }
+
+    @Test
+    void shouldRejectConflictingRegistration() {
+        registry.counter("dup_total", "Dup", "x");
+
+        Assertions.assertThrows(
+                IllegalArgumentException.class, () -> registry.gauge("dup_total", "Dup", "x"));
+        Assertions.assertThrows(
+                IllegalArgumentException.class, () -> registry.counter("dup_total", "Dup", "y"));
+    }
+
+    @Test
+    void shouldRejectInvalidNames() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class, () -> registry.counter("foo-bar", "Invalid"));
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> registry.counter("foo_total", "Invalid", "a:b"));
+    }
+
+    @Test
+    void shouldRejectWrongNumberOfLabelValues() {
+        Counter counter = registry.counter("foo_total", "Some foos", "kind");
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> counter.labels());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> counter.labels("a", "b"));
+    }
+
+    @Test
+    void shouldNotIncrementFunctionBackedCounters() {
+        Counter counter = registry.counter("foo_total", "Some foos", "kind");
+        counter.register(() -> 1, "a");
+
+        Assertions.assertThrows(IllegalStateException.class, () -> counter.labels("a"));
+    }
+}
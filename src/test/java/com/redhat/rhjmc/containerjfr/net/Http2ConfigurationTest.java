@@ -0,0 +1,176 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net;
+
+import java.util.List;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+
+import io.vertx.core.http.Http2Settings;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpVersion;
+
+@ExtendWith(MockitoExtension.class)
+class Http2ConfigurationTest {
+
+    Http2Configuration conf;
+    @Mock Environment env;
+    @Mock Logger logger;
+
+    @BeforeEach
+    void setup() {
+        Mockito.lenient()
+                .when(env.getEnv(Mockito.anyString(), Mockito.anyString()))
+                .thenAnswer(invocation -> invocation.getArgument(1));
+        Mockito.lenient().when(env.hasEnv(Mockito.anyString())).thenReturn(false);
+        this.conf = new Http2Configuration(env, logger);
+    }
+
+    @Test
+    void shouldNegotiateHttp2OverTls() {
+        HttpServerOptions options =
+                conf.applyToHttpServerOptions(new HttpServerOptions().setSsl(true));
+
+        Assertions.assertTrue(conf.enabled());
+        Assertions.assertTrue(options.isUseAlpn());
+        MatcherAssert.assertThat(
+                options.getAlpnVersions(),
+                Matchers.equalTo(List.of(HttpVersion.HTTP_2, HttpVersion.HTTP_1_1)));
+        MatcherAssert.assertThat(
+                options.getInitialSettings().getMaxConcurrentStreams(),
+                Matchers.equalTo(Http2Configuration.DEFAULT_MAX_CONCURRENT_STREAMS));
+        MatcherAssert.assertThat(
+                options.getInitialSettings().getInitialWindowSize(),
+                Matchers.equalTo(Http2Settings.DEFAULT_INITIAL_WINDOW_SIZE));
+        MatcherAssert.assertThat(
+                options.getHttp2ConnectionWindowSize(),
+                Matchers.equalTo(HttpServerOptions.DEFAULT_HTTP2_CONNECTION_WINDOW_SIZE));
+    }
+
+    @Test
+    void shouldNotUseAlpnWithoutTls() {
+        HttpServerOptions options = conf.applyToHttpServerOptions(new HttpServerOptions());
+
+        Assertions.assertFalse(options.isUseAlpn());
+        MatcherAssert.assertThat(
+                options.getInitialSettings().getMaxConcurrentStreams(),
+                Matchers.equalTo(Http2Configuration.DEFAULT_MAX_CONCURRENT_STREAMS));
+    }
+
+    @Test
+    void shouldApplyConfiguredSettings() {
+        Mockito.when(env.hasEnv(Http2Configuration.INITIAL_WINDOW_SIZE_ENV)).thenReturn(true);
+        Mockito.when(env.hasEnv(Http2Configuration.CONNECTION_WINDOW_SIZE_ENV)).thenReturn(true);
+        Mockito.when(
+                        env.getEnv(
+                                Mockito.eq(Http2Configuration.MAX_CONCURRENT_STREAMS_ENV),
+                                Mockito.anyString()))
+                .thenReturn("32");
+        Mockito.when(
+                        env.getEnv(
+                                Mockito.eq(Http2Configuration.INITIAL_WINDOW_SIZE_ENV),
+                                Mockito.anyString()))
+                .thenReturn("1048576");
+        Mockito.when(
+                        env.getEnv(
+                                Mockito.eq(Http2Configuration.CONNECTION_WINDOW_SIZE_ENV),
+                                Mockito.anyString()))
+                .thenReturn("4194304");
+
+        HttpServerOptions options =
+                conf.applyToHttpServerOptions(new HttpServerOptions().setSsl(true));
+
+        MatcherAssert.assertThat(
+                options.getInitialSettings().getMaxConcurrentStreams(), Matchers.equalTo(32L));
+        MatcherAssert.assertThat(
+                options.getInitialSettings().getInitialWindowSize(), Matchers.equalTo(1048576));
+        MatcherAssert.assertThat(options.getHttp2ConnectionWindowSize(), Matchers.equalTo(4194304));
+    }
+
+    @Test
+    void shouldKeepDefaultsForInvalidSettings() {
+        Mockito.when(env.hasEnv(Http2Configuration.CONNECTION_WINDOW_SIZE_ENV)).thenReturn(true);
+        Mockito.when(
+                        env.getEnv(
+                                Mockito.eq(Http2Configuration.MAX_CONCURRENT_STREAMS_ENV),
+                                Mockito.anyString()))
+                .thenReturn("-1");
+        Mockito.when(
+                        env.getEnv(
+                                Mockito.eq(Http2Configuration.CONNECTION_WINDOW_SIZE_ENV),
+                                Mockito.anyString()))
+                .thenReturn("big");
+
+        HttpServerOptions options = conf.applyToHttpServerOptions(new HttpServerOptions());
+
+        MatcherAssert.assertThat(
+                options.getInitialSettings().getMaxConcurrentStreams(),
+                Matchers.equalTo(Http2Configuration.DEFAULT_MAX_CONCURRENT_STREAMS));
+        MatcherAssert.assertThat(
+                options.getHttp2ConnectionWindowSize(),
+                Matchers.equalTo(HttpServerOptions.DEFAULT_HTTP2_CONNECTION_WINDOW_SIZE));
+        // NumberFormatException is also an IllegalArgumentException
+        Mockito.verify(logger, Mockito.times(2)).warn(Mockito.any(IllegalArgumentException.class));
+    }
+
+    @Test
+    void shouldOnlyOfferHttp1IfDisabled() {
+        Mockito.when(env.hasEnv(Http2Configuration.DISABLE_HTTP2_ENV)).thenReturn(true);
+
+        HttpServerOptions options =
+                conf.applyToHttpServerOptions(new HttpServerOptions().setSsl(true));
+
+        Assertions.assertFalse(conf.enabled());
+        Assertions.assertFalse(options.isUseAlpn());
+    }
+}
@@ -54,6 +54,7 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
 
 @ExtendWith(MockitoExtension.class)
@@ -61,11 +62,12 @@ class NetworkConfigurationTest {
 
     @Mock NetworkResolver resolver;
     @Mock Environment env;
+    @Mock Logger logger;
     NetworkConfiguration conf;
 
     @BeforeEach
     void setup() {
-        this.conf = new NetworkConfiguration(env, resolver);
+        this.conf = new NetworkConfiguration(env, resolver, logger);
     }
 
     @Test
@@ -120,6 +122,34 @@ class NetworkConfigurationTest {
         Mockito.verify(env).getEnv("CONTAINER_JFR_WEB_PORT", "8181");
     }
 
+    @Test
+    void shouldReportWebServerInstances() {
+        Mockito.when(env.getEnv(Mockito.eq("CONTAINER_JFR_WEB_INSTANCES"), Mockito.anyString()))
+                .thenReturn("3");
+        MatcherAssert.assertThat(conf.getWebServerInstances(), Matchers.equalTo(3));
+        Mockito.verify(env)
+                .getEnv(
+                        "CONTAINER_JFR_WEB_INSTANCES",
+                        String.valueOf(Runtime.getRuntime().availableProcessors()));
+    }
+
+    @Test
+    void shouldReportAtLeastOneWebServerInstance() {
+        Mockito.when(env.getEnv(Mockito.eq("CONTAINER_JFR_WEB_INSTANCES"), Mockito.anyString()))
+                .thenReturn("0");
+        MatcherAssert.assertThat(conf.getWebServerInstances(), Matchers.equalTo(1));
+    }
+
+    @Test
+    void shouldUseDefaultWebServerInstancesIfInvalid() {
+        Mockito.when(env.getEnv(Mockito.eq("CONTAINER_JFR_WEB_INSTANCES"), Mockito.anyString()))
+                .thenReturn("many");
+        MatcherAssert.assertThat(
+                conf.getWebServerInstances(),
+                Matchers.equalTo(Runtime.getRuntime().availableProcessors()));
+        Mockito.verify(logger).warn(Mockito.any(NumberFormatException.class));
+    }
+
     @Test
     void shouldReportInternalCommandChannelPort() {
         Mockito.when(env.getEnv(Mockito.eq("CONTAINER_JFR_LISTEN_PORT"), Mockito.anyString()))
@@ -152,4 +182,16 @@ class NetworkConfigurationTest {
         Assertions.assertTrue(conf.isSslProxied());
         Mockito.verify(env).hasEnv("CONTAINER_JFR_SSL_PROXIED");
     }
+
+    @Test
+    void shouldNotLogWebServerActivityByDefault() {
+        Assertions.assertFalse(conf.isWebServerActivityLogged());
+        Mockito.verify(env).hasEnv("CONTAINER_JFR_WEB_LOG_ACTIVITY");
+    }
+
+    @Test
+    void shouldLogWebServerActivityWhenVarSet() {
+        Mockito.when(env.hasEnv("CONTAINER_JFR_WEB_LOG_ACTIVITY")).thenReturn(true);
+        Assertions.assertTrue(conf.isWebServerActivityLogged());
+    }
 }
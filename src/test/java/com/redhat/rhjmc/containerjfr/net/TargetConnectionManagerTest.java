@@ -41,11 +41,22 @@
  */
 package com.redhat.rhjmc.containerjfr.net;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -53,18 +64,20 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
 import com.redhat.rhjmc.containerjfr.core.net.JFRConnectionToolkit;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
 
 @ExtendWith(MockitoExtension.class)
 class TargetConnectionManagerTest {
 
     TargetConnectionManager mgr;
     @Mock Logger logger;
+    MetricsRegistry metrics = new MetricsRegistry();
     @Mock JFRConnectionToolkit jfrConnectionToolkit;
     @Mock JFRConnection conn;
 
     @BeforeEach
     void setup() {
-        this.mgr = new TargetConnectionManager(logger, jfrConnectionToolkit);
+        this.mgr = new TargetConnectionManager(logger, jfrConnectionToolkit, metrics);
     }
 
     @Test
@@ -95,4 +108,168 @@ class TargetConnectionManagerTest {
                         });
         MatcherAssert.assertThat(a, Matchers.sameInstance(conn));
     }
+
+    @Test
+    void shouldRecordConnectionMetrics() throws Exception {
+        ArgumentCaptor<List<Runnable>> listeners = ArgumentCaptor.forClass(List.class);
+        Mockito.when(
+                        jfrConnectionToolkit.connect(
+                                Mockito.any(), Mockito.any(), listeners.capture()))
+                .thenReturn(conn);
+
+        mgr.connect(new ConnectionDescriptor("foo"));
+
+        MatcherAssert.assertThat(
+                metrics.scrape(),
+                Matchers.allOf(
+                        Matchers.containsString("containerjfr_jmx_connections_active 1\n"),
+                        Matchers.containsString(
+                                "containerjfr_jmx_connect_duration_seconds_count 1\n"),
+                        Matchers.containsString(
+                                "containerjfr_jmx_connection_lock_wait_seconds_count 1\n"),
+                        Matchers.containsString("containerjfr_jmx_connect_failures_total 0\n")));
+
+        listeners.getValue().forEach(Runnable::run);
+
+        MatcherAssert.assertThat(
+                metrics.scrape(),
+                Matchers.containsString("containerjfr_jmx_connections_active 0\n"));
+    }
+
+    @Test
+    void shouldCountConnectionFailures() throws Exception {
+        Mockito.when(jfrConnectionToolkit.connect(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenThrow(new SecurityException("denied"));
+
+        Assertions.assertThrows(
+                SecurityException.class, () -> mgr.connect(new ConnectionDescriptor("foo")));
+
+        MatcherAssert.assertThat(
+                metrics.scrape(),
+                Matchers.allOf(
+                        Matchers.containsString("containerjfr_jmx_connections_active 0\n"),
+                        Matchers.containsString("containerjfr_jmx_connect_failures_total 1\n")));
+    }
+
+    @Test
+    void shouldTimeConnectedTasks() throws Exception {
+        Mockito.when(jfrConnectionToolkit.connect(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(conn);
+
+        mgr.executeConnectedTask(new ConnectionDescriptor("foo"), c -> c);
+
+        MatcherAssert.assertThat(
+                metrics.scrape(),
+                Matchers.containsString("containerjfr_jmx_task_duration_seconds_count 1\n"));
+    }
+
+    @Test
+    void shouldAllowConcurrentConnectionsToDifferentTargets() throws Exception {
+        Mockito.when(jfrConnectionToolkit.connect(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(conn);
+
+        mgr.connect(new ConnectionDescriptor("foo"));
+        CompletableFuture<JFRConnection> other =
+                CompletableFuture.supplyAsync(
+                        () -> {
+                            try {
+                                return mgr.connect(new ConnectionDescriptor("bar"));
+                            } catch (Exception e) {
+                                throw new CompletionException(e);
+                            }
+                        });
+
+        MatcherAssert.assertThat(other.get(5, TimeUnit.SECONDS), Matchers.sameInstance(conn));
+    }
+
+    @Test
+    void shouldLimitConcurrentConnectionsToOneTarget() throws Exception {
+        ArgumentCaptor<List<Runnable>> listeners = ArgumentCaptor.forClass(List.class);
+        Mockito.when(
+                        jfrConnectionToolkit.connect(
+                                Mockito.any(), Mockito.any(), listeners.capture()))
+                .thenReturn(conn);
+
+        mgr.connect(new ConnectionDescriptor("foo"));
+        CompletableFuture<JFRConnection> other =
+                CompletableFuture.supplyAsync(
+                        () -> {
+                            try {
+                                return mgr.connect(new ConnectionDescriptor("foo"));
+                            } catch (Exception e) {
+                                throw new CompletionException(e);
+                            }
+                        });
+
+        Assertions.assertThrows(
+                TimeoutException.class, () -> other.get(200, TimeUnit.MILLISECONDS));
+        // closing the first connection lets the second proceed
+        listeners.getAllValues().get(0).forEach(Runnable::run);
+        MatcherAssert.assertThat(other.get(5, TimeUnit.SECONDS), Matchers.sameInstance(conn));
+    }
+
+    @Test
+    void shouldLimitConnectionsHandedToAnotherThread() throws Exception {
+        ArgumentCaptor<List<Runnable>> listeners = ArgumentCaptor.forClass(List.class);
+        Mockito.when(
+                        jfrConnectionToolkit.connect(
+                                Mockito.any(), Mockito.any(), listeners.capture()))
+                .thenReturn(conn);
+        ExecutorService opener = Executors.newSingleThreadExecutor();
+        try {
+            // the connection is opened on one thread but kept open, and later closed, elsewhere
+            opener.submit(() -> mgr.connect(new ConnectionDescriptor("foo")))
+                    .get(5, TimeUnit.SECONDS);
+            Future<JFRConnection> other =
+                    opener.submit(() -> mgr.connect(new ConnectionDescriptor("foo")));
+
+            Assertions.assertThrows(
+                    TimeoutException.class, () -> other.get(200, TimeUnit.MILLISECONDS));
+            listeners.getAllValues().get(0).forEach(Runnable::run);
+            MatcherAssert.assertThat(other.get(5, TimeUnit.SECONDS), Matchers.sameInstance(conn));
+        } finally {
+            opener.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldHonourConfiguredConnectionsPerTarget() throws Exception {
+        this.mgr = new TargetConnectionManager(logger, jfrConnectionToolkit, metrics, 2);
+        Mockito.when(jfrConnectionToolkit.connect(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(conn);
+
+        mgr.connect(new ConnectionDescriptor("foo"));
+        CompletableFuture<JFRConnection> other =
+                CompletableFuture.supplyAsync(
+                        () -> {
+                            try {
+                                return mgr.connect(new ConnectionDescriptor("foo"));
+                            } catch (Exception e) {
+                                throw new CompletionException(e);
+                            }
+                        });
+
+        MatcherAssert.assertThat(other.get(5, TimeUnit.SECONDS), Matchers.sameInstance(conn));
+    }
+
+    @Test
+    void shouldReleaseTargetWhenConnectionFails() throws Exception {
+        Mockito.when(jfrConnectionToolkit.connect(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenThrow(new SecurityException("denied"))
+                .thenReturn(conn);
+
+        Assertions.assertThrows(
+                SecurityException.class, () -> mgr.connect(new ConnectionDescriptor("foo")));
+        CompletableFuture<JFRConnection> other =
+                CompletableFuture.supplyAsync(
+                        () -> {
+                            try {
+                                return mgr.connect(new ConnectionDescriptor("foo"));
+                            } catch (Exception e) {
+                                throw new CompletionException(e);
+                            }
+                        });
+
+        MatcherAssert.assertThat(other.get(5, TimeUnit.SECONDS), Matchers.sameInstance(conn));
+    }
 }
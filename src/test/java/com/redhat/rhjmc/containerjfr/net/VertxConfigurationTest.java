@@ -0,0 +1,143 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+import io.vertx.core.VertxOptions;
+
+@ExtendWith(MockitoExtension.class)
+class VertxConfigurationTest {
+
+    VertxConfiguration conf;
+    @Mock Environment env;
+    @Mock Logger logger;
+
+    @BeforeEach
+    void setup() {
+        this.conf = new VertxConfiguration(env, logger);
+    }
+
+    @Test
+    void shouldKeepDefaultsIfUnconfigured() {
+        VertxOptions options = conf.applyToVertxOptions(new VertxOptions());
+
+        VertxOptions defaults = new VertxOptions();
+        MatcherAssert.assertThat(
+                options.getEventLoopPoolSize(), Matchers.equalTo(defaults.getEventLoopPoolSize()));
+        MatcherAssert.assertThat(
+                options.getWorkerPoolSize(), Matchers.equalTo(defaults.getWorkerPoolSize()));
+        MatcherAssert.assertThat(
+                options.getBlockedThreadCheckInterval(),
+                Matchers.equalTo(defaults.getBlockedThreadCheckInterval()));
+        MatcherAssert.assertThat(
+                options.getMaxEventLoopExecuteTime(),
+                Matchers.equalTo(defaults.getMaxEventLoopExecuteTime()));
+        MatcherAssert.assertThat(
+                options.getMaxWorkerExecuteTime(),
+                Matchers.equalTo(defaults.getMaxWorkerExecuteTime()));
+        Assertions.assertFalse(options.getPreferNativeTransport());
+        Mockito.verifyNoInteractions(logger);
+    }
+
+    @Test
+    void shouldApplyConfiguredOptions() {
+        configure(VertxConfiguration.EVENT_LOOP_THREADS_ENV, "3");
+        configure(VertxConfiguration.WORKER_THREADS_ENV, "5");
+        configure(VertxConfiguration.BLOCKED_THREAD_CHECK_MS_ENV, "500");
+        configure(VertxConfiguration.MAX_EVENT_LOOP_EXECUTE_MS_ENV, "100");
+        configure(VertxConfiguration.MAX_WORKER_EXECUTE_MS_ENV, "300000");
+        Mockito.when(env.hasEnv(VertxConfiguration.NATIVE_TRANSPORT_ENV)).thenReturn(true);
+
+        VertxOptions options = conf.applyToVertxOptions(new VertxOptions());
+
+        MatcherAssert.assertThat(options.getEventLoopPoolSize(), Matchers.equalTo(3));
+        MatcherAssert.assertThat(options.getWorkerPoolSize(), Matchers.equalTo(5));
+        MatcherAssert.assertThat(options.getBlockedThreadCheckInterval(), Matchers.equalTo(500L));
+        MatcherAssert.assertThat(
+                options.getBlockedThreadCheckIntervalUnit(),
+                Matchers.equalTo(TimeUnit.MILLISECONDS));
+        MatcherAssert.assertThat(options.getMaxEventLoopExecuteTime(), Matchers.equalTo(100L));
+        MatcherAssert.assertThat(
+                options.getMaxEventLoopExecuteTimeUnit(), Matchers.equalTo(TimeUnit.MILLISECONDS));
+        MatcherAssert.assertThat(options.getMaxWorkerExecuteTime(), Matchers.equalTo(300000L));
+        MatcherAssert.assertThat(
+                options.getMaxWorkerExecuteTimeUnit(), Matchers.equalTo(TimeUnit.MILLISECONDS));
+        Assertions.assertTrue(options.getPreferNativeTransport());
+    }
+
+    @Test
+    void shouldIgnoreInvalidValues() {
+        configure(VertxConfiguration.EVENT_LOOP_THREADS_ENV, "0");
+        configure(VertxConfiguration.WORKER_THREADS_ENV, "lots");
+
+        VertxOptions options = conf.applyToVertxOptions(new VertxOptions());
+
+        VertxOptions defaults = new VertxOptions();
+        MatcherAssert.assertThat(
+                options.getEventLoopPoolSize(), Matchers.equalTo(defaults.getEventLoopPoolSize()));
+        MatcherAssert.assertThat(
+                options.getWorkerPoolSize(), Matchers.equalTo(defaults.getWorkerPoolSize()));
+        Mockito.verify(logger)
+                .warn(
+                        VertxConfiguration.EVENT_LOOP_THREADS_ENV
+                                + " must be positive, using default");
+        Mockito.verify(logger).warn(Mockito.any(NumberFormatException.class));
+    }
+
+    private void configure(String name, String value) {
+        Mockito.when(env.hasEnv(name)).thenReturn(true);
+        Mockito.when(env.getEnv(name)).thenReturn(value);
+    }
+}
@@ -0,0 +1,157 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+import io.vertx.core.http.HttpServerOptions;
+
+@ExtendWith(MockitoExtension.class)
+class WebSocketCompressionConfigurationTest {
+
+    WebSocketCompressionConfiguration conf;
+    @Mock Environment env;
+    @Mock Logger logger;
+
+    @BeforeEach
+    void setup() {
+        Mockito.lenient()
+                .when(env.getEnv(Mockito.anyString(), Mockito.anyString()))
+                .thenAnswer(invocation -> invocation.getArgument(1));
+        Mockito.lenient().when(env.hasEnv(Mockito.anyString())).thenReturn(false);
+        this.conf = new WebSocketCompressionConfiguration(env, logger);
+    }
+
+    @Test
+    void shouldEnablePerMessageDeflateByDefault() {
+        HttpServerOptions options = conf.applyToHttpServerOptions(new HttpServerOptions());
+
+        Assertions.assertTrue(conf.enabled());
+        Assertions.assertTrue(options.getPerMessageWebsocketCompressionSupported());
+        Assertions.assertFalse(options.getPerFrameWebsocketCompressionSupported());
+        MatcherAssert.assertThat(
+                options.getWebsocketCompressionLevel(),
+                Matchers.equalTo(WebSocketCompressionConfiguration.DEFAULT_COMPRESSION_LEVEL));
+        Assertions.assertFalse(options.getWebsocketAllowServerNoContext());
+        Assertions.assertFalse(options.getWebsocketPreferredClientNoContext());
+    }
+
+    @Test
+    void shouldDisableCompression() {
+        Mockito.when(env.hasEnv(WebSocketCompressionConfiguration.DISABLE_WS_COMPRESSION_ENV))
+                .thenReturn(true);
+
+        HttpServerOptions options = conf.applyToHttpServerOptions(new HttpServerOptions());
+
+        Assertions.assertFalse(conf.enabled());
+        Assertions.assertFalse(options.getPerMessageWebsocketCompressionSupported());
+        Assertions.assertFalse(options.getPerFrameWebsocketCompressionSupported());
+    }
+
+    @Test
+    void shouldApplyConfiguredSettings() {
+        Mockito.when(
+                        env.hasEnv(
+                                WebSocketCompressionConfiguration
+                                        .WS_COMPRESSION_NO_CONTEXT_TAKEOVER_ENV))
+                .thenReturn(true);
+        Mockito.when(
+                        env.getEnv(
+                                Mockito.eq(
+                                        WebSocketCompressionConfiguration.WS_COMPRESSION_LEVEL_ENV),
+                                Mockito.anyString()))
+                .thenReturn(" 9 ");
+
+        HttpServerOptions options = conf.applyToHttpServerOptions(new HttpServerOptions());
+
+        MatcherAssert.assertThat(options.getWebsocketCompressionLevel(), Matchers.equalTo(9));
+        Assertions.assertTrue(options.getWebsocketAllowServerNoContext());
+        Assertions.assertTrue(options.getWebsocketPreferredClientNoContext());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"0", "10", "-1"})
+    void shouldUseDefaultLevelForOutOfRangeValues(String level) {
+        Mockito.when(
+                        env.getEnv(
+                                Mockito.eq(
+                                        WebSocketCompressionConfiguration.WS_COMPRESSION_LEVEL_ENV),
+                                Mockito.anyString()))
+                .thenReturn(level);
+
+        HttpServerOptions options = conf.applyToHttpServerOptions(new HttpServerOptions());
+
+        MatcherAssert.assertThat(
+                options.getWebsocketCompressionLevel(),
+                Matchers.equalTo(WebSocketCompressionConfiguration.DEFAULT_COMPRESSION_LEVEL));
+        Mockito.verify(logger).warn(Mockito.anyString());
+    }
+
+    @Test
+    void shouldUseDefaultLevelForUnparseableValue() {
+        Mockito.when(
+                        env.getEnv(
+                                Mockito.eq(
+                                        WebSocketCompressionConfiguration.WS_COMPRESSION_LEVEL_ENV),
+                                Mockito.anyString()))
+                .thenReturn("fast");
+
+        HttpServerOptions options = conf.applyToHttpServerOptions(new HttpServerOptions());
+
+        MatcherAssert.assertThat(
+                options.getWebsocketCompressionLevel(),
+                Matchers.equalTo(WebSocketCompressionConfiguration.DEFAULT_COMPRESSION_LEVEL));
+        Mockito.verify(logger).warn(Mockito.any(NumberFormatException.class));
+    }
+}
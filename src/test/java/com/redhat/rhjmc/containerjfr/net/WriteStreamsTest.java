@@ -0,0 +1,112 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.WriteStream;
+
+@ExtendWith(MockitoExtension.class)
+class WriteStreamsTest {
+
+    @Mock WriteStream<Buffer> stream;
+
+    @Test
+    void shouldNotWaitWhenQueueHasRoom() throws Exception {
+        Mockito.when(stream.writeQueueFull()).thenReturn(false);
+
+        MatcherAssert.assertThat(
+                WriteStreams.awaitDrain(stream, () -> false, 1000), Matchers.is(true));
+        Mockito.verify(stream, Mockito.never()).drainHandler(Mockito.any());
+    }
+
+    @Test
+    void shouldWaitForDrainHandler() throws Exception {
+        AtomicBoolean full = new AtomicBoolean(true);
+        Mockito.when(stream.writeQueueFull()).thenAnswer(i -> full.get());
+        Mockito.doAnswer(
+                        i -> {
+                            Handler<Void> handler = i.getArgument(0);
+                            if (handler != null) {
+                                full.set(false);
+                                handler.handle(null);
+                            }
+                            return stream;
+                        })
+                .when(stream)
+                .drainHandler(Mockito.any());
+
+        MatcherAssert.assertThat(
+                WriteStreams.awaitDrain(stream, () -> false, 1000), Matchers.is(true));
+        InOrder inOrder = Mockito.inOrder(stream);
+        inOrder.verify(stream).drainHandler(Mockito.notNull());
+        inOrder.verify(stream).drainHandler(null);
+    }
+
+    @Test
+    void shouldGiveUpAfterTimeout() throws Exception {
+        Mockito.when(stream.writeQueueFull()).thenReturn(true);
+
+        MatcherAssert.assertThat(
+                WriteStreams.awaitDrain(stream, () -> false, 10), Matchers.is(false));
+        Mockito.verify(stream).drainHandler(null);
+    }
+
+    @Test
+    void shouldStopWaitingWhenClosed() throws Exception {
+        Mockito.when(stream.writeQueueFull()).thenReturn(true);
+
+        MatcherAssert.assertThat(
+                WriteStreams.awaitDrain(stream, () -> true, 60_000), Matchers.is(true));
+        Mockito.verify(stream).drainHandler(null);
+    }
+}
@@ -65,6 +65,7 @@ import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
 import com.redhat.rhjmc.containerjfr.core.reports.ReportGenerator;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
 import com.redhat.rhjmc.containerjfr.net.ConnectionDescriptor;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
 import com.redhat.rhjmc.containerjfr.net.internal.reports.ReportService.RecordingNotFoundException;
@@ -77,6 +78,7 @@ class ActiveRecordingReportCacheTest {
     @Mock ReportGenerator reportGenerator;
     @Mock ReentrantLock lock;
     @Mock Logger logger;
+    MetricsRegistry metrics = new MetricsRegistry();
     @Mock JFRConnection connection;
     @Mock IFlightRecorderService service;
 
@@ -84,7 +86,7 @@ class ActiveRecordingReportCacheTest {
     void setup() {
         this.cache =
                 new ActiveRecordingReportCache(
-                        targetConnectionManager, reportGenerator, lock, logger);
+                        targetConnectionManager, reportGenerator, lock, metrics, logger);
     }
 
     @Test
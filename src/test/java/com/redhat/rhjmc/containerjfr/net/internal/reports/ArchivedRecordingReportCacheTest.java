@@ -43,9 +43,9 @@ package com.redhat.rhjmc.containerjfr.net.internal.reports;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -62,30 +62,34 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.reports.ReportGenerator;
 import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
 
 @ExtendWith(MockitoExtension.class)
 class ArchivedRecordingReportCacheTest {
 
     ArchivedRecordingReportCache cache;
-    @Mock Path savedRecordingsPath;
+    @Mock ArchiveStorage archiveStorage;
     @Mock Path webServerTempPath;
     @Mock FileSystem fs;
     @Mock ReportGenerator reportGenerator;
     @Mock ReentrantLock generationLock;
     @Mock Logger logger;
+    MetricsRegistry metrics = new MetricsRegistry();
 
     @BeforeEach
     void setup() {
         this.cache =
                 new ArchivedRecordingReportCache(
-                        savedRecordingsPath,
+                        archiveStorage,
                         webServerTempPath,
                         fs,
                         reportGenerator,
                         generationLock,
+                        metrics,
                         logger);
     }
 
@@ -123,7 +127,7 @@ class ArchivedRecordingReportCacheTest {
         Mockito.when(dest.toAbsolutePath()).thenReturn(dest);
         Mockito.when(fs.isReadable(Mockito.any())).thenReturn(false);
 
-        Mockito.when(fs.listDirectoryChildren(Mockito.any())).thenReturn(List.of());
+        Mockito.when(archiveStorage.read("foo")).thenThrow(NoSuchFileException.class);
 
         Optional<Path> res = cache.get("foo");
 
@@ -139,14 +143,11 @@ class ArchivedRecordingReportCacheTest {
     void getShouldGenerateAndCacheReport() throws IOException {
         Path dest = Mockito.mock(Path.class);
         Mockito.when(webServerTempPath.resolve(Mockito.anyString())).thenReturn(dest);
-        Mockito.when(savedRecordingsPath.resolve(Mockito.anyString())).thenReturn(dest);
         Mockito.when(dest.toAbsolutePath()).thenReturn(dest);
         Mockito.when(fs.isReadable(Mockito.any())).thenReturn(false);
 
-        Mockito.when(fs.listDirectoryChildren(Mockito.any())).thenReturn(List.of("foo"));
-
         InputStream stream = Mockito.mock(InputStream.class);
-        Mockito.when(fs.newInputStream(Mockito.any())).thenReturn(stream);
+        Mockito.when(archiveStorage.read(Mockito.anyString())).thenReturn(stream);
         Mockito.when(reportGenerator.generateReport(Mockito.any()))
                 .thenReturn("Mock Generated Report");
 
@@ -156,6 +157,8 @@ class ArchivedRecordingReportCacheTest {
         MatcherAssert.assertThat(res.get(), Matchers.sameInstance(dest));
         Mockito.verify(webServerTempPath).resolve("foo.report.html");
         Mockito.verify(fs, Mockito.atLeastOnce()).isReadable(dest);
+        Mockito.verify(archiveStorage).read("foo");
+        Mockito.verify(stream).close();
         Mockito.verify(fs)
                 .copy(
                         Mockito.any(InputStream.class),
@@ -164,6 +167,13 @@ class ArchivedRecordingReportCacheTest {
         InOrder lockOrder = Mockito.inOrder(generationLock);
         lockOrder.verify(generationLock).lock();
         lockOrder.verify(generationLock).unlock();
+        MatcherAssert.assertThat(
+                metrics.scrape(),
+                Matchers.allOf(
+                        Matchers.containsString(
+                                "containerjfr_report_cache_misses_total{cache=\"archived\"} 1\n"),
+                        Matchers.containsString(
+                                "containerjfr_report_generation_duration_seconds_count{source=\"archived\"} 1\n")));
     }
 
     @Test
@@ -182,5 +192,9 @@ class ArchivedRecordingReportCacheTest {
         Mockito.verify(fs).isReadable(dest);
         Mockito.verify(fs).isRegularFile(dest);
         Mockito.verifyNoInteractions(generationLock);
+        MatcherAssert.assertThat(
+                metrics.scrape(),
+                Matchers.containsString(
+                        "containerjfr_report_cache_hits_total{cache=\"archived\"} 1\n"));
     }
 }
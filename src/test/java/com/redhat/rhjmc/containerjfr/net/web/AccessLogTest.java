@@ -0,0 +1,255 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web;
+
+import java.util.List;
+import java.util.Map;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.net.SocketAddress;
+
+@ExtendWith(MockitoExtension.class)
+class AccessLogTest {
+
+    static final long TIMEOUT_MS = 1000;
+
+    AccessLog accessLog;
+    @Mock Logger logger;
+    @Mock Environment env;
+    @Mock HttpServerRequest req;
+    @Mock HttpServerResponse resp;
+    @Mock SocketAddress remoteAddress;
+    Gson gson = MainModule.provideGson(logger);
+
+    @BeforeEach
+    void setup() {
+        Mockito.lenient().when(req.response()).thenReturn(resp);
+        Mockito.lenient().when(req.remoteAddress()).thenReturn(remoteAddress);
+        Mockito.lenient().when(remoteAddress.toString()).thenReturn("10.0.0.1:5000");
+        Mockito.lenient().when(req.rawMethod()).thenReturn("GET");
+        Mockito.lenient().when(req.version()).thenReturn(HttpVersion.HTTP_2);
+        Mockito.lenient().when(resp.bytesWritten()).thenReturn(1234L);
+        Mockito.lenient()
+                .when(env.getEnv(Mockito.anyString(), Mockito.anyString()))
+                .thenAnswer(invocation -> invocation.getArgument(1));
+    }
+
+    @AfterEach
+    void teardown() {
+        if (accessLog != null) {
+            accessLog.stop();
+        }
+    }
+
+    @Test
+    void shouldLogRequestsInTextFormat() {
+        accessLog = create(1, List.of(), AccessLog.Format.TEXT, 16, 0.5);
+        respond("/api/v1/recordings", 200);
+
+        accessLog.record(req, System.nanoTime());
+        accessLog.start();
+
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(logger, Mockito.timeout(TIMEOUT_MS)).info(captor.capture());
+        MatcherAssert.assertThat(
+                captor.getValue(),
+                Matchers.matchesPattern(
+                        "\\(10\\.0\\.0\\.1:5000\\): GET /api/v1/recordings 200 \\d+ms"));
+    }
+
+    @Test
+    void shouldLogRequestsInJsonFormat() {
+        accessLog = create(1, List.of(), AccessLog.Format.JSON, 16, 0.5);
+        respond("/api/v1/recordings", 200);
+
+        accessLog.record(req, System.nanoTime());
+        accessLog.start();
+
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(logger, Mockito.timeout(TIMEOUT_MS)).info(captor.capture());
+        Map<String, Object> entry =
+                gson.fromJson(captor.getValue(), new TypeToken<Map<String, Object>>() {}.getType());
+        MatcherAssert.assertThat(entry, Matchers.hasEntry("remoteAddress", "10.0.0.1:5000"));
+        MatcherAssert.assertThat(entry, Matchers.hasEntry("method", "GET"));
+        MatcherAssert.assertThat(entry, Matchers.hasEntry("path", "/api/v1/recordings"));
+        MatcherAssert.assertThat(entry, Matchers.hasEntry("protocol", "HTTP_2"));
+        MatcherAssert.assertThat(entry, Matchers.hasEntry("status", 200.0));
+        MatcherAssert.assertThat(entry, Matchers.hasEntry("bytes", 1234.0));
+        MatcherAssert.assertThat(entry, Matchers.hasKey("timestamp"));
+        MatcherAssert.assertThat(entry, Matchers.hasKey("durationMs"));
+    }
+
+    @Test
+    void shouldSkipUnsampledAndExcludedRequests() {
+        accessLog = create(0.5, List.of("/health", "/static/*"), AccessLog.Format.TEXT, 16, 0.7);
+
+        respond("/api/v1/recordings", 200);
+        accessLog.record(req, System.nanoTime());
+        respond("/health", 200);
+        accessLog.record(req, System.nanoTime());
+        respond("/static/app.js", 200);
+        accessLog.record(req, System.nanoTime());
+        respond("/healthz", 404);
+        accessLog.record(req, System.nanoTime());
+        accessLog.start();
+
+        // entries are logged in order, so earlier entries would have been logged by now
+        Mockito.verify(logger, Mockito.timeout(TIMEOUT_MS))
+                .info(Mockito.contains("GET /healthz 404"));
+        Mockito.verify(logger, Mockito.times(1)).info(Mockito.anyString());
+    }
+
+    @Test
+    void shouldLogSampledRequests() {
+        accessLog = create(0.5, List.of(), AccessLog.Format.TEXT, 16, 0.2);
+        respond("/api/v1/recordings", 200);
+
+        accessLog.record(req, System.nanoTime());
+        accessLog.start();
+
+        Mockito.verify(logger, Mockito.timeout(TIMEOUT_MS))
+                .info(Mockito.contains("GET /api/v1/recordings 200"));
+    }
+
+    @Test
+    void shouldAlwaysLogFailedRequests() {
+        accessLog = create(0, List.of("/api/*"), AccessLog.Format.TEXT, 16, 0.9);
+        respond("/api/v1/recordings", 503);
+
+        accessLog.record(req, System.nanoTime());
+        accessLog.start();
+
+        Mockito.verify(logger, Mockito.timeout(TIMEOUT_MS))
+                .info(Mockito.contains("GET /api/v1/recordings 503"));
+    }
+
+    @Test
+    void shouldDropEntriesWhenQueueFull() {
+        accessLog = create(1, List.of(), AccessLog.Format.TEXT, 1, 0.5);
+        respond("/api/v1/recordings", 200);
+
+        accessLog.record(req, System.nanoTime());
+        accessLog.record(req, System.nanoTime());
+        accessLog.record(req, System.nanoTime());
+        accessLog.start();
+
+        Mockito.verify(logger, Mockito.timeout(TIMEOUT_MS))
+                .warn("2 access log entries dropped, queue full");
+        Mockito.verify(logger, Mockito.timeout(TIMEOUT_MS)).info(Mockito.anyString());
+        Mockito.verify(logger, Mockito.times(1)).info(Mockito.anyString());
+    }
+
+    @Test
+    void shouldReadConfigurationFromEnvironment() {
+        Mockito.when(env.getEnv(Mockito.eq(AccessLog.FORMAT_ENV), Mockito.anyString()))
+                .thenReturn("json");
+        Mockito.when(env.getEnv(Mockito.eq(AccessLog.EXCLUDE_ENV), Mockito.anyString()))
+                .thenReturn(" /health , ");
+        accessLog = AccessLog.fromEnvironment(env, gson, logger);
+
+        respond("/health", 200);
+        accessLog.record(req, System.nanoTime());
+        respond("/api/v1/recordings", 200);
+        accessLog.record(req, System.nanoTime());
+        accessLog.start();
+
+        Mockito.verify(logger, Mockito.timeout(TIMEOUT_MS))
+                .info(Mockito.contains("\"path\":\"/api/v1/recordings\""));
+        Mockito.verify(logger, Mockito.times(1)).info(Mockito.anyString());
+        Mockito.verify(logger, Mockito.never()).warn(Mockito.anyString());
+    }
+
+    @Test
+    void shouldUseDefaultsForInvalidConfiguration() {
+        Mockito.when(env.getEnv(Mockito.eq(AccessLog.SAMPLE_RATE_ENV), Mockito.anyString()))
+                .thenReturn("2");
+        Mockito.when(env.getEnv(Mockito.eq(AccessLog.FORMAT_ENV), Mockito.anyString()))
+                .thenReturn("xml");
+        Mockito.when(env.getEnv(Mockito.eq(AccessLog.QUEUE_ENV), Mockito.anyString()))
+                .thenReturn("none");
+        accessLog = AccessLog.fromEnvironment(env, gson, logger);
+
+        respond("/api/v1/recordings", 200);
+        accessLog.record(req, System.nanoTime());
+        accessLog.start();
+
+        Mockito.verify(logger, Mockito.timeout(TIMEOUT_MS))
+                .info(Mockito.contains("GET /api/v1/recordings 200"));
+        Mockito.verify(logger)
+                .warn(AccessLog.SAMPLE_RATE_ENV + " must be between 0 and 1, using 1");
+        Mockito.verify(logger, Mockito.times(2)).warn(Mockito.any(IllegalArgumentException.class));
+    }
+
+    private AccessLog create(
+            double sampleRate,
+            List<String> excluded,
+            AccessLog.Format format,
+            int queueCapacity,
+            double random) {
+        return new AccessLog(
+                sampleRate, excluded, format, queueCapacity, () -> random, gson, logger);
+    }
+
+    private void respond(String path, int status) {
+        Mockito.lenient().when(req.path()).thenReturn(path);
+        Mockito.lenient().when(resp.getStatusCode()).thenReturn(status);
+    }
+}
@@ -0,0 +1,204 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import com.google.gson.Gson;
+
+import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+
+@ExtendWith(MockitoExtension.class)
+class JsonResponseWriterTest {
+
+    @Mock HttpServerResponse resp;
+    @Mock Logger logger;
+    Gson gson;
+    List<String> written;
+
+    @BeforeEach
+    void setup() {
+        this.gson = MainModule.provideGson(logger);
+        this.written = new ArrayList<>();
+        Mockito.lenient()
+                .when(resp.write(Mockito.any(Buffer.class)))
+                .thenAnswer(
+                        invocation -> {
+                            written.add(invocation.getArgument(0, Buffer.class).toString());
+                            return resp;
+                        });
+    }
+
+    @Test
+    void shouldSendSmallArraysWhole() throws IOException {
+        List<Map<String, Object>> items = List.of(Map.of("name", "foo"), Map.of("name", "bar"));
+
+        JsonResponseWriter.writeArray(resp, gson, items);
+
+        verify(resp).end(gson.toJson(items));
+        verify(resp, never()).write(Mockito.any(Buffer.class));
+        verify(resp, never()).setChunked(Mockito.anyBoolean());
+    }
+
+    @Test
+    void shouldSendEmptyArray() throws IOException {
+        JsonResponseWriter.writeArray(resp, gson, List.of());
+
+        verify(resp).end("[]");
+    }
+
+    @Test
+    void shouldWriteNullElements() throws IOException {
+        JsonResponseWriter.writeArray(resp, gson, Arrays.asList("a", null, "b"));
+
+        verify(resp).end("[\"a\",null,\"b\"]");
+    }
+
+    @Test
+    void shouldStreamLargeArraysInChunks() throws IOException {
+        List<String> items =
+                IntStream.range(0, 10_000)
+                        .mapToObj(i -> "recording-" + i + "-\u00e9\ud83d\ude00")
+                        .collect(Collectors.toList());
+
+        JsonResponseWriter.writeArray(resp, gson, items);
+
+        verify(resp).setChunked(true);
+        MatcherAssert.assertThat(written.size(), Matchers.greaterThan(1));
+        for (String chunk : written) {
+            MatcherAssert.assertThat(
+                    chunk.length(),
+                    Matchers.lessThanOrEqualTo(JsonResponseWriter.CHUNK_SIZE + 256));
+            Assertions.assertFalse(chunk.contains("\ufffd"));
+        }
+        ArgumentCaptor<String> last = ArgumentCaptor.forClass(String.class);
+        verify(resp).end(last.capture());
+        MatcherAssert.assertThat(
+                String.join("", written) + last.getValue(), Matchers.equalTo(gson.toJson(items)));
+    }
+
+    @Test
+    void shouldConsumeStreamsLazily() throws IOException {
+        AtomicInteger produced = new AtomicInteger();
+        List<Integer> producedWhenWritten = new ArrayList<>();
+        when(resp.write(Mockito.any(Buffer.class)))
+                .thenAnswer(
+                        invocation -> {
+                            producedWhenWritten.add(produced.get());
+                            return resp;
+                        });
+        Stream<String> items =
+                IntStream.range(0, 10_000)
+                        .mapToObj(
+                                i -> {
+                                    produced.incrementAndGet();
+                                    return "item-" + i;
+                                });
+
+        JsonResponseWriter.writeArray(resp, gson, items);
+
+        MatcherAssert.assertThat(producedWhenWritten.get(0), Matchers.lessThan(10_000));
+        MatcherAssert.assertThat(produced.get(), Matchers.equalTo(10_000));
+    }
+
+    @Test
+    void shouldWaitForClientWhenWriteQueueIsFull() throws IOException {
+        when(resp.writeQueueFull()).thenReturn(true, true, false);
+        when(resp.drainHandler(Mockito.any()))
+                .thenAnswer(
+                        invocation -> {
+                            Handler<Void> handler = invocation.getArgument(0);
+                            if (handler != null) {
+                                handler.handle(null);
+                            }
+                            return resp;
+                        });
+
+        JsonResponseWriter.writeArray(
+                resp, gson, IntStream.range(0, 5000).mapToObj(i -> "item-" + i));
+
+        verify(resp).drainHandler(null);
+        verify(resp).end(Mockito.anyString());
+    }
+
+    @Test
+    void shouldStopWritingIfClientCloses() {
+        when(resp.writeQueueFull()).thenReturn(true);
+        when(resp.closed()).thenReturn(true);
+
+        Assertions.assertThrows(
+                IOException.class,
+                () ->
+                        JsonResponseWriter.writeArray(
+                                resp, gson, IntStream.range(0, 5000).mapToObj(i -> "item-" + i)));
+
+        verify(resp, never()).end(Mockito.anyString());
+        verify(resp).drainHandler(null);
+    }
+}
@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.net.UnknownHostException;
+
+import javax.management.remote.JMXServiceURL;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.net.HttpServer;
+import com.redhat.rhjmc.containerjfr.net.NetworkConfiguration;
+
+@ExtendWith(MockitoExtension.class)
+class LinkBuilderTest {
+
+    LinkBuilder links;
+    @Mock HttpServer httpServer;
+    @Mock NetworkConfiguration netConf;
+    @Mock Clock clock;
+    @Mock Logger logger;
+    @Mock JFRConnection connection;
+
+    @BeforeEach
+    void setup() {
+        this.links = new LinkBuilder(httpServer, netConf, clock, logger);
+    }
+
+    @Test
+    void shouldResolveHostOnceForManyLinks() throws Exception {
+        when(netConf.getWebServerHost()).thenReturn("example.com");
+        when(netConf.getExternalWebServerPort()).thenReturn(8181);
+
+        for (int i = 0; i < 500; i++) {
+            MatcherAssert.assertThat(
+                    links.getArchivedDownloadURL("rec" + i),
+                    Matchers.equalTo("http://example.com:8181/api/v1/recordings/rec" + i));
+            MatcherAssert.assertThat(
+                    links.getArchivedReportURL("rec" + i),
+                    Matchers.equalTo("http://example.com:8181/api/v1/reports/rec" + i));
+        }
+
+        verify(netConf, times(1)).getWebServerHost();
+        verify(httpServer, times(1)).isSsl();
+    }
+
+    @Test
+    void shouldBuildTargetLinks() throws Exception {
+        when(httpServer.isSsl()).thenReturn(true);
+        when(netConf.getWebServerHost()).thenReturn("example.com");
+        when(netConf.getExternalWebServerPort()).thenReturn(8181);
+        JMXServiceURL url = new JMXServiceURL("service:jmx:rmi:///jndi/rmi://fooHost:9091/jmxrmi");
+        when(connection.getJMXURL()).thenReturn(url);
+
+        MatcherAssert.assertThat(
+                links.getDownloadURL(connection, "foo.jfr"),
+                Matchers.equalTo(
+                        "https://example.com:8181/api/v1/targets/service:jmx:rmi:%2F%2F%2Fjndi%2Frmi:%2F%2FfooHost:9091%2Fjmxrmi/recordings/foo.jfr"));
+        MatcherAssert.assertThat(
+                links.getReportURL(connection, "foo.jfr"),
+                Matchers.equalTo(
+                        "https://example.com:8181/api/v1/targets/service:jmx:rmi:%2F%2F%2Fjndi%2Frmi:%2F%2FfooHost:9091%2Fjmxrmi/reports/foo.jfr"));
+    }
+
+    @Test
+    void shouldRefreshHostAfterInterval() throws Exception {
+        when(clock.getMonotonicTime())
+                .thenReturn(
+                        0L,
+                        LinkBuilder.REFRESH_INTERVAL_NANOS - 1,
+                        LinkBuilder.REFRESH_INTERVAL_NANOS);
+        when(netConf.getWebServerHost()).thenReturn("first", "second");
+        when(netConf.getExternalWebServerPort()).thenReturn(8181);
+
+        MatcherAssert.assertThat(
+                links.getHostUri(), Matchers.equalTo(URI.create("http://first:8181")));
+        MatcherAssert.assertThat(
+                links.getHostUri(), Matchers.equalTo(URI.create("http://first:8181")));
+        MatcherAssert.assertThat(
+                links.getHostUri(), Matchers.equalTo(URI.create("http://second:8181")));
+
+        verify(netConf, times(2)).getWebServerHost();
+        verify(logger).info(Mockito.contains("changed"));
+    }
+
+    @Test
+    void shouldKeepPreviousHostIfRefreshFails() throws Exception {
+        when(clock.getMonotonicTime())
+                .thenReturn(
+                        0L,
+                        LinkBuilder.REFRESH_INTERVAL_NANOS,
+                        LinkBuilder.REFRESH_INTERVAL_NANOS + 1);
+        when(netConf.getWebServerHost())
+                .thenReturn("example.com")
+                .thenThrow(UnknownHostException.class);
+        when(netConf.getExternalWebServerPort()).thenReturn(8181);
+
+        links.getHostUri();
+        MatcherAssert.assertThat(
+                links.getHostUri(), Matchers.equalTo(URI.create("http://example.com:8181")));
+        MatcherAssert.assertThat(
+                links.getHostUri(), Matchers.equalTo(URI.create("http://example.com:8181")));
+
+        verify(netConf, times(2)).getWebServerHost();
+        verify(logger).warn(Mockito.anyString());
+    }
+
+    @Test
+    void shouldThrowIfHostIsNeverResolved() throws Exception {
+        when(netConf.getWebServerHost()).thenThrow(UnknownHostException.class);
+
+        Assertions.assertThrows(UnknownHostException.class, () -> links.getHostUri());
+    }
+
+    @Test
+    void shouldBracketIPv6Hosts() throws Exception {
+        when(netConf.getWebServerHost()).thenReturn("fe80::1");
+        when(netConf.getExternalWebServerPort()).thenReturn(8181);
+
+        MatcherAssert.assertThat(
+                links.getArchivedReportURL("foo"),
+                Matchers.equalTo("http://[fe80::1]:8181/api/v1/reports/foo"));
+    }
+
+    @Test
+    void shouldEncodePathSegments() {
+        MatcherAssert.assertThat(
+                LinkBuilder.encodeSegment("some-recording_1.jfr"),
+                Matchers.equalTo("some-recording_1.jfr"));
+        MatcherAssert.assertThat(
+                LinkBuilder.encodeSegment("a b/c?d#e%f"),
+                Matchers.equalTo("a%20b%2Fc%3Fd%23e%25f"));
+        MatcherAssert.assertThat(
+                LinkBuilder.encodeSegment("host:9091@x"), Matchers.equalTo("host:9091@x"));
+        MatcherAssert.assertThat(LinkBuilder.encodeSegment("\u00e9"), Matchers.equalTo("%C3%A9"));
+        MatcherAssert.assertThat(LinkBuilder.encodeSegment(".."), Matchers.equalTo("%2E%2E"));
+    }
+}
@@ -0,0 +1,201 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import io.vertx.core.buffer.Buffer;
+
+class MultipartUploadStreamTest {
+
+    final List<Buffer> received = new ArrayList<>();
+    final AtomicBoolean ended = new AtomicBoolean();
+
+    MultipartUploadStream stream(InputStream source) {
+        MultipartUploadStream stream =
+                new MultipartUploadStream("file", "foo.jfr", "application/octet-stream", source);
+        stream.endHandler(v -> ended.set(true));
+        return stream;
+    }
+
+    String expectedBody(MultipartUploadStream stream, String content) {
+        String boundary = stream.getContentType().replace("multipart/form-data; boundary=", "");
+        return String.format(
+                "--%s\r\nContent-Disposition: form-data; name=\"file\"; filename=\"foo.jfr\"\r\nContent-Type: application/octet-stream\r\n\r\n%s\r\n--%s--\r\n",
+                boundary, content, boundary);
+    }
+
+    String receivedBody() {
+        Buffer body = Buffer.buffer();
+        synchronized (received) {
+            received.forEach(body::appendBuffer);
+        }
+        return body.toString();
+    }
+
+    Thread pumpInBackground(MultipartUploadStream stream) throws Exception {
+        Thread thread =
+                new Thread(
+                        () -> {
+                            try {
+                                stream.pump();
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        });
+        thread.start();
+        while (thread.getState() != Thread.State.WAITING && thread.isAlive()) {
+            Thread.sleep(10);
+        }
+        return thread;
+    }
+
+    void collect(MultipartUploadStream stream) {
+        stream.handler(
+                b -> {
+                    synchronized (received) {
+                        received.add(b);
+                    }
+                });
+    }
+
+    @Test
+    void shouldEncodeSourceAsMultipartBody() throws Exception {
+        byte[] content = new byte[MultipartUploadStream.CHUNK_SIZE * 2 + 1];
+        MultipartUploadStream stream = stream(new ByteArrayInputStream(content));
+        collect(stream);
+
+        stream.pump();
+
+        MatcherAssert.assertThat(
+                receivedBody(),
+                Matchers.equalTo(
+                        expectedBody(stream, new String(content, StandardCharsets.UTF_8))));
+        MatcherAssert.assertThat(ended.get(), Matchers.is(true));
+        // head, three chunks of the source and tail
+        MatcherAssert.assertThat(received, Matchers.hasSize(5));
+    }
+
+    @Test
+    void shouldOnlyEmitOnDemand() throws Exception {
+        MultipartUploadStream stream =
+                stream(new ByteArrayInputStream("data".getBytes(StandardCharsets.UTF_8)));
+        stream.pause();
+        collect(stream);
+
+        Thread thread = pumpInBackground(stream);
+        MatcherAssert.assertThat(receivedBody(), Matchers.emptyString());
+
+        stream.fetch(1);
+        while (receivedBody().isEmpty() || thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        MatcherAssert.assertThat(received, Matchers.hasSize(1));
+        MatcherAssert.assertThat(ended.get(), Matchers.is(false));
+
+        stream.resume();
+        thread.join(5_000);
+        MatcherAssert.assertThat(receivedBody(), Matchers.equalTo(expectedBody(stream, "data")));
+        MatcherAssert.assertThat(ended.get(), Matchers.is(true));
+    }
+
+    @Test
+    void shouldWaitForHandler() throws Exception {
+        MultipartUploadStream stream =
+                stream(new ByteArrayInputStream("data".getBytes(StandardCharsets.UTF_8)));
+
+        Thread thread = pumpInBackground(stream);
+        collect(stream);
+        thread.join(5_000);
+
+        MatcherAssert.assertThat(receivedBody(), Matchers.equalTo(expectedBody(stream, "data")));
+    }
+
+    @Test
+    void shouldStopWhenClosed() throws Exception {
+        MultipartUploadStream stream =
+                stream(new ByteArrayInputStream("data".getBytes(StandardCharsets.UTF_8)));
+        stream.pause();
+        collect(stream);
+
+        Thread thread = pumpInBackground(stream);
+        stream.close();
+        thread.join(5_000);
+
+        MatcherAssert.assertThat(thread.isAlive(), Matchers.is(false));
+        MatcherAssert.assertThat(received, Matchers.empty());
+        MatcherAssert.assertThat(ended.get(), Matchers.is(false));
+    }
+
+    @Test
+    void shouldReportSourceFailure() throws Exception {
+        IOException failure = new IOException("connection lost");
+        MultipartUploadStream stream =
+                stream(
+                        new InputStream() {
+                            @Override
+                            public int read() throws IOException {
+                                throw failure;
+                            }
+                        });
+        AtomicReference<Throwable> reported = new AtomicReference<>();
+        stream.exceptionHandler(reported::set);
+        collect(stream);
+
+        IOException thrown = Assertions.assertThrows(IOException.class, stream::pump);
+
+        MatcherAssert.assertThat(thrown, Matchers.sameInstance(failure));
+        MatcherAssert.assertThat(reported.get(), Matchers.sameInstance(failure));
+        MatcherAssert.assertThat(ended.get(), Matchers.is(false));
+    }
+}
@@ -0,0 +1,168 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+
+@ExtendWith(MockitoExtension.class)
+class ResponseChannelTest {
+
+    @Mock HttpServerResponse resp;
+    ByteArrayOutputStream written;
+
+    @BeforeEach
+    void setup() {
+        this.written = new ByteArrayOutputStream();
+        Mockito.lenient()
+                .when(resp.write(Mockito.any(Buffer.class)))
+                .thenAnswer(
+                        invocation -> {
+                            written.writeBytes(invocation.getArgument(0, Buffer.class).getBytes());
+                            return resp;
+                        });
+    }
+
+    static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    @Test
+    void shouldSendSmallResponsesWhole() throws IOException {
+        ResponseChannel channel = new ResponseChannel(resp, 16);
+
+        MatcherAssert.assertThat(channel.write(ByteBuffer.wrap(bytes(10))), Matchers.equalTo(10));
+        channel.end();
+
+        ArgumentCaptor<Buffer> bodyCaptor = ArgumentCaptor.forClass(Buffer.class);
+        verify(resp).end(bodyCaptor.capture());
+        MatcherAssert.assertThat(bodyCaptor.getValue().getBytes(), Matchers.equalTo(bytes(10)));
+        verify(resp, never()).setChunked(Mockito.anyBoolean());
+        verify(resp, never()).write(Mockito.any(Buffer.class));
+    }
+
+    @Test
+    void shouldStreamLargeResponsesInChunks() throws IOException {
+        ResponseChannel channel = new ResponseChannel(resp, 16);
+        byte[] data = bytes(100);
+
+        channel.write(ByteBuffer.wrap(data, 0, 40));
+        channel.write(ByteBuffer.wrap(data, 40, 60));
+        channel.end();
+
+        verify(resp).setChunked(true);
+        verify(resp, Mockito.times(6)).write(Mockito.any(Buffer.class));
+        ArgumentCaptor<Buffer> bodyCaptor = ArgumentCaptor.forClass(Buffer.class);
+        verify(resp).end(bodyCaptor.capture());
+        written.writeBytes(bodyCaptor.getValue().getBytes());
+        MatcherAssert.assertThat(written.toByteArray(), Matchers.equalTo(data));
+    }
+
+    @Test
+    void shouldWaitForClientWhenWriteQueueIsFull() throws IOException {
+        when(resp.writeQueueFull()).thenReturn(true, true, false);
+        when(resp.drainHandler(Mockito.any()))
+                .thenAnswer(
+                        invocation -> {
+                            Handler<Void> handler = invocation.getArgument(0);
+                            if (handler != null) {
+                                handler.handle(null);
+                            }
+                            return resp;
+                        });
+        ResponseChannel channel = new ResponseChannel(resp, 16);
+
+        channel.write(ByteBuffer.wrap(bytes(20)));
+        channel.end();
+
+        verify(resp).drainHandler(null);
+        verify(resp).end(Mockito.any(Buffer.class));
+    }
+
+    @Test
+    void shouldStopWritingIfClientCloses() throws IOException {
+        ResponseChannel channel = new ResponseChannel(resp, 16);
+        channel.write(ByteBuffer.wrap(bytes(16)));
+        when(resp.closed()).thenReturn(true);
+
+        Assertions.assertThrows(IOException.class, () -> channel.write(ByteBuffer.wrap(bytes(1))));
+        verify(resp, never()).write(Mockito.any(Buffer.class));
+    }
+
+    @Test
+    void shouldNotEndResponseWhenClosed() throws IOException {
+        ResponseChannel channel = new ResponseChannel(resp, 16);
+        channel.write(ByteBuffer.wrap(bytes(4)));
+
+        channel.close();
+
+        MatcherAssert.assertThat(channel.isOpen(), Matchers.is(false));
+        Assertions.assertThrows(
+                ClosedChannelException.class, () -> channel.write(ByteBuffer.wrap(bytes(1))));
+        Assertions.assertThrows(ClosedChannelException.class, channel::end);
+        verify(resp, never()).end(Mockito.any(Buffer.class));
+    }
+}
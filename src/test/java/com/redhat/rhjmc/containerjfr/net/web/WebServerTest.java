@@ -73,6 +73,8 @@ import com.google.gson.Gson;
 import com.redhat.rhjmc.containerjfr.MainModule;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
 import com.redhat.rhjmc.containerjfr.net.HttpServer;
 import com.redhat.rhjmc.containerjfr.net.NetworkConfiguration;
@@ -84,6 +86,9 @@ class WebServerTest {
     @Mock HttpServer httpServer;
     @Mock NetworkConfiguration netConf;
     @Mock AuthManager authManager;
+    @Mock WorkerPools workerPools;
+    @Mock AccessLog accessLog;
+    MetricsRegistry metrics = new MetricsRegistry();
     @Mock Logger logger;
     @Mock JFRConnection connection;
     @Mock IFlightRecorderService service;
@@ -91,7 +96,17 @@ class WebServerTest {
 
     @BeforeEach
     void setup() {
-        exporter = new WebServer(httpServer, netConf, Set.of(), gson, authManager, logger);
+        exporter =
+                new WebServer(
+                        httpServer,
+                        new LinkBuilder(httpServer, netConf, new Clock(), logger),
+                        Set.of(),
+                        gson,
+                        authManager,
+                        workerPools,
+                        accessLog,
+                        metrics,
+                        logger);
     }
 
     @Test
@@ -104,7 +119,17 @@ class WebServerTest {
     @Test
     void shouldSuccessfullyInstantiateWithDefaultServer() {
         assertDoesNotThrow(
-                () -> new WebServer(httpServer, netConf, Set.of(), gson, authManager, logger));
+                () ->
+                        new WebServer(
+                                httpServer,
+                                new LinkBuilder(httpServer, netConf, new Clock(), logger),
+                                Set.of(),
+                                gson,
+                                authManager,
+                                workerPools,
+                                accessLog,
+                                metrics,
+                                logger));
     }
 
     @Test
@@ -0,0 +1,248 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web;
+
+import java.util.Map;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
+import com.redhat.rhjmc.containerjfr.net.web.handlers.RequestHandler;
+import com.redhat.rhjmc.containerjfr.net.web.handlers.WorkerPool;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.Route;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.impl.HttpStatusException;
+
+@ExtendWith(MockitoExtension.class)
+class WorkerPoolsTest {
+
+    WorkerPools workerPools;
+    @Mock Vertx vertx;
+    @Mock WorkerExecutor defaultExecutor;
+    @Mock WorkerExecutor targetExecutor;
+    @Mock WorkerExecutor archiveExecutor;
+    @Mock RequestHandler handler;
+    @Mock RoutingContext ctx;
+    @Mock HttpServerRequest req;
+    @Mock HttpServerResponse resp;
+    @Mock Route route;
+    @Mock Environment env;
+    @Mock Logger logger;
+    MetricsRegistry metrics = new MetricsRegistry();
+
+    @BeforeEach
+    void setup() {
+        Mockito.lenient()
+                .when(vertx.createSharedWorkerExecutor("container-jfr-default-worker", 1))
+                .thenReturn(defaultExecutor);
+        Mockito.lenient()
+                .when(vertx.createSharedWorkerExecutor("container-jfr-target-worker", 2))
+                .thenReturn(targetExecutor);
+        Mockito.lenient()
+                .when(vertx.createSharedWorkerExecutor("container-jfr-archive-worker", 1))
+                .thenReturn(archiveExecutor);
+        Mockito.lenient().when(ctx.request()).thenReturn(req);
+        Mockito.lenient().when(ctx.response()).thenReturn(resp);
+        Mockito.lenient().when(ctx.currentRoute()).thenReturn(route);
+        Mockito.lenient().when(handler.workerPool()).thenReturn(WorkerPool.TARGET);
+        workerPools =
+                new WorkerPools(
+                        Map.of(
+                                WorkerPool.DEFAULT, new WorkerPools.Limits(1, 0),
+                                WorkerPool.TARGET, new WorkerPools.Limits(2, 1),
+                                WorkerPool.ARCHIVE, new WorkerPools.Limits(1, 0)),
+                        metrics,
+                        logger);
+        workerPools.start(vertx);
+    }
+
+    @Test
+    void shouldRunHandlerOnItsPool() throws Exception {
+        Mockito.when(handler.isOrdered()).thenReturn(true);
+
+        workerPools.blockingHandler(handler).handle(ctx);
+
+        ArgumentCaptor<Handler<Promise<Object>>> task = ArgumentCaptor.forClass(Handler.class);
+        Mockito.verify(targetExecutor)
+                .executeBlocking(task.capture(), Mockito.eq(true), Mockito.any());
+        Mockito.verifyNoInteractions(defaultExecutor, archiveExecutor);
+        Mockito.verify(handler, Mockito.never()).handle(Mockito.any());
+
+        Promise<Object> promise = Promise.promise();
+        task.getValue().handle(promise);
+        Mockito.verify(handler).handle(Mockito.any(RoutingContext.class));
+        Assertions.assertTrue(promise.future().succeeded());
+    }
+
+    @Test
+    void shouldRejectRequestsBeyondQueueDepth() throws Exception {
+        Handler<RoutingContext> blocking = workerPools.blockingHandler(handler);
+        for (int i = 0; i < 3; i++) {
+            blocking.handle(ctx);
+        }
+        Mockito.verify(targetExecutor, Mockito.times(3))
+                .executeBlocking(Mockito.any(), Mockito.anyBoolean(), Mockito.any());
+        Mockito.verify(ctx, Mockito.never()).fail(Mockito.any(Throwable.class));
+
+        blocking.handle(ctx);
+
+        Mockito.verify(targetExecutor, Mockito.times(3))
+                .executeBlocking(Mockito.any(), Mockito.anyBoolean(), Mockito.any());
+        Mockito.verify(resp)
+                .putHeader(
+                        HttpHeaders.RETRY_AFTER, String.valueOf(WorkerPools.RETRY_AFTER_SECONDS));
+        ArgumentCaptor<Throwable> failure = ArgumentCaptor.forClass(Throwable.class);
+        Mockito.verify(ctx).fail(failure.capture());
+        MatcherAssert.assertThat(
+                failure.getValue(), Matchers.instanceOf(HttpStatusException.class));
+        MatcherAssert.assertThat(
+                ((HttpStatusException) failure.getValue()).getStatusCode(), Matchers.equalTo(503));
+        MatcherAssert.assertThat(
+                metrics.scrape(),
+                Matchers.allOf(
+                        Matchers.containsString(
+                                "containerjfr_worker_pool_requests{pool=\"target\"} 3\n"),
+                        Matchers.containsString(
+                                "containerjfr_worker_pool_rejected_total{pool=\"target\"} 1\n")));
+    }
+
+    @Test
+    void shouldAcceptRequestsAgainOnceHandled() throws Exception {
+        Mockito.doThrow(new IllegalStateException("boom"))
+                .doNothing()
+                .when(handler)
+                .handle(Mockito.any());
+        Handler<RoutingContext> blocking = workerPools.blockingHandler(handler);
+        for (int i = 0; i < 3; i++) {
+            blocking.handle(ctx);
+        }
+
+        ArgumentCaptor<Handler<Promise<Object>>> task = ArgumentCaptor.forClass(Handler.class);
+        Mockito.verify(targetExecutor, Mockito.times(3))
+                .executeBlocking(task.capture(), Mockito.anyBoolean(), Mockito.any());
+        Assertions.assertThrows(
+                IllegalStateException.class,
+                () -> task.getAllValues().get(0).handle(Promise.promise()));
+        task.getAllValues().get(1).handle(Promise.promise());
+
+        blocking.handle(ctx);
+        blocking.handle(ctx);
+
+        Mockito.verify(targetExecutor, Mockito.times(5))
+                .executeBlocking(Mockito.any(), Mockito.anyBoolean(), Mockito.any());
+        Mockito.verify(ctx, Mockito.never()).fail(Mockito.any(Throwable.class));
+    }
+
+    @Test
+    void shouldFailRequestIfHandlerFails() throws Exception {
+        workerPools.blockingHandler(handler).handle(ctx);
+
+        ArgumentCaptor<Handler<AsyncResult<Object>>> result =
+                ArgumentCaptor.forClass(Handler.class);
+        Mockito.verify(targetExecutor)
+                .executeBlocking(Mockito.any(), Mockito.anyBoolean(), result.capture());
+        Exception e = new IllegalStateException("boom");
+        result.getValue().handle(Future.failedFuture(e));
+
+        Mockito.verify(ctx).fail(e);
+    }
+
+    @Test
+    void shouldKeepPoolsApart() throws Exception {
+        Handler<RoutingContext> target = workerPools.blockingHandler(handler);
+        for (int i = 0; i < 4; i++) {
+            target.handle(ctx);
+        }
+        Mockito.verify(ctx).fail(Mockito.any(HttpStatusException.class));
+
+        RequestHandler archiveHandler = Mockito.mock(RequestHandler.class);
+        Mockito.when(archiveHandler.workerPool()).thenReturn(WorkerPool.ARCHIVE);
+        workerPools.blockingHandler(archiveHandler).handle(ctx);
+
+        Mockito.verify(archiveExecutor)
+                .executeBlocking(Mockito.any(), Mockito.anyBoolean(), Mockito.any());
+        Mockito.verify(ctx).fail(Mockito.any(HttpStatusException.class));
+    }
+
+    @Test
+    void shouldReadLimitsFromEnvironment() throws Exception {
+        Mockito.when(env.getEnv(Mockito.anyString(), Mockito.anyString()))
+                .thenAnswer(invocation -> invocation.getArgument(1));
+        Mockito.when(env.getEnv("CONTAINER_JFR_TARGET_WORKERS", "4")).thenReturn("8");
+        Mockito.when(env.getEnv("CONTAINER_JFR_TARGET_WORKER_QUEUE", "16")).thenReturn("0");
+        Mockito.when(env.getEnv("CONTAINER_JFR_ARCHIVE_WORKERS", "4")).thenReturn("0");
+        Mockito.when(env.getEnv("CONTAINER_JFR_ARCHIVE_WORKER_QUEUE", "16")).thenReturn("many");
+        Mockito.when(vertx.createSharedWorkerExecutor(Mockito.anyString(), Mockito.anyInt()))
+                .thenReturn(defaultExecutor);
+
+        WorkerPools.fromEnvironment(env, metrics, logger).start(vertx);
+
+        Mockito.verify(vertx).createSharedWorkerExecutor("container-jfr-default-worker", 4);
+        Mockito.verify(vertx).createSharedWorkerExecutor("container-jfr-target-worker", 8);
+        Mockito.verify(vertx).createSharedWorkerExecutor("container-jfr-archive-worker", 4);
+        Mockito.verify(logger).info("TARGET worker pool: 8 threads, 0 queued");
+        Mockito.verify(logger).info("ARCHIVE worker pool: 4 threads, 16 queued");
+        Mockito.verify(logger).warn("CONTAINER_JFR_ARCHIVE_WORKERS must be at least 1, using 4");
+        Mockito.verify(logger).warn(Mockito.any(NumberFormatException.class));
+    }
+}
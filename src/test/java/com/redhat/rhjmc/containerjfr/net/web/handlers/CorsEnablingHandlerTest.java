@@ -140,7 +140,11 @@ class CorsEnablingHandlerTest {
                             HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS,
                             WebServer.AUTH_SCHEME_HEADER
                                     + ","
-                                    + AbstractAuthenticatedRequestHandler.JMX_AUTH_HEADER);
+                                    + AbstractAuthenticatedRequestHandler.JMX_AUTH_HEADER
+                                    + ","
+                                    + RecordingsGetHandler.NEXT_CURSOR_HEADER
+                                    + ","
+                                    + HttpHeaders.LOCATION);
             Mockito.verifyNoMoreInteractions(res);
             Mockito.verify(ctx).next();
         }
@@ -167,7 +171,7 @@ class CorsEnablingHandlerTest {
             Mockito.verify(res)
                     .putHeader(
                             HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS,
-                            "Authorization,X-JMX-Authorization");
+                            "Authorization,X-JMX-Authorization,Prefer");
             Mockito.verify(res).setStatusCode(200);
             Mockito.verify(res).end();
             Mockito.verifyNoMoreInteractions(res);
@@ -0,0 +1,134 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web.handlers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.jobs.Job;
+import com.redhat.rhjmc.containerjfr.jobs.JobManager;
+import com.redhat.rhjmc.containerjfr.net.AuthManager;
+import com.redhat.rhjmc.containerjfr.tui.ws.MessagingServer;
+
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.impl.HttpStatusException;
+
+@ExtendWith(MockitoExtension.class)
+class JobDeleteHandlerTest {
+
+    JobDeleteHandler handler;
+    @Mock AuthManager auth;
+    @Mock MessagingServer messagingServer;
+    @Mock Clock clock;
+    @Mock Logger logger;
+    @Mock RoutingContext ctx;
+    @Mock HttpServerResponse resp;
+    List<Runnable> pending;
+    JobManager jobManager;
+
+    @BeforeEach
+    void setup() {
+        this.pending = new ArrayList<>();
+        this.jobManager = new JobManager(pending::add, 1, 10, messagingServer, clock, logger);
+        this.handler = new JobDeleteHandler(auth, jobManager);
+    }
+
+    @Test
+    void shouldHandleDELETERequest() {
+        MatcherAssert.assertThat(handler.httpMethod(), Matchers.equalTo(HttpMethod.DELETE));
+    }
+
+    @Test
+    void shouldHandleCorrectPath() {
+        MatcherAssert.assertThat(handler.path(), Matchers.equalTo("/api/v1/jobs/:jobId"));
+    }
+
+    @Test
+    void shouldCancelJob() throws Exception {
+        Job job = jobManager.submit(Job.TYPE_SAVE, "fooTarget", "foo", j -> "saved");
+        Mockito.when(ctx.pathParam("jobId")).thenReturn(job.getId());
+        Mockito.when(ctx.response()).thenReturn(resp);
+
+        handler.handleAuthenticated(ctx);
+
+        pending.forEach(Runnable::run);
+        MatcherAssert.assertThat(job.getState(), Matchers.equalTo(Job.State.CANCELLED));
+        Mockito.verify(resp).setStatusCode(200);
+        Mockito.verify(resp).end();
+    }
+
+    @Test
+    void shouldRespond404IfJobUnknown() {
+        Mockito.when(ctx.pathParam("jobId")).thenReturn("unknown");
+
+        HttpStatusException ex =
+                Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handleAuthenticated(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(404));
+    }
+
+    @Test
+    void shouldRespond409IfJobFinished() {
+        Job job = jobManager.submit(Job.TYPE_SAVE, "fooTarget", "foo", j -> "saved");
+        pending.forEach(Runnable::run);
+        Mockito.when(ctx.pathParam("jobId")).thenReturn(job.getId());
+
+        HttpStatusException ex =
+                Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handleAuthenticated(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(409));
+    }
+}
@@ -0,0 +1,383 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web.handlers;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveRetentionService;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveSpaceException;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
+import com.redhat.rhjmc.containerjfr.archive.ArchivedRecordingInfo;
+import com.redhat.rhjmc.containerjfr.archive.JfrChunkHeader;
+import com.redhat.rhjmc.containerjfr.archive.JfrChunkHeaderTest;
+import com.redhat.rhjmc.containerjfr.archive.JfrChunkSelector;
+import com.redhat.rhjmc.containerjfr.archive.JfrEventFilterTest;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.net.AuthManager;
+import com.redhat.rhjmc.containerjfr.sys.FileSystem;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.impl.HttpStatusException;
+
+@ExtendWith(MockitoExtension.class)
+class RecordingChunksPostHandlerTest {
+
+    static final byte[] FIRST_CHUNK =
+            JfrChunkHeaderTest.chunk(0, TimeUnit.MILLISECONDS.toNanos(10), 100);
+    static final byte[] SECOND_CHUNK =
+            JfrChunkHeaderTest.chunk(
+                    TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(10), 100);
+
+    static final String NAME = "foo_bar_20200101T000000Z.jfr";
+
+    @TempDir Path tempDir;
+    RecordingChunksPostHandler handler;
+    @Mock AuthManager auth;
+    @Mock ArchiveStorage archiveStorage;
+    @Mock ArchiveIndex archiveIndex;
+    @Mock ArchiveRetentionService retentionService;
+    @Mock FileSystem fs;
+    @Mock Clock clock;
+    @Mock Logger logger;
+
+    @Mock RoutingContext ctx;
+    @Mock HttpServerRequest req;
+    @Mock HttpServerResponse resp;
+    MultiMap attrs;
+
+    @BeforeEach
+    void setup() throws Exception {
+        this.handler =
+                new RecordingChunksPostHandler(
+                        auth, archiveStorage, archiveIndex, retentionService, fs, clock, logger);
+        this.attrs = MultiMap.caseInsensitiveMultiMap();
+    }
+
+    void stubForm() {
+        Mockito.when(ctx.request()).thenReturn(req);
+        Mockito.when(req.formAttributes()).thenReturn(attrs);
+    }
+
+    void stubResponse() {
+        Mockito.when(ctx.response()).thenReturn(resp);
+        Mockito.when(resp.putHeader(Mockito.any(CharSequence.class), Mockito.anyString()))
+                .thenReturn(resp);
+        Mockito.lenient().when(resp.headers()).thenReturn(MultiMap.caseInsensitiveMultiMap());
+    }
+
+    byte[] streamedBody() {
+        return streamedBody(resp);
+    }
+
+    static byte[] streamedBody(HttpServerResponse resp) {
+        Buffer body = Buffer.buffer();
+        ArgumentCaptor<Buffer> chunkCaptor = ArgumentCaptor.forClass(Buffer.class);
+        Mockito.verify(resp, Mockito.atLeast(0)).write(chunkCaptor.capture());
+        chunkCaptor.getAllValues().forEach(body::appendBuffer);
+        ArgumentCaptor<Buffer> endCaptor = ArgumentCaptor.forClass(Buffer.class);
+        Mockito.verify(resp).end(endCaptor.capture());
+        return body.appendBuffer(endCaptor.getValue()).getBytes();
+    }
+
+    Path stubRecording(ArchivedRecordingInfo info) throws Exception {
+        Mockito.when(ctx.pathParam("recordingName")).thenReturn(NAME);
+        Mockito.when(archiveIndex.find(NAME)).thenReturn(info);
+        Path source = tempDir.resolve(NAME);
+        Files.write(source, ByteBuffer.allocate(200).put(FIRST_CHUNK).put(SECOND_CHUNK).array());
+        Mockito.when(archiveStorage.localPath(NAME)).thenReturn(Optional.of(source));
+        return source;
+    }
+
+    @Test
+    void shouldHandlePOST() {
+        MatcherAssert.assertThat(handler.httpMethod(), Matchers.equalTo(HttpMethod.POST));
+    }
+
+    @Test
+    void shouldHandleCorrectPath() {
+        MatcherAssert.assertThat(
+                handler.path(), Matchers.equalTo("/api/v1/recordings/:recordingName/chunks"));
+    }
+
+    @Test
+    void shouldThrow400IfRangeMissing() {
+        stubForm();
+        HttpStatusException ex =
+                Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handleAuthenticated(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(400));
+        Mockito.verifyNoInteractions(archiveIndex);
+    }
+
+    @Test
+    void shouldThrow400IfRangeInvalid() {
+        stubForm();
+        attrs.set("from", "soon");
+        HttpStatusException ex =
+                Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handleAuthenticated(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(400));
+
+        attrs.set("from", "2000");
+        attrs.set("to", "1000");
+        ex =
+                Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handleAuthenticated(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(400));
+        Mockito.verifyNoInteractions(archiveIndex);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"events", "eventTypes"})
+    void shouldAcceptEventTypesWithoutTimeRange(String param) {
+        attrs.set(param, "jdk.ExecutionSample, jdk.GarbageCollection,");
+        attrs.add(param, "jdk.ThreadPark");
+
+        JfrChunkSelector selector = RecordingChunksPostHandler.parseSelection(attrs);
+
+        MatcherAssert.assertThat(
+                selector.getEventTypes(),
+                Matchers.equalTo(
+                        Set.of("jdk.ExecutionSample", "jdk.GarbageCollection", "jdk.ThreadPark")));
+        MatcherAssert.assertThat(selector.getFromMillis(), Matchers.nullValue());
+        MatcherAssert.assertThat(selector.getToMillis(), Matchers.nullValue());
+    }
+
+    @Test
+    void shouldThrow404IfRecordingNotFound() throws Exception {
+        stubForm();
+        attrs.set("from", "1000");
+        Mockito.when(ctx.pathParam("recordingName")).thenReturn(NAME);
+        Mockito.when(archiveIndex.find(NAME)).thenThrow(new NoSuchFileException(NAME));
+
+        HttpStatusException ex =
+                Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handleAuthenticated(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(404));
+    }
+
+    @Test
+    void shouldThrow404IfNoDataInRange() throws Exception {
+        stubForm();
+        stubResponse();
+        attrs.set("from", "50");
+        stubRecording(Mockito.mock(ArchivedRecordingInfo.class));
+
+        HttpStatusException ex =
+                Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handleAuthenticated(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(404));
+        Mockito.verify(resp, Mockito.never()).end(Mockito.any(Buffer.class));
+        Mockito.verifyNoInteractions(fs);
+    }
+
+    @Test
+    void shouldStreamSelectedChunksWithoutStoringThem() throws Exception {
+        stubForm();
+        stubResponse();
+        attrs.set("from", "12");
+        attrs.set("to", "15");
+        stubRecording(Mockito.mock(ArchivedRecordingInfo.class));
+
+        handler.handleAuthenticated(ctx);
+
+        Mockito.verify(resp)
+                .putHeader(
+                        HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"foo_bar_20200101T000000Z-chunks.jfr\"");
+        MatcherAssert.assertThat(streamedBody(), Matchers.equalTo(SECOND_CHUNK));
+        Mockito.verifyNoInteractions(fs, retentionService);
+    }
+
+    @Test
+    void shouldSelectChunksFromRemoteArchive() throws Exception {
+        stubForm();
+        stubResponse();
+        attrs.set("from", "12");
+        attrs.set("to", "15");
+        Mockito.when(ctx.pathParam("recordingName")).thenReturn(NAME);
+        ArchivedRecordingInfo info = Mockito.mock(ArchivedRecordingInfo.class);
+        Mockito.when(info.getSize()).thenReturn(250L);
+        Mockito.when(archiveIndex.find(NAME)).thenReturn(info);
+        Mockito.when(archiveStorage.localPath(NAME)).thenReturn(Optional.empty());
+        // a trailing partial chunk must not be read, since it could not be dropped again
+        byte[] content =
+                JfrChunkHeaderTest.concat(
+                        FIRST_CHUNK, SECOND_CHUNK, Arrays.copyOf(SECOND_CHUNK, 50));
+        Path copy = Files.write(tempDir.resolve("copy.jfr"), content);
+        try (FileChannel channel = FileChannel.open(copy, StandardOpenOption.READ)) {
+            Mockito.when(archiveStorage.readChunkHeaders(NAME, 250L))
+                    .thenReturn(JfrChunkHeader.readAll(channel));
+        }
+        Mockito.when(archiveStorage.read(NAME, 0, 200))
+                .thenReturn(new ByteArrayInputStream(content, 0, 200));
+
+        handler.handleAuthenticated(ctx);
+
+        MatcherAssert.assertThat(streamedBody(), Matchers.equalTo(SECOND_CHUNK));
+        Mockito.verifyNoInteractions(fs);
+    }
+
+    @Test
+    void shouldSelectEventTypesFromRemoteArchiveThroughScratchFile() throws Exception {
+        stubForm();
+        stubResponse();
+        attrs.set("events", JfrEventFilterTest.SAMPLE);
+        Path recording = JfrEventFilterTest.record(tempDir.resolve("recording.jfr"));
+        byte[] content = Files.readAllBytes(recording);
+        Mockito.when(ctx.pathParam("recordingName")).thenReturn(NAME);
+        ArchivedRecordingInfo info = Mockito.mock(ArchivedRecordingInfo.class);
+        Mockito.when(info.getSize()).thenReturn((long) content.length);
+        Mockito.when(archiveIndex.find(NAME)).thenReturn(info);
+        Mockito.when(archiveStorage.localPath(NAME)).thenReturn(Optional.empty());
+        try (FileChannel channel = FileChannel.open(recording, StandardOpenOption.READ)) {
+            Mockito.when(archiveStorage.readChunkHeaders(NAME, content.length))
+                    .thenReturn(JfrChunkHeader.readAll(channel));
+        }
+        Mockito.when(archiveStorage.read(NAME, 0, content.length))
+                .thenReturn(new ByteArrayInputStream(content));
+        Path scratch = tempDir.resolve("scratch.jfr");
+        Mockito.when(fs.createTempFile(Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> Files.createFile(scratch));
+
+        handler.handleAuthenticated(ctx);
+
+        Path result = Files.write(tempDir.resolve("result.jfr"), streamedBody());
+        MatcherAssert.assertThat(
+                JfrEventFilterTest.types(result),
+                Matchers.equalTo(Set.of(JfrEventFilterTest.SAMPLE)));
+        Mockito.verify(fs).deleteIfExists(scratch);
+    }
+
+    @Test
+    void shouldSaveSelectedChunksToArchive() throws Exception {
+        stubForm();
+        stubResponse();
+        attrs.set("to", "5");
+        attrs.set("save", "true");
+        ArchivedRecordingInfo info = Mockito.mock(ArchivedRecordingInfo.class);
+        Mockito.when(info.getTargetName()).thenReturn("foo");
+        Mockito.when(info.getRecordingName()).thenReturn("bar");
+        stubRecording(info);
+        Instant now = Instant.now();
+        Mockito.when(clock.now()).thenReturn(now);
+        String name = "foo_bar-chunks_20200102T000000Z.jfr";
+        Mockito.when(archiveStorage.uniqueName("foo", "bar-chunks", now)).thenReturn(name);
+        Mockito.when(archiveStorage.createStagingFile(Mockito.anyString()))
+                .thenAnswer(inv -> tempDir.resolve("." + inv.getArgument(0) + ".part"));
+        ArchiveRetentionService.Reservation reservation =
+                Mockito.mock(ArchiveRetentionService.Reservation.class);
+        Mockito.when(retentionService.reserve("foo", "bar", 100L)).thenReturn(reservation);
+        Path destination = tempDir.resolve(name);
+        Mockito.doAnswer(inv -> Files.move(inv.getArgument(0), destination))
+                .when(archiveStorage)
+                .store(Mockito.any(Path.class), Mockito.eq(name));
+        Mockito.when(archiveStorage.localPath(name)).thenReturn(Optional.of(destination));
+
+        handler.handleAuthenticated(ctx);
+
+        MatcherAssert.assertThat(Files.readAllBytes(destination), Matchers.equalTo(FIRST_CHUNK));
+        Mockito.verify(archiveIndex).index(name);
+        Mockito.verify(reservation).close();
+        Mockito.verify(fs).deleteIfExists(tempDir.resolve("." + name + ".part"));
+        Mockito.verify(resp).sendFile(Mockito.eq(destination.toString()), Mockito.any());
+    }
+
+    @Test
+    void shouldThrow507IfSelectedChunksDoesNotFit() throws Exception {
+        stubForm();
+        attrs.set("from", "0");
+        attrs.set("save", "true");
+        stubRecording(Mockito.mock(ArchivedRecordingInfo.class));
+        Mockito.when(
+                        archiveStorage.uniqueName(
+                                Mockito.eq("unknown"),
+                                Mockito.eq("foo-bar-20200101T000000Z-chunks"),
+                                Mockito.any()))
+                .thenReturn("chunks.jfr");
+        Mockito.when(archiveStorage.createStagingFile(Mockito.anyString()))
+                .thenAnswer(inv -> tempDir.resolve("." + inv.getArgument(0) + ".part"));
+        Mockito.when(retentionService.reserve("unknown", "foo-bar-20200101T000000Z", 200L))
+                .thenThrow(new ArchiveSpaceException("full"));
+
+        HttpStatusException ex =
+                Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handleAuthenticated(ctx));
+
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(507));
+        Mockito.verify(fs).deleteIfExists(tempDir.resolve(".chunks.jfr.part"));
+        Mockito.verifyNoInteractions(resp);
+    }
+}
@@ -42,8 +42,6 @@
 package com.redhat.rhjmc.containerjfr.net.web.handlers;
 
 import java.io.IOException;
-import java.nio.file.Path;
-import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 import org.hamcrest.MatcherAssert;
@@ -56,7 +54,8 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
-import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
 import com.redhat.rhjmc.containerjfr.net.internal.reports.ReportService;
 
@@ -71,15 +70,16 @@ class RecordingDeleteHandlerTest {
     RecordingDeleteHandler handler;
     @Mock AuthManager auth;
     @Mock ReportService reportService;
-    @Mock FileSystem fs;
-    @Mock Path savedRecordingsPath;
+    @Mock ArchiveIndex archiveIndex;
+    @Mock ArchiveStorage archiveStorage;
 
     @Mock RoutingContext ctx;
     @Mock HttpServerResponse resp;
 
     @BeforeEach
     void setup() {
-        this.handler = new RecordingDeleteHandler(auth, reportService, fs, savedRecordingsPath);
+        this.handler =
+                new RecordingDeleteHandler(auth, reportService, archiveIndex, archiveStorage);
     }
 
     @Test
@@ -98,8 +98,6 @@ class RecordingDeleteHandlerTest {
         Mockito.when(auth.validateHttpHeader(Mockito.any()))
                 .thenReturn(CompletableFuture.completedFuture(true));
 
-        Mockito.when(fs.listDirectoryChildren(Mockito.any())).thenReturn(List.of());
-
         HttpStatusException ex =
                 Assertions.assertThrows(HttpStatusException.class, () -> handler.handle(ctx));
         MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(404));
@@ -111,18 +109,15 @@ class RecordingDeleteHandlerTest {
                 .thenReturn(CompletableFuture.completedFuture(true));
 
         String recordingName = "someRecording";
-        Mockito.when(fs.listDirectoryChildren(Mockito.any())).thenReturn(List.of(recordingName));
-
-        Path path = Mockito.mock(Path.class);
-        Mockito.when(savedRecordingsPath.resolve(Mockito.anyString())).thenReturn(path);
-        Mockito.when(fs.exists(path)).thenReturn(true);
+        Mockito.when(archiveStorage.delete(recordingName)).thenReturn(true);
 
         Mockito.when(ctx.response()).thenReturn(resp);
         Mockito.when(ctx.pathParam("recordingName")).thenReturn(recordingName);
 
         handler.handle(ctx);
 
-        Mockito.verify(fs).deleteIfExists(path);
+        Mockito.verify(archiveStorage).delete(recordingName);
+        Mockito.verify(archiveIndex).remove(recordingName);
         Mockito.verify(reportService).delete(recordingName);
         Mockito.verify(resp).setStatusCode(200);
         Mockito.verify(resp).end();
@@ -134,12 +129,7 @@ class RecordingDeleteHandlerTest {
                 .thenReturn(CompletableFuture.completedFuture(true));
 
         String recordingName = "someRecording";
-        Mockito.when(fs.listDirectoryChildren(Mockito.any())).thenReturn(List.of(recordingName));
-
-        Path path = Mockito.mock(Path.class);
-        Mockito.when(savedRecordingsPath.resolve(Mockito.anyString())).thenReturn(path);
-        Mockito.when(fs.exists(path)).thenReturn(true);
-        Mockito.when(fs.deleteIfExists(path)).thenThrow(IOException.class);
+        Mockito.when(archiveStorage.delete(recordingName)).thenThrow(IOException.class);
 
         Mockito.when(ctx.pathParam("recordingName")).thenReturn(recordingName);
 
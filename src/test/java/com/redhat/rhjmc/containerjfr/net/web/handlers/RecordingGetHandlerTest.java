@@ -41,7 +41,8 @@
  */
 package com.redhat.rhjmc.containerjfr.net.web.handlers;
 
-import java.nio.file.Path;
+import java.io.InputStream;
+import java.util.Optional;
 
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
@@ -50,11 +51,15 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
+import com.redhat.rhjmc.containerjfr.archive.StoredRecording;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
+import com.redhat.rhjmc.containerjfr.net.web.WebServer.DownloadDescriptor;
 import io.vertx.core.http.HttpMethod;
 
 @ExtendWith(MockitoExtension.class)
@@ -63,12 +68,12 @@ class RecordingGetHandlerTest {
     TargetRecordingGetHandler handler;
     @Mock AuthManager authManager;
     @Mock Environment env;
-    @Mock Path savedRecordingsPath;
+    @Mock ArchiveStorage archiveStorage;
     @Mock Logger logger;
 
     @BeforeEach
     void setup() {
-        this.handler = new RecordingGetHandler(authManager, env, savedRecordingsPath, logger);
+        this.handler = new RecordingGetHandler(authManager, env, archiveStorage, logger);
     }
 
     @Test
@@ -86,4 +91,28 @@ class RecordingGetHandlerTest {
     void shouldNotBeAsync() {
         Assertions.assertFalse(handler.isAsync());
     }
+
+    @Test
+    void shouldDescribeStoredRecording() throws Exception {
+        InputStream stream = Mockito.mock(InputStream.class);
+        Mockito.when(archiveStorage.stat("foo.jfr"))
+                .thenReturn(Optional.of(new StoredRecording("foo.jfr", 123, 0)));
+        Mockito.when(archiveStorage.read("foo.jfr")).thenReturn(stream);
+
+        Optional<DownloadDescriptor> descriptor =
+                ((RecordingGetHandler) handler).getRecordingDescriptor(null, "foo.jfr");
+
+        MatcherAssert.assertThat(descriptor.get().stream, Matchers.sameInstance(stream));
+        MatcherAssert.assertThat(descriptor.get().bytes, Matchers.equalTo(Optional.of(123L)));
+    }
+
+    @Test
+    void shouldNotDescribeMissingRecording() throws Exception {
+        Mockito.when(archiveStorage.stat("foo.jfr")).thenReturn(Optional.empty());
+
+        MatcherAssert.assertThat(
+                ((RecordingGetHandler) handler).getRecordingDescriptor(null, "foo.jfr"),
+                Matchers.equalTo(Optional.empty()));
+        Mockito.verify(archiveStorage, Mockito.never()).read(Mockito.anyString());
+    }
 }
@@ -42,6 +42,7 @@
 package com.redhat.rhjmc.containerjfr.net.web.handlers;
 
 import java.nio.file.Path;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 import org.hamcrest.MatcherAssert;
@@ -60,6 +61,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.stubbing.Answer;
 
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
 import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
@@ -83,7 +85,7 @@ class RecordingUploadPostHandlerTest {
     @Mock Environment env;
     @Mock WebClient webClient;
     @Mock FileSystem fs;
-    @Mock Path savedRecordingsPath;
+    @Mock ArchiveStorage archiveStorage;
 
     @Mock RoutingContext ctx;
 
@@ -91,8 +93,7 @@ class RecordingUploadPostHandlerTest {
 
     @BeforeEach
     void setup() {
-        this.handler =
-                new RecordingUploadPostHandler(auth, env, webClient, fs, savedRecordingsPath);
+        this.handler = new RecordingUploadPostHandler(auth, env, webClient, fs, archiveStorage);
     }
 
     @Test
@@ -124,7 +125,7 @@ class RecordingUploadPostHandlerTest {
         Mockito.when(auth.validateHttpHeader(Mockito.any()))
                 .thenReturn(CompletableFuture.completedFuture(true));
         Mockito.when(env.getEnv("GRAFANA_DATASOURCE_URL")).thenReturn(DATASOURCE_URL);
-        Mockito.when(fs.isRegularFile(Mockito.any())).thenReturn(false);
+        Mockito.when(archiveStorage.exists(Mockito.any())).thenReturn(false);
 
         HttpStatusException ex =
                 Assertions.assertThrows(HttpStatusException.class, () -> handler.handle(ctx));
@@ -139,8 +140,8 @@ class RecordingUploadPostHandlerTest {
 
         Mockito.when(ctx.pathParam("recordingName")).thenReturn("foo");
 
-        Mockito.when(savedRecordingsPath.resolve(Mockito.anyString()))
-                .thenReturn(Mockito.mock(Path.class));
+        Mockito.when(archiveStorage.localPath(Mockito.anyString()))
+                .thenReturn(Optional.of(Mockito.mock(Path.class)));
         Mockito.when(fs.isRegularFile(Mockito.any())).thenReturn(true);
         Mockito.when(fs.isReadable(Mockito.any())).thenReturn(true);
 
@@ -45,6 +45,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
@@ -52,6 +53,8 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -61,12 +64,18 @@ import org.mockito.stubbing.Answer;
 import com.google.gson.Gson;
 
 import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchivePage;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveQuery;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
+import com.redhat.rhjmc.containerjfr.archive.ArchivedRecordingInfo;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
 import com.redhat.rhjmc.containerjfr.net.web.WebServer;
 
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.impl.HttpStatusException;
@@ -76,17 +85,22 @@ class RecordingsGetHandlerTest {
 
     RecordingsGetHandler handler;
     @Mock AuthManager auth;
+    @Mock ArchiveStorage archiveStorage;
     @Mock Path savedRecordingsPath;
     @Mock FileSystem fs;
+    @Mock ArchiveIndex archiveIndex;
     @Mock WebServer webServer;
     @Mock Logger logger;
     Gson gson = MainModule.provideGson(logger);
 
     @BeforeEach
     void setup() {
+        Mockito.lenient()
+                .when(archiveStorage.getLocalRoot())
+                .thenReturn(Optional.of(savedRecordingsPath));
         this.handler =
                 new RecordingsGetHandler(
-                        auth, savedRecordingsPath, fs, () -> webServer, gson, logger);
+                        auth, archiveStorage, fs, archiveIndex, () -> webServer, gson, logger);
     }
 
     @Test
@@ -139,28 +153,41 @@ class RecordingsGetHandlerTest {
     }
 
     @Test
-    void shouldRespondWithInternalErrorIfExceptionThrown() throws IOException {
+    void shouldNotCheckDirectoryOfRemoteStorage() throws Exception {
         RoutingContext ctx = Mockito.mock(RoutingContext.class);
+        HttpServerRequest req = Mockito.mock(HttpServerRequest.class);
+        Mockito.when(ctx.request()).thenReturn(req);
+        HttpServerResponse resp = Mockito.mock(HttpServerResponse.class);
+        Mockito.when(ctx.response()).thenReturn(resp);
+        Mockito.when(archiveStorage.getLocalRoot()).thenReturn(Optional.empty());
+        ArchivePage page = Mockito.mock(ArchivePage.class);
+        Mockito.when(page.getRecordings()).thenReturn(List.of());
+        Mockito.when(archiveIndex.query(Mockito.any())).thenReturn(page);
 
-        Mockito.when(fs.exists(Mockito.any())).thenReturn(true);
-        Mockito.when(fs.isReadable(Mockito.any())).thenReturn(true);
-        Mockito.when(fs.isDirectory(Mockito.any())).thenReturn(true);
-        Mockito.when(fs.listDirectoryChildren(Mockito.any())).thenThrow(IOException.class);
+        handler.handleAuthenticated(ctx);
 
-        Assertions.assertThrows(IOException.class, () -> handler.handleAuthenticated(ctx));
+        Mockito.verifyNoInteractions(fs);
+        Mockito.verify(resp).end("[]");
     }
 
     @Test
     void shouldRespondWithListOfRecordings() throws Exception {
         RoutingContext ctx = Mockito.mock(RoutingContext.class);
+        HttpServerRequest req = Mockito.mock(HttpServerRequest.class);
+        Mockito.when(ctx.request()).thenReturn(req);
         HttpServerResponse resp = Mockito.mock(HttpServerResponse.class);
         Mockito.when(ctx.response()).thenReturn(resp);
 
         Mockito.when(fs.exists(Mockito.any())).thenReturn(true);
         Mockito.when(fs.isReadable(Mockito.any())).thenReturn(true);
         Mockito.when(fs.isDirectory(Mockito.any())).thenReturn(true);
-        List<String> names = List.of("recordingA", "123recording");
-        Mockito.when(fs.listDirectoryChildren(Mockito.any())).thenReturn(names);
+        ArchivedRecordingInfo infoA =
+                mockInfo("foo_recordingA_20191219T213834Z.jfr", "foo", "recordingA", 100L);
+        ArchivedRecordingInfo info123 =
+                mockInfo("bar_123recording_20191219T213834Z.jfr", "bar", "123recording", 200L);
+        ArchivePage page = Mockito.mock(ArchivePage.class);
+        Mockito.when(page.getRecordings()).thenReturn(List.of(infoA, info123));
+        Mockito.when(archiveIndex.query(Mockito.any())).thenReturn(page);
 
         Mockito.when(webServer.getArchivedReportURL(Mockito.anyString()))
                 .thenAnswer(
@@ -183,21 +210,142 @@ class RecordingsGetHandlerTest {
 
         handler.handleAuthenticated(ctx);
 
-        List<Map<String, String>> expected =
+        List<Map<String, Object>> expected =
                 List.of(
                         Map.of(
-                                "name", "recordingA",
-                                "downloadUrl", "/some/path/download/recordingA",
-                                "reportUrl", "/some/path/archive/recordingA"),
+                                "name", "foo_recordingA_20191219T213834Z.jfr",
+                                "downloadUrl",
+                                        "/some/path/download/foo_recordingA_20191219T213834Z.jfr",
+                                "reportUrl",
+                                        "/some/path/archive/foo_recordingA_20191219T213834Z.jfr",
+                                "targetName", "foo",
+                                "recordingName", "recordingA",
+                                "archivedTime", 1576791514000d,
+                                "size", 100d,
+                                "startTime", 1576791000000d,
+                                "endTime", 1576791514000d),
                         Map.of(
-                                "name", "123recording",
-                                "downloadUrl", "/some/path/download/123recording",
-                                "reportUrl", "/some/path/archive/123recording"));
+                                "name", "bar_123recording_20191219T213834Z.jfr",
+                                "downloadUrl",
+                                        "/some/path/download/bar_123recording_20191219T213834Z.jfr",
+                                "reportUrl",
+                                        "/some/path/archive/bar_123recording_20191219T213834Z.jfr",
+                                "targetName", "bar",
+                                "recordingName", "123recording",
+                                "archivedTime", 1576791514000d,
+                                "size", 200d,
+                                "startTime", 1576791000000d,
+                                "endTime", 1576791514000d));
 
         ArgumentCaptor<String> responseCaptor = ArgumentCaptor.forClass(String.class);
         Mockito.verify(resp).end(responseCaptor.capture());
         String rawResult = responseCaptor.getValue();
         List result = gson.fromJson(rawResult, List.class);
         MatcherAssert.assertThat(result, Matchers.equalTo(expected));
+        Mockito.verify(resp, Mockito.never())
+                .putHeader(
+                        Mockito.eq(RecordingsGetHandler.NEXT_CURSOR_HEADER), Mockito.anyString());
+    }
+
+    @Test
+    void shouldPassQueryParametersToIndex() throws Exception {
+        RoutingContext ctx = Mockito.mock(RoutingContext.class);
+        HttpServerRequest req = Mockito.mock(HttpServerRequest.class);
+        Mockito.when(ctx.request()).thenReturn(req);
+        HttpServerResponse resp = Mockito.mock(HttpServerResponse.class);
+        Mockito.when(ctx.response()).thenReturn(resp);
+
+        Mockito.when(fs.exists(Mockito.any())).thenReturn(true);
+        Mockito.when(fs.isReadable(Mockito.any())).thenReturn(true);
+        Mockito.when(fs.isDirectory(Mockito.any())).thenReturn(true);
+        Mockito.when(req.getParam("target")).thenReturn("some-host");
+        Mockito.when(req.getParam("recordingName")).thenReturn("foo");
+        Mockito.when(req.getParam("from")).thenReturn("100");
+        Mockito.when(req.getParam("to")).thenReturn("200");
+        Mockito.when(req.getParam("minSize")).thenReturn("1024");
+        Mockito.when(req.getParam("limit")).thenReturn("10");
+        Mockito.when(req.getParam("cursor")).thenReturn("abc");
+        Mockito.when(req.getParam("sort")).thenReturn("size");
+        Mockito.when(req.getParam("order")).thenReturn("desc");
+
+        ArchivePage page = Mockito.mock(ArchivePage.class);
+        Mockito.when(page.getRecordings()).thenReturn(List.of());
+        Mockito.when(page.getNextCursor()).thenReturn("next");
+        Mockito.when(archiveIndex.query(Mockito.any())).thenReturn(page);
+
+        handler.handleAuthenticated(ctx);
+
+        ArgumentCaptor<ArchiveQuery> queryCaptor = ArgumentCaptor.forClass(ArchiveQuery.class);
+        Mockito.verify(archiveIndex).query(queryCaptor.capture());
+        ArchiveQuery query = queryCaptor.getValue();
+        MatcherAssert.assertThat(query.getTargetName(), Matchers.equalTo("some-host"));
+        MatcherAssert.assertThat(query.getRecordingName(), Matchers.equalTo("foo"));
+        MatcherAssert.assertThat(query.getFrom(), Matchers.equalTo(100L));
+        MatcherAssert.assertThat(query.getTo(), Matchers.equalTo(200L));
+        MatcherAssert.assertThat(query.getMinSize(), Matchers.equalTo(1024L));
+        MatcherAssert.assertThat(query.getLimit(), Matchers.equalTo(10));
+        MatcherAssert.assertThat(query.getCursor(), Matchers.equalTo("abc"));
+        MatcherAssert.assertThat(query.getSort(), Matchers.equalTo(ArchiveQuery.Sort.SIZE));
+        MatcherAssert.assertThat(query.isDescending(), Matchers.is(true));
+
+        Mockito.verify(resp).putHeader(RecordingsGetHandler.NEXT_CURSOR_HEADER, "next");
+        Mockito.verify(resp).end("[]");
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "limit, 0",
+        "limit, ten",
+        "from, yesterday",
+        "minSize, 1.5",
+        "sort, date",
+        "order, random",
+    })
+    void shouldRespondWith400OnInvalidQueryParameters(String param, String value) throws Exception {
+        RoutingContext ctx = Mockito.mock(RoutingContext.class);
+        HttpServerRequest req = Mockito.mock(HttpServerRequest.class);
+        Mockito.when(ctx.request()).thenReturn(req);
+
+        Mockito.when(fs.exists(Mockito.any())).thenReturn(true);
+        Mockito.when(fs.isReadable(Mockito.any())).thenReturn(true);
+        Mockito.when(fs.isDirectory(Mockito.any())).thenReturn(true);
+        Mockito.lenient().when(req.getParam(Mockito.anyString())).thenReturn(null);
+        Mockito.when(req.getParam(param)).thenReturn(value);
+
+        HttpStatusException httpEx =
+                Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handleAuthenticated(ctx));
+        MatcherAssert.assertThat(httpEx.getStatusCode(), Matchers.equalTo(400));
+    }
+
+    @Test
+    void shouldRespondWith400OnInvalidCursor() throws Exception {
+        RoutingContext ctx = Mockito.mock(RoutingContext.class);
+        HttpServerRequest req = Mockito.mock(HttpServerRequest.class);
+        Mockito.when(ctx.request()).thenReturn(req);
+
+        Mockito.when(fs.exists(Mockito.any())).thenReturn(true);
+        Mockito.when(fs.isReadable(Mockito.any())).thenReturn(true);
+        Mockito.when(fs.isDirectory(Mockito.any())).thenReturn(true);
+        Mockito.when(archiveIndex.query(Mockito.any()))
+                .thenThrow(new IllegalArgumentException("Malformed cursor"));
+
+        HttpStatusException httpEx =
+                Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handleAuthenticated(ctx));
+        MatcherAssert.assertThat(httpEx.getStatusCode(), Matchers.equalTo(400));
+    }
+
+    private ArchivedRecordingInfo mockInfo(
+            String name, String targetName, String recordingName, long size) {
+        ArchivedRecordingInfo info = Mockito.mock(ArchivedRecordingInfo.class);
+        Mockito.when(info.getName()).thenReturn(name);
+        Mockito.when(info.getTargetName()).thenReturn(targetName);
+        Mockito.when(info.getRecordingName()).thenReturn(recordingName);
+        Mockito.when(info.getArchivedTime()).thenReturn(1576791514000L);
+        Mockito.when(info.getSize()).thenReturn(size);
+        Mockito.when(info.getStartTime()).thenReturn(1576791000000L);
+        Mockito.when(info.getEndTime()).thenReturn(1576791514000L);
+        return info;
     }
 }
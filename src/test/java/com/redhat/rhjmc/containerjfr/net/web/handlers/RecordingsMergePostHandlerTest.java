@@ -0,0 +1,342 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web.handlers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveMerger;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveRetentionService;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveSpaceException;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
+import com.redhat.rhjmc.containerjfr.archive.ArchivedRecordingInfo;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.net.AuthManager;
+import com.redhat.rhjmc.containerjfr.sys.FileSystem;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.impl.HttpStatusException;
+
+@ExtendWith(MockitoExtension.class)
+class RecordingsMergePostHandlerTest {
+
+    @TempDir Path tempDir;
+    RecordingsMergePostHandler handler;
+    @Mock AuthManager auth;
+    @Mock ArchiveMerger merger;
+    @Mock ArchiveStorage archiveStorage;
+    @Mock ArchiveIndex archiveIndex;
+    @Mock ArchiveRetentionService retentionService;
+    @Mock FileSystem fs;
+    @Mock Clock clock;
+    @Mock Logger logger;
+
+    @Mock RoutingContext ctx;
+    @Mock HttpServerRequest req;
+    @Mock HttpServerResponse resp;
+    MultiMap attrs;
+
+    @BeforeEach
+    void setup() throws Exception {
+        Mockito.lenient()
+                .when(fs.createTempFile(Mockito.any(), Mockito.any()))
+                .thenAnswer(i -> Files.createTempFile(i.getArgument(0), i.getArgument(1)));
+        this.handler =
+                new RecordingsMergePostHandler(
+                        auth,
+                        merger,
+                        archiveStorage,
+                        archiveIndex,
+                        retentionService,
+                        fs,
+                        clock,
+                        logger);
+        this.attrs = MultiMap.caseInsensitiveMultiMap();
+    }
+
+    void stubForm() {
+        Mockito.when(ctx.request()).thenReturn(req);
+        Mockito.when(req.formAttributes()).thenReturn(attrs);
+    }
+
+    void stubResponse() {
+        Mockito.when(ctx.response()).thenReturn(resp);
+        Mockito.when(resp.putHeader(Mockito.any(CharSequence.class), Mockito.anyString()))
+                .thenReturn(resp);
+    }
+
+    @Test
+    void shouldHandlePOST() {
+        MatcherAssert.assertThat(handler.httpMethod(), Matchers.equalTo(HttpMethod.POST));
+    }
+
+    @Test
+    void shouldHandleCorrectPath() {
+        MatcherAssert.assertThat(handler.path(), Matchers.equalTo("/api/v1/recordings/merge"));
+    }
+
+    @Test
+    void shouldThrow400IfRecordingsMissing() {
+        stubForm();
+        HttpStatusException ex =
+                Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handleAuthenticated(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(400));
+        Mockito.verifyNoInteractions(merger);
+    }
+
+    @Test
+    void shouldThrow404IfRecordingNotFound() throws Exception {
+        stubForm();
+        attrs.set("recordings", "foo.jfr,bar.jfr");
+        Mockito.when(merger.plan(List.of("foo.jfr", "bar.jfr")))
+                .thenThrow(new NoSuchFileException("bar.jfr"));
+
+        HttpStatusException ex =
+                Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handleAuthenticated(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(404));
+    }
+
+    @Test
+    void shouldThrow400IfRecordingsCannotBeMerged() throws Exception {
+        stubForm();
+        attrs.set("recordings", " foo.jfr , ,bar.jfr");
+        Mockito.when(merger.plan(List.of("foo.jfr", "bar.jfr")))
+                .thenThrow(new IllegalArgumentException("different targets"));
+
+        HttpStatusException ex =
+                Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handleAuthenticated(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(400));
+        MatcherAssert.assertThat(ex.getPayload(), Matchers.equalTo("different targets"));
+    }
+
+    @Test
+    void shouldStreamMergedRecordingWithoutStoringIt() throws Exception {
+        stubForm();
+        stubResponse();
+        attrs.set("recordings", "foo.jfr,bar.jfr");
+        List<ArchivedRecordingInfo> sources = List.of(Mockito.mock(ArchivedRecordingInfo.class));
+        Mockito.when(merger.plan(List.of("foo.jfr", "bar.jfr"))).thenReturn(sources);
+        Mockito.when(merger.merge(Mockito.eq(sources), Mockito.any(WritableByteChannel.class)))
+                .thenAnswer(
+                        invocation -> {
+                            WritableByteChannel out = invocation.getArgument(1);
+                            return (long) out.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+                        });
+
+        handler.handleAuthenticated(ctx);
+
+        Mockito.verify(resp)
+                .putHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"merged.jfr\"");
+        ArgumentCaptor<Buffer> bodyCaptor = ArgumentCaptor.forClass(Buffer.class);
+        Mockito.verify(resp).end(bodyCaptor.capture());
+        MatcherAssert.assertThat(
+                bodyCaptor.getValue().getBytes(), Matchers.equalTo(new byte[] {1, 2, 3}));
+        Mockito.verify(merger, Mockito.never()).merge(Mockito.any(), Mockito.any(Path.class));
+        Mockito.verifyNoInteractions(fs, archiveIndex, retentionService);
+    }
+
+    @Test
+    void shouldRespondWithErrorIfMergeFailsBeforeSendingData() throws Exception {
+        stubForm();
+        Mockito.when(ctx.response()).thenReturn(resp);
+        MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+        Mockito.when(resp.headers()).thenReturn(headers);
+        Mockito.when(resp.putHeader(Mockito.any(CharSequence.class), Mockito.anyString()))
+                .thenAnswer(
+                        invocation -> {
+                            headers.set(
+                                    invocation.<CharSequence>getArgument(0),
+                                    invocation.<String>getArgument(1));
+                            return resp;
+                        });
+        attrs.set("recordings", "foo.jfr");
+        List<ArchivedRecordingInfo> sources = List.of(Mockito.mock(ArchivedRecordingInfo.class));
+        Mockito.when(merger.plan(List.of("foo.jfr"))).thenReturn(sources);
+        Mockito.when(merger.merge(Mockito.eq(sources), Mockito.any(WritableByteChannel.class)))
+                .thenThrow(new IOException("unreadable"));
+
+        Assertions.assertThrows(IOException.class, () -> handler.handleAuthenticated(ctx));
+
+        MatcherAssert.assertThat(headers.isEmpty(), Matchers.is(true));
+        Mockito.verify(resp, Mockito.never()).end(Mockito.any(Buffer.class));
+    }
+
+    @Test
+    void shouldSaveMergedRecordingToArchive() throws Exception {
+        stubForm();
+        stubResponse();
+        attrs.set("recordings", "foo.jfr,bar.jfr");
+        attrs.set("save", "true");
+        ArchivedRecordingInfo info = Mockito.mock(ArchivedRecordingInfo.class);
+        Mockito.when(info.getTargetName()).thenReturn("foo");
+        Mockito.when(info.getRecordingName()).thenReturn("bar");
+        List<ArchivedRecordingInfo> sources = List.of(info);
+        Mockito.when(merger.plan(List.of("foo.jfr", "bar.jfr"))).thenReturn(sources);
+        Instant now = Instant.now();
+        Mockito.when(clock.now()).thenReturn(now);
+        String name = "foo_bar-merged_20200101T000000Z.jfr";
+        Mockito.when(merger.nameFor(sources, now)).thenReturn(name);
+        Path staging = tempDir.resolve("." + name + ".part");
+        Mockito.when(archiveStorage.createStagingFile(name)).thenReturn(staging);
+        Mockito.when(merger.merge(sources, staging))
+                .thenAnswer(
+                        inv -> {
+                            Files.write(staging, new byte[] {1, 2, 3});
+                            return 3L;
+                        });
+        ArchiveRetentionService.Reservation reservation =
+                Mockito.mock(ArchiveRetentionService.Reservation.class);
+        Mockito.when(retentionService.reserve("foo", "bar", 3L)).thenReturn(reservation);
+        Path destination = tempDir.resolve(name);
+        Mockito.doAnswer(inv -> Files.move(staging, destination))
+                .when(archiveStorage)
+                .store(staging, name);
+        Mockito.when(archiveStorage.localPath(name)).thenReturn(Optional.of(destination));
+
+        handler.handleAuthenticated(ctx);
+
+        MatcherAssert.assertThat(
+                Files.readAllBytes(destination), Matchers.equalTo(new byte[] {1, 2, 3}));
+        Mockito.verify(archiveIndex).index(name);
+        Mockito.verify(reservation).close();
+        Mockito.verify(resp)
+                .putHeader(
+                        HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + name + "\"");
+        ArgumentCaptor<Handler<AsyncResult<Void>>> doneCaptor =
+                ArgumentCaptor.forClass(Handler.class);
+        Mockito.verify(resp).sendFile(Mockito.eq(destination.toString()), doneCaptor.capture());
+        doneCaptor.getValue().handle(Mockito.mock(AsyncResult.class));
+        Mockito.verify(fs).deleteIfExists(staging);
+        Mockito.verify(fs, Mockito.never()).deleteIfExists(destination);
+    }
+
+    @Test
+    void shouldSendStagedCopyIfArchiveIsRemote() throws Exception {
+        stubForm();
+        stubResponse();
+        attrs.set("recordings", "foo.jfr");
+        attrs.set("save", "true");
+        ArchivedRecordingInfo info = Mockito.mock(ArchivedRecordingInfo.class);
+        Mockito.when(info.getTargetName()).thenReturn("foo");
+        Mockito.when(info.getRecordingName()).thenReturn("bar");
+        List<ArchivedRecordingInfo> sources = List.of(info);
+        Mockito.when(merger.plan(List.of("foo.jfr"))).thenReturn(sources);
+        Mockito.when(merger.nameFor(Mockito.eq(sources), Mockito.any())).thenReturn("merged.jfr");
+        Path staging = tempDir.resolve("staged.jfr");
+        Mockito.when(archiveStorage.createStagingFile("merged.jfr")).thenReturn(staging);
+        Mockito.when(merger.merge(sources, staging)).thenReturn(100L);
+        ArchiveRetentionService.Reservation reservation =
+                Mockito.mock(ArchiveRetentionService.Reservation.class);
+        Mockito.when(retentionService.reserve("foo", "bar", 100L)).thenReturn(reservation);
+        Mockito.when(archiveStorage.localPath("merged.jfr")).thenReturn(Optional.empty());
+
+        handler.handleAuthenticated(ctx);
+
+        Mockito.verify(archiveStorage).store(staging, "merged.jfr");
+        Mockito.verify(archiveIndex).index("merged.jfr");
+        ArgumentCaptor<Handler<AsyncResult<Void>>> doneCaptor =
+                ArgumentCaptor.forClass(Handler.class);
+        Mockito.verify(resp).sendFile(Mockito.eq(staging.toString()), doneCaptor.capture());
+        Mockito.verify(fs, Mockito.never()).deleteIfExists(staging);
+
+        doneCaptor.getValue().handle(Mockito.mock(AsyncResult.class));
+        Mockito.verify(fs).deleteIfExists(staging);
+    }
+
+    @Test
+    void shouldThrow507IfMergedRecordingDoesNotFit() throws Exception {
+        stubForm();
+        attrs.set("recordings", "foo.jfr");
+        attrs.set("save", "true");
+        ArchivedRecordingInfo info = Mockito.mock(ArchivedRecordingInfo.class);
+        Mockito.when(info.getTargetName()).thenReturn("foo");
+        Mockito.when(info.getRecordingName()).thenReturn("bar");
+        List<ArchivedRecordingInfo> sources = List.of(info);
+        Mockito.when(merger.plan(List.of("foo.jfr"))).thenReturn(sources);
+        Mockito.when(merger.nameFor(Mockito.eq(sources), Mockito.any())).thenReturn("merged.jfr");
+        Path staging = tempDir.resolve(".merged.jfr.part");
+        Mockito.when(archiveStorage.createStagingFile("merged.jfr")).thenReturn(staging);
+        Mockito.when(merger.merge(sources, staging)).thenReturn(100L);
+        Mockito.when(retentionService.reserve("foo", "bar", 100L))
+                .thenThrow(new ArchiveSpaceException("full"));
+
+        HttpStatusException ex =
+                Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handleAuthenticated(ctx));
+
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(507));
+        Mockito.verify(fs).deleteIfExists(staging);
+        Mockito.verifyNoInteractions(archiveIndex);
+    }
+}
@@ -53,6 +53,7 @@ import java.util.concurrent.CompletableFuture;
 
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -62,6 +63,9 @@ import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveRetentionService;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
@@ -70,12 +74,14 @@ import com.redhat.rhjmc.containerjfr.net.web.HttpMimeType;
 
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.ext.web.FileUpload;
 import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.impl.HttpStatusException;
 
 @ExtendWith(MockitoExtension.class)
 class RecordingsPostHandlerTest {
@@ -85,7 +91,9 @@ class RecordingsPostHandlerTest {
     @Mock HttpServer httpServer;
     @Mock Vertx vertx;
     @Mock FileSystem cjfrFs;
-    @Mock Path recordingsPath;
+    @Mock ArchiveStorage archiveStorage;
+    @Mock ArchiveIndex archiveIndex;
+    @Mock ArchiveRetentionService retentionService;
     @Mock Logger logger;
 
     @BeforeEach
@@ -96,7 +104,9 @@ class RecordingsPostHandlerTest {
                         authManager,
                         httpServer,
                         cjfrFs,
-                        recordingsPath,
+                        archiveStorage,
+                        archiveIndex,
+                        retentionService,
                         MainModule.provideGson(logger),
                         logger);
     }
@@ -111,7 +121,6 @@ class RecordingsPostHandlerTest {
     void shouldHandleRecordingUploadRequest() throws Exception {
         String basename = "localhost_test_20191219T213834Z";
         String filename = basename + ".jfr";
-        String savePath = "/some/path/";
 
         RoutingContext ctx = mock(RoutingContext.class);
 
@@ -120,7 +129,7 @@ class RecordingsPostHandlerTest {
         HttpServerRequest req = mock(HttpServerRequest.class);
         when(ctx.request()).thenReturn(req);
 
-        when(cjfrFs.isDirectory(recordingsPath)).thenReturn(true);
+        when(archiveStorage.isAvailable()).thenReturn(true);
 
         Set<FileUpload> uploads = new HashSet<>();
         FileUpload upload = mock(FileUpload.class);
@@ -130,103 +139,23 @@ class RecordingsPostHandlerTest {
         when(upload.fileName()).thenReturn(filename);
         when(upload.uploadedFileName()).thenReturn("foo");
 
-        Path filePath = mock(Path.class);
-        when(filePath.toString()).thenReturn(savePath + filename);
-        when(recordingsPath.resolve(filename)).thenReturn(filePath);
-
-        io.vertx.core.file.FileSystem vertxFs = mock(io.vertx.core.file.FileSystem.class);
-        when(vertx.fileSystem()).thenReturn(vertxFs);
-
         doAnswer(
                         invocation -> {
-                            Handler<AsyncResult<Boolean>> handler = invocation.getArgument(1);
-                            handler.handle(
-                                    new AsyncResult<>() {
-                                        @Override
-                                        public Boolean result() {
-                                            return false;
-                                        }
-
-                                        @Override
-                                        public Throwable cause() {
-                                            return null;
-                                        }
-
-                                        @Override
-                                        public boolean succeeded() {
-                                            return true;
-                                        }
-
-                                        @Override
-                                        public boolean failed() {
-                                            return false;
-                                        }
-                                    });
-
+                            Handler<Promise<Object>> blocking = invocation.getArgument(0);
+                            Handler<AsyncResult<Object>> handler = invocation.getArgument(1);
+                            Promise<Object> promise = Promise.promise();
+                            blocking.handle(promise);
+                            handler.handle(promise.future());
                             return null;
                         })
                 .when(vertx)
                 .executeBlocking(any(Handler.class), any(Handler.class));
 
-        when(vertxFs.exists(Mockito.eq(savePath + filename), any(Handler.class)))
-                .thenAnswer(
-                        invocation -> {
-                            Handler<AsyncResult<Boolean>> handler = invocation.getArgument(1);
-                            handler.handle(
-                                    new AsyncResult<>() {
-                                        @Override
-                                        public Boolean result() {
-                                            return false;
-                                        }
-
-                                        @Override
-                                        public Throwable cause() {
-                                            return null;
-                                        }
-
-                                        @Override
-                                        public boolean succeeded() {
-                                            return true;
-                                        }
-
-                                        @Override
-                                        public boolean failed() {
-                                            return false;
-                                        }
-                                    });
+        ArchiveRetentionService.Reservation reservation =
+                mock(ArchiveRetentionService.Reservation.class);
+        when(retentionService.reserve("localhost", "test", 0)).thenReturn(reservation);
 
-                            return null;
-                        });
-
-        when(vertxFs.move(Mockito.eq("foo"), Mockito.eq(savePath + filename), any(Handler.class)))
-                .thenAnswer(
-                        invocation -> {
-                            Handler<AsyncResult<Boolean>> handler = invocation.getArgument(2);
-                            handler.handle(
-                                    new AsyncResult<>() {
-                                        @Override
-                                        public Boolean result() {
-                                            return true;
-                                        }
-
-                                        @Override
-                                        public Throwable cause() {
-                                            return null;
-                                        }
-
-                                        @Override
-                                        public boolean succeeded() {
-                                            return true;
-                                        }
-
-                                        @Override
-                                        public boolean failed() {
-                                            return false;
-                                        }
-                                    });
-
-                            return null;
-                        });
+        when(archiveStorage.exists(filename)).thenReturn(false);
 
         HttpServerResponse rep = mock(HttpServerResponse.class);
         when(ctx.response()).thenReturn(rep);
@@ -237,5 +166,23 @@ class RecordingsPostHandlerTest {
         InOrder inOrder = Mockito.inOrder(rep);
         inOrder.verify(rep).putHeader(HttpHeaders.CONTENT_TYPE, HttpMimeType.JSON.mime());
         inOrder.verify(rep).end("{\"name\":\"" + filename + "\"}");
+        Mockito.verify(archiveStorage).store(Path.of("foo"), filename);
+        Mockito.verify(cjfrFs).deleteIfExists(Path.of("foo"));
+        Mockito.verify(archiveIndex).index(filename);
+        Mockito.verify(reservation).close();
+    }
+
+    @Test
+    void shouldRespond503IfArchiveUnavailable() throws Exception {
+        RoutingContext ctx = mock(RoutingContext.class);
+        when(authManager.validateHttpHeader(any()))
+                .thenReturn(CompletableFuture.completedFuture(true));
+        when(archiveStorage.isAvailable()).thenReturn(false);
+
+        HttpStatusException ex =
+                Assertions.assertThrows(HttpStatusException.class, () -> handler.handle(ctx));
+
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(503));
+        Mockito.verifyNoInteractions(vertx, archiveIndex);
     }
 }
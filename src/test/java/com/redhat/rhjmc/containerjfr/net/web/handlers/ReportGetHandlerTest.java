@@ -96,8 +96,13 @@ class ReportGetHandlerTest {
     }
 
     @Test
-    void shouldBeOrdered() {
-        Assertions.assertTrue(handler.isOrdered());
+    void shouldNotBeOrdered() {
+        Assertions.assertFalse(handler.isOrdered());
+    }
+
+    @Test
+    void shouldRunOnArchiveWorkerPool() {
+        MatcherAssert.assertThat(handler.workerPool(), Matchers.equalTo(WorkerPool.ARCHIVE));
     }
 
     @Test
@@ -0,0 +1,305 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web.handlers;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import org.openjdk.jmc.rjmx.services.jfr.IFlightRecorderService;
+import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
+
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveRetentionService;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
+import com.redhat.rhjmc.containerjfr.archive.JfrChunkHeaderTest;
+import com.redhat.rhjmc.containerjfr.archive.JfrChunkSelector;
+import com.redhat.rhjmc.containerjfr.archive.JfrEventFilterTest;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
+import com.redhat.rhjmc.containerjfr.net.AuthManager;
+import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
+import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager.ConnectedTask;
+import com.redhat.rhjmc.containerjfr.sys.FileSystem;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.impl.HttpStatusException;
+
+@ExtendWith(MockitoExtension.class)
+class TargetRecordingChunksPostHandlerTest {
+
+    static final byte[] FIRST_CHUNK =
+            JfrChunkHeaderTest.chunk(0, TimeUnit.MILLISECONDS.toNanos(10), 100);
+    static final byte[] SECOND_CHUNK =
+            JfrChunkHeaderTest.chunk(
+                    TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(10), 100);
+
+    @TempDir Path tempDir;
+    TargetRecordingChunksPostHandler handler;
+    @Mock AuthManager auth;
+    @Mock TargetConnectionManager targetConnectionManager;
+    @Mock ArchiveStorage archiveStorage;
+    @Mock ArchiveIndex archiveIndex;
+    @Mock ArchiveRetentionService retentionService;
+    @Mock FileSystem fs;
+    @Mock Clock clock;
+    @Mock Logger logger;
+
+    @Mock RoutingContext ctx;
+    @Mock HttpServerRequest req;
+    @Mock HttpServerResponse resp;
+    @Mock JFRConnection connection;
+    @Mock IFlightRecorderService service;
+    @Mock IRecordingDescriptor descriptor;
+    MultiMap attrs;
+
+    @BeforeEach
+    void setup() throws Exception {
+        this.handler =
+                new TargetRecordingChunksPostHandler(
+                        auth,
+                        targetConnectionManager,
+                        archiveStorage,
+                        archiveIndex,
+                        retentionService,
+                        fs,
+                        clock,
+                        logger);
+        this.attrs = MultiMap.caseInsensitiveMultiMap();
+    }
+
+    void stubRequest() throws Exception {
+        Mockito.when(ctx.request()).thenReturn(req);
+        Mockito.when(req.formAttributes()).thenReturn(attrs);
+        Mockito.when(req.headers()).thenReturn(MultiMap.caseInsensitiveMultiMap());
+        Mockito.when(ctx.pathParam("targetId")).thenReturn("fooHost:9091");
+        Mockito.when(ctx.pathParam("recordingName")).thenReturn("foo.jfr");
+        Mockito.when(
+                        targetConnectionManager.executeConnectedTask(
+                                Mockito.any(), Mockito.any(ConnectedTask.class)))
+                .thenAnswer(
+                        invocation ->
+                                ((ConnectedTask<?>) invocation.getArgument(1)).execute(connection));
+        Mockito.when(connection.getService()).thenReturn(service);
+    }
+
+    void stubResponse() {
+        Mockito.when(ctx.response()).thenReturn(resp);
+        Mockito.when(resp.putHeader(Mockito.any(CharSequence.class), Mockito.anyString()))
+                .thenReturn(resp);
+        Mockito.lenient().when(resp.headers()).thenReturn(MultiMap.caseInsensitiveMultiMap());
+    }
+
+    byte[] recording() {
+        return ByteBuffer.allocate(200).put(FIRST_CHUNK).put(SECOND_CHUNK).array();
+    }
+
+    @Test
+    void shouldHandlePOST() {
+        MatcherAssert.assertThat(handler.httpMethod(), Matchers.equalTo(HttpMethod.POST));
+    }
+
+    @Test
+    void shouldHandleCorrectPath() {
+        MatcherAssert.assertThat(
+                handler.path(),
+                Matchers.equalTo("/api/v1/targets/:targetId/recordings/:recordingName/chunks"));
+    }
+
+    @Test
+    void shouldThrow404IfRecordingNotFound() throws Exception {
+        stubRequest();
+        attrs.set("from", "0");
+        Mockito.when(service.getAvailableRecordings()).thenReturn(List.of());
+
+        HttpStatusException ex =
+                Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handleAuthenticated(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(404));
+    }
+
+    @Test
+    void shouldThrow400BeforeConnectingIfRangeMissing() throws Exception {
+        Mockito.when(ctx.request()).thenReturn(req);
+        Mockito.when(req.formAttributes()).thenReturn(attrs);
+        Mockito.when(ctx.pathParam("recordingName")).thenReturn("foo");
+
+        HttpStatusException ex =
+                Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handleAuthenticated(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(400));
+        Mockito.verifyNoInteractions(targetConnectionManager);
+    }
+
+    @Test
+    void shouldSelectEventTypesFromTargetThroughScratchFile() throws Exception {
+        stubRequest();
+        stubResponse();
+        attrs.set("events", JfrEventFilterTest.SAMPLE);
+        Mockito.when(descriptor.getName()).thenReturn("foo");
+        Mockito.when(service.getAvailableRecordings()).thenReturn(List.of(descriptor));
+        Path recording = JfrEventFilterTest.record(tempDir.resolve("recording.jfr"));
+        Mockito.when(service.openStream(descriptor, false))
+                .thenReturn(new ByteArrayInputStream(Files.readAllBytes(recording)));
+        Path scratch = tempDir.resolve("scratch.jfr");
+        Mockito.when(fs.createTempFile(Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> Files.createFile(scratch));
+
+        handler.handleAuthenticated(ctx);
+
+        Path result =
+                Files.write(
+                        tempDir.resolve("result.jfr"),
+                        RecordingChunksPostHandlerTest.streamedBody(resp));
+        MatcherAssert.assertThat(
+                JfrEventFilterTest.types(result),
+                Matchers.equalTo(Set.of(JfrEventFilterTest.SAMPLE)));
+        MatcherAssert.assertThat(
+                JfrEventFilterTest.events(result, JfrEventFilterTest.SAMPLE),
+                Matchers.hasSize(JfrEventFilterTest.COUNT));
+        Mockito.verify(fs).deleteIfExists(scratch);
+    }
+
+    @Test
+    void shouldRequestRangeFromTargetAndStreamChunks() throws Exception {
+        stubRequest();
+        stubResponse();
+        attrs.set("from", "12");
+        attrs.set("to", "15");
+        Mockito.when(descriptor.getName()).thenReturn("foo");
+        Mockito.when(service.getAvailableRecordings()).thenReturn(List.of(descriptor));
+        Mockito.when(
+                        service.openStream(
+                                Mockito.eq(descriptor),
+                                Mockito.any(),
+                                Mockito.any(),
+                                Mockito.eq(false)))
+                .thenReturn(new ByteArrayInputStream(recording()));
+
+        handler.handleAuthenticated(ctx);
+
+        Mockito.verify(service, Mockito.never()).openStream(descriptor, false);
+        Mockito.verify(resp)
+                .putHeader(
+                        HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"foo-chunks.jfr\"");
+        ArgumentCaptor<Buffer> bodyCaptor = ArgumentCaptor.forClass(Buffer.class);
+        Mockito.verify(resp).end(bodyCaptor.capture());
+        MatcherAssert.assertThat(bodyCaptor.getValue().getBytes(), Matchers.equalTo(SECOND_CHUNK));
+        Mockito.verifyNoInteractions(fs);
+    }
+
+    @Test
+    void shouldFailStreamIfTargetEndsWithinChunk() throws Exception {
+        stubRequest();
+        stubResponse();
+        attrs.set("from", "0");
+        Mockito.when(descriptor.getName()).thenReturn("foo");
+        Mockito.when(service.getAvailableRecordings()).thenReturn(List.of(descriptor));
+        Mockito.when(service.openStream(descriptor, false))
+                .thenReturn(new ByteArrayInputStream(recording(), 0, 180));
+
+        Assertions.assertThrows(
+                JfrChunkSelector.PartialChunkException.class,
+                () -> handler.handleAuthenticated(ctx));
+
+        Mockito.verify(resp, Mockito.never()).end(Mockito.any(Buffer.class));
+    }
+
+    @Test
+    void shouldSaveChunksToArchive() throws Exception {
+        stubRequest();
+        stubResponse();
+        attrs.set("to", "5");
+        attrs.set("save", "true");
+        Mockito.when(descriptor.getName()).thenReturn("foo");
+        Mockito.when(service.getAvailableRecordings()).thenReturn(List.of(descriptor));
+        Mockito.when(service.openStream(descriptor, false))
+                .thenReturn(new ByteArrayInputStream(recording()));
+        Mockito.when(connection.getHost()).thenReturn("some.host");
+        Instant now = Instant.now();
+        Mockito.when(clock.now()).thenReturn(now);
+        String name = "some-host_foo-chunks_20200101T000000Z.jfr";
+        Mockito.when(archiveStorage.uniqueName("some-host", "foo-chunks", now)).thenReturn(name);
+        Mockito.when(archiveStorage.createStagingFile(Mockito.anyString()))
+                .thenAnswer(inv -> tempDir.resolve("." + inv.getArgument(0) + ".part"));
+        ArchiveRetentionService.Reservation reservation =
+                Mockito.mock(ArchiveRetentionService.Reservation.class);
+        Mockito.when(retentionService.reserve("some-host", "foo", 100L)).thenReturn(reservation);
+        Path destination = tempDir.resolve(name);
+        Mockito.doAnswer(inv -> Files.move(inv.getArgument(0), destination))
+                .when(archiveStorage)
+                .store(Mockito.any(Path.class), Mockito.eq(name));
+        Mockito.when(archiveStorage.localPath(name)).thenReturn(Optional.of(destination));
+
+        handler.handleAuthenticated(ctx);
+
+        MatcherAssert.assertThat(Files.readAllBytes(destination), Matchers.equalTo(FIRST_CHUNK));
+        Mockito.verify(archiveIndex).index(name);
+        Mockito.verify(reservation).close();
+        Mockito.verify(resp).sendFile(Mockito.eq(destination.toString()), Mockito.any());
+    }
+}
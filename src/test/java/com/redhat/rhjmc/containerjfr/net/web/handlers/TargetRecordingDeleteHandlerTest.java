@@ -82,6 +82,7 @@ class TargetRecordingDeleteHandlerTest {
     @Mock AuthManager auth;
     @Mock TargetConnectionManager targetConnectionManager;
     @Mock ReportService reportService;
+    @Mock TargetRecordingDownloadCache downloadCache;
 
     @Mock RoutingContext ctx;
     @Mock HttpServerRequest req;
@@ -92,7 +93,8 @@ class TargetRecordingDeleteHandlerTest {
     @BeforeEach
     void setup() {
         this.handler =
-                new TargetRecordingDeleteHandler(auth, targetConnectionManager, reportService);
+                new TargetRecordingDeleteHandler(
+                        auth, targetConnectionManager, reportService, downloadCache);
     }
 
     @Test
@@ -139,6 +141,13 @@ class TargetRecordingDeleteHandlerTest {
                                         arg.getTargetId()
                                                 .equals(connectionDescriptor.getTargetId())),
                         Mockito.eq("someRecording"));
+        Mockito.verify(downloadCache)
+                .invalidate(
+                        Mockito.argThat(
+                                arg ->
+                                        arg.getTargetId()
+                                                .equals(connectionDescriptor.getTargetId())),
+                        Mockito.eq("someRecording"));
         InOrder inOrder = Mockito.inOrder(resp);
         inOrder.verify(resp).setStatusCode(200);
         inOrder.verify(resp).end();
@@ -0,0 +1,400 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web.handlers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.core.net.Credentials;
+import com.redhat.rhjmc.containerjfr.net.ConnectionDescriptor;
+import com.redhat.rhjmc.containerjfr.net.web.WebServer.DownloadDescriptor;
+import com.redhat.rhjmc.containerjfr.sys.FileSystem;
+
+@ExtendWith(MockitoExtension.class)
+class TargetRecordingDownloadCacheTest {
+
+    TargetRecordingDownloadCache cache;
+    ExecutorService fillExecutor;
+    @Mock ScheduledExecutorService evictionExecutor;
+    @Mock AutoCloseable connection;
+    @Mock Logger logger;
+    @Mock FileSystem fs;
+    @TempDir Path tempDir;
+
+    ConnectionDescriptor connectionDescriptor = new ConnectionDescriptor("fooHost:9091");
+    AtomicInteger opened = new AtomicInteger();
+    byte[] src = new byte[300 * 1024];
+
+    @BeforeEach
+    void setup() throws IOException {
+        new Random(123456).nextBytes(src);
+        Mockito.lenient()
+                .when(
+                        fs.createTempFile(
+                                Mockito.any(Path.class), Mockito.anyString(), Mockito.anyString()))
+                .thenAnswer(
+                        invocation ->
+                                Files.createTempFile(
+                                        invocation.<Path>getArgument(0),
+                                        invocation.<String>getArgument(1),
+                                        invocation.<String>getArgument(2)));
+        Mockito.lenient()
+                .when(fs.deleteIfExists(Mockito.any(Path.class)))
+                .thenAnswer(invocation -> Files.deleteIfExists(invocation.<Path>getArgument(0)));
+        fillExecutor = Executors.newCachedThreadPool();
+        cache =
+                new TargetRecordingDownloadCache(
+                        tempDir, fs, Duration.ofMinutes(1), fillExecutor, evictionExecutor, logger);
+    }
+
+    @AfterEach
+    void teardown() {
+        fillExecutor.shutdownNow();
+    }
+
+    @Test
+    void shouldShareDownloadInProgress() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        InputStream source =
+                new ByteArrayInputStream(src) {
+                    @Override
+                    public synchronized int read(byte[] b, int off, int len) {
+                        if (pos >= count / 2) {
+                            try {
+                                latch.await();
+                            } catch (InterruptedException e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                        return super.read(b, off, len);
+                    }
+                };
+
+        DownloadDescriptor first = open("foo", source);
+        DownloadDescriptor second = open("foo", source);
+        latch.countDown();
+
+        try (InputStream a = first.stream;
+                InputStream b = second.stream) {
+            Assertions.assertArrayEquals(src, a.readAllBytes());
+            Assertions.assertArrayEquals(src, b.readAllBytes());
+        }
+        MatcherAssert.assertThat(opened.get(), Matchers.equalTo(1));
+        Mockito.verify(connection, Mockito.timeout(1000)).close();
+    }
+
+    @Test
+    void shouldServeCompletedDownloadWithinWindow() throws Exception {
+        try (InputStream stream = open("foo", new ByteArrayInputStream(src)).stream) {
+            Assertions.assertArrayEquals(src, stream.readAllBytes());
+        }
+        try (InputStream stream = open("foo", new ByteArrayInputStream(src)).stream) {
+            Assertions.assertArrayEquals(src, stream.readAllBytes());
+        }
+        MatcherAssert.assertThat(opened.get(), Matchers.equalTo(1));
+    }
+
+    @Test
+    void shouldOpenAgainAndDeleteSpillOnceWindowHasPassed() throws Exception {
+        try (InputStream stream = open("foo", new ByteArrayInputStream(src)).stream) {
+            Assertions.assertArrayEquals(src, stream.readAllBytes());
+        }
+
+        ArgumentCaptor<Runnable> eviction = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(evictionExecutor, Mockito.timeout(1000))
+                .schedule(
+                        eviction.capture(),
+                        Mockito.eq(Duration.ofMinutes(1).toMillis()),
+                        Mockito.eq(TimeUnit.MILLISECONDS));
+        eviction.getValue().run();
+        MatcherAssert.assertThat(Files.list(tempDir).count(), Matchers.equalTo(0L));
+
+        try (InputStream stream = open("foo", new ByteArrayInputStream(src)).stream) {
+            Assertions.assertArrayEquals(src, stream.readAllBytes());
+        }
+        MatcherAssert.assertThat(opened.get(), Matchers.equalTo(2));
+    }
+
+    @Test
+    void shouldWarnIfSpillCannotBeDeleted() throws Exception {
+        IOException failure = new IOException("busy");
+        Mockito.when(fs.deleteIfExists(Mockito.any(Path.class))).thenThrow(failure);
+        try (InputStream stream = open("foo", new ByteArrayInputStream(src)).stream) {
+            Assertions.assertArrayEquals(src, stream.readAllBytes());
+        }
+
+        ArgumentCaptor<Runnable> eviction = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(evictionExecutor, Mockito.timeout(1000))
+                .schedule(
+                        eviction.capture(),
+                        Mockito.eq(Duration.ofMinutes(1).toMillis()),
+                        Mockito.eq(TimeUnit.MILLISECONDS));
+        eviction.getValue().run();
+
+        Mockito.verify(logger).warn(failure);
+    }
+
+    @Test
+    void shouldKeepSpillUntilReadersAreDone() throws Exception {
+        cache =
+                new TargetRecordingDownloadCache(
+                        tempDir, fs, Duration.ZERO, fillExecutor, evictionExecutor, logger);
+        DownloadDescriptor download = open("foo", new ByteArrayInputStream(src));
+        Mockito.verify(connection, Mockito.timeout(1000)).close();
+
+        MatcherAssert.assertThat(Files.list(tempDir).count(), Matchers.equalTo(1L));
+        try (InputStream stream = download.stream) {
+            Assertions.assertArrayEquals(src, stream.readAllBytes());
+        }
+        MatcherAssert.assertThat(Files.list(tempDir).count(), Matchers.equalTo(0L));
+        Mockito.verifyNoInteractions(evictionExecutor);
+    }
+
+    @Test
+    void shouldKeepRecordingsApart() throws Exception {
+        try (InputStream stream = open("foo", new ByteArrayInputStream(src)).stream) {
+            Assertions.assertArrayEquals(src, stream.readAllBytes());
+        }
+        byte[] other = new byte[] {1, 2, 3};
+        try (InputStream stream = open("bar", new ByteArrayInputStream(other)).stream) {
+            Assertions.assertArrayEquals(other, stream.readAllBytes());
+        }
+        MatcherAssert.assertThat(opened.get(), Matchers.equalTo(2));
+    }
+
+    @Test
+    void shouldKeepClientsWithDifferentCredentialsApart() throws Exception {
+        ConnectionDescriptor alice =
+                new ConnectionDescriptor("fooHost:9091", credentials("a", "b"));
+        ConnectionDescriptor bob = new ConnectionDescriptor("fooHost:9091", credentials("a", "c"));
+        ConnectionDescriptor aliceAgain =
+                new ConnectionDescriptor("fooHost:9091", credentials("a", "b"));
+
+        for (ConnectionDescriptor descriptor :
+                new ConnectionDescriptor[] {alice, bob, aliceAgain}) {
+            try (InputStream stream =
+                    cache.open(
+                                    descriptor,
+                                    "foo",
+                                    () -> {
+                                        opened.incrementAndGet();
+                                        return Optional.of(
+                                                new DownloadDescriptor(
+                                                        new ByteArrayInputStream(src),
+                                                        null,
+                                                        connection));
+                                    })
+                            .get()
+                            .stream) {
+                Assertions.assertArrayEquals(src, stream.readAllBytes());
+            }
+        }
+        MatcherAssert.assertThat(opened.get(), Matchers.equalTo(2));
+    }
+
+    @Test
+    void shouldAbandonCopyOnceAllReadersHaveGone() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicBoolean exhausted = new AtomicBoolean();
+        InputStream source =
+                new ByteArrayInputStream(src) {
+                    @Override
+                    public synchronized int read(byte[] b, int off, int len) {
+                        if (pos > 0) {
+                            try {
+                                latch.await();
+                            } catch (InterruptedException e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                        int n = super.read(b, off, len);
+                        exhausted.compareAndSet(false, n < 0);
+                        return n;
+                    }
+                };
+
+        try (InputStream stream = open("foo", source).stream) {
+            MatcherAssert.assertThat(stream.read(), Matchers.not(-1));
+        }
+        latch.countDown();
+
+        Mockito.verify(connection, Mockito.timeout(1000)).close();
+        MatcherAssert.assertThat(exhausted.get(), Matchers.is(false));
+        MatcherAssert.assertThat(Files.list(tempDir).count(), Matchers.equalTo(0L));
+        Mockito.verifyNoInteractions(evictionExecutor);
+
+        try (InputStream stream = open("foo", new ByteArrayInputStream(src)).stream) {
+            Assertions.assertArrayEquals(src, stream.readAllBytes());
+        }
+        MatcherAssert.assertThat(opened.get(), Matchers.equalTo(2));
+    }
+
+    @Test
+    void shouldOpenAgainOnceInvalidated() throws Exception {
+        try (InputStream stream = open("foo", new ByteArrayInputStream(src)).stream) {
+            Assertions.assertArrayEquals(src, stream.readAllBytes());
+        }
+        cache.invalidate(connectionDescriptor, "foo");
+        MatcherAssert.assertThat(Files.list(tempDir).count(), Matchers.equalTo(0L));
+
+        try (InputStream stream = open("foo", new ByteArrayInputStream(src)).stream) {
+            Assertions.assertArrayEquals(src, stream.readAllBytes());
+        }
+        MatcherAssert.assertThat(opened.get(), Matchers.equalTo(2));
+    }
+
+    @Test
+    void shouldNotRememberMissingRecording() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            Optional<DownloadDescriptor> download =
+                    cache.open(
+                            connectionDescriptor,
+                            "foo",
+                            () -> {
+                                opened.incrementAndGet();
+                                return Optional.empty();
+                            });
+            Assertions.assertTrue(download.isEmpty());
+        }
+        MatcherAssert.assertThat(opened.get(), Matchers.equalTo(2));
+    }
+
+    @Test
+    void shouldPassOnOpenFailure() throws Exception {
+        IOException ioe = new IOException("connection refused");
+        IOException thrown =
+                Assertions.assertThrows(
+                        IOException.class,
+                        () ->
+                                cache.open(
+                                        connectionDescriptor,
+                                        "foo",
+                                        () -> {
+                                            throw ioe;
+                                        }));
+        MatcherAssert.assertThat(thrown, Matchers.sameInstance(ioe));
+
+        try (InputStream stream = open("foo", new ByteArrayInputStream(src)).stream) {
+            Assertions.assertArrayEquals(src, stream.readAllBytes());
+        }
+        MatcherAssert.assertThat(opened.get(), Matchers.equalTo(1));
+    }
+
+    @Test
+    void shouldFailReadersIfTargetStreamFails() throws Exception {
+        InputStream source =
+                new InputStream() {
+                    boolean first = true;
+
+                    @Override
+                    public int read() throws IOException {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        if (first) {
+                            first = false;
+                            b[off] = 1;
+                            return 1;
+                        }
+                        throw new IOException("connection reset");
+                    }
+                };
+
+        try (InputStream stream = open("foo", source).stream) {
+            Assertions.assertThrows(IOException.class, stream::readAllBytes);
+        }
+        Mockito.verify(connection, Mockito.timeout(1000)).close();
+        MatcherAssert.assertThat(Files.list(tempDir).count(), Matchers.equalTo(0L));
+
+        try (InputStream stream = open("foo", new ByteArrayInputStream(src)).stream) {
+            Assertions.assertArrayEquals(src, stream.readAllBytes());
+        }
+        MatcherAssert.assertThat(opened.get(), Matchers.equalTo(2));
+    }
+
+    private static Credentials credentials(String username, String password) {
+        Credentials credentials = Mockito.mock(Credentials.class);
+        Mockito.when(credentials.getUsername()).thenReturn(username);
+        Mockito.when(credentials.getPassword()).thenReturn(password);
+        return credentials;
+    }
+
+    private DownloadDescriptor open(String recordingName, InputStream source) throws Exception {
+        return cache.open(
+                        connectionDescriptor,
+                        recordingName,
+                        () -> {
+                            opened.incrementAndGet();
+                            return Optional.of(new DownloadDescriptor(source, null, connection));
+                        })
+                .get();
+    }
+}
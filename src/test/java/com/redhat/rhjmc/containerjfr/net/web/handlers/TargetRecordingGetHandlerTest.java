@@ -46,9 +46,12 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
 
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
@@ -56,6 +59,7 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 import org.mockito.Mock;
@@ -72,6 +76,7 @@ import com.redhat.rhjmc.containerjfr.net.AuthManager;
 import com.redhat.rhjmc.containerjfr.net.ConnectionDescriptor;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
 import com.redhat.rhjmc.containerjfr.net.web.HttpMimeType;
+import com.redhat.rhjmc.containerjfr.sys.FileSystem;
 
 import io.vertx.core.MultiMap;
 import io.vertx.core.buffer.Buffer;
@@ -92,11 +97,21 @@ class TargetRecordingGetHandlerTest {
     @Mock Logger logger;
     @Mock JFRConnection connection;
     @Mock IFlightRecorderService service;
+    @TempDir Path tempDir;
 
     @BeforeEach
     void setup() {
+        TargetRecordingDownloadCache downloadCache =
+                new TargetRecordingDownloadCache(
+                        tempDir,
+                        new FileSystem(),
+                        Duration.ZERO,
+                        Executors.newCachedThreadPool(),
+                        Executors.newSingleThreadScheduledExecutor(),
+                        logger);
         this.handler =
-                new TargetRecordingGetHandler(authManager, env, targetConnectionManager, logger);
+                new TargetRecordingGetHandler(
+                        authManager, env, targetConnectionManager, downloadCache, logger);
     }
 
     @Test
@@ -159,6 +174,7 @@ class TargetRecordingGetHandlerTest {
 
         verify(resp).putHeader(HttpHeaders.CONTENT_TYPE, HttpMimeType.OCTET_STREAM.mime());
         Assertions.assertArrayEquals(src, dst.getBytes());
+        verify(connection, Mockito.timeout(1000)).close();
     }
 
     @ParameterizedTest
@@ -207,6 +223,11 @@ class TargetRecordingGetHandlerTest {
         Assertions.assertArrayEquals(src, dst.getBytes());
     }
 
+    @Test
+    void shouldRunOnTransferWorkerPool() {
+        MatcherAssert.assertThat(handler.workerPool(), Matchers.equalTo(WorkerPool.TRANSFER));
+    }
+
     @Test
     void shouldRespond404IfRecordingNameNotFound() throws Exception {
         when(authManager.validateHttpHeader(Mockito.any()))
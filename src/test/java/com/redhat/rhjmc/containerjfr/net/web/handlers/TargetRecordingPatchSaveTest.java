@@ -42,10 +42,18 @@
 package com.redhat.rhjmc.containerjfr.net.web.handlers;
 
 import java.io.InputStream;
-import java.nio.file.Path;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
 
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
@@ -60,16 +68,29 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.stubbing.Answer;
 
+import org.openjdk.jmc.rjmx.IConnectionHandle;
 import org.openjdk.jmc.rjmx.services.jfr.IFlightRecorderService;
 import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
 
+import com.google.gson.Gson;
+
+import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveIndex;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveRetentionService;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveSpaceException;
+import com.redhat.rhjmc.containerjfr.archive.ArchiveStorage;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
 import com.redhat.rhjmc.containerjfr.core.sys.Clock;
-import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.jobs.Job;
+import com.redhat.rhjmc.containerjfr.jobs.JobManager;
 import com.redhat.rhjmc.containerjfr.net.ConnectionDescriptor;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager.ConnectedTask;
+import com.redhat.rhjmc.containerjfr.tui.ws.MessagingServer;
 
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.impl.HttpStatusException;
@@ -78,12 +99,18 @@ import io.vertx.ext.web.handler.impl.HttpStatusException;
 class TargetRecordingPatchSaveTest {
 
     TargetRecordingPatchSave patchSave;
-    @Mock FileSystem fs;
-    @Mock Path recordingsPath;
+    @Mock ArchiveStorage archiveStorage;
+    @Mock ArchiveIndex archiveIndex;
+    @Mock ArchiveRetentionService retentionService;
     @Mock TargetConnectionManager targetConnectionManager;
+    @Mock MessagingServer messagingServer;
     @Mock Clock clock;
+    @Mock Logger logger;
+    JobManager jobManager;
+    Gson gson;
 
     @Mock RoutingContext ctx;
+    @Mock HttpServerRequest req;
     @Mock HttpServerResponse resp;
     @Mock JFRConnection jfrConnection;
     @Mock IFlightRecorderService service;
@@ -92,10 +119,26 @@ class TargetRecordingPatchSaveTest {
     String recordingName = "someRecording";
 
     @BeforeEach
-    void setup() {
+    void setup() throws Exception {
+        Mockito.lenient()
+                .when(
+                        archiveStorage.uniqueName(
+                                Mockito.anyString(), Mockito.anyString(), Mockito.any()))
+                .thenCallRealMethod();
+        this.gson = MainModule.provideGson(logger);
+        this.jobManager = new JobManager(Runnable::run, 1, 1, messagingServer, clock, logger);
         this.patchSave =
-                new TargetRecordingPatchSave(fs, recordingsPath, targetConnectionManager, clock);
+                new TargetRecordingPatchSave(
+                        archiveStorage,
+                        archiveIndex,
+                        retentionService,
+                        targetConnectionManager,
+                        jobManager,
+                        clock,
+                        gson);
+        Mockito.when(ctx.pathParam("targetId")).thenReturn(targetId);
         Mockito.when(ctx.pathParam("recordingName")).thenReturn(recordingName);
+        Mockito.when(ctx.request()).thenReturn(req);
     }
 
     @Test
@@ -143,11 +186,9 @@ class TargetRecordingPatchSaveTest {
         Mockito.when(jfrConnection.getHost()).thenReturn("some-hostname.local");
         Instant now = Instant.now();
         Mockito.when(clock.now()).thenReturn(now);
-        Mockito.when(fs.exists(Mockito.any())).thenReturn(false);
+        Mockito.when(archiveStorage.exists(Mockito.anyString())).thenReturn(false);
         InputStream stream = Mockito.mock(InputStream.class);
         Mockito.when(service.openStream(descriptor, false)).thenReturn(stream);
-        Path destination = Mockito.mock(Path.class);
-        Mockito.when(recordingsPath.resolve(Mockito.anyString())).thenReturn(destination);
 
         patchSave.handle(ctx, new ConnectionDescriptor(targetId));
 
@@ -155,7 +196,63 @@ class TargetRecordingPatchSaveTest {
         inOrder.verify(resp).setStatusCode(200);
         String timestamp = now.truncatedTo(ChronoUnit.SECONDS).toString().replaceAll("[-:]+", "");
         inOrder.verify(resp).end("some-hostname-local_someRecording_" + timestamp + ".jfr");
-        Mockito.verify(fs).copy(Mockito.eq(stream), Mockito.eq(destination));
+        Mockito.verify(archiveStorage)
+                .write(
+                        Mockito.eq("some-hostname-local_someRecording_" + timestamp + ".jfr"),
+                        Mockito.any(InputStream.class));
+        Mockito.verify(archiveIndex)
+                .index("some-hostname-local_someRecording_" + timestamp + ".jfr");
+    }
+
+    @Test
+    void shouldThrow507IfArchiveSpaceCannotBeReserved() throws Exception {
+        Mockito.when(
+                        targetConnectionManager.executeConnectedTask(
+                                Mockito.any(), Mockito.any(ConnectedTask.class)))
+                .thenAnswer(
+                        new Answer<>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) throws Throwable {
+                                ConnectedTask task = (ConnectedTask) invocation.getArgument(1);
+                                return task.execute(jfrConnection);
+                            }
+                        });
+        Mockito.when(jfrConnection.getService()).thenReturn(service);
+        IRecordingDescriptor descriptor = Mockito.mock(IRecordingDescriptor.class);
+        Mockito.when(descriptor.getName()).thenReturn(recordingName);
+        Mockito.when(descriptor.getId()).thenReturn(1L);
+        IConnectionHandle handle = Mockito.mock(IConnectionHandle.class);
+        MBeanServerConnection mbsc = Mockito.mock(MBeanServerConnection.class);
+        Mockito.when(jfrConnection.getHandle()).thenReturn(handle);
+        Mockito.when(handle.getServiceOrThrow(MBeanServerConnection.class)).thenReturn(mbsc);
+        CompositeType type =
+                new CompositeType(
+                        "RecordingInfo",
+                        "RecordingInfo",
+                        new String[] {"id", "size"},
+                        new String[] {"id", "size"},
+                        new OpenType<?>[] {SimpleType.LONG, SimpleType.LONG});
+        Mockito.when(mbsc.getAttribute(Mockito.any(ObjectName.class), Mockito.eq("Recordings")))
+                .thenReturn(
+                        new CompositeData[] {
+                            new CompositeDataSupport(
+                                    type, new String[] {"id", "size"}, new Object[] {1L, 1234L})
+                        });
+        Mockito.when(service.getAvailableRecordings()).thenReturn(List.of(descriptor));
+        Mockito.when(jfrConnection.getHost()).thenReturn("some-hostname.local");
+        Mockito.when(clock.now()).thenReturn(Instant.now());
+        Mockito.when(archiveStorage.exists(Mockito.anyString())).thenReturn(false);
+        Mockito.when(retentionService.reserve("some-hostname-local", recordingName, 1234L))
+                .thenThrow(new ArchiveSpaceException("full"));
+
+        HttpStatusException ex =
+                Assertions.assertThrows(
+                        HttpStatusException.class,
+                        () -> patchSave.handle(ctx, new ConnectionDescriptor(targetId)));
+
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(507));
+        Mockito.verify(service, Mockito.never()).openStream(descriptor, false);
+        Mockito.verifyNoInteractions(archiveIndex);
     }
 
     @Test
@@ -181,11 +278,9 @@ class TargetRecordingPatchSaveTest {
         Mockito.when(jfrConnection.getHost()).thenReturn("some-hostname.local");
         Instant now = Instant.now();
         Mockito.when(clock.now()).thenReturn(now);
-        Mockito.when(fs.exists(Mockito.any())).thenReturn(false);
+        Mockito.when(archiveStorage.exists(Mockito.anyString())).thenReturn(false);
         InputStream stream = Mockito.mock(InputStream.class);
         Mockito.when(service.openStream(descriptor, false)).thenReturn(stream);
-        Path destination = Mockito.mock(Path.class);
-        Mockito.when(recordingsPath.resolve(Mockito.anyString())).thenReturn(destination);
 
         patchSave.handle(ctx, new ConnectionDescriptor(targetId));
 
@@ -193,7 +288,12 @@ class TargetRecordingPatchSaveTest {
         inOrder.verify(resp).setStatusCode(200);
         String timestamp = now.truncatedTo(ChronoUnit.SECONDS).toString().replaceAll("[-:]+", "");
         inOrder.verify(resp).end("some-hostname-local_someRecording_" + timestamp + ".jfr");
-        Mockito.verify(fs).copy(Mockito.eq(stream), Mockito.eq(destination));
+        Mockito.verify(archiveStorage)
+                .write(
+                        Mockito.eq("some-hostname-local_someRecording_" + timestamp + ".jfr"),
+                        Mockito.any(InputStream.class));
+        Mockito.verify(archiveIndex)
+                .index("some-hostname-local_someRecording_" + timestamp + ".jfr");
     }
 
     @Test
@@ -217,11 +317,9 @@ class TargetRecordingPatchSaveTest {
         Mockito.when(jfrConnection.getHost()).thenReturn("some-hostname.local");
         Instant now = Instant.now();
         Mockito.when(clock.now()).thenReturn(now);
-        Mockito.when(fs.exists(Mockito.any())).thenReturn(true).thenReturn(false);
+        Mockito.when(archiveStorage.exists(Mockito.anyString())).thenReturn(true).thenReturn(false);
         InputStream stream = Mockito.mock(InputStream.class);
         Mockito.when(service.openStream(descriptor, false)).thenReturn(stream);
-        Path destination = Mockito.mock(Path.class);
-        Mockito.when(recordingsPath.resolve(Mockito.anyString())).thenReturn(destination);
 
         patchSave.handle(ctx, new ConnectionDescriptor(targetId));
 
@@ -229,6 +327,72 @@ class TargetRecordingPatchSaveTest {
         inOrder.verify(resp).setStatusCode(200);
         String timestamp = now.truncatedTo(ChronoUnit.SECONDS).toString().replaceAll("[-:]+", "");
         inOrder.verify(resp).end("some-hostname-local_someRecording_" + timestamp + ".1.jfr");
-        Mockito.verify(fs).copy(Mockito.eq(stream), Mockito.eq(destination));
+        Mockito.verify(archiveStorage)
+                .write(
+                        Mockito.eq("some-hostname-local_someRecording_" + timestamp + ".1.jfr"),
+                        Mockito.any(InputStream.class));
+        Mockito.verify(archiveIndex)
+                .index("some-hostname-local_someRecording_" + timestamp + ".1.jfr");
+    }
+
+    @Test
+    void shouldRespondWithJobWhenAsyncPreferred() throws Exception {
+        // jobs handed to this executor never start, so the request must not wait on them
+        JobManager jobManager = new JobManager(r -> {}, 1, 1, messagingServer, clock, logger);
+        Mockito.when(req.getHeader("Prefer")).thenReturn("respond-async");
+        Mockito.when(ctx.response()).thenReturn(resp);
+        Mockito.when(resp.setStatusCode(Mockito.anyInt())).thenReturn(resp);
+        Mockito.when(resp.putHeader(Mockito.any(CharSequence.class), Mockito.anyString()))
+                .thenReturn(resp);
+        TargetRecordingPatchSave patchSave =
+                new TargetRecordingPatchSave(
+                        archiveStorage,
+                        archiveIndex,
+                        retentionService,
+                        targetConnectionManager,
+                        jobManager,
+                        clock,
+                        gson);
+
+        patchSave.handle(ctx, new ConnectionDescriptor(targetId));
+
+        Job job = jobManager.list().get(0);
+        MatcherAssert.assertThat(job.getState(), Matchers.equalTo(Job.State.QUEUED));
+        MatcherAssert.assertThat(job.getType(), Matchers.equalTo(Job.TYPE_SAVE));
+        Mockito.verify(resp).setStatusCode(202);
+        Mockito.verify(resp).putHeader(HttpHeaders.LOCATION, "/api/v1/jobs/" + job.getId());
+        Mockito.verify(resp).end(gson.toJson(job));
+        Mockito.verifyNoInteractions(targetConnectionManager);
+    }
+
+    @Test
+    void shouldThrow503IfTooManyJobsQueued() throws Exception {
+        JobManager jobManager = Mockito.mock(JobManager.class);
+        Mockito.when(
+                        jobManager.submit(
+                                Mockito.anyString(),
+                                Mockito.anyString(),
+                                Mockito.anyString(),
+                                Mockito.any()))
+                .thenThrow(new RejectedExecutionException("full"));
+        Mockito.reset(ctx);
+        Mockito.when(ctx.pathParam("targetId")).thenReturn(targetId);
+        Mockito.when(ctx.pathParam("recordingName")).thenReturn(recordingName);
+        TargetRecordingPatchSave patchSave =
+                new TargetRecordingPatchSave(
+                        archiveStorage,
+                        archiveIndex,
+                        retentionService,
+                        targetConnectionManager,
+                        jobManager,
+                        clock,
+                        gson);
+
+        HttpStatusException ex =
+                Assertions.assertThrows(
+                        HttpStatusException.class,
+                        () -> patchSave.handle(ctx, new ConnectionDescriptor(targetId)));
+
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(503));
     }
 }
@@ -41,7 +41,9 @@
  */
 package com.redhat.rhjmc.containerjfr.net.web.handlers;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
@@ -65,22 +67,28 @@ import org.mockito.stubbing.Answer;
 import org.openjdk.jmc.rjmx.services.jfr.IFlightRecorderService;
 import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
 
+import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.net.JFRConnection;
+import com.redhat.rhjmc.containerjfr.core.sys.Clock;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
-import com.redhat.rhjmc.containerjfr.core.sys.FileSystem;
+import com.redhat.rhjmc.containerjfr.jobs.JobManager;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
 import com.redhat.rhjmc.containerjfr.net.ConnectionDescriptor;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager;
 import com.redhat.rhjmc.containerjfr.net.TargetConnectionManager.ConnectedTask;
 import com.redhat.rhjmc.containerjfr.net.internal.reports.ReportService.RecordingNotFoundException;
+import com.redhat.rhjmc.containerjfr.tui.ws.MessagingServer;
 
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.MultiMap;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.streams.ReadStream;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.client.HttpRequest;
 import io.vertx.ext.web.client.HttpResponse;
@@ -95,7 +103,9 @@ class TargetRecordingUploadPostHandlerTest {
     @Mock Environment env;
     @Mock TargetConnectionManager targetConnectionManager;
     @Mock WebClient webClient;
-    @Mock FileSystem fs;
+    @Mock MessagingServer messagingServer;
+    @Mock Clock clock;
+    @Mock Logger logger;
 
     @Mock RoutingContext ctx;
     @Mock HttpServerRequest req;
@@ -108,7 +118,12 @@ class TargetRecordingUploadPostHandlerTest {
     void setup() {
         this.handler =
                 new TargetRecordingUploadPostHandler(
-                        auth, env, targetConnectionManager, webClient, fs);
+                        auth,
+                        env,
+                        targetConnectionManager,
+                        webClient,
+                        new JobManager(Runnable::run, 1, 1, messagingServer, clock, logger),
+                        MainModule.provideGson(logger));
     }
 
     @Test
@@ -172,7 +187,8 @@ class TargetRecordingUploadPostHandlerTest {
                 .thenAnswer(arg0 -> ((ConnectedTask<Object>) arg0.getArgument(1)).execute(conn));
         IFlightRecorderService svc = Mockito.mock(IFlightRecorderService.class);
         IRecordingDescriptor rec = Mockito.mock(IRecordingDescriptor.class);
-        InputStream stream = Mockito.mock(InputStream.class);
+        InputStream stream =
+                new ByteArrayInputStream("recording data".getBytes(StandardCharsets.UTF_8));
         Mockito.when(conn.getService()).thenReturn(svc);
         Mockito.when(svc.getAvailableRecordings()).thenReturn(List.of(rec));
         Mockito.when(rec.getName()).thenReturn("foo");
@@ -186,23 +202,30 @@ class TargetRecordingUploadPostHandlerTest {
         HttpResponse<Buffer> httpResp = Mockito.mock(HttpResponse.class);
         Mockito.when(webClient.postAbs(Mockito.anyString())).thenReturn(httpReq);
         Mockito.when(httpReq.timeout(Mockito.anyLong())).thenReturn(httpReq);
+        Mockito.when(httpReq.putHeader(Mockito.anyString(), Mockito.anyString()))
+                .thenReturn(httpReq);
+        Buffer uploaded = Buffer.buffer();
         Mockito.doAnswer(
                         new Answer<Void>() {
                             @Override
                             public Void answer(InvocationOnMock args) throws Throwable {
+                                ReadStream<Buffer> body = args.getArgument(0);
+                                Handler<AsyncResult<HttpResponse<Buffer>>> handler =
+                                        args.getArgument(1);
                                 AsyncResult<HttpResponse<Buffer>> asyncResult =
                                         Mockito.mock(AsyncResult.class);
                                 Mockito.when(asyncResult.result()).thenReturn(httpResp);
                                 Mockito.when(httpResp.statusCode()).thenReturn(200);
                                 Mockito.when(httpResp.statusMessage()).thenReturn("OK");
                                 Mockito.when(httpResp.bodyAsString()).thenReturn("HELLO");
-                                ((Handler<AsyncResult<HttpResponse<Buffer>>>) args.getArgument(1))
-                                        .handle(asyncResult);
+                                // answer only once the whole body has been consumed
+                                body.handler(uploaded::appendBuffer);
+                                body.endHandler(v -> handler.handle(asyncResult));
                                 return null;
                             }
                         })
                 .when(httpReq)
-                .sendMultipartForm(Mockito.any(), Mockito.any());
+                .sendStream(Mockito.any(), Mockito.any());
 
         Mockito.when(ctx.request()).thenReturn(req);
         Mockito.when(req.headers()).thenReturn(MultiMap.caseInsensitiveMultiMap());
@@ -218,5 +241,18 @@ class TargetRecordingUploadPostHandlerTest {
         Mockito.verify(webClient).postAbs(urlCaptor.capture());
         MatcherAssert.assertThat(
                 urlCaptor.getValue(), Matchers.equalTo(DATASOURCE_URL.concat("/load")));
+        ArgumentCaptor<String> contentTypeCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(httpReq)
+                .putHeader(
+                        Mockito.eq(HttpHeaders.CONTENT_TYPE.toString()),
+                        contentTypeCaptor.capture());
+        String boundary =
+                contentTypeCaptor.getValue().replace("multipart/form-data; boundary=", "");
+        MatcherAssert.assertThat(
+                uploaded.toString(),
+                Matchers.equalTo(
+                        String.format(
+                                "--%s\r\nContent-Disposition: form-data; name=\"file\"; filename=\"foo\"\r\nContent-Type: application/octet-stream\r\n\r\nrecording data\r\n--%s--\r\n",
+                                boundary, boundary)));
     }
 }
@@ -0,0 +1,302 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.net.web.handlers;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+
+@ExtendWith(MockitoExtension.class)
+class WebClientAssetsTest {
+
+    static final String BASE = WebClientAssetsGetHandler.WEB_CLIENT_ASSETS_BASE;
+    static final String APP_JS = BASE + "/app.3f2a9c1b.js";
+    // 2020-01-01T00:00:00Z
+    static final long LAST_MODIFIED = 1577836800000L;
+    static final String LAST_MODIFIED_DATE = "Wed, 1 Jan 2020 00:00:00 GMT";
+    static final String BR_ETAG = "\"16f5e66e800-64-br\"";
+
+    WebClientAssets assets;
+    Set<String> resources;
+    List<String> lookups;
+    @Mock RoutingContext ctx;
+    @Mock HttpServerRequest req;
+    @Mock HttpServerResponse resp;
+
+    @BeforeEach
+    void setup() {
+        this.resources = Set.of(APP_JS, APP_JS + ".br", APP_JS + ".gz", BASE + "/logo.png");
+        this.lookups = new ArrayList<>();
+        this.assets =
+                new WebClientAssets(
+                        path -> {
+                            lookups.add(path);
+                            return resources.contains(path)
+                                    ? Optional.of(new WebClientAssets.AssetFile(LAST_MODIFIED, 100))
+                                    : Optional.empty();
+                        });
+        Mockito.lenient().when(ctx.request()).thenReturn(req);
+        Mockito.lenient().when(req.getHeader(Mockito.any(CharSequence.class))).thenReturn(null);
+        Mockito.lenient().when(ctx.response()).thenReturn(resp);
+        Mockito.lenient()
+                .when(
+                        resp.putHeader(
+                                Mockito.any(CharSequence.class), Mockito.any(CharSequence.class)))
+                .thenReturn(resp);
+    }
+
+    @Test
+    void shouldMapRootToIndexPage() {
+        MatcherAssert.assertThat(
+                WebClientAssets.resourcePath("/"), Matchers.equalTo(BASE + "/index.html"));
+        MatcherAssert.assertThat(
+                WebClientAssets.resourcePath("/app.js"), Matchers.equalTo(BASE + "/app.js"));
+    }
+
+    @Test
+    void shouldCacheFingerprintedAssetsIndefinitely() {
+        MatcherAssert.assertThat(
+                WebClientAssets.cacheControl(APP_JS),
+                Matchers.equalTo(WebClientAssets.IMMUTABLE_CACHE_CONTROL));
+        MatcherAssert.assertThat(
+                WebClientAssets.cacheControl(BASE + "/main-0123456789abcdef.bundle.js"),
+                Matchers.equalTo(WebClientAssets.IMMUTABLE_CACHE_CONTROL));
+    }
+
+    @Test
+    void shouldCacheIndexPageBriefly() {
+        MatcherAssert.assertThat(
+                WebClientAssets.cacheControl(BASE + "/index.html"),
+                Matchers.equalTo(WebClientAssets.INDEX_CACHE_CONTROL));
+    }
+
+    @Test
+    void shouldUseDefaultCachingForOtherAssets() {
+        MatcherAssert.assertThat(
+                WebClientAssets.cacheControl(BASE + "/logo.png"), Matchers.nullValue());
+        MatcherAssert.assertThat(
+                WebClientAssets.cacheControl(BASE + "/abc.js"), Matchers.nullValue());
+    }
+
+    @Test
+    void shouldPreferBrotli() {
+        Set<WebClientAssets.Encoding> available = EnumSet.allOf(WebClientAssets.Encoding.class);
+        MatcherAssert.assertThat(
+                WebClientAssets.negotiate("gzip, deflate, br", available),
+                Matchers.equalTo(WebClientAssets.Encoding.BROTLI));
+        MatcherAssert.assertThat(
+                WebClientAssets.negotiate("gzip", available),
+                Matchers.equalTo(WebClientAssets.Encoding.GZIP));
+    }
+
+    @Test
+    void shouldOnlyNegotiateAvailableEncodings() {
+        MatcherAssert.assertThat(
+                WebClientAssets.negotiate("br", EnumSet.of(WebClientAssets.Encoding.GZIP)),
+                Matchers.nullValue());
+    }
+
+    @Test
+    void shouldNotNegotiateRejectedEncodings() {
+        Set<WebClientAssets.Encoding> available = EnumSet.allOf(WebClientAssets.Encoding.class);
+        MatcherAssert.assertThat(
+                WebClientAssets.negotiate("br;q=0, gzip;q=0.5", available),
+                Matchers.equalTo(WebClientAssets.Encoding.GZIP));
+        MatcherAssert.assertThat(
+                WebClientAssets.negotiate("br;q=0.0, gzip; q=0", available), Matchers.nullValue());
+        MatcherAssert.assertThat(WebClientAssets.negotiate(null, available), Matchers.nullValue());
+        MatcherAssert.assertThat(WebClientAssets.negotiate("", available), Matchers.nullValue());
+    }
+
+    @Test
+    void shouldSendPrecompressedVariant() {
+        when(req.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn("gzip, br");
+
+        Assertions.assertTrue(assets.sendPrecompressed(ctx, APP_JS));
+
+        verify(resp).putHeader("Vary", HttpHeaders.ACCEPT_ENCODING);
+        verify(resp).putHeader(HttpHeaders.CONTENT_ENCODING, "br");
+        verify(resp).putHeader(HttpHeaders.CONTENT_TYPE, "application/javascript");
+        verify(resp).putHeader(HttpHeaders.CACHE_CONTROL, WebClientAssets.IMMUTABLE_CACHE_CONTROL);
+        verify(resp).putHeader(HttpHeaders.ETAG, BR_ETAG);
+        verify(resp).putHeader(HttpHeaders.LAST_MODIFIED, LAST_MODIFIED_DATE);
+        verify(resp).sendFile(APP_JS + ".br");
+    }
+
+    @Test
+    void shouldNameEncodingInETag() {
+        WebClientAssets.AssetFile file = new WebClientAssets.AssetFile(LAST_MODIFIED, 100);
+        MatcherAssert.assertThat(
+                file.etag(WebClientAssets.Encoding.BROTLI), Matchers.equalTo(BR_ETAG));
+        MatcherAssert.assertThat(
+                file.etag(WebClientAssets.Encoding.GZIP),
+                Matchers.equalTo("\"16f5e66e800-64-gzip\""));
+    }
+
+    @Test
+    void shouldAnswerMatchingIfNoneMatchWithNotModified() {
+        when(req.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn("br");
+        when(req.getHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn("\"other\", W/" + BR_ETAG);
+        when(resp.setStatusCode(304)).thenReturn(resp);
+
+        Assertions.assertTrue(assets.sendPrecompressed(ctx, APP_JS));
+
+        verify(resp).putHeader(HttpHeaders.ETAG, BR_ETAG);
+        verify(resp).putHeader(HttpHeaders.CACHE_CONTROL, WebClientAssets.IMMUTABLE_CACHE_CONTROL);
+        verify(resp).setStatusCode(304);
+        verify(resp).end();
+        verify(resp, never()).sendFile(Mockito.anyString());
+    }
+
+    @Test
+    void shouldSendVariantIfETagDoesNotMatch() {
+        when(req.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn("gzip");
+        // the client has the brotli variant, but now only accepts gzip
+        when(req.getHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn(BR_ETAG);
+
+        Assertions.assertTrue(assets.sendPrecompressed(ctx, APP_JS));
+
+        verify(resp, never()).setStatusCode(304);
+        verify(resp).sendFile(APP_JS + ".gz");
+    }
+
+    @Test
+    void shouldAnswerIfModifiedSinceWithNotModified() {
+        when(req.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn("br");
+        when(req.getHeader(HttpHeaders.IF_MODIFIED_SINCE)).thenReturn(LAST_MODIFIED_DATE);
+        when(resp.setStatusCode(304)).thenReturn(resp);
+
+        Assertions.assertTrue(assets.sendPrecompressed(ctx, APP_JS));
+
+        verify(resp).setStatusCode(304);
+        verify(resp, never()).sendFile(Mockito.anyString());
+    }
+
+    @Test
+    void shouldSendVariantModifiedSinceRequestedDate() {
+        when(req.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn("br");
+        when(req.getHeader(HttpHeaders.IF_MODIFIED_SINCE))
+                .thenReturn("Tue, 31 Dec 2019 23:59:59 GMT");
+
+        Assertions.assertTrue(assets.sendPrecompressed(ctx, APP_JS));
+
+        verify(resp, never()).setStatusCode(304);
+        verify(resp).sendFile(APP_JS + ".br");
+    }
+
+    @Test
+    void shouldOmitValidatorsIfUnknown() {
+        assets =
+                new WebClientAssets(
+                        path ->
+                                resources.contains(path)
+                                        ? Optional.of(new WebClientAssets.AssetFile(0, -1))
+                                        : Optional.empty());
+        when(req.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn("br");
+
+        Assertions.assertTrue(assets.sendPrecompressed(ctx, APP_JS));
+
+        verify(resp, never()).putHeader(Mockito.eq(HttpHeaders.ETAG), Mockito.anyString());
+        verify(resp).sendFile(APP_JS + ".br");
+    }
+
+    @Test
+    void shouldNotSendPrecompressedVariantIfNotAccepted() {
+        when(req.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn("identity");
+
+        Assertions.assertFalse(assets.sendPrecompressed(ctx, APP_JS));
+
+        verify(resp).putHeader("Vary", HttpHeaders.ACCEPT_ENCODING);
+        verify(resp, never()).sendFile(Mockito.anyString());
+    }
+
+    @Test
+    void shouldNotSendAssetsWithoutVariants() {
+        Assertions.assertFalse(assets.sendPrecompressed(ctx, BASE + "/logo.png"));
+
+        Mockito.verifyNoInteractions(resp);
+    }
+
+    @Test
+    void shouldRememberVariantsOfExistingAssets() {
+        when(req.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn("gzip");
+
+        assets.sendPrecompressed(ctx, APP_JS);
+        int count = lookups.size();
+        assets.sendPrecompressed(ctx, APP_JS);
+
+        MatcherAssert.assertThat(lookups.size(), Matchers.equalTo(count));
+        Assertions.assertTrue(assets.exists(APP_JS));
+        MatcherAssert.assertThat(lookups.size(), Matchers.equalTo(count));
+    }
+
+    @Test
+    void shouldNotRememberMissingAssets() {
+        String missing = BASE + "/missing.js";
+
+        Assertions.assertFalse(assets.sendPrecompressed(ctx, missing));
+        Assertions.assertFalse(assets.sendPrecompressed(ctx, missing));
+        Assertions.assertFalse(assets.exists(missing));
+
+        MatcherAssert.assertThat(lookups, Matchers.equalTo(List.of(missing, missing, missing)));
+    }
+}
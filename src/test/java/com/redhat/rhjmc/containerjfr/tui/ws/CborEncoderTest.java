@@ -0,0 +1,146 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.tui.ws;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.mockito.Mockito;
+import com.google.gson.Gson;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+
+import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+
+class CborEncoderTest {
+
+    // examples from RFC 8949 appendix A
+    @ParameterizedTest
+    @CsvSource(
+            delimiter = '|',
+            value = {
+                "0|00",
+                "1|01",
+                "23|17",
+                "24|1818",
+                "100|1864",
+                "1000|1903e8",
+                "1000000|1a000f4240",
+                "1000000000000|1b000000e8d4a51000",
+                "-1|20",
+                "-100|3863",
+                "-1000|3903e7",
+                "1.1|fb3ff199999999999a",
+                "-4.1|fbc010666666666666",
+                "1.0e+300|fb7e37e43c8800759c",
+                "false|f4",
+                "true|f5",
+                "null|f6",
+                "'\"\"'|60",
+                "'\"a\"'|6161",
+                "'\"IETF\"'|6449455446",
+                "'\"\\u00fc\"'|62c3bc",
+                "'\"\\u6c34\"'|63e6b0b4",
+                "[]|80",
+                "'[1,2,3]'|83010203",
+                "'[1,[2,3],[4,5]]'|8301820203820405",
+                "{}|a0",
+                "'{\"a\":1,\"b\":[2,3]}'|a26161016162820203",
+                "'[\"a\",{\"b\":\"c\"}]'|826161a161626163",
+            })
+    void shouldEncodeRfcExamples(String json, String hex) {
+        MatcherAssert.assertThat(
+                toHex(CborEncoder.encode(JsonParser.parseString(json))), Matchers.equalTo(hex));
+    }
+
+    @Test
+    void shouldEncodeLongArrays() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 25; i++) {
+            sb.append(i == 0 ? "" : ",").append(1);
+        }
+        sb.append(']');
+        String hex = toHex(CborEncoder.encode(JsonParser.parseString(sb.toString())));
+        MatcherAssert.assertThat(hex, Matchers.startsWith("981901"));
+        MatcherAssert.assertThat(hex.length(), Matchers.equalTo(2 * (2 + 25)));
+    }
+
+    @Test
+    void shouldEncodeNullElement() {
+        MatcherAssert.assertThat(toHex(CborEncoder.encode(null)), Matchers.equalTo("f6"));
+        MatcherAssert.assertThat(
+                toHex(CborEncoder.encode(JsonNull.INSTANCE)), Matchers.equalTo("f6"));
+    }
+
+    @Test
+    void shouldEncodeResponseMessages() {
+        Gson gson = MainModule.provideGson(Mockito.mock(Logger.class));
+        byte[] encoded =
+                CborEncoder.encode(
+                        gson.toJsonTree(new SuccessResponseMessage<>("id", "cmd", "payload")));
+        // a map of id, commandName, status and payload
+        MatcherAssert.assertThat(encoded[0] & 0xff, Matchers.equalTo(0xa4));
+        MatcherAssert.assertThat(
+                toHex(encoded),
+                Matchers.equalTo(
+                        "a4"
+                                + "626964" // "id"
+                                + "626964" // "id"
+                                + "6b636f6d6d616e644e616d65" // "commandName"
+                                + "63636d64" // "cmd"
+                                + "66737461747573" // "status"
+                                + "00" // 0
+                                + "677061796c6f6164" // "payload"
+                                + "677061796c6f6164")); // "payload"
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
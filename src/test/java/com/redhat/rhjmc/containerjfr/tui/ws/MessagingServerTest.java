@@ -41,7 +41,6 @@
  */
 package com.redhat.rhjmc.containerjfr.tui.ws;
 
-import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -49,9 +48,13 @@ import static org.mockito.Mockito.when;
 import java.io.IOException;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.time.Duration;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
@@ -59,18 +62,23 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import com.google.gson.Gson;
+import com.google.gson.JsonPrimitive;
 
+import com.redhat.rhjmc.containerjfr.MainModule;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 import com.redhat.rhjmc.containerjfr.core.sys.Environment;
+import com.redhat.rhjmc.containerjfr.metrics.MetricsRegistry;
 import com.redhat.rhjmc.containerjfr.net.AuthManager;
 import com.redhat.rhjmc.containerjfr.net.HttpServer;
 
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.ServerWebSocket;
 import io.vertx.core.net.SocketAddress;
 
@@ -80,18 +88,24 @@ class MessagingServerTest {
     MessagingServer server;
     @Mock Environment env;
     @Mock Logger logger;
+    MetricsRegistry metrics = new MetricsRegistry();
     @Mock HttpServer httpServer;
     @Mock AuthManager authManager;
     @Mock Gson gson;
     @Mock WsClientReaderWriter crw1;
     @Mock WsClientReaderWriter crw2;
     @Mock ServerWebSocket sws;
+    @Mock ScheduledExecutorService reauthScheduler;
 
     @BeforeEach
     void setup() {
         when(env.getEnv(Mockito.eq(MessagingServer.MAX_CONNECTIONS_ENV_VAR), Mockito.anyString()))
                 .thenReturn("2");
-        server = new MessagingServer(httpServer, env, authManager, logger, gson);
+        when(env.getEnv(Mockito.eq(MessagingServer.REAUTH_INTERVAL_ENV_VAR), Mockito.anyString()))
+                .thenReturn("300");
+        server =
+                new MessagingServer(
+                        httpServer, env, authManager, metrics, logger, gson, reauthScheduler);
     }
 
     @Test
@@ -110,40 +124,37 @@ class MessagingServerTest {
     }
 
     @Test
-    void clientReaderShouldBlockUntilConnected() {
-        String expectedText = "hello world";
-        long expectedDelta = TimeUnit.SECONDS.toNanos(1);
-        assertTimeoutPreemptively(
-                Duration.ofNanos(expectedDelta * 3),
-                () -> {
-                    when(crw2.readLine()).thenReturn(expectedText);
-                    Executors.newSingleThreadScheduledExecutor()
-                            .schedule(
-                                    () -> {
-                                        server.addConnection(crw1);
-                                        server.addConnection(crw2);
-                                    },
-                                    expectedDelta,
-                                    TimeUnit.NANOSECONDS);
-
-                    long start = System.nanoTime();
-                    String res = server.getClientReader().readLine();
-                    long delta = System.nanoTime() - start;
-                    MatcherAssert.assertThat(res, Matchers.equalTo(expectedText));
-                    MatcherAssert.assertThat(
-                            delta,
-                            Matchers.allOf(
-                                    Matchers.greaterThan((long) (expectedDelta * 0.75)),
-                                    Matchers.lessThan((long) (expectedDelta * 1.25))));
-                });
+    void messagesShouldBeDispatchedToHandler() {
+        List<ClientMessage> received = new ArrayList<>();
+        server.setMessageHandler(received::add);
+        server.addConnection(crw1);
+        server.addConnection(crw2);
+
+        server.dispatch(crw2, "hello world");
+        server.dispatch(crw1, "another message");
+
+        verify(crw2).handle("hello world");
+        verify(crw1).handle("another message");
+        MatcherAssert.assertThat(received, Matchers.hasSize(2));
+        MatcherAssert.assertThat(received.get(0).client, Matchers.sameInstance(crw2));
+        MatcherAssert.assertThat(received.get(0).text, Matchers.equalTo("hello world"));
+        MatcherAssert.assertThat(received.get(1).client, Matchers.sameInstance(crw1));
+        MatcherAssert.assertThat(received.get(1).text, Matchers.equalTo("another message"));
     }
 
     @Test
-    void webSocketCloseHandlerShouldRemoveConnection()
-            throws SocketException, UnknownHostException {
-        SocketAddress addr = Mockito.mock(SocketAddress.class);
-        when(addr.toString()).thenReturn("mockaddr");
-        when(sws.remoteAddress()).thenReturn(addr);
+    void messagesShouldBeDroppedWithoutHandler() {
+        List<ClientMessage> received = new ArrayList<>();
+        server.setMessageHandler(received::add);
+        server.setMessageHandler(null);
+
+        server.dispatch(crw1, "hello world");
+
+        MatcherAssert.assertThat(received, Matchers.empty());
+    }
+
+    @Test
+    void shouldRejectConnectionsUntilHandlerSet() throws SocketException, UnknownHostException {
         when(sws.path()).thenReturn("/api/v1/command");
         server.start();
 
@@ -151,31 +162,237 @@ class MessagingServerTest {
         Mockito.verify(httpServer).websocketHandler(websocketHandlerCaptor.capture());
         websocketHandlerCaptor.getValue().handle(sws);
 
+        verify(sws).reject(503);
+        verify(sws, Mockito.never()).accept();
+    }
+
+    @Test
+    void webSocketCloseHandlerShouldRemoveConnection()
+            throws SocketException, UnknownHostException {
+        Future<Integer> handshake = connect("proto", CompletableFuture.completedFuture(true));
+
+        MatcherAssert.assertThat(handshake.result(), Matchers.equalTo(101));
         ArgumentCaptor<Handler> closeHandlerCaptor = ArgumentCaptor.forClass(Handler.class);
-        InOrder inOrder = Mockito.inOrder(sws);
-        inOrder.verify(sws).closeHandler(closeHandlerCaptor.capture());
-        inOrder.verify(sws).textMessageHandler(Mockito.any(Handler.class));
-        inOrder.verify(sws).accept();
-        inOrder.verifyNoMoreInteractions();
+        verify(sws).closeHandler(closeHandlerCaptor.capture());
+        verify(sws).textMessageHandler(Mockito.any(Handler.class));
+        verify(reauthScheduler)
+                .scheduleWithFixedDelay(
+                        Mockito.any(Runnable.class),
+                        Mockito.eq(300L),
+                        Mockito.eq(300L),
+                        Mockito.eq(TimeUnit.SECONDS));
+        verify(sws, Mockito.never()).close();
+
         closeHandlerCaptor.getValue().handle(null);
-        // TODO verify that the WsClientReaderWriter is closed and removed
+        verify(sws).close();
     }
 
     @Test
-    void shouldHandleRemovedConnections() {
-        String expectedText = "hello world";
-        when(crw2.readLine()).thenReturn(expectedText);
+    void shouldRejectHandshakeWithInvalidCredentials()
+            throws SocketException, UnknownHostException {
+        Future<Integer> handshake = connect("proto", CompletableFuture.completedFuture(false));
+
+        MatcherAssert.assertThat(handshake.result(), Matchers.equalTo(401));
+        verify(sws, Mockito.never()).textMessageHandler(Mockito.any());
+        verifyNoMoreInteractions(reauthScheduler);
+    }
+
+    @Test
+    void shouldRejectHandshakeWhenValidationFails() throws SocketException, UnknownHostException {
+        Future<Integer> handshake =
+                connect(
+                        "proto",
+                        CompletableFuture.failedFuture(new TimeoutException("API unreachable")));
+
+        MatcherAssert.assertThat(handshake.result(), Matchers.equalTo(500));
+        verify(sws, Mockito.never()).textMessageHandler(Mockito.any());
+    }
+
+    @Test
+    void shouldValidateFirstRequestedSubProtocol() throws SocketException, UnknownHostException {
+        connect("first, second", CompletableFuture.completedFuture(true));
+
+        ArgumentCaptor<Supplier<String>> protoCaptor = ArgumentCaptor.forClass(Supplier.class);
+        verify(authManager).validateWebSocketSubProtocol(protoCaptor.capture());
+        MatcherAssert.assertThat(protoCaptor.getValue().get(), Matchers.equalTo("first"));
+    }
+
+    @Test
+    void shouldNotRevalidateEachMessage() throws SocketException, UnknownHostException {
+        List<ClientMessage> received = new ArrayList<>();
+        connect("proto", CompletableFuture.completedFuture(true));
+        server.setMessageHandler(received::add);
+
+        ArgumentCaptor<Handler<String>> textHandlerCaptor = ArgumentCaptor.forClass(Handler.class);
+        verify(sws).textMessageHandler(textHandlerCaptor.capture());
+        textHandlerCaptor.getValue().handle("hello");
+        textHandlerCaptor.getValue().handle("world");
+
+        MatcherAssert.assertThat(received, Matchers.hasSize(2));
+        verify(authManager, Mockito.times(1)).validateWebSocketSubProtocol(Mockito.any());
+        verify(authManager, Mockito.never()).doAuthenticated(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    void shouldDisconnectClientWhenRevalidationFails()
+            throws SocketException, UnknownHostException {
+        connect("proto", CompletableFuture.completedFuture(true));
+        ArgumentCaptor<Runnable> reauthCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(reauthScheduler)
+                .scheduleWithFixedDelay(
+                        reauthCaptor.capture(),
+                        Mockito.anyLong(),
+                        Mockito.anyLong(),
+                        Mockito.any());
+
+        when(authManager.validateWebSocketSubProtocol(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(false));
+        reauthCaptor.getValue().run();
+
+        verify(sws).close(Mockito.eq((short) 1008), Mockito.anyString());
+        server.notifyClients("TestCategory", "message");
+        verify(sws, Mockito.never()).writeTextMessage(Mockito.anyString());
+    }
+
+    @Test
+    void shouldKeepClientWhenRevalidationErrors() throws SocketException, UnknownHostException {
+        when(gson.toJson(Mockito.any(WsMessage.class))).thenReturn("serialized");
+        connect("proto", CompletableFuture.completedFuture(true));
+        ArgumentCaptor<Runnable> reauthCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(reauthScheduler)
+                .scheduleWithFixedDelay(
+                        reauthCaptor.capture(),
+                        Mockito.anyLong(),
+                        Mockito.anyLong(),
+                        Mockito.any());
+
+        when(authManager.validateWebSocketSubProtocol(Mockito.any()))
+                .thenReturn(
+                        CompletableFuture.failedFuture(new TimeoutException("API unreachable")));
+        reauthCaptor.getValue().run();
+
+        verify(sws, Mockito.never()).close(Mockito.anyShort(), Mockito.anyString());
+        server.notifyClients("TestCategory", "message");
+        verify(sws).writeTextMessage("serialized");
+    }
+
+    @Test
+    void shouldNotScheduleRevalidationWhenDisabled() throws SocketException, UnknownHostException {
+        when(env.getEnv(Mockito.eq(MessagingServer.REAUTH_INTERVAL_ENV_VAR), Mockito.anyString()))
+                .thenReturn("0");
+        server =
+                new MessagingServer(
+                        httpServer, env, authManager, metrics, logger, gson, reauthScheduler);
+
+        Future<Integer> handshake = connect("proto", CompletableFuture.completedFuture(true));
 
+        MatcherAssert.assertThat(handshake.result(), Matchers.equalTo(101));
+        verifyNoMoreInteractions(reauthScheduler);
+    }
+
+    @Test
+    void shouldSelectCborEncodingBySubProtocol() throws SocketException, UnknownHostException {
+        Gson realGson = MainModule.provideGson(logger);
+        server =
+                new MessagingServer(
+                        httpServer, env, authManager, metrics, logger, realGson, reauthScheduler);
+        Future<Integer> handshake =
+                connect("auth, cbor.containerjfr", CompletableFuture.completedFuture(true));
+        MatcherAssert.assertThat(handshake.result(), Matchers.equalTo(101));
+        ArgumentCaptor<Supplier<String>> protoCaptor = ArgumentCaptor.forClass(Supplier.class);
+        verify(authManager).validateWebSocketSubProtocol(protoCaptor.capture());
+        MatcherAssert.assertThat(protoCaptor.getValue().get(), Matchers.equalTo("auth"));
+
+        server.notifyClients("TestCategory", "message");
+
+        ArgumentCaptor<Buffer> captor = ArgumentCaptor.forClass(Buffer.class);
+        verify(sws).writeBinaryMessage(captor.capture());
+        verify(sws, Mockito.never()).writeTextMessage(Mockito.anyString());
+        MatcherAssert.assertThat(
+                captor.getValue().getBytes(),
+                Matchers.equalTo(
+                        CborEncoder.encode(
+                                realGson.toJsonTree(
+                                        new NotificationMessage<>("TestCategory", "message")))));
+    }
+
+    @Test
+    void notifyClientsShouldEncodeCborOnceForAllBinaryClients() {
+        WsClientReaderWriter crw3 = Mockito.mock(WsClientReaderWriter.class);
+        when(gson.toJson(Mockito.any(WsMessage.class))).thenReturn("serialized");
+        when(gson.toJsonTree(Mockito.any(WsMessage.class))).thenReturn(new JsonPrimitive(1));
+        when(crw1.isBinary()).thenReturn(true);
+        when(crw2.isBinary()).thenReturn(false);
+        when(crw3.isBinary()).thenReturn(true);
+        server.addConnection(crw1);
+        server.addConnection(crw2);
+        server.addConnection(crw3);
+
+        server.notifyClients("TestCategory", "message");
+
+        verify(gson, Mockito.times(1)).toJsonTree(Mockito.any(WsMessage.class));
+        ArgumentCaptor<Buffer> captor = ArgumentCaptor.forClass(Buffer.class);
+        verify(crw1).writeBinary(captor.capture());
+        verify(crw3).writeBinary(captor.capture());
+        verify(crw2).writeText("serialized");
+        MatcherAssert.assertThat(
+                captor.getAllValues().get(0).getBytes(), Matchers.equalTo(new byte[] {1}));
+        MatcherAssert.assertThat(
+                captor.getAllValues().get(1), Matchers.sameInstance(captor.getAllValues().get(0)));
+    }
+
+    @Test
+    void notifyClientsShouldCountMessagesDroppedForSlowClients() {
+        when(gson.toJson(Mockito.any(WsMessage.class))).thenReturn("serialized");
+        when(crw1.writeText("serialized")).thenReturn(false);
+        when(crw2.writeText("serialized")).thenReturn(true);
         server.addConnection(crw1);
         server.addConnection(crw2);
 
+        server.notifyClients("TestCategory", "message");
+
         MatcherAssert.assertThat(
-                server.getClientReader().readLine(), Matchers.equalTo(expectedText));
-        verify(crw2).readLine();
+                metrics.scrape(),
+                Matchers.allOf(
+                        Matchers.containsString("containerjfr_websocket_messages_sent_total 1\n"),
+                        Matchers.containsString(
+                                "containerjfr_websocket_messages_dropped_total 1\n")));
+    }
+
+    private Future<Integer> connect(String proto, CompletableFuture<Boolean> validation)
+            throws SocketException, UnknownHostException {
+        SocketAddress addr = Mockito.mock(SocketAddress.class);
+        when(addr.toString()).thenReturn("mockaddr");
+        when(sws.remoteAddress()).thenReturn(addr);
+        when(sws.path()).thenReturn("/api/v1/command");
+        when(sws.headers())
+                .thenReturn(
+                        MultiMap.caseInsensitiveMultiMap().add("Sec-WebSocket-Protocol", proto));
+        when(authManager.validateWebSocketSubProtocol(Mockito.any())).thenReturn(validation);
+        server.setMessageHandler(msg -> {});
+        server.start();
+
+        ArgumentCaptor<Handler> websocketHandlerCaptor = ArgumentCaptor.forClass(Handler.class);
+        verify(httpServer, Mockito.atLeastOnce())
+                .websocketHandler(websocketHandlerCaptor.capture());
+        websocketHandlerCaptor.getValue().handle(sws);
+
+        ArgumentCaptor<Future<Integer>> handshakeCaptor = ArgumentCaptor.forClass(Future.class);
+        verify(sws).setHandshake(handshakeCaptor.capture());
+        Future<Integer> handshake = handshakeCaptor.getValue();
+        MatcherAssert.assertThat(handshake.isComplete(), Matchers.is(true));
+        return handshake;
+    }
+
+    @Test
+    void shouldHandleRemovedConnections() {
+        server.addConnection(crw1);
+        server.addConnection(crw2);
 
         ResponseMessage<String> successResponseMessage =
                 new SuccessResponseMessage<>("msgId", "test", "message");
-        server.flush(successResponseMessage);
+        server.send(crw1, successResponseMessage);
+        server.send(crw2, successResponseMessage);
 
         verify(crw1).flush(successResponseMessage);
         verify(crw2).flush(successResponseMessage);
@@ -183,16 +400,10 @@ class MessagingServerTest {
         server.removeConnection(crw2);
         verify(crw2).close();
 
-        String newText = "another message";
-        when(crw1.readLine()).thenReturn(newText);
-
-        MatcherAssert.assertThat(server.getClientReader().readLine(), Matchers.equalTo(newText));
-        verify(crw1, Mockito.atLeastOnce()).readLine();
-        verifyNoMoreInteractions(crw2);
-
         ResponseMessage<String> failureResponseMessage =
                 new FailureResponseMessage("msgId", "test", "failure");
-        server.flush(failureResponseMessage);
+        server.send(crw1, failureResponseMessage);
+        server.send(crw2, failureResponseMessage);
 
         verify(crw1).flush(failureResponseMessage);
         verifyNoMoreInteractions(crw2);
@@ -216,12 +427,36 @@ class MessagingServerTest {
     }
 
     @Test
-    void serverFlushShouldDelegateToAllClientWriters() {
+    void sendShouldOnlyDelegateToRecipient() {
         server.addConnection(crw1);
         server.addConnection(crw2);
         ResponseMessage<String> message = new SuccessResponseMessage<>("msgId", "test", "message");
-        server.flush(message);
+        server.send(crw1, message);
         verify(crw1).flush(message);
-        verify(crw2).flush(message);
+        verify(crw2, Mockito.never()).flush(Mockito.any());
+        verify(crw2, Mockito.never()).writeText(Mockito.any());
+    }
+
+    @Test
+    void sendShouldDropMessagesForUnknownClients() {
+        server.addConnection(crw1);
+        server.send(crw2, new SuccessResponseMessage<>("msgId", "test", "message"));
+        verifyNoMoreInteractions(crw2);
+    }
+
+    @Test
+    void notifyClientsShouldSerializeNotificationOnceForAllClientWriters() {
+        when(gson.toJson(Mockito.any(WsMessage.class))).thenReturn("serialized");
+        server.addConnection(crw1);
+        server.addConnection(crw2);
+        server.notifyClients("TestCategory", "message");
+
+        ArgumentCaptor<WsMessage> captor = ArgumentCaptor.forClass(WsMessage.class);
+        verify(gson, Mockito.times(1)).toJson(captor.capture());
+        verify(crw1).writeText("serialized");
+        verify(crw2).writeText("serialized");
+        NotificationMessage<?> notification = (NotificationMessage<?>) captor.getValue();
+        MatcherAssert.assertThat(notification.category, Matchers.equalTo("TestCategory"));
+        MatcherAssert.assertThat(notification.message, Matchers.equalTo("message"));
     }
 }
@@ -41,20 +41,19 @@
  */
 package com.redhat.rhjmc.containerjfr.tui.ws;
 
-import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import java.time.Duration;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import com.google.gson.Gson;
 
@@ -62,6 +61,8 @@ import com.redhat.rhjmc.containerjfr.MainModule;
 import com.redhat.rhjmc.containerjfr.TestBase;
 import com.redhat.rhjmc.containerjfr.core.log.Logger;
 
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.ServerWebSocket;
 import io.vertx.core.net.SocketAddress;
 
@@ -79,42 +80,145 @@ class WsClientReaderWriterTest extends TestBase {
     }
 
     @Test
-    void readLineShouldBlockUntilClosed() {
-        long expectedDelta = TimeUnit.SECONDS.toNanos(1);
-        assertTimeoutPreemptively(
-                Duration.ofNanos(expectedDelta * 3),
-                () -> {
-                    Executors.newSingleThreadScheduledExecutor()
-                            .schedule(crw::close, expectedDelta, TimeUnit.NANOSECONDS);
-
-                    long start = System.nanoTime();
-                    String res = crw.readLine();
-                    long delta = System.nanoTime() - start;
-                    MatcherAssert.assertThat(res, Matchers.nullValue());
-                    MatcherAssert.assertThat(
-                            delta,
-                            Matchers.allOf(
-                                    Matchers.greaterThan((long) (expectedDelta * 0.75)),
-                                    Matchers.lessThan((long) (expectedDelta * 1.25))));
-                });
+    void closeShouldCloseOpenSocket() {
+        when(sws.isClosed()).thenReturn(false);
+        crw.close();
+        verify(sws).close();
+    }
+
+    @Test
+    void closeShouldNotCloseClosedSocket() {
+        when(sws.isClosed()).thenReturn(true);
+        crw.close();
+        verify(sws, Mockito.never()).close();
+    }
+
+    @Test
+    void writeTextShouldSendToOpenSocket() {
+        when(sws.isClosed()).thenReturn(false);
+        MatcherAssert.assertThat(crw.writeText("{\"hello\":\"world\"}"), Matchers.is(true));
+        verify(sws).writeTextMessage("{\"hello\":\"world\"}");
+    }
+
+    @Test
+    void writeTextShouldDropMessagesForClosedSocket() {
+        when(sws.isClosed()).thenReturn(true);
+        crw.writeText("{\"hello\":\"world\"}");
+        verify(sws, Mockito.never()).writeTextMessage(Mockito.anyString());
+    }
+
+    @Test
+    void writeTextShouldDropMessagesWhileWriteQueueFull() {
+        when(sws.isClosed()).thenReturn(false);
+        when(sws.writeQueueFull()).thenReturn(true);
+
+        MatcherAssert.assertThat(crw.writeText("{\"hello\":\"world\"}"), Matchers.is(false));
+
+        verify(sws, Mockito.never()).writeTextMessage(Mockito.anyString());
+        verify(sws, Mockito.never()).drainHandler(Mockito.any());
+        verify(sws, Mockito.never()).close(Mockito.anyShort(), Mockito.anyString());
     }
 
     @Test
-    void readLineShouldBlockUntilTextReceived() {
+    void writeBinaryShouldCloseClientWhichKeepsWriteQueueFull() {
+        crw = new WsClientReaderWriter(logger, gson, sws, true, 0);
+        when(sws.isClosed()).thenReturn(false);
+        when(sws.writeQueueFull()).thenReturn(true);
         when(sws.remoteAddress()).thenReturn(mock(SocketAddress.class));
 
-        long expectedDelta = 500L;
-        assertTimeoutPreemptively(
-                Duration.ofMillis(expectedDelta * 3),
-                () -> {
-                    String expected = "hello world";
-                    Executors.newSingleThreadScheduledExecutor()
-                            .schedule(
-                                    () -> crw.handle(expected),
-                                    expectedDelta,
-                                    TimeUnit.MILLISECONDS);
-
-                    MatcherAssert.assertThat(crw.readLine(), Matchers.equalTo(expected));
-                });
+        crw.writeBinary(Buffer.buffer(new byte[] {1}));
+        verify(sws, Mockito.never()).close(Mockito.anyShort(), Mockito.anyString());
+        crw.writeBinary(Buffer.buffer(new byte[] {1}));
+
+        verify(sws).close(Mockito.eq((short) 1008), Mockito.anyString());
+        verify(sws, Mockito.never()).writeBinaryMessage(Mockito.any());
+    }
+
+    @Test
+    void writeTextShouldKeepClientWhichDrainsWriteQueue() {
+        crw = new WsClientReaderWriter(logger, gson, sws, false, 0);
+        when(sws.isClosed()).thenReturn(false);
+        when(sws.writeQueueFull()).thenReturn(true, false, true);
+
+        crw.writeText("first");
+        MatcherAssert.assertThat(crw.writeText("second"), Matchers.is(true));
+        crw.writeText("third");
+
+        verify(sws).writeTextMessage("second");
+        verify(sws, Mockito.never()).close(Mockito.anyShort(), Mockito.anyString());
+    }
+
+    @Test
+    void handleShouldLogMessage() {
+        SocketAddress addr = mock(SocketAddress.class);
+        when(addr.toString()).thenReturn("mockaddr");
+        when(sws.remoteAddress()).thenReturn(addr);
+        crw.handle("hello world");
+        verify(logger).info("(mockaddr): CMD hello world");
+    }
+
+    @Test
+    void flushShouldSendWhenWriteQueueHasRoom() {
+        when(sws.isClosed()).thenReturn(false);
+        when(sws.writeQueueFull()).thenReturn(false);
+        crw.flush(new SuccessResponseMessage<>("msgId", "test", "message"));
+        verify(sws).writeTextMessage(Mockito.contains("msgId"));
+        verify(sws, Mockito.never()).drainHandler(Mockito.any());
+    }
+
+    @Test
+    void flushShouldWaitForWriteQueueToDrain() {
+        when(sws.isClosed()).thenReturn(false);
+        when(sws.writeQueueFull()).thenReturn(true);
+        Mockito.doAnswer(
+                        invocation -> {
+                            Handler<Void> handler = invocation.getArgument(0);
+                            if (handler != null) {
+                                handler.handle(null);
+                            }
+                            return sws;
+                        })
+                .when(sws)
+                .drainHandler(Mockito.any());
+
+        crw.flush(new SuccessResponseMessage<>("msgId", "test", "message"));
+
+        InOrder inOrder = Mockito.inOrder(sws);
+        inOrder.verify(sws).drainHandler(Mockito.notNull());
+        inOrder.verify(sws).drainHandler(null);
+        inOrder.verify(sws).writeTextMessage(Mockito.contains("msgId"));
+    }
+
+    @Test
+    void flushShouldCloseClientWhichDoesNotRead() {
+        crw = new WsClientReaderWriter(logger, gson, sws, false, 10);
+        when(sws.isClosed()).thenReturn(false);
+        when(sws.writeQueueFull()).thenReturn(true);
+        when(sws.remoteAddress()).thenReturn(mock(SocketAddress.class));
+
+        crw.flush(new SuccessResponseMessage<>("msgId", "test", "message"));
+
+        verify(sws).close(Mockito.eq((short) 1008), Mockito.anyString());
+        verify(sws, Mockito.never()).writeTextMessage(Mockito.anyString());
+    }
+
+    @Test
+    void flushShouldSendCborToBinaryClients() {
+        crw = new WsClientReaderWriter(logger, gson, sws, true);
+        when(sws.isClosed()).thenReturn(false);
+        when(sws.writeQueueFull()).thenReturn(false);
+
+        crw.flush(new SuccessResponseMessage<>("msgId", "test", "message"));
+
+        ArgumentCaptor<Buffer> captor = ArgumentCaptor.forClass(Buffer.class);
+        verify(sws).writeBinaryMessage(captor.capture());
+        verify(sws, Mockito.never()).writeTextMessage(Mockito.anyString());
+        MatcherAssert.assertThat(
+                captor.getValue().getBytes(),
+                Matchers.equalTo(
+                        CborEncoder.encode(
+                                gson.toJsonTree(
+                                        new SuccessResponseMessage<>(
+                                                "msgId", "test", "message")))));
     }
 }
@@ -51,10 +51,13 @@ import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.hamcrest.MatcherAssert;
@@ -69,9 +72,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
-import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.mockito.stubbing.Answer;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.stream.MalformedJsonException;
@@ -96,83 +97,61 @@ class WsCommandExecutorTest {
     @Mock MessagingServer server;
     @Mock Logger logger;
     @Mock ClientReader cr;
+    @Mock WsClientReaderWriter crw;
     @Mock SerializableCommandRegistry commandRegistry;
     Gson gson = MainModule.provideGson(logger);
 
     @BeforeEach
     void setup() {
-        executor = new WsCommandExecutor(logger, server, cr, () -> commandRegistry, gson);
+        executor =
+                new WsCommandExecutor(
+                        logger, server, cr, () -> commandRegistry, gson, Runnable::run, 16, 256);
     }
 
     @Test
     void shouldExecuteWellFormedValidCommand() throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return "{\"command\":\"help\",\"args\":[]}";
-                            }
-                        });
         when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("help"));
         when(commandRegistry.isCommandAvailable(Mockito.anyString())).thenReturn(true);
         when(commandRegistry.execute(Mockito.anyString(), Mockito.any(String[].class)))
                 .thenReturn(new SuccessOutput());
 
-        executor.run(null);
+        executor.dispatch(new ClientMessage(crw, "{\"command\":\"help\",\"args\":[]}"));
 
         InOrder inOrder = inOrder(commandRegistry, server);
         inOrder.verify(commandRegistry).getRegisteredCommandNames();
         inOrder.verify(commandRegistry).isCommandAvailable("help");
         inOrder.verify(commandRegistry).validate("help", new String[0]);
         inOrder.verify(commandRegistry).execute("help", new String[0]);
-        inOrder.verify(server).flush(Mockito.any(SuccessResponseMessage.class));
+        inOrder.verify(server).send(Mockito.eq(crw), Mockito.any(SuccessResponseMessage.class));
     }
 
     @Test
     void shouldExecuteWellFormedValidCommandWithArgs() throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return "{\"command\":\"help\",\"args\":[\"hello\",\"world\"]}";
-                            }
-                        });
         when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("help"));
         when(commandRegistry.isCommandAvailable(Mockito.anyString())).thenReturn(true);
         when(commandRegistry.execute(Mockito.anyString(), Mockito.any(String[].class)))
                 .thenReturn(new SuccessOutput());
 
-        executor.run(null);
+        executor.dispatch(
+                new ClientMessage(crw, "{\"command\":\"help\",\"args\":[\"hello\",\"world\"]}"));
 
         InOrder inOrder = inOrder(commandRegistry, server);
         inOrder.verify(commandRegistry).getRegisteredCommandNames();
         inOrder.verify(commandRegistry).isCommandAvailable("help");
         inOrder.verify(commandRegistry).validate("help", new String[] {"hello", "world"});
         inOrder.verify(commandRegistry).execute("help", new String[] {"hello", "world"});
-        inOrder.verify(server).flush(Mockito.any(SuccessResponseMessage.class));
+        inOrder.verify(server).send(Mockito.eq(crw), Mockito.any(SuccessResponseMessage.class));
     }
 
     @Test
     void shouldHandleFailureOutputs() throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return "{\"command\":\"help\",\"args\":[\"hello\",\"world\"]}";
-                            }
-                        });
         when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("help"));
         when(commandRegistry.isCommandAvailable(Mockito.anyString())).thenReturn(true);
         when(commandRegistry.execute(Mockito.anyString(), Mockito.any(String[].class)))
                 .thenReturn(new FailureOutput("some reason"));
 
-        executor.run(null);
+        executor.dispatch(
+                new ClientMessage(crw, "{\"command\":\"help\",\"args\":[\"hello\",\"world\"]}"));
 
         ArgumentCaptor<FailureResponseMessage> response =
                 ArgumentCaptor.forClass(FailureResponseMessage.class);
@@ -181,7 +160,7 @@ class WsCommandExecutorTest {
         inOrder.verify(commandRegistry).isCommandAvailable("help");
         inOrder.verify(commandRegistry).validate("help", new String[] {"hello", "world"});
         inOrder.verify(commandRegistry).execute("help", new String[] {"hello", "world"});
-        inOrder.verify(server).flush(response.capture());
+        inOrder.verify(server).send(Mockito.eq(crw), response.capture());
 
         MatcherAssert.assertThat(response.getValue().status, Matchers.equalTo(-2));
         MatcherAssert.assertThat(response.getValue().commandName, Matchers.equalTo("help"));
@@ -190,21 +169,13 @@ class WsCommandExecutorTest {
 
     @Test
     void shouldHandleStringOutputs() throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return "{\"command\":\"help\",\"args\":[\"hello\",\"world\"]}";
-                            }
-                        });
         when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("help"));
         when(commandRegistry.isCommandAvailable(Mockito.anyString())).thenReturn(true);
         when(commandRegistry.execute(Mockito.anyString(), Mockito.any(String[].class)))
                 .thenReturn(new StringOutput("some reason"));
 
-        executor.run(null);
+        executor.dispatch(
+                new ClientMessage(crw, "{\"command\":\"help\",\"args\":[\"hello\",\"world\"]}"));
 
         ArgumentCaptor<SuccessResponseMessage<String>> response =
                 ArgumentCaptor.forClass(SuccessResponseMessage.class);
@@ -213,7 +184,7 @@ class WsCommandExecutorTest {
         inOrder.verify(commandRegistry).isCommandAvailable("help");
         inOrder.verify(commandRegistry).validate("help", new String[] {"hello", "world"});
         inOrder.verify(commandRegistry).execute("help", new String[] {"hello", "world"});
-        inOrder.verify(server).flush(response.capture());
+        inOrder.verify(server).send(Mockito.eq(crw), response.capture());
 
         MatcherAssert.assertThat(response.getValue().status, Matchers.equalTo(0));
         MatcherAssert.assertThat(response.getValue().commandName, Matchers.equalTo("help"));
@@ -222,21 +193,13 @@ class WsCommandExecutorTest {
 
     @Test
     void shouldHandleListOutputs() throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return "{\"command\":\"help\",\"args\":[\"hello\",\"world\"]}";
-                            }
-                        });
         when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("help"));
         when(commandRegistry.isCommandAvailable(Mockito.anyString())).thenReturn(true);
         when(commandRegistry.execute(Mockito.anyString(), Mockito.any(String[].class)))
                 .thenReturn(new ListOutput<Integer>(Arrays.asList(3, 1, 4, 1, 5, 9)));
 
-        executor.run(null);
+        executor.dispatch(
+                new ClientMessage(crw, "{\"command\":\"help\",\"args\":[\"hello\",\"world\"]}"));
 
         ArgumentCaptor<SuccessResponseMessage<List<Integer>>> response =
                 ArgumentCaptor.forClass(SuccessResponseMessage.class);
@@ -245,7 +208,7 @@ class WsCommandExecutorTest {
         inOrder.verify(commandRegistry).isCommandAvailable("help");
         inOrder.verify(commandRegistry).validate("help", new String[] {"hello", "world"});
         inOrder.verify(commandRegistry).execute("help", new String[] {"hello", "world"});
-        inOrder.verify(server).flush(response.capture());
+        inOrder.verify(server).send(Mockito.eq(crw), response.capture());
 
         MatcherAssert.assertThat(response.getValue().status, Matchers.equalTo(0));
         MatcherAssert.assertThat(response.getValue().commandName, Matchers.equalTo("help"));
@@ -255,21 +218,13 @@ class WsCommandExecutorTest {
 
     @Test
     void shouldHandleMapOutputs() throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return "{\"command\":\"help\",\"args\":[\"hello\",\"world\"]}";
-                            }
-                        });
         when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("help"));
         when(commandRegistry.isCommandAvailable(Mockito.anyString())).thenReturn(true);
         when(commandRegistry.execute(Mockito.anyString(), Mockito.any(String[].class)))
                 .thenReturn(new MapOutput<String, String>(Map.of("foo", "bar")));
 
-        executor.run(null);
+        executor.dispatch(
+                new ClientMessage(crw, "{\"command\":\"help\",\"args\":[\"hello\",\"world\"]}"));
 
         ArgumentCaptor<SuccessResponseMessage<Map<String, String>>> response =
                 ArgumentCaptor.forClass(SuccessResponseMessage.class);
@@ -278,7 +233,7 @@ class WsCommandExecutorTest {
         inOrder.verify(commandRegistry).isCommandAvailable("help");
         inOrder.verify(commandRegistry).validate("help", new String[] {"hello", "world"});
         inOrder.verify(commandRegistry).execute("help", new String[] {"hello", "world"});
-        inOrder.verify(server).flush(response.capture());
+        inOrder.verify(server).send(Mockito.eq(crw), response.capture());
 
         MatcherAssert.assertThat(response.getValue().status, Matchers.equalTo(0));
         MatcherAssert.assertThat(response.getValue().commandName, Matchers.equalTo("help"));
@@ -288,21 +243,13 @@ class WsCommandExecutorTest {
 
     @Test
     void shouldHandleExceptionOutputs() throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return "{\"command\":\"help\",\"args\":[\"hello\",\"world\"]}";
-                            }
-                        });
         when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("help"));
         when(commandRegistry.isCommandAvailable(Mockito.anyString())).thenReturn(true);
         when(commandRegistry.execute(Mockito.anyString(), Mockito.any(String[].class)))
                 .thenReturn(new ExceptionOutput(new IOException("broken pipe")));
 
-        executor.run(null);
+        executor.dispatch(
+                new ClientMessage(crw, "{\"command\":\"help\",\"args\":[\"hello\",\"world\"]}"));
 
         ArgumentCaptor<CommandExceptionResponseMessage> response =
                 ArgumentCaptor.forClass(CommandExceptionResponseMessage.class);
@@ -311,7 +258,7 @@ class WsCommandExecutorTest {
         inOrder.verify(commandRegistry).isCommandAvailable("help");
         inOrder.verify(commandRegistry).validate("help", new String[] {"hello", "world"});
         inOrder.verify(commandRegistry).execute("help", new String[] {"hello", "world"});
-        inOrder.verify(server).flush(response.capture());
+        inOrder.verify(server).send(Mockito.eq(crw), response.capture());
 
         MatcherAssert.assertThat(response.getValue().status, Matchers.equalTo(-2));
         MatcherAssert.assertThat(response.getValue().commandName, Matchers.equalTo("help"));
@@ -321,15 +268,6 @@ class WsCommandExecutorTest {
 
     @Test
     void shouldHandleUnknownOutputs() throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return "{\"command\":\"help\",\"args\":[\"hello\",\"world\"]}";
-                            }
-                        });
         when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("help"));
         when(commandRegistry.isCommandAvailable(Mockito.anyString())).thenReturn(true);
         when(commandRegistry.execute(Mockito.anyString(), Mockito.any(String[].class)))
@@ -341,7 +279,8 @@ class WsCommandExecutorTest {
                             }
                         });
 
-        executor.run(null);
+        executor.dispatch(
+                new ClientMessage(crw, "{\"command\":\"help\",\"args\":[\"hello\",\"world\"]}"));
 
         ArgumentCaptor<CommandExceptionResponseMessage> response =
                 ArgumentCaptor.forClass(CommandExceptionResponseMessage.class);
@@ -350,7 +289,7 @@ class WsCommandExecutorTest {
         inOrder.verify(commandRegistry).isCommandAvailable("help");
         inOrder.verify(commandRegistry).validate("help", new String[] {"hello", "world"});
         inOrder.verify(commandRegistry).execute("help", new String[] {"hello", "world"});
-        inOrder.verify(server).flush(response.capture());
+        inOrder.verify(server).send(Mockito.eq(crw), response.capture());
 
         MatcherAssert.assertThat(response.getValue().status, Matchers.equalTo(-2));
         MatcherAssert.assertThat(response.getValue().commandName, Matchers.equalTo("help"));
@@ -361,20 +300,11 @@ class WsCommandExecutorTest {
     @ValueSource(strings = {"", "\t", "  ", "\n", "null", " null ", "null\n", "\r\n"})
     @NullSource
     void shouldRespondToBlankLines(String s) throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return s;
-                            }
-                        });
 
-        executor.run(null);
+        executor.dispatch(new ClientMessage(crw, s));
 
         verifyZeroInteractions(commandRegistry);
-        verify(server).flush(Mockito.any(MalformedMessageResponseMessage.class));
+        verify(server).send(Mockito.eq(crw), Mockito.any(MalformedMessageResponseMessage.class));
     }
 
     @ParameterizedTest
@@ -391,23 +321,14 @@ class WsCommandExecutorTest {
                 "command:foo"
             })
     void shouldRespondToMalformedJson(String s) throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return s;
-                            }
-                        });
 
-        executor.run(null);
+        executor.dispatch(new ClientMessage(crw, s));
 
         verifyZeroInteractions(commandRegistry);
 
         ArgumentCaptor<CommandExceptionResponseMessage> messageCaptor =
                 ArgumentCaptor.forClass(CommandExceptionResponseMessage.class);
-        verify(server).flush(messageCaptor.capture());
+        verify(server).send(Mockito.eq(crw), messageCaptor.capture());
         CommandExceptionResponseMessage response = messageCaptor.getValue();
         MatcherAssert.assertThat(response.commandName, Matchers.equalTo(s));
         MatcherAssert.assertThat(response.status, Matchers.equalTo(-2));
@@ -415,87 +336,51 @@ class WsCommandExecutorTest {
 
     @Test
     void shouldInterpretMissingArgsAsEmpty() throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return "{\"command\":\"help\"}";
-                            }
-                        });
         when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("help"));
         when(commandRegistry.isCommandAvailable(Mockito.anyString())).thenReturn(true);
         when(commandRegistry.execute(Mockito.anyString(), Mockito.any(String[].class)))
                 .thenReturn(new SuccessOutput());
 
-        executor.run(null);
+        executor.dispatch(new ClientMessage(crw, "{\"command\":\"help\"}"));
 
         InOrder inOrder = inOrder(commandRegistry, server);
         inOrder.verify(commandRegistry).getRegisteredCommandNames();
         inOrder.verify(commandRegistry).isCommandAvailable("help");
         inOrder.verify(commandRegistry).validate("help", new String[0]);
         inOrder.verify(commandRegistry).execute("help", new String[0]);
-        inOrder.verify(server).flush(Mockito.any(SuccessResponseMessage.class));
+        inOrder.verify(server).send(Mockito.eq(crw), Mockito.any(SuccessResponseMessage.class));
     }
 
     @Test
     void shouldRespondToNullCommand() throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return "{\"commandName\":\"foo\"}";
-                            }
-                        });
 
-        executor.run(null);
+        executor.dispatch(new ClientMessage(crw, "{\"commandName\":\"foo\"}"));
 
         ArgumentCaptor<ResponseMessage<String>> messageCaptor =
                 ArgumentCaptor.forClass(ResponseMessage.class);
-        verify(server).flush(messageCaptor.capture());
+        verify(server).send(Mockito.eq(crw), messageCaptor.capture());
         ResponseMessage<String> message = messageCaptor.getValue();
         MatcherAssert.assertThat(message.status, Matchers.equalTo(-1));
     }
 
     @Test
     void shouldRespondToUnregisteredCommand() throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return "{\"command\":\"foo\"}";
-                            }
-                        });
         when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("bar"));
 
-        executor.run(null);
+        executor.dispatch(new ClientMessage(crw, "{\"command\":\"foo\"}"));
 
         verify(commandRegistry).getRegisteredCommandNames();
         verifyNoMoreInteractions(commandRegistry);
 
         ArgumentCaptor<ResponseMessage<String>> messageCaptor =
                 ArgumentCaptor.forClass(ResponseMessage.class);
-        verify(server).flush(messageCaptor.capture());
+        verify(server).send(Mockito.eq(crw), messageCaptor.capture());
         ResponseMessage<String> message = messageCaptor.getValue();
         MatcherAssert.assertThat(message.status, Matchers.equalTo(-1));
     }
 
     @Test
     void shouldRespondToInvalidCommand() throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return "{\"command\":\"foo\"}";
-                            }
-                        });
         doThrow(new FailedValidationException("bar could not be found"))
                 .when(commandRegistry)
                 .validate(eq("foo"), any(String[].class));
@@ -503,7 +388,7 @@ class WsCommandExecutorTest {
         when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("foo"));
         when(commandRegistry.isCommandAvailable(Mockito.anyString())).thenReturn(true);
 
-        executor.run(null);
+        executor.dispatch(new ClientMessage(crw, "{\"command\":\"foo\"}"));
 
         InOrder inOrder = inOrder(commandRegistry);
         inOrder.verify(commandRegistry).getRegisteredCommandNames();
@@ -513,7 +398,7 @@ class WsCommandExecutorTest {
 
         ArgumentCaptor<ResponseMessage<String>> messageCaptor =
                 ArgumentCaptor.forClass(ResponseMessage.class);
-        verify(server).flush(messageCaptor.capture());
+        verify(server).send(Mockito.eq(crw), messageCaptor.capture());
         ResponseMessage<String> message = messageCaptor.getValue();
         MatcherAssert.assertThat(message.status, Matchers.equalTo(-1));
         MatcherAssert.assertThat(
@@ -523,19 +408,10 @@ class WsCommandExecutorTest {
 
     @Test
     void shouldRespondToUnavailableCommand() throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return "{\"command\":\"foo\"}";
-                            }
-                        });
         when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("foo"));
         when(commandRegistry.isCommandAvailable(Mockito.anyString())).thenReturn(false);
 
-        executor.run(null);
+        executor.dispatch(new ClientMessage(crw, "{\"command\":\"foo\"}"));
 
         InOrder inOrder = inOrder(commandRegistry);
         inOrder.verify(commandRegistry).getRegisteredCommandNames();
@@ -544,28 +420,19 @@ class WsCommandExecutorTest {
 
         ArgumentCaptor<ResponseMessage<String>> messageCaptor =
                 ArgumentCaptor.forClass(ResponseMessage.class);
-        verify(server).flush(messageCaptor.capture());
+        verify(server).send(Mockito.eq(crw), messageCaptor.capture());
         ResponseMessage<String> message = messageCaptor.getValue();
         MatcherAssert.assertThat(message.status, Matchers.equalTo(-1));
     }
 
     @Test
     void shouldReportInvalidJSONExceptions() throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return "{\"command\":\"help}";
-                            }
-                        });
 
-        executor.run(null);
+        executor.dispatch(new ClientMessage(crw, "{\"command\":\"help}"));
 
         ArgumentCaptor<CommandExceptionResponseMessage> messageCaptor =
                 ArgumentCaptor.forClass(CommandExceptionResponseMessage.class);
-        verify(server).flush(messageCaptor.capture());
+        verify(server).send(Mockito.eq(crw), messageCaptor.capture());
         ResponseMessage<String> message = messageCaptor.getValue();
         MatcherAssert.assertThat(message.status, Matchers.equalTo(-2));
 
@@ -582,21 +449,13 @@ class WsCommandExecutorTest {
 
     @Test
     void shouldMirrorIdWhenProvided() throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return "{\"id\":\"msgId\",\"command\":\"help\",\"args\":[]}";
-                            }
-                        });
         when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("help"));
         when(commandRegistry.isCommandAvailable(Mockito.anyString())).thenReturn(true);
         when(commandRegistry.execute(Mockito.anyString(), Mockito.any(String[].class)))
                 .thenReturn(new SuccessOutput());
 
-        executor.run(null);
+        executor.dispatch(
+                new ClientMessage(crw, "{\"id\":\"msgId\",\"command\":\"help\",\"args\":[]}"));
 
         InOrder inOrder = inOrder(commandRegistry, server);
         inOrder.verify(commandRegistry).getRegisteredCommandNames();
@@ -606,27 +465,18 @@ class WsCommandExecutorTest {
 
         ArgumentCaptor<SuccessResponseMessage<Void>> msgCaptor =
                 ArgumentCaptor.forClass(SuccessResponseMessage.class);
-        inOrder.verify(server).flush(msgCaptor.capture());
+        inOrder.verify(server).send(Mockito.eq(crw), msgCaptor.capture());
         MatcherAssert.assertThat(msgCaptor.getValue().id, Matchers.equalTo("msgId"));
     }
 
     @Test
     void shouldUseNullIdWhenNotProvided() throws Exception {
-        when(cr.readLine())
-                .thenAnswer(
-                        new Answer<String>() {
-                            @Override
-                            public String answer(InvocationOnMock invocation) throws Throwable {
-                                executor.shutdown();
-                                return "{\"command\":\"help\",\"args\":[]}";
-                            }
-                        });
         when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("help"));
         when(commandRegistry.isCommandAvailable(Mockito.anyString())).thenReturn(true);
         when(commandRegistry.execute(Mockito.anyString(), Mockito.any(String[].class)))
                 .thenReturn(new SuccessOutput());
 
-        executor.run(null);
+        executor.dispatch(new ClientMessage(crw, "{\"command\":\"help\",\"args\":[]}"));
 
         InOrder inOrder = inOrder(commandRegistry, server);
         inOrder.verify(commandRegistry).getRegisteredCommandNames();
@@ -636,7 +486,176 @@ class WsCommandExecutorTest {
 
         ArgumentCaptor<SuccessResponseMessage<Void>> msgCaptor =
                 ArgumentCaptor.forClass(SuccessResponseMessage.class);
-        inOrder.verify(server).flush(msgCaptor.capture());
+        inOrder.verify(server).send(Mockito.eq(crw), msgCaptor.capture());
         MatcherAssert.assertThat(msgCaptor.getValue().id, Matchers.nullValue());
     }
+
+    @Test
+    void shouldExecuteCommandsOnPool() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        executor =
+                new WsCommandExecutor(
+                        logger, server, cr, () -> commandRegistry, gson, tasks::add, 16, 256);
+        when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("help"));
+        when(commandRegistry.isCommandAvailable(Mockito.anyString())).thenReturn(true);
+        when(commandRegistry.execute(Mockito.anyString(), Mockito.any(String[].class)))
+                .thenReturn(new SuccessOutput());
+
+        executor.dispatch(new ClientMessage(crw, "{\"id\":\"1\",\"command\":\"help\"}"));
+
+        verifyZeroInteractions(commandRegistry);
+        MatcherAssert.assertThat(tasks, Matchers.hasSize(1));
+        tasks.remove(0).run();
+
+        ArgumentCaptor<SuccessResponseMessage> response =
+                ArgumentCaptor.forClass(SuccessResponseMessage.class);
+        verify(server).send(Mockito.eq(crw), response.capture());
+        MatcherAssert.assertThat(response.getValue().id, Matchers.equalTo("1"));
+    }
+
+    @Test
+    void shouldExecuteEachClientsCommandsInOrder() throws Exception {
+        WsClientReaderWriter other = Mockito.mock(WsClientReaderWriter.class);
+        List<Runnable> tasks = new ArrayList<>();
+        executor =
+                new WsCommandExecutor(
+                        logger, server, cr, () -> commandRegistry, gson, tasks::add, 16, 256);
+        when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("help"));
+        when(commandRegistry.isCommandAvailable(Mockito.anyString())).thenReturn(true);
+        when(commandRegistry.execute(Mockito.anyString(), Mockito.any(String[].class)))
+                .thenReturn(new SuccessOutput());
+
+        executor.dispatch(new ClientMessage(crw, "{\"id\":\"1\",\"command\":\"help\"}"));
+        executor.dispatch(new ClientMessage(crw, "{\"id\":\"2\",\"command\":\"help\"}"));
+        executor.dispatch(new ClientMessage(other, "{\"id\":\"3\",\"command\":\"help\"}"));
+
+        // one task per client, so the second client does not wait behind the first
+        MatcherAssert.assertThat(tasks, Matchers.hasSize(2));
+        tasks.remove(1).run();
+        tasks.remove(0).run();
+        // the first client's next command is only submitted once its previous one completes
+        MatcherAssert.assertThat(tasks, Matchers.hasSize(1));
+        tasks.remove(0).run();
+        MatcherAssert.assertThat(tasks, Matchers.empty());
+
+        ArgumentCaptor<SuccessResponseMessage> first =
+                ArgumentCaptor.forClass(SuccessResponseMessage.class);
+        ArgumentCaptor<SuccessResponseMessage> second =
+                ArgumentCaptor.forClass(SuccessResponseMessage.class);
+        InOrder inOrder = inOrder(server);
+        inOrder.verify(server).send(Mockito.eq(other), second.capture());
+        inOrder.verify(server, Mockito.times(2)).send(Mockito.eq(crw), first.capture());
+        MatcherAssert.assertThat(second.getValue().id, Matchers.equalTo("3"));
+        MatcherAssert.assertThat(
+                first.getAllValues().stream().map(m -> m.id).collect(Collectors.toList()),
+                Matchers.equalTo(List.of("1", "2")));
+    }
+
+    @Test
+    void shouldRejectCommandsBeyondClientQueueLimit() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        executor =
+                new WsCommandExecutor(
+                        logger, server, cr, () -> commandRegistry, gson, tasks::add, 1, 256);
+
+        executor.dispatch(new ClientMessage(crw, "{\"id\":\"1\",\"command\":\"help\"}"));
+        executor.dispatch(new ClientMessage(crw, "{\"id\":\"2\",\"command\":\"help\"}"));
+
+        MatcherAssert.assertThat(tasks, Matchers.hasSize(1));
+        ArgumentCaptor<ServerBusyResponseMessage> response =
+                ArgumentCaptor.forClass(ServerBusyResponseMessage.class);
+        verify(server).send(Mockito.eq(crw), response.capture());
+        MatcherAssert.assertThat(response.getValue().id, Matchers.equalTo("2"));
+        MatcherAssert.assertThat(response.getValue().commandName, Matchers.equalTo("help"));
+        MatcherAssert.assertThat(response.getValue().status, Matchers.equalTo(-5));
+    }
+
+    @Test
+    void shouldRejectCommandsBeyondTotalQueueLimit() throws Exception {
+        WsClientReaderWriter other = Mockito.mock(WsClientReaderWriter.class);
+        List<Runnable> tasks = new ArrayList<>();
+        executor =
+                new WsCommandExecutor(
+                        logger, server, cr, () -> commandRegistry, gson, tasks::add, 16, 2);
+
+        executor.dispatch(new ClientMessage(crw, "{\"id\":\"1\",\"command\":\"help\"}"));
+        executor.dispatch(new ClientMessage(crw, "{\"id\":\"2\",\"command\":\"help\"}"));
+        executor.dispatch(new ClientMessage(other, "{\"id\":\"3\",\"command\":\"help\"}"));
+
+        MatcherAssert.assertThat(tasks, Matchers.hasSize(1));
+        MatcherAssert.assertThat(executor.getQueuedCommands(), Matchers.equalTo(2));
+        ArgumentCaptor<ServerBusyResponseMessage> response =
+                ArgumentCaptor.forClass(ServerBusyResponseMessage.class);
+        verify(server).send(Mockito.eq(other), response.capture());
+        MatcherAssert.assertThat(response.getValue().id, Matchers.equalTo("3"));
+        MatcherAssert.assertThat(response.getValue().status, Matchers.equalTo(-5));
+        verify(server, Mockito.never()).send(Mockito.eq(crw), Mockito.any());
+
+        // once a queued command starts executing there is room again
+        when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("bar"));
+        tasks.remove(0).run();
+        executor.dispatch(new ClientMessage(other, "{\"id\":\"4\",\"command\":\"help\"}"));
+        MatcherAssert.assertThat(tasks, Matchers.hasSize(2));
+    }
+
+    @Test
+    void shouldRespondWithIdWhenCommandThrows() throws Exception {
+        when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("help"));
+        when(commandRegistry.isCommandAvailable(Mockito.anyString())).thenReturn(true);
+        when(commandRegistry.execute(Mockito.anyString(), Mockito.any(String[].class)))
+                .thenThrow(new IllegalStateException("broken"));
+
+        executor.dispatch(new ClientMessage(crw, "{\"id\":\"msgId\",\"command\":\"help\"}"));
+
+        ArgumentCaptor<CommandExceptionResponseMessage> response =
+                ArgumentCaptor.forClass(CommandExceptionResponseMessage.class);
+        verify(server).send(Mockito.eq(crw), response.capture());
+        MatcherAssert.assertThat(response.getValue().id, Matchers.equalTo("msgId"));
+        MatcherAssert.assertThat(response.getValue().payload, Matchers.containsString("broken"));
+    }
+
+    @Test
+    void shouldCountQueuedCommands() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        executor =
+                new WsCommandExecutor(
+                        logger, server, cr, () -> commandRegistry, gson, tasks::add, 16, 256);
+        when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("bar"));
+
+        executor.dispatch(new ClientMessage(crw, "{\"id\":\"1\",\"command\":\"help\"}"));
+        executor.dispatch(new ClientMessage(crw, "{\"id\":\"2\",\"command\":\"help\"}"));
+        MatcherAssert.assertThat(executor.getQueuedCommands(), Matchers.equalTo(2));
+
+        tasks.remove(0).run();
+        MatcherAssert.assertThat(executor.getQueuedCommands(), Matchers.equalTo(1));
+        tasks.remove(0).run();
+        MatcherAssert.assertThat(executor.getQueuedCommands(), Matchers.equalTo(0));
+    }
+
+    @Test
+    void runShouldReceiveMessagesUntilShutdown() throws Exception {
+        ArgumentCaptor<Consumer<ClientMessage>> handlerCaptor =
+                ArgumentCaptor.forClass(Consumer.class);
+        Mockito.doAnswer(
+                        invocation -> {
+                            if (invocation.getArgument(0) != null) {
+                                executor.shutdown();
+                            }
+                            return null;
+                        })
+                .when(server)
+                .setMessageHandler(Mockito.any());
+
+        executor.run(null);
+
+        InOrder inOrder = inOrder(server, cr);
+        inOrder.verify(server).setMessageHandler(Mockito.notNull());
+        inOrder.verify(server).setMessageHandler(null);
+        inOrder.verify(cr).close();
+        verify(server, Mockito.times(2)).setMessageHandler(handlerCaptor.capture());
+
+        when(commandRegistry.getRegisteredCommandNames()).thenReturn(Collections.singleton("bar"));
+        handlerCaptor.getAllValues().get(0).accept(new ClientMessage(crw, "{\"command\":\"foo\"}"));
+        verify(server).send(Mockito.eq(crw), Mockito.any(InvalidCommandResponseMessage.class));
+    }
 }
@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package com.redhat.rhjmc.containerjfr.tui.ws;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.zip.Deflater;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.mockito.Mockito;
+import com.google.gson.Gson;
+
+import com.redhat.rhjmc.containerjfr.MainModule;
+import com.redhat.rhjmc.containerjfr.core.log.Logger;
+import com.redhat.rhjmc.containerjfr.jmc.serialization.SavedRecordingDescriptor;
+
+/**
+ * Compares the size and encoding cost of WebSocket responses as JSON text and as CBOR, with and
+ * without permessage-deflate at several compression levels. Not run by default:
+ *
+ * <pre>
+ * mvn test -Dtest=WsMessageEncodingBenchmark -Dcontainerjfr.benchmark=true
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "containerjfr.benchmark", matches = "true")
+class WsMessageEncodingBenchmark {
+
+    static final int WARMUP_ITERATIONS = 500;
+    static final int MEASURED_ITERATIONS = 2_000;
+
+    Gson gson;
+    ResponseMessage<List<SavedRecordingDescriptor>> largeMessage;
+    ResponseMessage<String> smallMessage;
+
+    @BeforeEach
+    void setup() {
+        gson = MainModule.provideGson(Mockito.mock(Logger.class));
+        List<SavedRecordingDescriptor> recordings = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String name =
+                    String.format("es-andrewazor-demo-Main_recording-%d_20200910T%06dZ.jfr", i, i);
+            recordings.add(
+                    new SavedRecordingDescriptor(
+                            name,
+                            "https://containerjfr.example.com:8181/api/v1/recordings/" + name,
+                            "https://containerjfr.example.com:8181/api/v1/reports/" + name));
+        }
+        largeMessage = new SuccessResponseMessage<>("list-saved-1", "list-saved", recordings);
+        smallMessage = new SuccessResponseMessage<>("ping-1", "ping", "pong");
+    }
+
+    @Test
+    void compareEncodings() {
+        report("small", smallMessage);
+        report("large", largeMessage);
+    }
+
+    private void report(String label, ResponseMessage<?> message) {
+        Function<ResponseMessage<?>, byte[]> json =
+                m -> gson.toJson(m).getBytes(StandardCharsets.UTF_8);
+        Function<ResponseMessage<?>, byte[]> cbor = m -> CborEncoder.encode(gson.toJsonTree(m));
+
+        MatcherAssert.assertThat(
+                cbor.apply(message).length, Matchers.lessThanOrEqualTo(json.apply(message).length));
+
+        measure(label, "json", json);
+        measure(label, "cbor", cbor);
+        for (int level : new int[] {1, 6, 9}) {
+            measure(label, "json+deflate/" + level, deflate(json, level, false));
+            measure(label, "cbor+deflate/" + level, deflate(cbor, level, false));
+            measure(label, "json+deflate/" + level + "/takeover", deflate(json, level, true));
+            measure(label, "cbor+deflate/" + level + "/takeover", deflate(cbor, level, true));
+        }
+    }
+
+    private void measure(
+            String label, String encoding, Function<ResponseMessage<?>, byte[]> encoder) {
+        ResponseMessage<?> message = label.equals("small") ? smallMessage : largeMessage;
+        int size = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            size = encoder.apply(message).length;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            size = encoder.apply(message).length;
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(
+                String.format(
+                        "%-6s %-30s %8d bytes %10d ns/op",
+                        label, encoding, size, elapsed / MEASURED_ITERATIONS));
+    }
+
+    /**
+     * Compresses each message the way permessage-deflate does: a raw deflate stream flushed with
+     * SYNC_FLUSH. With context takeover the deflater and its window are kept across messages,
+     * otherwise each message starts from an empty window.
+     */
+    private Function<ResponseMessage<?>, byte[]> deflate(
+            Function<ResponseMessage<?>, byte[]> encoder, int level, boolean contextTakeover) {
+        Deflater shared = new Deflater(level, true);
+        return m -> {
+            Deflater deflater = contextTakeover ? shared : new Deflater(level, true);
+            try {
+                deflater.setInput(encoder.apply(m));
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[8192];
+                int n;
+                do {
+                    n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    out.write(buf, 0, n);
+                } while (n == buf.length);
+                return out.toByteArray();
+            } finally {
+                if (!contextTakeover) {
+                    deflater.end();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,142 @@
+/*-
+ * #%L
+ * Container JFR
+ * %%
+ * Copyright (C) 2020 Red Hat, Inc.
+ * %%
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ * #L%
+ */
+package itest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonObject;
+
+public class Http2IT extends ITestBase {
+
+    static final String TARGET_ID = "localhost";
+    static final String TEST_RECORDING_NAME = "http2_itest";
+
+    static final Vertx VERTX = Vertx.vertx();
+    // h2c with prior knowledge, as a proxy terminating TLS in front of the container would use
+    static final HttpClient HTTP2_CLIENT =
+            VERTX.createHttpClient(
+                    new HttpClientOptions()
+                            .setProtocolVersion(HttpVersion.HTTP_2)
+                            .setHttp2ClearTextUpgrade(false)
+                            .setDefaultHost("0.0.0.0")
+                            .setDefaultPort(IntegrationTestUtils.WEB_PORT));
+
+    @AfterAll
+    static void teardown() {
+        HTTP2_CLIENT.close();
+        VERTX.close();
+    }
+
+    @Test
+    public void shouldServeApiOverHttp2() throws Exception {
+        Response resp = get("/health").get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        MatcherAssert.assertThat(resp.version, Matchers.equalTo(HttpVersion.HTTP_2));
+        MatcherAssert.assertThat(resp.statusCode, Matchers.equalTo(200));
+    }
+
+    @Test
+    public void shouldStreamRecordingOverHttp2AndStillUpgradeWebSockets() throws Exception {
+        // the command channel WebSocket is upgraded over HTTP/1.1 alongside HTTP/2 requests
+        JsonObject dumpResp =
+                sendMessage("dump", TARGET_ID, TEST_RECORDING_NAME, "2", "template=ALL")
+                        .get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertResponseStatus(dumpResp);
+        try {
+            Thread.sleep(3_000L); // wait for the dump to complete
+
+            Response resp =
+                    get(String.format(
+                                    "/api/v1/targets/%s/recordings/%s",
+                                    TARGET_ID, TEST_RECORDING_NAME))
+                            .get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            MatcherAssert.assertThat(resp.version, Matchers.equalTo(HttpVersion.HTTP_2));
+            MatcherAssert.assertThat(resp.statusCode, Matchers.equalTo(200));
+            MatcherAssert.assertThat(resp.body.length(), Matchers.greaterThan(0));
+        } finally {
+            sendMessage("delete", TARGET_ID, TEST_RECORDING_NAME)
+                    .get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private static CompletableFuture<Response> get(String path) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        HTTP2_CLIENT
+                .request(
+                        HttpMethod.GET,
+                        path,
+                        resp ->
+                                resp.exceptionHandler(future::completeExceptionally)
+                                        .bodyHandler(
+                                                body ->
+                                                        future.complete(
+                                                                new Response(
+                                                                        resp.version(),
+                                                                        resp.statusCode(),
+                                                                        body))))
+                .exceptionHandler(future::completeExceptionally)
+                .end();
+        return future;
+    }
+
+    static class Response {
+        final HttpVersion version;
+        final int statusCode;
+        final Buffer body;
+
+        Response(HttpVersion version, int statusCode, Buffer body) {
+            this.version = version;
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+    }
+}